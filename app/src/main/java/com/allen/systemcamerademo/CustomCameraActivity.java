@@ -8,11 +8,13 @@ import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.WindowManager;
+import android.widget.Toast;
 
+import com.allen.customcamera.CameraManager;
 import com.allen.customcamera.CameraView;
+import com.allen.customcamera.CaptureSaver;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 /**
@@ -27,6 +29,8 @@ public class CustomCameraActivity extends AppCompatActivity {
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        //在加载界面的同时打开相机
+        CameraManager.getInstance(this).prewarm();
         //去掉状态栏
         getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN, WindowManager.LayoutParams.FLAG_FULLSCREEN);
         cameraView = new CameraView(this);
@@ -34,31 +38,38 @@ public class CustomCameraActivity extends AppCompatActivity {
         //去掉ActionBar
         getSupportActionBar().hide();
         mPath = getIntent().getStringExtra("path");
+        //拍照的JPEG数据直接写入文件，不在主线程重新压缩；不设置时回调Bitmap，由CaptureSaver在后台保存
+        cameraView.setOutputFile(new File(mPath));
+        //部分图片查看器不识别EXIF方向，直接保存正常方向的图片
+        cameraView.setLosslessRotation(true);
         cameraView.setCameraListener(cameraListener);
     }
 
     private CameraView.CameraListener cameraListener = new CameraView.CameraListener() {
         @Override
         public void onCapture(Bitmap bitmap) {
+            //没有设置输出文件时使用：压缩和写文件交给后台的保存服务，不占用主线程
             File file = new File(mPath);
-            if (!file.getParentFile().exists()) {
-                file.getParentFile().mkdirs();
-            }
-
-            try {
-                FileOutputStream out = new FileOutputStream(file);
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, out);
-                out.flush();
-                out.close();
-            } catch (IOException e) {
-            }
-
-            if (file.exists()) {
-                Intent data = new Intent();
-                data.setData(Uri.parse(mPath));
-                setResult(RESULT_OK, data);
+            boolean accepted = CaptureSaver.getInstance().save(bitmap, file, 100,
+                    CameraManager.getInstance(CustomCameraActivity.this).getBitmapPool(), SAVE_CALLBACK);
+            if (!accepted) {
+                //保存队列已满，图片继续显示，可以稍后再确认
+                Toast.makeText(CustomCameraActivity.this, "正在保存上一张图片，请稍后再试", Toast.LENGTH_SHORT).show();
+                return;
             }
+            //图片已经交给保存服务，不等写完就返回结果
+            cameraView.claimPicture();
+            Intent data = new Intent();
+            data.setData(Uri.parse(file.getAbsolutePath()));
+            setResult(RESULT_OK, data);
+            finish();
+        }
 
+        @Override
+        public void onCapture(File file) {
+            Intent data = new Intent();
+            data.setData(Uri.parse(file.getAbsolutePath()));
+            setResult(RESULT_OK, data);
             finish();
         }
 
@@ -73,6 +84,23 @@ public class CustomCameraActivity extends AppCompatActivity {
         }
     };
 
+    //Activity结束后保存还在进行，回调只记录结果，不引用Activity
+    private static final CaptureSaver.Callback SAVE_CALLBACK = new CaptureSaver.Callback() {
+        @Override
+        public void onProgress(File file, long writtenBytes, long totalBytes) {
+        }
+
+        @Override
+        public void onSaved(File file) {
+            Log.d("CustomCameraActivity", "picture saved: " + file);
+        }
+
+        @Override
+        public void onFailed(File file, IOException e) {
+            Log.e("CustomCameraActivity", "save picture failed: " + file, e);
+        }
+    };
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -83,5 +111,7 @@ public class CustomCameraActivity extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
         cameraView.onPause();
+        //读取性能指标的快照，不会阻塞相机线程
+        Log.d("CustomCameraActivity", "camera metrics:\n" + CameraManager.getInstance(this).getMetrics().snapshot());
     }
 }
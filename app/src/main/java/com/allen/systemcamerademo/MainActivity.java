@@ -15,6 +15,8 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
 
+import com.allen.customcamera.CameraUtils;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 
@@ -135,7 +137,8 @@ public class MainActivity extends AppCompatActivity {
                 break;
             case REQUEST_CODE_TAKE_PICTURE_CUSTOM_CAMERA:
                 String path = data.getDataString();
-                Bitmap bitmap = BitmapFactory.decodeFile(path);
+                //自定义相机保存的是未旋转的原图，按EXIF方向解码
+                Bitmap bitmap = CameraUtils.decodeSampledBitmap(new File(path), imgPhoto.getWidth(), imgPhoto.getHeight());
                 imgPhoto.setImageBitmap(bitmap);
                 break;
             default:
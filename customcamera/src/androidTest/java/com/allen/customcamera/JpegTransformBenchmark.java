@@ -0,0 +1,104 @@
+package com.allen.customcamera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 拍照图片旋转的吞吐量对比：DCT系数无损旋转 vs 解码 → Matrix → Bitmap.createBitmap → 重新压缩
+ * 结果输出到logcat（TAG为JpegTransformBenchmark），需要在真机上运行
+ */
+@RunWith(AndroidJUnit4.class)
+public class JpegTransformBenchmark {
+    private static final String TAG = "JpegTransformBenchmark";
+    //常见的800万像素相机输出尺寸
+    private static final int WIDTH = 3264;
+    private static final int HEIGHT = 2448;
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 5;
+
+    private byte[] mJpeg;
+
+    @Before
+    public void setUp() throws Exception {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        int[] row = new int[WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                //渐变加上噪声，接近真实照片的压缩率
+                int noise = (x * 7919 + y * 104729) % 23;
+                int r = (x * 255 / WIDTH + noise) & 0xFF;
+                int g = (y * 255 / HEIGHT + noise) & 0xFF;
+                int b = ((x ^ y) + noise) & 0xFF;
+                row[x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+            bitmap.setPixels(row, 0, WIDTH, 0, y, WIDTH, 1);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 95, out);
+        bitmap.recycle();
+        mJpeg = out.toByteArray();
+    }
+
+    @Test
+    public void rotate90() throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            JpegTransformer.transform(mJpeg, JpegTransformer.Transform.ROTATE_90);
+            rotateBitmap(mJpeg, 90);
+        }
+
+        byte[] lossless = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            lossless = JpegTransformer.transform(mJpeg, JpegTransformer.Transform.ROTATE_90);
+        }
+        long losslessNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        byte[] bitmap = null;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            bitmap = rotateBitmap(mJpeg, 90);
+        }
+        long bitmapNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(TAG, String.format("rotate90 %dx%d (%d bytes): lossless %.1f ms, bitmap %.1f ms, speedup %.2fx",
+                WIDTH, HEIGHT, mJpeg.length, losslessNanos / 1e6, bitmapNanos / 1e6,
+                (double) bitmapNanos / losslessNanos));
+
+        assertSize(lossless, HEIGHT, WIDTH);
+        assertSize(bitmap, HEIGHT, WIDTH);
+    }
+
+    /**
+     * CameraManager开启无损旋转之前的做法
+     */
+    private static byte[] rotateBitmap(byte[] jpeg, int degrees) {
+        Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+        Matrix matrix = new Matrix();
+        matrix.setRotate(degrees);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        bitmap.recycle();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(jpeg.length);
+        rotated.compress(Bitmap.CompressFormat.JPEG, 95, out);
+        rotated.recycle();
+        return out.toByteArray();
+    }
+
+    private static void assertSize(byte[] jpeg, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        assertEquals(width, options.outWidth);
+        assertEquals(height, options.outHeight);
+    }
+}
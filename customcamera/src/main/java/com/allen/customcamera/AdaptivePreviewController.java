@@ -0,0 +1,290 @@
+package com.allen.customcamera;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 根据预览帧处理的积压情况自动降级、恢复预览
+ * 每一帧记录处理耗时（预览帧监听器的执行时间）和缓冲区是否耗尽，按固定帧数统计一个窗口：
+ * 处理时间占帧间隔的比例（负载）过高或者缓冲区经常耗尽时认为处理跟不上，连续几个窗口跟不上就降一级，
+ * 连续几个窗口负载很低再升一级；每次升级后又跟不上时，下次恢复到这一级需要等待的窗口数加倍，避免来回切换
+ * 降级阶梯依次是：降低预览帧率范围、从支持的预览尺寸中选择更小的尺寸、跳帧（只把部分帧交给监听器）
+ * 纯Java实现，只在相机线程中调用，可以用模拟的帧序列在JVM上测试
+ */
+
+public class AdaptivePreviewController {
+
+    /**
+     * 降级阶梯中的一级
+     */
+    public static final class Step {
+        //预览帧率上限，0表示不限制
+        public final int maxFps;
+        //预览尺寸在同一宽高比的尺寸中降低几档
+        public final int sizeSteps;
+        //每交给监听器一帧之后跳过的帧数
+        public final int frameSkip;
+
+        public Step(int maxFps, int sizeSteps, int frameSkip) {
+            if (maxFps < 0 || sizeSteps < 0 || frameSkip < 0) {
+                throw new IllegalArgumentException("invalid step: " + maxFps + ", " + sizeSteps + ", " + frameSkip);
+            }
+            this.maxFps = maxFps;
+            this.sizeSteps = sizeSteps;
+            this.frameSkip = frameSkip;
+        }
+
+        @Override
+        public String toString() {
+            return "Step{maxFps=" + maxFps + ", sizeSteps=" + sizeSteps + ", frameSkip=" + frameSkip + "}";
+        }
+    }
+
+    /**
+     * 判断积压和空闲的阈值
+     */
+    public static final class Thresholds {
+        //一个统计窗口的帧数
+        public final int windowFrames;
+        //负载超过这个值认为跟不上
+        public final float highLoad;
+        //负载低于这个值认为有余量
+        public final float lowLoad;
+        //缓冲区耗尽的帧占比超过这个值认为跟不上
+        public final float starvationRatio;
+        //连续跟不上几个窗口后降级
+        public final int degradeWindows;
+        //连续有余量几个窗口后升级
+        public final int recoverWindows;
+
+        public Thresholds(int windowFrames, float highLoad, float lowLoad, float starvationRatio,
+                          int degradeWindows, int recoverWindows) {
+            if (windowFrames <= 0 || degradeWindows <= 0 || recoverWindows <= 0
+                    || lowLoad < 0 || lowLoad >= highLoad || starvationRatio < 0) {
+                throw new IllegalArgumentException("invalid thresholds");
+            }
+            this.windowFrames = windowFrames;
+            this.highLoad = highLoad;
+            this.lowLoad = lowLoad;
+            this.starvationRatio = starvationRatio;
+            this.degradeWindows = degradeWindows;
+            this.recoverWindows = recoverWindows;
+        }
+    }
+
+    /**
+     * 默认阈值：30帧一个窗口，负载超过85%或者超过20%的帧缓冲区耗尽算跟不上，
+     * 连续两个窗口跟不上降级，负载低于40%连续四个窗口升级
+     */
+    public static final Thresholds DEFAULT_THRESHOLDS = new Thresholds(30, 0.85f, 0.4f, 0.2f, 2, 4);
+
+    //恢复等待窗口数最多加倍的次数
+    private static final int MAX_BACKOFF = 4;
+
+    /**
+     * 默认的降级阶梯：先把帧率降到24、15，再把预览尺寸降一档、两档，最后隔一帧、隔两帧处理
+     */
+    public static List<Step> defaultLadder() {
+        return Arrays.asList(
+                new Step(0, 0, 0),
+                new Step(24, 0, 0),
+                new Step(15, 0, 0),
+                new Step(15, 1, 0),
+                new Step(15, 2, 0),
+                new Step(15, 2, 1),
+                new Step(15, 2, 2));
+    }
+
+    private final List<Step> mLadder;
+    private final Thresholds mThresholds;
+    private final int[] mBackoff;
+    private int mLevel;
+    //当前级别是否是从下一级恢复上来的
+    private boolean mRecovered;
+
+    //当前窗口的统计
+    private long mLastTimestamp = -1;
+    private int mWindowCount;
+    private long mWindowElapsed;
+    private long mWindowProcessing;
+    private int mWindowStarved;
+    //连续跟不上、连续有余量的窗口数
+    private int mOverloadedWindows;
+    private int mIdleWindows;
+
+    private long mChangeCount;
+    private float mLastLoad;
+
+    public AdaptivePreviewController() {
+        this(defaultLadder(), DEFAULT_THRESHOLDS);
+    }
+
+    /**
+     * @param ladder 降级阶梯，第0级是正常状态
+     */
+    public AdaptivePreviewController(List<Step> ladder, Thresholds thresholds) {
+        if (ladder == null || ladder.isEmpty() || thresholds == null) {
+            throw new IllegalArgumentException("ladder and thresholds must not be empty");
+        }
+        mLadder = Collections.unmodifiableList(new ArrayList<>(ladder));
+        mThresholds = thresholds;
+        mBackoff = new int[ladder.size()];
+    }
+
+    /**
+     * 记录一帧
+     *
+     * @param timestampNanos  收到这一帧的时间（System.nanoTime），包括跳过的帧
+     * @param processingNanos 处理这一帧的耗时，跳过的帧为0
+     * @param starved         收到这一帧时相机是否已经没有可写的缓冲区
+     * @return 级别是否变化，变化后调用getStep读取新的设置
+     */
+    public boolean onFrame(long timestampNanos, long processingNanos, boolean starved) {
+        if (mLastTimestamp < 0) {
+            //预览重新开始后的第一帧只作为计时起点
+            mLastTimestamp = timestampNanos;
+            return false;
+        }
+        mWindowElapsed += Math.max(0, timestampNanos - mLastTimestamp);
+        mLastTimestamp = timestampNanos;
+        mWindowProcessing += processingNanos;
+        if (starved) {
+            mWindowStarved++;
+        }
+        if (++mWindowCount < mThresholds.windowFrames) {
+            return false;
+        }
+        float load = mWindowElapsed > 0 ? (float) mWindowProcessing / mWindowElapsed : 0;
+        float starvation = (float) mWindowStarved / mWindowCount;
+        mLastLoad = load;
+        mWindowCount = 0;
+        mWindowElapsed = 0;
+        mWindowProcessing = 0;
+        mWindowStarved = 0;
+        return onWindow(load, starvation);
+    }
+
+    private boolean onWindow(float load, float starvation) {
+        if (load > mThresholds.highLoad || starvation > mThresholds.starvationRatio) {
+            mIdleWindows = 0;
+            if (++mOverloadedWindows >= mThresholds.degradeWindows && mLevel < mLadder.size() - 1) {
+                if (mRecovered && mBackoff[mLevel] < MAX_BACKOFF) {
+                    //刚恢复到这一级又跟不上，下次恢复到这一级要等更久
+                    mBackoff[mLevel]++;
+                }
+                mRecovered = false;
+                return setLevel(mLevel + 1);
+            }
+        } else if (load < mThresholds.lowLoad && starvation == 0) {
+            mOverloadedWindows = 0;
+            int required = mLevel > 0 ? mThresholds.recoverWindows << mBackoff[mLevel - 1] : 0;
+            if (++mIdleWindows >= required && mLevel > 0) {
+                mRecovered = true;
+                return setLevel(mLevel - 1);
+            }
+        } else {
+            mOverloadedWindows = 0;
+            mIdleWindows = 0;
+        }
+        return false;
+    }
+
+    private boolean setLevel(int level) {
+        mLevel = level;
+        mChangeCount++;
+        mOverloadedWindows = 0;
+        mIdleWindows = 0;
+        restart();
+        return true;
+    }
+
+    /**
+     * 预览重新开始（重新配置、切换摄像头）后调用，丢弃当前窗口的统计，保留级别
+     */
+    public void restart() {
+        mLastTimestamp = -1;
+        mWindowCount = 0;
+        mWindowElapsed = 0;
+        mWindowProcessing = 0;
+        mWindowStarved = 0;
+    }
+
+    /**
+     * 回到第0级，清除所有统计
+     */
+    public void reset() {
+        mLevel = 0;
+        mRecovered = false;
+        mOverloadedWindows = 0;
+        mIdleWindows = 0;
+        Arrays.fill(mBackoff, 0);
+        restart();
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public Step getStep() {
+        return mLadder.get(mLevel);
+    }
+
+    public List<Step> getLadder() {
+        return mLadder;
+    }
+
+    /**
+     * 级别变化的总次数
+     */
+    public long getChangeCount() {
+        return mChangeCount;
+    }
+
+    /**
+     * 最近一个完整窗口的负载
+     */
+    public float getLastLoad() {
+        return mLastLoad;
+    }
+
+    /**
+     * 选择最高帧率不超过maxFps的帧率范围，最高帧率相同时选择下限较低的（暗光下可以降帧增加曝光）
+     *
+     * @param ranges 支持的帧率范围（乘以1000）
+     * @param maxFps 帧率上限，0表示不限制
+     * @return 没有满足条件的范围时返回最高帧率最低的范围，没有支持的范围时返回null
+     */
+    public static int[] selectFpsRange(List<int[]> ranges, int maxFps) {
+        int[] best = null;
+        int[] lowest = null;
+        for (int[] range : ranges) {
+            if (lowest == null || range[1] < lowest[1] || (range[1] == lowest[1] && range[0] < lowest[0])) {
+                lowest = range;
+            }
+            if (maxFps > 0 && range[1] > maxFps * 1000) {
+                continue;
+            }
+            if (best == null || range[1] > best[1] || (range[1] == best[1] && range[0] < best[0])) {
+                best = range;
+            }
+        }
+        return best != null ? best : lowest;
+    }
+
+    /**
+     * 在和base宽高比相同的一组尺寸中，选择比base小steps档的尺寸，没有更小的尺寸时返回最小的
+     */
+    public static CameraSize selectSmallerSize(SizeIndex sizes, CameraSize base, int steps) {
+        if (steps <= 0 || sizes.isEmpty()) {
+            return base;
+        }
+        int group = sizes.findClosestGroup(SizeIndex.ratioOf(base));
+        int index = sizes.findLargestWithin(group, (long) base.width * base.height);
+        if (index < 0) {
+            return base;
+        }
+        return sizes.get(group, Math.max(0, index - steps));
+    }
+}
@@ -0,0 +1,289 @@
+package com.allen.customcamera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bitmap缓冲池
+ * 按宽、高、Config分桶保存不再使用的可变Bitmap，解码时通过BitmapFactory.Options.inBitmap复用，
+ * 旋转时直接画到池中取出的Bitmap上，反复拍照、重拍时不再每次分配整张图片的内存
+ * 总字节数超过预算时按最近最少使用的顺序淘汰（recycle）
+ * 线程安全，可以在相机线程解码、在主线程归还
+ */
+
+public class BitmapPool {
+
+    //允许池中保存的最大字节数
+    private final long mMaxBytes;
+    //池中Bitmap的总字节数
+    private long mCurrentBytes;
+    //按访问顺序排列的桶，第一个是最久没有使用的
+    private final LinkedHashMap<Key, ArrayList<Bitmap>> mBuckets = new LinkedHashMap<>(16, 0.75f, true);
+    //查找时复用的Key，只在持有锁时使用
+    private final Key mLookupKey = new Key();
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * @param maxBytes 池中最多保存的字节数
+     */
+    public BitmapPool(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("max bytes must not be negative: " + maxBytes);
+        }
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 从池中取出一张指定尺寸和格式的Bitmap，内容是上一次使用留下的，使用前需要自己覆盖
+     *
+     * @return 池中没有时返回null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        mLookupKey.set(width, height, config);
+        ArrayList<Bitmap> bucket = mBuckets.get(mLookupKey);
+        if (bucket == null || bucket.isEmpty()) {
+            mMissCount++;
+            return null;
+        }
+        Bitmap bitmap = bucket.remove(bucket.size() - 1);
+        if (bucket.isEmpty()) {
+            mBuckets.remove(mLookupKey);
+        }
+        mCurrentBytes -= getBitmapBytes(bitmap);
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * 从池中取出一张Bitmap，池中没有时新建
+     */
+    public Bitmap getOrCreate(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 把不再使用的Bitmap放回池中，归还后调用者不能再使用它
+     * 不可变、已回收或者超过预算的Bitmap直接回收
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        long bytes = getBitmapBytes(bitmap);
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || bytes > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        synchronized (this) {
+            Key key = new Key();
+            key.set(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            ArrayList<Bitmap> bucket = mBuckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<>(2);
+                mBuckets.put(key, bucket);
+            }
+            bucket.add(bitmap);
+            mCurrentBytes += bytes;
+            trimToSize(mMaxBytes);
+        }
+    }
+
+    /**
+     * 淘汰最久没有使用的Bitmap，直到总字节数不超过maxBytes
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<Key, ArrayList<Bitmap>>> iterator = mBuckets.entrySet().iterator();
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            ArrayList<Bitmap> bucket = iterator.next().getValue();
+            while (mCurrentBytes > maxBytes && !bucket.isEmpty()) {
+                Bitmap bitmap = bucket.remove(0);
+                mCurrentBytes -= getBitmapBytes(bitmap);
+                mEvictionCount++;
+                bitmap.recycle();
+            }
+            if (bucket.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 清空缓冲池
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 解码JPEG数据，优先复用池中的Bitmap
+     *
+     * @param options 可以为null，inSampleSize、inPreferredConfig会被使用
+     */
+    public Bitmap decodeByteArray(byte[] data, int offset, int length, BitmapFactory.Options options) {
+        options = prepareOptions(options);
+        //读取原始尺寸时不采样，采样后的尺寸自己计算
+        int sampleSize = options.inSampleSize;
+        options.inSampleSize = 1;
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, offset, length, options);
+        options.inSampleSize = sampleSize;
+        Bitmap reuse = setInBitmap(options);
+        try {
+            return BitmapFactory.decodeByteArray(data, offset, length, options);
+        } catch (IllegalArgumentException e) {
+            //复用失败，重新分配
+            options.inBitmap = null;
+            put(reuse);
+            return BitmapFactory.decodeByteArray(data, offset, length, options);
+        }
+    }
+
+    /**
+     * 解码图片文件，优先复用池中的Bitmap
+     *
+     * @param options 可以为null，inSampleSize、inPreferredConfig会被使用
+     */
+    public Bitmap decodeFile(String path, BitmapFactory.Options options) {
+        options = prepareOptions(options);
+        //读取原始尺寸时不采样，采样后的尺寸自己计算
+        int sampleSize = options.inSampleSize;
+        options.inSampleSize = 1;
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        options.inSampleSize = sampleSize;
+        Bitmap reuse = setInBitmap(options);
+        try {
+            return BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            put(reuse);
+            return BitmapFactory.decodeFile(path, options);
+        }
+    }
+
+    /**
+     * 按矩阵变换Bitmap，结果画在池中取出的Bitmap上，原图归还到池中
+     * 只用于90度整数倍的旋转和镜像，结果会完整覆盖目标Bitmap
+     */
+    public Bitmap transform(Bitmap source, Matrix matrix) {
+        RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap target = getOrCreate(Math.round(bounds.width()), Math.round(bounds.height()), config);
+        Matrix drawMatrix = new Matrix(matrix);
+        drawMatrix.postTranslate(-bounds.left, -bounds.top);
+        Canvas canvas = new Canvas(target);
+        canvas.drawBitmap(source, drawMatrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        canvas.setBitmap(null);
+        put(source);
+        return target;
+    }
+
+    private static BitmapFactory.Options prepareOptions(BitmapFactory.Options options) {
+        if (options == null) {
+            options = new BitmapFactory.Options();
+        }
+        if (options.inPreferredConfig == null) {
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        }
+        options.inMutable = true;
+        return options;
+    }
+
+    /**
+     * 根据图片尺寸从池中取出可以复用的Bitmap设置给inBitmap
+     * 4.4以前inBitmap要求尺寸完全相同并且不能采样
+     */
+    private Bitmap setInBitmap(BitmapFactory.Options options) {
+        options.inJustDecodeBounds = false;
+        options.inBitmap = null;
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = Math.max(1, options.inSampleSize);
+        if (sampleSize > 1 && Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return null;
+        }
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        Bitmap bitmap = get(width, height, options.inPreferredConfig);
+        options.inBitmap = bitmap;
+        return bitmap;
+    }
+
+    private static long getBitmapBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * 分桶的Key：宽、高、Config
+     */
+    private static class Key {
+        private int mWidth;
+        private int mHeight;
+        private Bitmap.Config mConfig;
+
+        void set(int width, int height, Bitmap.Config config) {
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mWidth == key.mWidth && mHeight == key.mHeight && mConfig == key.mConfig;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + (mConfig != null ? mConfig.hashCode() : 0);
+            return result;
+        }
+    }
+}
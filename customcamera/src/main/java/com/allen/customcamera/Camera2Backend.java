@@ -0,0 +1,829 @@
+package com.allen.customcamera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.MeteringRectangle;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于android.hardware.camera2的相机实现，Api21以上使用
+ * 预览帧通过YUV_420_888格式的ImageReader获取，转换成NV21写入交给相机的缓冲区，和Camera的预览回调保持一致；
+ * 拍照使用JPEG格式的ImageReader，图片不旋转（JPEG_ORIENTATION为0），方向由调用者写入EXIF
+ * camera2的回调在自己的线程中执行，之后通过callbackExecutor转到相机线程
+ */
+
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2Backend implements CameraBackend {
+    private static final String TAG = "Camera2Backend";
+    //打开摄像头的超时时间
+    private static final long OPEN_TIMEOUT_MS = 3000;
+    //缩放级别之间的倍数差
+    private static final float ZOOM_STEP = 0.1f;
+
+    private final android.hardware.camera2.CameraManager mCameraManager;
+    //camera2回调、ImageReader使用的线程
+    private final Handler mHandler;
+    //设置SurfaceView缓冲区尺寸的主线程
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    //摄像头的能力和camera2中的id，下标就是摄像头的id，第一次使用时读取
+    private List<CameraCapabilities> mCameras;
+    private String[] mCameraIds;
+
+    private CameraCharacteristics mCharacteristics;
+    private CameraCapabilities mCapabilities;
+    private Executor mExecutor;
+    private volatile CameraDevice mDevice;
+    private CameraCaptureSession mSession;
+    private CaptureRequest.Builder mPreviewBuilder;
+    private Surface mPreviewSurface;
+    //预览的SurfaceHolder和已经设置的缓冲区尺寸，关闭相机后保留，SurfaceView会一直使用设置的尺寸
+    private SurfaceHolder mPreviewHolder;
+    private CameraSize mFixedSize;
+    //Surface是否已经是预览尺寸，不是时startPreview等尺寸变化后再创建会话
+    private boolean mSurfaceReady;
+    private boolean mPreviewPending;
+    private ImageReader mYuvReader;
+    private ImageReader mJpegReader;
+    private CameraSize mPreviewSize;
+    private CameraSize mPictureSize;
+    private int mZoom;
+    //预览的帧率范围（乘以1000），null表示使用默认值
+    private int[] mFpsRange;
+
+    //交给相机的预览缓冲区，在相机线程中加入，在camera2线程中取出
+    private final ArrayDeque<byte[]> mBuffers = new ArrayDeque<>();
+    private volatile FrameCallback mFrameCallback;
+    private volatile FrameCallback mOneShotCallback;
+    private volatile PictureCallback mPictureCallback;
+    private volatile FocusCallback mFocusCallback;
+
+    public Camera2Backend(Context context) {
+        mCameraManager = (android.hardware.camera2.CameraManager) context.getApplicationContext()
+                .getSystemService(Context.CAMERA_SERVICE);
+        HandlerThread thread = new HandlerThread("camera2 Thread");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    @Override
+    public int getCameraCount() {
+        try {
+            return mCameras != null ? mCameras.size() : mCameraManager.getCameraIdList().length;
+        } catch (CameraAccessException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized List<CameraCapabilities> getCameras() {
+        if (mCameras != null) {
+            return mCameras;
+        }
+        List<CameraCapabilities> cameras = new ArrayList<>();
+        try {
+            mCameraIds = mCameraManager.getCameraIdList();
+            for (int i = 0; i < mCameraIds.length; i++) {
+                cameras.add(readCapabilities(i, mCameraManager.getCameraCharacteristics(mCameraIds[i])));
+            }
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "read camera characteristics failed", e);
+            mCameraIds = new String[0];
+            cameras.clear();
+        }
+        mCameras = cameras;
+        return cameras;
+    }
+
+    /**
+     * 把CameraCharacteristics转换成和Camera.Parameters一致的能力
+     * 缩放按ZOOM_STEP分级，帧率乘以1000，对焦模式使用Camera.Parameters中的名称
+     */
+    private static CameraCapabilities readCapabilities(int id, CameraCharacteristics characteristics) {
+        Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        //camera2中前置是0、后置是1，和Camera.CameraInfo相反
+        int facing = lensFacing != null && lensFacing == CameraMetadata.LENS_FACING_FRONT
+                ? CameraCapabilities.FACING_FRONT : CameraCapabilities.FACING_BACK;
+        Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        CameraCapabilities camera = new CameraCapabilities(id, facing, orientation != null ? orientation : 0);
+
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        List<CameraSize> previewSizes = toCameraSizes(map != null ? map.getOutputSizes(ImageFormat.YUV_420_888) : null);
+        List<CameraSize> pictureSizes = toCameraSizes(map != null ? map.getOutputSizes(ImageFormat.JPEG) : null);
+
+        List<String> focusModes = new ArrayList<>();
+        int[] afModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        if (afModes != null) {
+            for (int mode : afModes) {
+                if (mode == CameraMetadata.CONTROL_AF_MODE_AUTO) {
+                    focusModes.add(Camera.Parameters.FOCUS_MODE_AUTO);
+                } else if (mode == CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE) {
+                    focusModes.add(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+                } else if (mode == CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO) {
+                    focusModes.add(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
+                }
+            }
+        }
+
+        Float maxDigitalZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        int maxZoom = maxDigitalZoom != null ? (int) ((maxDigitalZoom - 1) / ZOOM_STEP) : 0;
+        List<Integer> zoomRatios = new ArrayList<>(maxZoom + 1);
+        for (int i = 0; i <= maxZoom; i++) {
+            zoomRatios.add(100 + Math.round(i * ZOOM_STEP * 100));
+        }
+
+        List<int[]> fpsRanges = new ArrayList<>();
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges != null) {
+            for (Range<Integer> range : ranges) {
+                fpsRanges.add(new int[]{range.getLower() * 1000, range.getUpper() * 1000});
+            }
+        }
+
+        Integer maxAfRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AF);
+        Integer maxAeRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AE);
+        camera.setParameters(previewSizes, pictureSizes, focusModes,
+                Arrays.asList(ImageFormat.NV21), Arrays.asList(ImageFormat.JPEG),
+                maxZoom > 0, maxZoom, zoomRatios, fpsRanges,
+                maxAfRegions != null ? maxAfRegions : 0, maxAeRegions != null ? maxAeRegions : 0);
+        return camera;
+    }
+
+    private static List<CameraSize> toCameraSizes(Size[] sizes) {
+        List<CameraSize> result = new ArrayList<>();
+        if (sizes != null) {
+            for (Size size : sizes) {
+                result.add(new CameraSize(size.getWidth(), size.getHeight()));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public CameraCapabilities open(int cameraId, Executor callbackExecutor) throws IOException {
+        close();
+        List<CameraCapabilities> cameras = getCameras();
+        if (cameraId < 0 || cameraId >= cameras.size()) {
+            throw new IOException("no camera " + cameraId);
+        }
+        mExecutor = callbackExecutor;
+        final CountDownLatch latch = new CountDownLatch(1);
+        //超时放弃之后才打开的相机没有人持有，在回调中直接关闭
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        try {
+            mCharacteristics = mCameraManager.getCameraCharacteristics(mCameraIds[cameraId]);
+            mCameraManager.openCamera(mCameraIds[cameraId], new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(CameraDevice camera) {
+                    synchronized (abandoned) {
+                        if (abandoned.get()) {
+                            camera.close();
+                            return;
+                        }
+                        mDevice = camera;
+                    }
+                    latch.countDown();
+                }
+
+                @Override
+                public void onDisconnected(CameraDevice camera) {
+                    camera.close();
+                    releaseDevice(camera);
+                    latch.countDown();
+                }
+
+                @Override
+                public void onError(CameraDevice camera, int error) {
+                    Log.w(TAG, "camera error: " + error);
+                    camera.close();
+                    releaseDevice(camera);
+                    latch.countDown();
+                }
+            }, mHandler);
+            if (!latch.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                synchronized (abandoned) {
+                    //超时的同时刚好打开成功时照常使用
+                    if (mDevice == null) {
+                        abandoned.set(true);
+                        throw new IOException("open camera " + cameraId + " timeout");
+                    }
+                }
+            }
+        } catch (CameraAccessException | SecurityException e) {
+            throw new IOException("open camera " + cameraId + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("open camera " + cameraId + " interrupted", e);
+        }
+        if (mDevice == null) {
+            throw new IOException("open camera " + cameraId + " failed");
+        }
+        mCapabilities = cameras.get(cameraId);
+        mZoom = 0;
+        return mCapabilities;
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mDevice != null;
+    }
+
+    /**
+     * 相机断开或者出错，只清除仍然是当前相机的mDevice，之前的open留下的回调不影响重新打开的相机
+     */
+    private void releaseDevice(CameraDevice camera) {
+        if (mDevice == camera) {
+            mDevice = null;
+        }
+    }
+
+    /**
+     * 预览的方向由SurfaceView自动处理，displayOrientation不需要设置
+     */
+    @Override
+    public void configure(CameraSize previewSize, CameraSize pictureSize, int displayOrientation) throws IOException {
+        closeSession();
+        closeReaders();
+        mPreviewSize = previewSize;
+        mPictureSize = pictureSize;
+        if (previewSize != null) {
+            mYuvReader = ImageReader.newInstance(previewSize.width, previewSize.height, ImageFormat.YUV_420_888, 3);
+            mYuvReader.setOnImageAvailableListener(mYuvListener, mHandler);
+        }
+        if (pictureSize != null) {
+            mJpegReader = ImageReader.newInstance(pictureSize.width, pictureSize.height, ImageFormat.JPEG, 2);
+            mJpegReader.setOnImageAvailableListener(mJpegListener, mHandler);
+        }
+    }
+
+    /**
+     * SurfaceView的缓冲区尺寸要和预览尺寸一致，否则camera2会选择其他的输出尺寸
+     * 缓冲区尺寸保持传感器方向（camera2只接受getOutputSizes中的尺寸），显示时由系统按方向旋转；
+     * setFixedSize会重新布局，只能在主线程中调用，同一个尺寸只设置一次，Surface尺寸变化之后再创建会话
+     */
+    @Override
+    public CameraSize setPreviewDisplay(final SurfaceHolder holder) throws IOException {
+        mPreviewSurface = holder.getSurface();
+        final CameraSize size = mPreviewSize;
+        if (size == null) {
+            mSurfaceReady = true;
+            return null;
+        }
+        if (holder == mPreviewHolder && size.equals(mFixedSize)) {
+            //SurfaceView重新创建Surface时保留设置的尺寸
+            return size;
+        }
+        mSurfaceReady = false;
+        mFixedSize = size;
+        final SurfaceHolder oldHolder = mPreviewHolder;
+        mPreviewHolder = holder;
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (oldHolder != null) {
+                    oldHolder.removeCallback(mSurfaceCallback);
+                }
+                holder.removeCallback(mSurfaceCallback);
+                holder.addCallback(mSurfaceCallback);
+                holder.setFixedSize(size.width, size.height);
+                Rect frame = holder.getSurfaceFrame();
+                if (frame.width() == size.width && frame.height() == size.height) {
+                    //尺寸没有变化时不会回调surfaceChanged
+                    onSurfaceSized(holder, size.width, size.height);
+                }
+            }
+        });
+        return size;
+    }
+
+    //等待setFixedSize生效，在主线程中回调
+    private final SurfaceHolder.Callback mSurfaceCallback = new SurfaceHolder.Callback() {
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            onSurfaceSized(holder, width, height);
+        }
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+        }
+    };
+
+    /**
+     * Surface的尺寸变化后在相机线程中检查是否已经是预览尺寸，是的话开始等待中的预览
+     */
+    private void onSurfaceSized(final SurfaceHolder holder, final int width, final int height) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                CameraSize size = mFixedSize;
+                if (mSurfaceReady || holder != mPreviewHolder || size == null
+                        || size.width != width || size.height != height) {
+                    return;
+                }
+                mSurfaceReady = true;
+                if (mPreviewPending) {
+                    mPreviewPending = false;
+                    startPreview();
+                }
+            }
+        });
+    }
+
+    @Override
+    public int getMaxPreviewFps() {
+        if (mFpsRange != null) {
+            return mFpsRange[1];
+        }
+        int max = 0;
+        if (mCapabilities != null) {
+            for (int[] range : mCapabilities.getFpsRanges()) {
+                max = Math.max(max, range[1]);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public void setPreviewFpsRange(int minFps, int maxFps) {
+        mFpsRange = new int[]{minFps, maxFps};
+        if (mPreviewBuilder != null) {
+            applyFpsRange(mPreviewBuilder);
+        }
+    }
+
+    private void applyFpsRange(CaptureRequest.Builder builder) {
+        if (mFpsRange != null) {
+            builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                    new Range<>(mFpsRange[0] / 1000, mFpsRange[1] / 1000));
+        }
+    }
+
+    @Override
+    public float getFocalLength() {
+        float[] focalLengths = mCharacteristics != null
+                ? mCharacteristics.get(CameraCharacteristics.LENS_INFO_AVAILABLE_FOCAL_LENGTHS) : null;
+        return focalLengths != null && focalLengths.length > 0 ? focalLengths[0] : 0;
+    }
+
+    @Override
+    public void setFrameCallback(FrameCallback callback) {
+        mFrameCallback = callback;
+        if (callback == null) {
+            synchronized (mBuffers) {
+                mBuffers.clear();
+            }
+        }
+    }
+
+    @Override
+    public void setOneShotFrameCallback(FrameCallback callback) {
+        mOneShotCallback = callback;
+    }
+
+    @Override
+    public void addCallbackBuffer(byte[] buffer) {
+        synchronized (mBuffers) {
+            mBuffers.add(buffer);
+        }
+    }
+
+    /**
+     * 在camera2线程中取出预览帧，写入交给相机的缓冲区，没有可用的缓冲区时丢掉这一帧
+     */
+    private final ImageReader.OnImageAvailableListener mYuvListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image = reader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
+            byte[] buffer = null;
+            final FrameCallback callback = mFrameCallback;
+            try {
+                if (callback != null) {
+                    synchronized (mBuffers) {
+                        buffer = mBuffers.poll();
+                    }
+                    if (buffer != null && !toNv21(image, buffer)) {
+                        //缓冲区放不下这一帧，放回队列，不交给回调
+                        synchronized (mBuffers) {
+                            mBuffers.add(buffer);
+                        }
+                        buffer = null;
+                    }
+                }
+            } finally {
+                image.close();
+            }
+            final FrameCallback oneShot = mOneShotCallback;
+            mOneShotCallback = null;
+            final byte[] data = buffer;
+            if (oneShot == null && data == null) {
+                return;
+            }
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (oneShot != null) {
+                        oneShot.onPreviewFrame(data);
+                    }
+                    if (callback != null && data != null) {
+                        callback.onPreviewFrame(data);
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * 把YUV_420_888的Image转换成NV21：Y平面之后是交错的V、U
+     *
+     * @return out放不下这一帧时返回false，out没有被写入
+     */
+    private static boolean toNv21(Image image, byte[] out) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (out.length < PreviewBufferPool.getFrameSize(width, height)) {
+            return false;
+        }
+        Image.Plane[] planes = image.getPlanes();
+        copyPlane(planes[0], width, height, out, 0, 1);
+        int chromaOffset = width * height;
+        copyPlane(planes[2], width / 2, height / 2, out, chromaOffset, 2);
+        copyPlane(planes[1], width / 2, height / 2, out, chromaOffset + 1, 2);
+        return true;
+    }
+
+    private static void copyPlane(Image.Plane plane, int width, int height, byte[] out, int offset, int outStride) {
+        ByteBuffer buffer = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        for (int row = 0; row < height; row++) {
+            int in = row * rowStride;
+            if (pixelStride == 1 && outStride == 1) {
+                //一整行连续，直接批量复制
+                buffer.position(in);
+                buffer.get(out, offset, width);
+                offset += width;
+                continue;
+            }
+            for (int col = 0; col < width; col++) {
+                out[offset] = buffer.get(in);
+                in += pixelStride;
+                offset += outStride;
+            }
+        }
+    }
+
+    @Override
+    public void startPreview() {
+        if (mDevice == null || mPreviewSurface == null) {
+            return;
+        }
+        if (!mSurfaceReady) {
+            //Surface还没有变成预览尺寸，尺寸变化后再开始
+            mPreviewPending = true;
+            return;
+        }
+        if (mSession != null) {
+            setRepeatingRequest();
+            return;
+        }
+        List<Surface> outputs = new ArrayList<>(3);
+        outputs.add(mPreviewSurface);
+        try {
+            mPreviewBuilder = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            mPreviewBuilder.addTarget(mPreviewSurface);
+            if (mYuvReader != null) {
+                outputs.add(mYuvReader.getSurface());
+                mPreviewBuilder.addTarget(mYuvReader.getSurface());
+            }
+            if (mJpegReader != null) {
+                outputs.add(mJpegReader.getSurface());
+            }
+            mPreviewBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+            mPreviewBuilder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON);
+            if (mCapabilities.getFocusModes().contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+                mPreviewBuilder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            }
+            applyZoom(mPreviewBuilder);
+            applyFpsRange(mPreviewBuilder);
+            mDevice.createCaptureSession(outputs, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(final CameraCaptureSession session) {
+                    execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mDevice == null) {
+                                session.close();
+                                return;
+                            }
+                            mSession = session;
+                            setRepeatingRequest();
+                        }
+                    });
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    Log.w(TAG, "configure capture session failed");
+                }
+            }, mHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "start preview failed", e);
+        }
+    }
+
+    private void setRepeatingRequest() {
+        if (mSession == null || mPreviewBuilder == null) {
+            return;
+        }
+        try {
+            mSession.setRepeatingRequest(mPreviewBuilder.build(), mFocusStateCallback, mHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "set repeating request failed", e);
+        }
+    }
+
+    @Override
+    public void stopPreview() {
+        mPreviewPending = false;
+        closeSession();
+    }
+
+    @Override
+    public void takePicture(PictureCallback callback) {
+        if (mDevice == null || mSession == null || mJpegReader == null) {
+            callback.onPictureTaken(null);
+            return;
+        }
+        mPictureCallback = callback;
+        try {
+            CaptureRequest.Builder builder = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            builder.addTarget(mJpegReader.getSurface());
+            builder.set(CaptureRequest.JPEG_ORIENTATION, 0);
+            builder.set(CaptureRequest.JPEG_QUALITY, (byte) 100);
+            builder.set(CaptureRequest.CONTROL_AF_MODE, mPreviewBuilder.get(CaptureRequest.CONTROL_AF_MODE));
+            builder.set(CaptureRequest.CONTROL_AF_REGIONS, mPreviewBuilder.get(CaptureRequest.CONTROL_AF_REGIONS));
+            builder.set(CaptureRequest.CONTROL_AE_REGIONS, mPreviewBuilder.get(CaptureRequest.CONTROL_AE_REGIONS));
+            applyZoom(builder);
+            mSession.capture(builder.build(), new CameraCaptureSession.CaptureCallback() {
+                @Override
+                public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request, CaptureFailure failure) {
+                    postPicture(null);
+                }
+            }, mHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "take picture failed", e);
+            mPictureCallback = null;
+            callback.onPictureTaken(null);
+        }
+    }
+
+    private final ImageReader.OnImageAvailableListener mJpegListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image = reader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+            byte[] jpeg;
+            try {
+                ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                jpeg = new byte[buffer.remaining()];
+                buffer.get(jpeg);
+            } finally {
+                image.close();
+            }
+            postPicture(jpeg);
+        }
+    };
+
+    private void postPicture(final byte[] jpeg) {
+        final PictureCallback callback = mPictureCallback;
+        mPictureCallback = null;
+        if (callback == null) {
+            return;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPictureTaken(jpeg);
+            }
+        });
+    }
+
+    @Override
+    public int getZoom() {
+        return mZoom;
+    }
+
+    @Override
+    public void setZoom(int zoom) {
+        mZoom = zoom;
+        if (mPreviewBuilder != null) {
+            applyZoom(mPreviewBuilder);
+        }
+    }
+
+    /**
+     * 按缩放级别在传感器有效区域的中心裁剪
+     */
+    private void applyZoom(CaptureRequest.Builder builder) {
+        Rect active = mCharacteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        if (active == null) {
+            return;
+        }
+        float ratio = 1 + mZoom * ZOOM_STEP;
+        int cropWidth = (int) (active.width() / ratio);
+        int cropHeight = (int) (active.height() / ratio);
+        int left = (active.width() - cropWidth) / 2;
+        int top = (active.height() - cropHeight) / 2;
+        builder.set(CaptureRequest.SCALER_CROP_REGION, new Rect(left, top, left + cropWidth, top + cropHeight));
+    }
+
+    @Override
+    public void setFocusArea(float x, float y, int surfaceWidth, int surfaceHeight) {
+        Rect active = mCharacteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        if (mPreviewBuilder == null || active == null || surfaceWidth <= 0 || surfaceHeight <= 0) {
+            return;
+        }
+        Point surfaceSize = new Point(surfaceWidth, surfaceHeight);
+        if (mCapabilities.getMaxNumFocusAreas() > 0) {
+            Rect focusRect = toActiveArray(CameraUtils.calculateTapArea(surfaceSize, x, y, 1f), active);
+            mPreviewBuilder.set(CaptureRequest.CONTROL_AF_REGIONS, new MeteringRectangle[]{new MeteringRectangle(focusRect, 800)});
+        }
+        setMeteringArea(x, y, surfaceWidth, surfaceHeight);
+        mPreviewBuilder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_AUTO);
+    }
+
+    @Override
+    public void setMeteringArea(float x, float y, int surfaceWidth, int surfaceHeight) {
+        Rect active = mCharacteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        if (mPreviewBuilder == null || active == null || surfaceWidth <= 0 || surfaceHeight <= 0) {
+            return;
+        }
+        if (mCapabilities.getMaxNumMeteringAreas() > 0) {
+            Point surfaceSize = new Point(surfaceWidth, surfaceHeight);
+            Rect meteringRect = toActiveArray(CameraUtils.calculateTapArea(surfaceSize, x, y, 1.5f), active);
+            mPreviewBuilder.set(CaptureRequest.CONTROL_AE_REGIONS, new MeteringRectangle[]{new MeteringRectangle(meteringRect, 800)});
+        }
+    }
+
+    /**
+     * 把Camera.Area的坐标(-1000, -1000, 1000, 1000)转换成传感器有效区域的坐标
+     */
+    private static Rect toActiveArray(Rect area, Rect active) {
+        return new Rect((area.left + 1000) * active.width() / 2000,
+                (area.top + 1000) * active.height() / 2000,
+                (area.right + 1000) * active.width() / 2000,
+                (area.bottom + 1000) * active.height() / 2000);
+    }
+
+    @Override
+    public void commitSettings() {
+        setRepeatingRequest();
+    }
+
+    @Override
+    public void autoFocus(FocusCallback callback) {
+        if (mSession == null || mPreviewBuilder == null) {
+            callback.onAutoFocus(false);
+            return;
+        }
+        mFocusCallback = callback;
+        triggerFocus(CameraMetadata.CONTROL_AF_TRIGGER_START);
+    }
+
+    @Override
+    public void cancelAutoFocus() {
+        mFocusCallback = null;
+        if (mSession != null && mPreviewBuilder != null) {
+            triggerFocus(CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
+        }
+    }
+
+    /**
+     * 单独提交一次带对焦触发的请求，对焦结果从之后的预览结果中的AF_STATE得到
+     */
+    private void triggerFocus(int trigger) {
+        try {
+            mPreviewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, trigger);
+            mSession.capture(mPreviewBuilder.build(), null, mHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "trigger focus failed", e);
+        } finally {
+            mPreviewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+        }
+    }
+
+    //预览结果的回调，等待对焦完成
+    private final CameraCaptureSession.CaptureCallback mFocusStateCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+            final FocusCallback callback = mFocusCallback;
+            if (callback == null) {
+                return;
+            }
+            Integer state = result.get(CaptureResult.CONTROL_AF_STATE);
+            if (state == null || (state != CameraMetadata.CONTROL_AF_STATE_FOCUSED_LOCKED
+                    && state != CameraMetadata.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED)) {
+                return;
+            }
+            mFocusCallback = null;
+            final boolean success = state == CameraMetadata.CONTROL_AF_STATE_FOCUSED_LOCKED;
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onAutoFocus(success);
+                }
+            });
+        }
+    };
+
+    private void execute(Runnable runnable) {
+        Executor executor = mExecutor;
+        if (executor != null) {
+            executor.execute(runnable);
+        }
+    }
+
+    private void closeSession() {
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+        mPreviewBuilder = null;
+    }
+
+    private void closeReaders() {
+        if (mYuvReader != null) {
+            mYuvReader.close();
+            mYuvReader = null;
+        }
+        if (mJpegReader != null) {
+            mJpegReader.close();
+            mJpegReader = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        closeSession();
+        closeReaders();
+        if (mDevice != null) {
+            mDevice.close();
+            mDevice = null;
+        }
+        synchronized (mBuffers) {
+            mBuffers.clear();
+        }
+        mFrameCallback = null;
+        mOneShotCallback = null;
+        mPictureCallback = null;
+        mFocusCallback = null;
+        mPreviewSurface = null;
+        mPreviewPending = false;
+        mFpsRange = null;
+        mCharacteristics = null;
+        mCapabilities = null;
+    }
+}
@@ -0,0 +1,147 @@
+package com.allen.customcamera;
+
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 相机设备的抽象：打开、预览、拍照、对焦、缩放
+ * CameraManager只通过这个接口操作相机，具体实现有：
+ * LegacyCameraBackend（android.hardware.Camera）、Camera2Backend（android.hardware.camera2，Api21以上）、
+ * FakeCameraBackend（纯Java，生成模拟的预览帧和图片，用于在JVM上测试整个拍照和预览帧流程）
+ * 除了getCameras、getCameraCount，其余方法都只在相机线程中调用
+ */
+
+public interface CameraBackend {
+
+    /**
+     * 预览帧回调，data是通过addCallbackBuffer交给相机的NV21缓冲区
+     */
+    interface FrameCallback {
+        void onPreviewFrame(byte[] data);
+    }
+
+    /**
+     * 拍照回调，失败时jpeg为null
+     */
+    interface PictureCallback {
+        void onPictureTaken(byte[] jpeg);
+    }
+
+    /**
+     * 对焦结果回调
+     */
+    interface FocusCallback {
+        void onAutoFocus(boolean success);
+    }
+
+    /**
+     * 摄像头个数，开销很小，可以在主线程调用
+     */
+    int getCameraCount();
+
+    /**
+     * 所有摄像头的能力，下标就是摄像头的id
+     */
+    List<CameraCapabilities> getCameras();
+
+    /**
+     * 打开摄像头
+     *
+     * @param callbackExecutor 预览帧、拍照、对焦回调执行的线程，应该是相机线程
+     * @return 摄像头的能力（包括支持的尺寸等）
+     */
+    CameraCapabilities open(int cameraId, Executor callbackExecutor) throws IOException;
+
+    boolean isOpened();
+
+    /**
+     * 设置预览尺寸、图片尺寸和预览的显示方向，在预览停止时调用
+     */
+    void configure(CameraSize previewSize, CameraSize pictureSize, int displayOrientation) throws IOException;
+
+    /**
+     * 设置预览的Surface，在configure之后调用
+     * 需要改变Surface缓冲区尺寸的实现（camera2）在主线程中设置，之后Surface尺寸变化的回调是这次设置引起的，不需要重新配置
+     *
+     * @return 设置的缓冲区尺寸，没有改变缓冲区尺寸时返回null
+     */
+    CameraSize setPreviewDisplay(SurfaceHolder holder) throws IOException;
+
+    /**
+     * 预览的最高帧率（乘以1000），未知时返回0
+     */
+    int getMaxPreviewFps();
+
+    /**
+     * 修改预览的帧率范围（乘以1000，应该是getFpsRanges中的一个），commitSettings之后生效
+     */
+    void setPreviewFpsRange(int minFps, int maxFps);
+
+    /**
+     * 焦距（毫米），未知时返回0
+     */
+    float getFocalLength();
+
+    /**
+     * 设置预览帧回调，传null取消并清空已经交给相机的缓冲区
+     */
+    void setFrameCallback(FrameCallback callback);
+
+    /**
+     * 只回调下一帧预览，数据不一定有效，用于确认预览已经开始
+     */
+    void setOneShotFrameCallback(FrameCallback callback);
+
+    /**
+     * 把缓冲区交给相机，相机写入一帧后通过FrameCallback回调
+     */
+    void addCallbackBuffer(byte[] buffer);
+
+    void startPreview();
+
+    void stopPreview();
+
+    /**
+     * 拍照，拍照后预览可能停止，需要继续预览时调用startPreview
+     */
+    void takePicture(PictureCallback callback);
+
+    int getZoom();
+
+    /**
+     * 修改缩放级别，commitSettings之后生效
+     */
+    void setZoom(int zoom);
+
+    /**
+     * 修改对焦和测光区域，commitSettings之后生效
+     *
+     * @param x             点击位置在预览控件中的坐标
+     * @param y             点击位置在预览控件中的坐标
+     * @param surfaceWidth  预览控件按传感器方向（横屏）的宽度，即竖屏时控件的高度
+     * @param surfaceHeight 预览控件按传感器方向（横屏）的高度
+     */
+    void setFocusArea(float x, float y, int surfaceWidth, int surfaceHeight);
+
+    /**
+     * 只修改测光区域，不影响对焦，commitSettings之后生效，参数和setFocusArea相同
+     */
+    void setMeteringArea(float x, float y, int surfaceWidth, int surfaceHeight);
+
+    /**
+     * 把缩放、对焦区域的修改一次性提交给相机
+     */
+    void commitSettings();
+
+    void autoFocus(FocusCallback callback);
+
+    void cancelAutoFocus();
+
+    /**
+     * 关闭摄像头，之后可以重新打开
+     */
+    void close();
+}
@@ -0,0 +1,307 @@
+package com.allen.customcamera;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个摄像头的能力：朝向、安装角度、支持的预览/图片尺寸、对焦模式、缩放倍数、帧率范围等
+ * 朝向和安装角度来自Camera.CameraInfo，其余的来自第一次打开相机时的Camera.Parameters，
+ * 之后保存在磁盘上（见CameraCatalog），打开、切换相机时不再重新解析
+ * 纯Java实现，可以直接在JVM上测试序列化
+ */
+
+public class CameraCapabilities {
+    //与Camera.CameraInfo中的取值相同
+    public static final int FACING_BACK = 0;
+    public static final int FACING_FRONT = 1;
+
+    private final int mId;
+    private final int mFacing;
+    private final int mOrientation;
+
+    //是否已经从Camera.Parameters中读取了下面的能力
+    private boolean mHasParameters;
+    private List<CameraSize> mPreviewSizes = Collections.emptyList();
+    private List<CameraSize> mPictureSizes = Collections.emptyList();
+    private List<String> mFocusModes = Collections.emptyList();
+    private List<Integer> mPreviewFormats = Collections.emptyList();
+    private List<Integer> mPictureFormats = Collections.emptyList();
+    private boolean mZoomSupported;
+    private int mMaxZoom;
+    //缩放倍数（乘以100），下标是缩放级别
+    private List<Integer> mZoomRatios = Collections.emptyList();
+    //帧率范围{最小, 最大}（乘以1000）
+    private List<int[]> mFpsRanges = Collections.emptyList();
+    private int mMaxNumFocusAreas;
+    private int mMaxNumMeteringAreas;
+    //尺寸索引，第一次使用时生成，不保存到磁盘
+    private SizeIndex mPreviewSizeIndex;
+    private SizeIndex mPictureSizeIndex;
+
+    public CameraCapabilities(int id, int facing, int orientation) {
+        mId = id;
+        mFacing = facing;
+        mOrientation = orientation;
+    }
+
+    /**
+     * 设置从Camera.Parameters中读取的能力，参数为null的列表按空列表处理
+     */
+    void setParameters(List<CameraSize> previewSizes, List<CameraSize> pictureSizes, List<String> focusModes,
+                       List<Integer> previewFormats, List<Integer> pictureFormats,
+                       boolean zoomSupported, int maxZoom, List<Integer> zoomRatios,
+                       List<int[]> fpsRanges, int maxNumFocusAreas, int maxNumMeteringAreas) {
+        mPreviewSizes = unmodifiable(previewSizes);
+        mPictureSizes = unmodifiable(pictureSizes);
+        mFocusModes = unmodifiable(focusModes);
+        mPreviewFormats = unmodifiable(previewFormats);
+        mPictureFormats = unmodifiable(pictureFormats);
+        mZoomSupported = zoomSupported;
+        mMaxZoom = maxZoom;
+        mZoomRatios = unmodifiable(zoomRatios);
+        mFpsRanges = unmodifiable(fpsRanges);
+        mMaxNumFocusAreas = maxNumFocusAreas;
+        mMaxNumMeteringAreas = maxNumMeteringAreas;
+        mHasParameters = true;
+        mPreviewSizeIndex = null;
+        mPictureSizeIndex = null;
+    }
+
+    private static <T> List<T> unmodifiable(List<T> list) {
+        if (list == null || list.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public int getFacing() {
+        return mFacing;
+    }
+
+    public boolean isFront() {
+        return mFacing == FACING_FRONT;
+    }
+
+    /**
+     * 摄像头图像传感器的安装角度
+     */
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    public boolean hasParameters() {
+        return mHasParameters;
+    }
+
+    public List<CameraSize> getPreviewSizes() {
+        return mPreviewSizes;
+    }
+
+    public List<CameraSize> getPictureSizes() {
+        return mPictureSizes;
+    }
+
+    public SizeIndex getPreviewSizeIndex() {
+        if (mPreviewSizeIndex == null) {
+            mPreviewSizeIndex = new SizeIndex(mPreviewSizes);
+        }
+        return mPreviewSizeIndex;
+    }
+
+    public SizeIndex getPictureSizeIndex() {
+        if (mPictureSizeIndex == null) {
+            mPictureSizeIndex = new SizeIndex(mPictureSizes);
+        }
+        return mPictureSizeIndex;
+    }
+
+    public List<String> getFocusModes() {
+        return mFocusModes;
+    }
+
+    public List<Integer> getPreviewFormats() {
+        return mPreviewFormats;
+    }
+
+    public List<Integer> getPictureFormats() {
+        return mPictureFormats;
+    }
+
+    public boolean isZoomSupported() {
+        return mZoomSupported;
+    }
+
+    public int getMaxZoom() {
+        return mMaxZoom;
+    }
+
+    public List<Integer> getZoomRatios() {
+        return mZoomRatios;
+    }
+
+    public List<int[]> getFpsRanges() {
+        return mFpsRanges;
+    }
+
+    public int getMaxNumFocusAreas() {
+        return mMaxNumFocusAreas;
+    }
+
+    public int getMaxNumMeteringAreas() {
+        return mMaxNumMeteringAreas;
+    }
+
+    //---------------------------------------------------------------------------------------------
+    // 二进制序列化
+    //---------------------------------------------------------------------------------------------
+
+    //文件头的魔数和版本，格式变化时增加版本号，旧文件会被忽略并重新生成
+    private static final int MAGIC = 0x43434150;
+    private static final int VERSION = 1;
+    //列表长度的上限，防止损坏的文件导致分配过大的内存
+    private static final int MAX_LIST_SIZE = 4096;
+
+    /**
+     * 把所有摄像头的能力写入输出流
+     *
+     * @param fingerprint 生成数据的系统版本（Build.FINGERPRINT），读取时用来判断是否失效
+     */
+    public static void writeAll(DataOutput out, String fingerprint, List<CameraCapabilities> cameras) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(fingerprint);
+        out.writeInt(cameras.size());
+        for (CameraCapabilities camera : cameras) {
+            camera.write(out);
+        }
+    }
+
+    /**
+     * 读取writeAll写入的数据
+     *
+     * @return 系统版本不一致（系统升级后相机能力可能变化）时返回null
+     * @throws IOException 数据损坏或者格式版本不一致
+     */
+    public static List<CameraCapabilities> readAll(DataInput in, String fingerprint) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a camera capabilities file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported version: " + version);
+        }
+        if (!in.readUTF().equals(fingerprint)) {
+            return null;
+        }
+        int count = readSize(in);
+        List<CameraCapabilities> cameras = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            cameras.add(read(in));
+        }
+        return cameras;
+    }
+
+    private void write(DataOutput out) throws IOException {
+        out.writeInt(mId);
+        out.writeByte(mFacing);
+        out.writeShort(mOrientation);
+        out.writeBoolean(mHasParameters);
+        if (!mHasParameters) {
+            return;
+        }
+        writeSizes(out, mPreviewSizes);
+        writeSizes(out, mPictureSizes);
+        out.writeInt(mFocusModes.size());
+        for (String mode : mFocusModes) {
+            out.writeUTF(mode);
+        }
+        writeInts(out, mPreviewFormats);
+        writeInts(out, mPictureFormats);
+        out.writeBoolean(mZoomSupported);
+        out.writeInt(mMaxZoom);
+        writeInts(out, mZoomRatios);
+        out.writeInt(mFpsRanges.size());
+        for (int[] range : mFpsRanges) {
+            out.writeInt(range[0]);
+            out.writeInt(range[1]);
+        }
+        out.writeInt(mMaxNumFocusAreas);
+        out.writeInt(mMaxNumMeteringAreas);
+    }
+
+    private static CameraCapabilities read(DataInput in) throws IOException {
+        CameraCapabilities camera = new CameraCapabilities(in.readInt(), in.readByte(), in.readShort());
+        if (!in.readBoolean()) {
+            return camera;
+        }
+        List<CameraSize> previewSizes = readSizes(in);
+        List<CameraSize> pictureSizes = readSizes(in);
+        int count = readSize(in);
+        List<String> focusModes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            focusModes.add(in.readUTF());
+        }
+        List<Integer> previewFormats = readInts(in);
+        List<Integer> pictureFormats = readInts(in);
+        boolean zoomSupported = in.readBoolean();
+        int maxZoom = in.readInt();
+        List<Integer> zoomRatios = readInts(in);
+        count = readSize(in);
+        List<int[]> fpsRanges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            fpsRanges.add(new int[]{in.readInt(), in.readInt()});
+        }
+        camera.setParameters(previewSizes, pictureSizes, focusModes, previewFormats, pictureFormats,
+                zoomSupported, maxZoom, zoomRatios, fpsRanges, in.readInt(), in.readInt());
+        return camera;
+    }
+
+    private static void writeSizes(DataOutput out, List<CameraSize> sizes) throws IOException {
+        out.writeInt(sizes.size());
+        for (CameraSize size : sizes) {
+            out.writeInt(size.width);
+            out.writeInt(size.height);
+        }
+    }
+
+    private static List<CameraSize> readSizes(DataInput in) throws IOException {
+        int count = readSize(in);
+        List<CameraSize> sizes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sizes.add(new CameraSize(in.readInt(), in.readInt()));
+        }
+        return sizes;
+    }
+
+    private static void writeInts(DataOutput out, List<Integer> values) throws IOException {
+        out.writeInt(values.size());
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static List<Integer> readInts(DataInput in) throws IOException {
+        int count = readSize(in);
+        List<Integer> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.readInt());
+        }
+        return values;
+    }
+
+    private static int readSize(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_LIST_SIZE) {
+            throw new IOException("invalid list size: " + count);
+        }
+        return count;
+    }
+}
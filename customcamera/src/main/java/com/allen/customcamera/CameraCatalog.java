@@ -0,0 +1,178 @@
+package com.allen.customcamera;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 设备上所有摄像头的能力目录
+ * 第一次使用时通过Camera.getCameraInfo生成，每个摄像头第一次打开时补充Camera.Parameters中的能力，
+ * 以二进制格式保存在cacheDir中，按Build.FINGERPRINT区分，系统升级后自动重新生成
+ * 之后冷启动直接读取文件，打开、切换相机时不再查询CameraInfo、解析支持的尺寸列表
+ * 只在相机线程中使用
+ */
+
+public class CameraCatalog {
+    private static final String TAG = "CameraCatalog";
+    private static final String FILE_NAME = "camera_capabilities.bin";
+
+    private final File mFile;
+    private final String mFingerprint;
+    private final List<CameraCapabilities> mCameras;
+
+    private CameraCatalog(File file, String fingerprint, List<CameraCapabilities> cameras) {
+        mFile = file;
+        mFingerprint = fingerprint;
+        mCameras = cameras;
+    }
+
+    /**
+     * 读取缓存的能力目录，没有缓存或者已经失效时重新生成并保存
+     * 会读写磁盘，需要在子线程中调用
+     */
+    public static CameraCatalog load(Context context) {
+        File file = new File(context.getCacheDir(), FILE_NAME);
+        String fingerprint = Build.FINGERPRINT != null ? Build.FINGERPRINT : "";
+        List<CameraCapabilities> cameras = read(file, fingerprint);
+        if (cameras != null) {
+            return new CameraCatalog(file, fingerprint, cameras);
+        }
+        cameras = new ArrayList<>();
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+            Camera.getCameraInfo(i, cameraInfo);
+            cameras.add(new CameraCapabilities(i, cameraInfo.facing, cameraInfo.orientation));
+        }
+        CameraCatalog catalog = new CameraCatalog(file, fingerprint, cameras);
+        catalog.save();
+        return catalog;
+    }
+
+    private static List<CameraCapabilities> read(File file, String fingerprint) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return CameraCapabilities.readAll(in, fingerprint);
+        } catch (IOException e) {
+            Log.w(TAG, "read camera catalog failed", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入临时文件后再重命名，避免进程被杀时留下不完整的文件
+     */
+    private void save() {
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            CameraCapabilities.writeAll(out, mFingerprint, mCameras);
+            out.close();
+            out = null;
+            if (!temp.renameTo(mFile)) {
+                Log.w(TAG, "rename camera catalog failed");
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "write camera catalog failed", e);
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    public int getCameraCount() {
+        return mCameras.size();
+    }
+
+    /**
+     * @return 没有这个摄像头时返回null
+     */
+    public CameraCapabilities getCamera(int cameraId) {
+        for (CameraCapabilities camera : mCameras) {
+            if (camera.getId() == cameraId) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查找第一个指定朝向的摄像头
+     *
+     * @param facing CameraCapabilities.FACING_BACK 或 FACING_FRONT
+     * @return 没有找到返回-1
+     */
+    public int findCameraId(int facing) {
+        for (CameraCapabilities camera : mCameras) {
+            if (camera.getFacing() == facing) {
+                return camera.getId();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 相机打开后调用，摄像头第一次打开时从参数中读取能力并保存
+     *
+     * @return 摄像头的能力，没有这个摄像头时返回null
+     */
+    public CameraCapabilities update(int cameraId, Camera.Parameters parameters) {
+        CameraCapabilities camera = getCamera(cameraId);
+        if (camera == null || camera.hasParameters() || parameters == null) {
+            return camera;
+        }
+        camera.setParameters(toCameraSizes(parameters.getSupportedPreviewSizes()),
+                toCameraSizes(parameters.getSupportedPictureSizes()),
+                parameters.getSupportedFocusModes(),
+                parameters.getSupportedPreviewFormats(),
+                parameters.getSupportedPictureFormats(),
+                parameters.isZoomSupported(),
+                parameters.getMaxZoom(),
+                parameters.getZoomRatios(),
+                parameters.getSupportedPreviewFpsRange(),
+                parameters.getMaxNumFocusAreas(),
+                parameters.getMaxNumMeteringAreas());
+        save();
+        return camera;
+    }
+
+    private static List<CameraSize> toCameraSizes(List<Camera.Size> sizes) {
+        if (sizes == null) {
+            return null;
+        }
+        List<CameraSize> result = new ArrayList<>(sizes.size());
+        for (Camera.Size size : sizes) {
+            result.add(new CameraSize(size.width, size.height));
+        }
+        return result;
+    }
+}
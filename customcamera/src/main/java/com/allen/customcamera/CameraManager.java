@@ -1,20 +1,35 @@
 package com.allen.customcamera;
 
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.graphics.Point;
-import android.hardware.Camera;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.WindowManager;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.allen.customcamera.R.id.info;
 
@@ -25,15 +40,24 @@ import static com.allen.customcamera.R.id.info;
  */
 
 public class CameraManager {
+    private static final String TAG = "CameraManager";
     //后置摄像头的id
     private int CAMERA_ID_BACK = -1;
     //前置摄像头的id
     private int CAMERA_ID_FRONT = -1;
+    //所有摄像头的能力，第一次打开相机时在子线程中从相机实现中读取
+    private List<CameraCapabilities> mCameras;
+    //预览尺寸、图片尺寸的选择器
+    private final SizeSelector mSizeSelector = new SizeSelector();
     private Context mContext;
     //当前选择的摄像头id
     private int mCameraId;
-    //相机对象（在Api21之后就过时了，被android.hardware.camera这个类所取代）
-    private Camera mCamera;
+    //相机的实现，默认使用android.hardware.Camera
+    private volatile CameraBackend mBackend;
+    //当前打开的摄像头的能力，以及选择的预览、图片尺寸
+    private CameraCapabilities mCapabilities;
+    private CameraSize mPreviewSize;
+    private CameraSize mPictureSize;
     //子线程Handler
     private Handler mThreadHandler;
     //UIHandler
@@ -44,7 +68,83 @@ public class CameraManager {
     private SurfaceHolder mSurfaceHolder;
     //预览SurfaceView的尺寸大小
     private Point mSurfaceSize = new Point();
+    //相机设置的预览Surface缓冲区尺寸（camera2），Surface变成这个尺寸的回调不是界面尺寸的变化
+    private volatile CameraSize mPreviewBufferSize;
+    //上一次setSurfaceHolder是缓冲区尺寸变化引起的，接下来的reconfigure跳过，只在主线程中访问
+    private boolean mSkipReconfigure;
     private int mSensorRotation;
+    //预览帧的缓冲池
+    private final PreviewBufferPool mBufferPool = new PreviewBufferPool();
+    //预览帧的监听器
+    private FrameListener mFrameListener;
+    //预览帧分析流水线，为null时不分析
+    private FramePipeline mFramePipeline;
+    //根据预览帧处理的积压自动降级预览，为null时不调整
+    private AdaptivePreviewController mAdaptiveController;
+    //按预览控件选择的预览尺寸，降级时在它的基础上选择更小的尺寸
+    private CameraSize mSelectedPreviewSize;
+    //当前生效的降级设置：预览尺寸降低的档数、帧率范围（跳帧数在mPreviewProcessor中）
+    private int mAppliedSizeSteps;
+    private int[] mAppliedFpsRange;
+    //自动测光使用的亮度统计，为null时不自动测光
+    private ExposureStats mExposureStats;
+    //当前自动设置的测光分区，-1表示还没有设置
+    private int mMeteringZone = -1;
+    //点击对焦之后的一段时间内不自动测光
+    private volatile long mManualMeteringUntil;
+    private static final long MANUAL_METERING_HOLD_MS = 3000;
+    //拍照图片是否在DCT系数上无损旋转成正常方向
+    private boolean mLosslessRotation;
+    //拍照、预览图片解码和旋转使用的Bitmap缓冲池
+    private final BitmapPool mBitmapPool;
+    //缩放、对焦手势产生的待提交修改
+    private final ParameterChanges<Callback<Boolean>> mPendingChanges = new ParameterChanges<>();
+    private final ParameterChanges.Transaction<Callback<Boolean>> mTransaction = new ParameterChanges.Transaction<>();
+    //不足一个缩放级别的手指距离，留到下次提交
+    private float mZoomRemainder;
+    //两次提交参数的最小间隔（一个预览帧）和上次提交的时间
+    private volatile long mFrameIntervalMs = DEFAULT_FRAME_INTERVAL_MS;
+    private volatile long mLastApplyTime;
+    private static final long DEFAULT_FRAME_INTERVAL_MS = 33;
+    //连拍图片的编码、写入流水线，第一次连拍时创建
+    private CapturePipeline mCapturePipeline;
+    //正在进行的连拍
+    private Burst mBurst;
+    //连拍选择最清晰的一张时使用，第一次使用时创建
+    private SharpnessScorer mSharpnessScorer;
+    //解码连拍图片、计算清晰度的线程，不占用写文件的流水线，第一次使用时创建
+    private ThreadPoolExecutor mSharpnessExecutor;
+    //计算清晰度时解码的图片长边不超过这个尺寸
+    private static final int SHARPNESS_ANALYSIS_SIZE = 1024;
+    //是否开启零延迟拍照，开启后保留最近的预览帧
+    private boolean mZslEnabled;
+    private ZslRing mZslRing;
+    //零延迟拍照环形缓冲区使用的堆外缓冲池
+    private final DirectBufferPool mDirectBufferPool = new DirectBufferPool(ZSL_MEMORY_BUDGET);
+    //零延迟拍照把预览帧转换成Bitmap使用
+    private YuvConverter mYuvConverter;
+    private int[] mArgbBuffer;
+    //预览帧环形缓冲区的帧数上限和内存预算
+    private static final int ZSL_MAX_FRAMES = 8;
+    private static final long ZSL_MEMORY_BUDGET = 32 * 1024 * 1024;
+    //找到的帧和按下快门的时间相差超过这个值时改用普通拍照
+    private static final long ZSL_MAX_DELTA_NANOS = 500 * 1000000L;
+    //保留的span数，30帧每秒时大约是半分钟的预览帧
+    private static final int TRACE_CAPACITY = 2048;
+    //除了CameraMetrics的耗时指标以外的span名称
+    private static final String SPAN_TAP = "TAP";
+    private static final String SPAN_COMMIT_SETTINGS = "COMMIT_SETTINGS";
+    private static final String SPAN_WRITE_FILE = "WRITE_FILE";
+    //摄像头个数，-1表示还不知道
+    private volatile int mCameraCount = -1;
+    //请求打开相机（预热或打开）的时间，收到第一帧预览后清零
+    private volatile long mOpenRequestNanos;
+    //最近一次从请求打开相机到收到第一帧预览的时间
+    private volatile long mTimeToFirstFrameNanos = -1;
+    //性能指标
+    private final CameraMetrics mMetrics = new CameraMetrics();
+    //单次操作的span，保留最近的记录，默认不记录
+    private final SpanTracer mTracer = new SpanTracer(TRACE_CAPACITY);
 
     /**
      * 相机的状态
@@ -64,207 +164,1567 @@ public class CameraManager {
         void onEvent(T t);
     }
 
+    /**
+     * 预览帧监听接口，在相机线程中回调
+     * data是缓冲池中的NV21缓冲区，回调结束后会立即交还给相机复用，不能在回调之外持有
+     */
+    public interface FrameListener {
+        void onPreviewFrame(byte[] data, int width, int height, long timestampNanos);
+    }
+
+    /**
+     * 连拍监听接口，在UI线程回调
+     */
+    public interface BurstListener {
+        /**
+         * 一张图片处理完成，图片完成的顺序不一定和拍摄顺序相同
+         *
+         * @param file      保存的文件，失败时为null
+         * @param latencyMs 从按下快门到写入磁盘的时间
+         */
+        void onShot(int index, File file, long latencyMs);
+
+        /**
+         * 所有图片都处理完成
+         *
+         * @param savedCount 成功保存的图片数
+         */
+        void onFinish(int savedCount);
+    }
+
     private static CameraManager cameraManager;
 
     public static CameraManager getInstance(Context context) {
         if (null == cameraManager) {
             cameraManager = new CameraManager(context);
         }
-        return cameraManager;
+        return cameraManager;
+    }
+
+    private CameraManager(Context context) {
+        mContext = context.getApplicationContext();
+        mCameraId = -1;
+        mUiHandler = new Handler(Looper.getMainLooper());
+        //更方便的创建一个线程，可以用它包含的Looper来创建一个handler
+        HandlerThread thread = new HandlerThread("manager Thread");
+        thread.start();
+        mThreadHandler = new Handler(thread.getLooper());
+        mBackend = new LegacyCameraBackend(mContext);
+        //最多使用四分之一的堆内存缓存Bitmap，够放下解码和旋转用的两张整图
+        mBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 4);
+        mMetrics.setTracer(mTracer);
+        //宿主应用是调试版本时检查没有归还的堆外缓冲区（库本身总是以release版本被依赖，不能用BuildConfig.DEBUG）
+        mDirectBufferPool.setLeakDetection((mContext.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+        mDirectBufferPool.setLeakListener(new DirectBufferPool.LeakListener() {
+            @Override
+            public void onLeak(Throwable acquiredAt) {
+                Log.e(TAG, "direct buffer leaked", acquiredAt);
+            }
+        });
+    }
+
+    //相机实现的回调（预览帧、拍照、对焦）都转到相机线程中执行
+    private final Executor mCameraExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mThreadHandler.post(command);
+        }
+    };
+
+    /**
+     * 替换相机的实现，例如Api21以上使用Camera2Backend
+     * 当前打开的相机会被关闭，需要重新调用open
+     *
+     * @param backend
+     */
+    public void setBackend(final CameraBackend backend) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeImmediate();
+                mBackend = backend;
+                mCameras = null;
+                mCameraId = -1;
+                mCameraCount = -1;
+                mSizeSelector.clear();
+            }
+        });
+    }
+
+    /**
+     * 读取所有摄像头的能力，获取摄像头的信息（前/后摄像头的id）
+     * 在子线程中调用，只在第一次打开相机时读取一次
+     */
+    private void loadCameras() {
+        if (mCameras != null) {
+            return;
+        }
+        mCameras = mBackend.getCameras();
+        mCameraCount = mCameras.size();
+        CAMERA_ID_BACK = findCameraId(CameraCapabilities.FACING_BACK);
+        CAMERA_ID_FRONT = findCameraId(CameraCapabilities.FACING_FRONT);
+    }
+
+    /**
+     * 查找第一个指定朝向的摄像头
+     *
+     * @return 没有找到返回-1
+     */
+    private int findCameraId(int facing) {
+        for (CameraCapabilities camera : mCameras) {
+            if (camera.getFacing() == facing) {
+                return camera.getId();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 打开相机
+     *
+     * @param callback
+     */
+    public void open(final Callback<Boolean> callback) {
+        //检测初始化是否完成
+        checkInitialize();
+        markOpenRequest();
+        //开启子线程打开相机
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                openImmediate();
+                final boolean success = (mState == CameraState.STATE_OPENED);
+                //打开相机完成后用UIHandler回调结果
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onEvent(success);
+                    }
+                });
+            }
+        });
+
+    }
+
+    /**
+     * 设置用于相机预览的SurfaceHolder，在主线程中调用
+     * Surface变成相机设置的缓冲区尺寸时只是缓冲区变化，界面的尺寸不变，之后的reconfigure直接跳过
+     *
+     * @param surfaceHolder
+     * @param width
+     * @param height
+     */
+    public void setSurfaceHolder(SurfaceHolder surfaceHolder, int width, int height) {
+        CameraSize bufferSize = mPreviewBufferSize;
+        if (surfaceHolder == mSurfaceHolder && bufferSize != null
+                && bufferSize.width == width && bufferSize.height == height) {
+            //相机设置缓冲区尺寸引起的回调，界面的尺寸没有变化，不重新选择尺寸
+            mSkipReconfigure = true;
+            return;
+        }
+        mSkipReconfigure = false;
+        mSurfaceHolder = surfaceHolder;
+        mSurfaceSize.set(height, width);
+    }
+
+    /**
+     * 预热相机，在Activity的onCreate中调用
+     * 在子线程中加载能力目录、打开摄像头、读取参数，和界面的加载并行进行；
+     * 之后Surface创建完成时（open或reconfigure）直接使用预热好的相机，只需要设置尺寸并开始预览
+     */
+    public void prewarm() {
+        checkInitialize();
+        markOpenRequest();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mBackend.isOpened() || !selectCamera()) {
+                    return;
+                }
+                try {
+                    mCapabilities = openBackend();
+                } catch (Throwable th) {
+                    Log.w(TAG, "prewarm camera failed", th);
+                    closeImmediate();
+                }
+            }
+        });
+    }
+
+    /**
+     * 读取摄像头的能力，没有选择摄像头时默认选择后置摄像头
+     *
+     * @return 是否有可用的摄像头
+     */
+    private boolean selectCamera() {
+        loadCameras();
+        if (mCameraId < 0 && CAMERA_ID_BACK >= 0) {//默认设置后置摄像头
+            mCameraId = CAMERA_ID_BACK;
+        }
+        return mCameraId >= 0;
+    }
+
+    /**
+     * 立即打开相机
+     * 已经预热（打开了但还没有开始预览）的相机直接使用
+     */
+    private void openImmediate() {
+        boolean prewarmed = mBackend.isOpened() && mState == CameraState.STATE_IDLE && mCapabilities != null;
+        if (!prewarmed) {
+            closeImmediate(); //先关闭相机
+        }
+        if (mSurfaceHolder == null) {//判断SurfaceView是否创建完成
+            return;
+        }
+        if (!selectCamera()) {//没有找到摄像头设备
+            return;
+        }
+        try {
+            if (!prewarmed) {
+                mCapabilities = openBackend();
+            }
+            configurePreview();
+            setCameraState(CameraState.STATE_OPENED);
+        } catch (Throwable th) {
+            Log.w(TAG, "open camera failed", th);
+            closeImmediate();
+        }
+    }
+
+    /**
+     * 打开当前选择的摄像头，记录耗时
+     */
+    private CameraCapabilities openBackend() throws IOException {
+        long start = System.nanoTime();
+        CameraCapabilities capabilities = mBackend.open(mCameraId, mCameraExecutor);
+        mMetrics.recordSince(CameraMetrics.Timer.OPEN, start);
+        return capabilities;
+    }
+
+    /**
+     * 按当前的Surface选择预览、图片尺寸，配置相机并开始预览
+     */
+    private void configurePreview() throws IOException {
+        if (mSurfaceSize.x > 0 && mSurfaceSize.y > 0) {
+            //从支持的尺寸中选择合适的
+            mSelectedPreviewSize = mSizeSelector.selectPreviewSize(mCapabilities, mSurfaceSize.x, mSurfaceSize.y);
+            mPictureSize = mSizeSelector.selectPictureSize(mCapabilities, mSurfaceSize.x, mSurfaceSize.y);
+        }
+        mPreviewSize = getAdaptivePreviewSize(mSelectedPreviewSize);
+        applyFpsRange();
+        mBackend.configure(mPreviewSize, mPictureSize, getDisplayOrientation());
+        mFrameIntervalMs = getFrameInterval(mBackend.getMaxPreviewFps());
+        mPreviewBufferSize = mBackend.setPreviewDisplay(mSurfaceHolder);
+        setupPreviewCallback();
+        if (mAdaptiveController != null) {
+            mAdaptiveController.restart();
+        }
+        startPreview();
+    }
+
+    /**
+     * 开始预览，需要时监听第一帧预览用于统计打开相机的耗时
+     */
+    private void startPreview() {
+        if (mOpenRequestNanos != 0 && !needsPreviewFrames()) {
+            //没有设置预览帧回调时用一次性回调等待第一帧
+            mBackend.setOneShotFrameCallback(mFirstFrameCallback);
+        }
+        mBackend.startPreview();
+    }
+
+    private CameraBackend.FrameCallback mFirstFrameCallback = new CameraBackend.FrameCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data) {
+            onFirstFrame();
+        }
+    };
+
+    private void markOpenRequest() {
+        if (mOpenRequestNanos == 0) {
+            mOpenRequestNanos = System.nanoTime();
+        }
+    }
+
+    private void onFirstFrame() {
+        long requestNanos = mOpenRequestNanos;
+        if (requestNanos == 0) {
+            return;
+        }
+        mOpenRequestNanos = 0;
+        long now = System.nanoTime();
+        mTimeToFirstFrameNanos = now - requestNanos;
+        mTracer.record(CameraMetrics.Timer.FIRST_FRAME.name(), requestNanos, now, SpanTracer.NO_ID);
+        mMetrics.record(CameraMetrics.Timer.FIRST_FRAME, mTimeToFirstFrameNanos);
+        Log.d(TAG, "time to first preview frame: " + mTimeToFirstFrameNanos / 1000000 + "ms");
+    }
+
+    /**
+     * 最近一次从请求打开相机（prewarm、open）到收到第一帧预览的时间
+     *
+     * @return 毫秒，还没有收到过预览帧时返回-1
+     */
+    public long getTimeToFirstFrameMs() {
+        long nanos = mTimeToFirstFrameNanos;
+        return nanos < 0 ? -1 : nanos / 1000000;
+    }
+
+    /**
+     * 预览Surface的尺寸或格式变化后重新配置预览
+     * 相机已经打开时只停止预览，按新的尺寸重新选择预览、图片尺寸后重新开始预览，不再释放、重新打开相机；
+     * 相机没有打开或者已经不可用（例如相机服务重启）时重新打开
+     *
+     * @param callback 配置完成后回调，预览是否成功开始
+     */
+    public void reconfigure(final Callback<Boolean> callback) {
+        checkInitialize();
+        if (mSkipReconfigure) {
+            //相机已经按当前的尺寸配置，缓冲区尺寸变化后由相机自己开始预览
+            mSkipReconfigure = false;
+            mThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    postResult(callback, mState == CameraState.STATE_OPENED);
+                }
+            });
+            return;
+        }
+        if (!isOpened()) {
+            markOpenRequest();
+        }
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!reconfigureImmediate()) {
+                    openImmediate();
+                }
+                postResult(callback, mState == CameraState.STATE_OPENED);
+            }
+        });
+    }
+
+    /**
+     * 在不释放相机的情况下按当前的Surface重新开始预览
+     *
+     * @return 相机不可用或者配置失败时返回false，需要重新打开相机
+     */
+    private boolean reconfigureImmediate() {
+        if (!mBackend.isOpened() || mCapabilities == null || mState != CameraState.STATE_OPENED || mSurfaceHolder == null) {
+            return false;
+        }
+        try {
+            //清空交给相机的缓冲区，预览尺寸可能变化
+            mBackend.setFrameCallback(null);
+            mPreviewProcessor.reset();
+            mBackend.stopPreview();
+            configurePreview();
+            return true;
+        } catch (Throwable th) {
+            Log.w(TAG, "reconfigure preview failed, reopen camera", th);
+            return false;
+        }
+    }
+
+    /**
+     * 设置预览帧监听器，传null取消监听
+     *
+     * @param listener
+     */
+    public void setFrameListener(final FrameListener listener) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mFrameListener = listener;
+                if (isOpened()) {
+                    setupPreviewCallback();
+                }
+            }
+        });
+    }
+
+    /**
+     * 设置预览帧分析流水线，传null取消
+     * 每一帧复制一次后交给流水线，相机线程不等待分析完成；流水线由调用者创建和关闭
+     */
+    public void setFramePipeline(final FramePipeline pipeline) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mFramePipeline = pipeline;
+                if (isOpened()) {
+                    setupPreviewCallback();
+                }
+            }
+        });
+    }
+
+    /**
+     * 开启自动测光，传null关闭
+     * 在相机线程中用每一帧预览增量更新亮度统计，画面出现大面积过曝、欠曝（例如逆光）时把测光区域移到亮度合适的分区，
+     * 否则使用中心分区；只修改测光区域，不影响对焦；点击对焦后的几秒内使用点击位置测光
+     * 统计之后只在相机线程中更新，调用者可以在其他线程读取结果
+     */
+    public void setAutoMetering(final ExposureStats stats) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mExposureStats = stats;
+                mMeteringZone = -1;
+                mThreadHandler.removeCallbacks(mApplyMeteringRunnable);
+                if (isOpened()) {
+                    setupPreviewCallback();
+                }
+            }
+        });
+    }
+
+    /**
+     * 是否需要预览帧回调：设置了监听器、分析流水线、自动测光或者开启了零延迟拍照
+     */
+    private boolean needsPreviewFrames() {
+        return mFrameListener != null || mFramePipeline != null || mExposureStats != null || mZslEnabled;
+    }
+
+    /**
+     * 根据当前的预览尺寸配置缓冲池，并把缓冲区交给相机
+     * 预览中增减使用者时回调已经设置好，只更新使用者，不重复交给相机缓冲区
+     */
+    private void setupPreviewCallback() {
+        if (!needsPreviewFrames() || mPreviewSize == null) {
+            mBackend.setFrameCallback(null);
+            mPreviewProcessor.reset();
+            return;
+        }
+        if (mZslEnabled) {
+            configureZslRing(mPreviewSize.width, mPreviewSize.height);
+        }
+        mPreviewProcessor.setConsumers(mFrameListener, mFramePipeline, mExposureStats, mZslRing, mAdaptiveController);
+        mPreviewProcessor.attach(mBackend, mPreviewSize.width, mPreviewSize.height);
+    }
+
+    //预览帧回调的处理，回调在相机线程中执行
+    private final PreviewFrameProcessor mPreviewProcessor = new PreviewFrameProcessor(mBufferPool, mMetrics,
+            mTracer, new PreviewFrameProcessor.Host() {
+        @Override
+        public void onFrameDelivered() {
+            if (mOpenRequestNanos != 0) {
+                onFirstFrame();
+            }
+        }
+
+        @Override
+        public void onExposureSampled(ExposureStats stats) {
+            if (stats.selectMeteringZone(mMeteringZone) != mMeteringZone) {
+                //不在回调中提交参数
+                mThreadHandler.post(mApplyMeteringRunnable);
+            }
+        }
+
+        @Override
+        public void onAdaptiveStepChanged() {
+            //不在回调中修改预览
+            mThreadHandler.post(mApplyAdaptiveStepRunnable);
+        }
+    });
+
+    /**
+     * 设置预览自动降级的控制器，预览帧处理跟不上时依次降低帧率、预览尺寸、跳帧，有余量时再逐级恢复
+     * 只对需要预览帧（FrameListener、FramePipeline、零延迟拍照）的预览生效；传null关闭，预览恢复为正常的尺寸和最高的帧率范围
+     * 控制器之后只在相机线程中使用，调用者不要再修改它
+     */
+    public void setAdaptivePreviewController(final AdaptivePreviewController controller) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mAdaptiveController == controller) {
+                    return;
+                }
+                mAdaptiveController = controller;
+                mThreadHandler.removeCallbacks(mApplyAdaptiveStepRunnable);
+                //按新的设置重新配置预览
+                if (mState == CameraState.STATE_OPENED && !reconfigureImmediate()) {
+                    openImmediate();
+                }
+            }
+        });
+    }
+
+    private final Runnable mApplyMeteringRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyMetering();
+        }
+    };
+
+    /**
+     * 把亮度统计选择的测光分区提交给相机，在相机线程中调用
+     * 分区中心换算成点击坐标，和点击对焦一样经过CameraUtils.setMeteringArea生成Camera.Area
+     */
+    private void applyMetering() {
+        ExposureStats stats = mExposureStats;
+        if (stats == null || mState != CameraState.STATE_OPENED || mCapabilities == null
+                || mCapabilities.getMaxNumMeteringAreas() <= 0) {
+            return;
+        }
+        if (SystemClock.uptimeMillis() < mManualMeteringUntil) {
+            return;
+        }
+        int zone = stats.selectMeteringZone(mMeteringZone);
+        if (zone < 0 || zone == mMeteringZone) {
+            return;
+        }
+        float[] tap = CameraUtils.toTapPoint(mSurfaceSize, stats.getZoneCenterX(zone), stats.getZoneCenterY(zone));
+        mBackend.setMeteringArea(tap[0], tap[1], mSurfaceSize.x, mSurfaceSize.y);
+        long commitStart = System.nanoTime();
+        mBackend.commitSettings();
+        mTracer.recordSince(SPAN_COMMIT_SETTINGS, commitStart, SpanTracer.NO_ID);
+        mMeteringZone = zone;
+    }
+
+    private final Runnable mApplyAdaptiveStepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyAdaptiveStep();
+        }
+    };
+
+    /**
+     * 控制器的级别变化后应用新的设置，在相机线程中调用
+     * 跳帧立即生效，帧率范围作为一次参数提交，预览尺寸变化时重新配置预览
+     */
+    private void applyAdaptiveStep() {
+        AdaptivePreviewController controller = mAdaptiveController;
+        if (controller == null || mState != CameraState.STATE_OPENED || mCapabilities == null) {
+            return;
+        }
+        AdaptivePreviewController.Step step = controller.getStep();
+        Log.d(TAG, "adaptive preview level " + controller.getLevel() + ", load " + controller.getLastLoad() + ": " + step);
+        mPreviewProcessor.setFrameSkip(step.frameSkip);
+        if (step.sizeSteps != mAppliedSizeSteps) {
+            if (!reconfigureImmediate()) {
+                openImmediate();
+            }
+            return;
+        }
+        if (applyFpsRange()) {
+            mBackend.commitSettings();
+            mFrameIntervalMs = getFrameInterval(mBackend.getMaxPreviewFps());
+        }
+    }
+
+    /**
+     * 按降级的档数选择预览尺寸，同时更新跳帧数
+     */
+    private CameraSize getAdaptivePreviewSize(CameraSize selected) {
+        AdaptivePreviewController controller = mAdaptiveController;
+        mAppliedSizeSteps = 0;
+        mPreviewProcessor.resetFrameSkip(0);
+        if (controller == null || selected == null) {
+            return selected;
+        }
+        AdaptivePreviewController.Step step = controller.getStep();
+        mAppliedSizeSteps = step.sizeSteps;
+        mPreviewProcessor.resetFrameSkip(step.frameSkip);
+        return AdaptivePreviewController.selectSmallerSize(mCapabilities.getPreviewSizeIndex(), selected, step.sizeSteps);
+    }
+
+    /**
+     * 按降级的帧率上限选择帧率范围；没有控制器时，如果之前修改过帧率范围，恢复为最高的帧率范围
+     *
+     * @return 帧率范围是否变化，变化后需要提交参数
+     */
+    private boolean applyFpsRange() {
+        AdaptivePreviewController controller = mAdaptiveController;
+        if (controller == null && mAppliedFpsRange == null) {
+            return false;
+        }
+        int maxFps = controller != null ? controller.getStep().maxFps : 0;
+        int[] range = AdaptivePreviewController.selectFpsRange(mCapabilities.getFpsRanges(), maxFps);
+        if (range == null || Arrays.equals(range, mAppliedFpsRange)) {
+            return false;
+        }
+        mBackend.setPreviewFpsRange(range[0], range[1]);
+        mAppliedFpsRange = controller != null ? range : null;
+        return true;
+    }
+
+    /**
+     * 相机的性能指标，可以在任意线程调用snapshot读取，不会阻塞相机线程
+     *
+     * @return
+     */
+    public CameraMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 单次操作的span记录，调用setEnabled(true)开始记录，需要时调用dump导出成Chrome trace-event JSON
+     */
+    public SpanTracer getTracer() {
+        return mTracer;
+    }
+
+    /**
+     * 获取预览缓冲区被耗尽的次数，每次耗尽相机都会丢掉后续的帧
+     *
+     * @return
+     */
+    public long getBufferStarvationCount() {
+        return mBufferPool.getStarvationCount();
+    }
+
+    /**
+     * 点击对焦，同时设置测光区域
+     * 还没有提交的对焦请求会被替换，它的回调不再触发
+     *
+     * @param callback 对焦结果，在UI线程回调
+     */
+    public void setFocus(float x, float y, Callback<Boolean> callback) {
+        checkInitialize();
+        mTracer.mark(SPAN_TAP, SpanTracer.NO_ID);
+        //点击位置同时用于测光，暂停自动测光
+        mManualMeteringUntil = SystemClock.uptimeMillis() + MANUAL_METERING_HOLD_MS;
+        if (mPendingChanges.setFocus(x, y, callback)) {
+            scheduleApplyChanges();
+        }
+    }
+
+    /**
+     * 缩放，span是手指距离的变化
+     * 连续的缩放会累加起来，每个预览帧最多提交一次
+     *
+     * @param span
+     */
+    public void setZoom(float span) {
+        checkInitialize();
+        if (mPendingChanges.addZoom(span)) {
+            scheduleApplyChanges();
+        }
+    }
+
+    /**
+     * 安排在相机线程提交待提交的修改，和上次提交至少间隔一个预览帧
+     */
+    private void scheduleApplyChanges() {
+        long now = SystemClock.uptimeMillis();
+        mThreadHandler.postAtTime(mApplyChangesRunnable, Math.max(now, mLastApplyTime + mFrameIntervalMs));
+    }
+
+    private final Runnable mApplyChangesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyChanges();
+        }
+    };
+
+    /**
+     * 把合并后的缩放、对焦修改作为一次事务提交给相机：一次commitSettings，需要时再开始对焦
+     * 在相机线程中调用
+     */
+    private void applyChanges() {
+        if (!mPendingChanges.drainTo(mTransaction)) {
+            return;
+        }
+        final Callback<Boolean> focusCallback = mTransaction.mFocusCallback;
+        mTransaction.mFocusCallback = null;
+        if (mState != CameraState.STATE_OPENED || mCapabilities == null) {
+            return;
+        }
+        mLastApplyTime = SystemClock.uptimeMillis();
+
+        boolean changed = false;
+        if (mTransaction.mZoomPending && mCapabilities.isZoomSupported()) {
+            changed = applyZoom(mTransaction.mZoomSpan);
+        }
+        if (mTransaction.mFocusPending) {
+            mBackend.cancelAutoFocus();
+            mBackend.setFocusArea(mTransaction.mFocusX, mTransaction.mFocusY, mSurfaceSize.x, mSurfaceSize.y);
+            //暂停结束后重新选择自动测光的分区
+            mMeteringZone = -1;
+            changed = true;
+        }
+        if (changed) {
+            long commitStart = System.nanoTime();
+            mBackend.commitSettings();
+            mTracer.recordSince(SPAN_COMMIT_SETTINGS, commitStart, SpanTracer.NO_ID);
+        }
+        if (mTransaction.mFocusPending) {
+            final long focusStart = System.nanoTime();
+            mBackend.autoFocus(new CameraBackend.FocusCallback() {
+                @Override
+                public void onAutoFocus(final boolean success) {
+                    mMetrics.recordSince(CameraMetrics.Timer.AUTO_FOCUS, focusStart);
+                    mUiHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (focusCallback != null) {
+                                focusCallback.onEvent(success);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * 把累加的手指距离换算成缩放级别，commitSettings之后生效
+     *
+     * @return 缩放级别是否变化
+     */
+    private boolean applyZoom(float span) {
+        int maxZoom = mCapabilities.getMaxZoom();
+        int unit = CameraUtils.getZoomUnit(mSurfaceSize, maxZoom);
+        span += mZoomRemainder;
+        int steps = (int) (span / unit);
+        mZoomRemainder = span - steps * unit;
+        int lastZoom = mBackend.getZoom();
+        int zoom = Math.max(0, Math.min(maxZoom, lastZoom + steps));
+        if (zoom == 0 || zoom == maxZoom) {
+            //到达边界后多出来的距离不再保留
+            mZoomRemainder = 0;
+        }
+        if (zoom == lastZoom) {
+            return false;
+        }
+        mBackend.setZoom(zoom);
+        return true;
+    }
+
+    /**
+     * 根据预览帧率计算一帧的时长
+     *
+     * @param maxFps 最高帧率（乘以1000）
+     */
+    private static long getFrameInterval(int maxFps) {
+        if (maxFps <= 0) {
+            return DEFAULT_FRAME_INTERVAL_MS;
+        }
+        return Math.max(1, 1000 * 1000 / maxFps);
+    }
+
+    /**
+     * 缩放、对焦请求的统计：{收到的请求数, 被替换的对焦请求数, 实际提交的次数}
+     *
+     * @return
+     */
+    public long[] getParameterChangeStats() {
+        return new long[]{mPendingChanges.getRequestCount(), mPendingChanges.getSupersededCount(),
+                mPendingChanges.getTransactionCount()};
+    }
+
+
+    public void setSensorRotation(int rotation) {
+        mSensorRotation = rotation;
+    }
+
+    /**
+     * 设置预览尺寸的选择策略，下次打开相机时生效
+     *
+     * @param strategy 见SizeStrategies
+     */
+    public void setPreviewSizeStrategy(final SizeStrategy strategy) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mSizeSelector.setPreviewStrategy(strategy);
+            }
+        });
+    }
+
+    /**
+     * 设置拍照图片尺寸的选择策略，下次打开相机时生效
+     *
+     * @param strategy 见SizeStrategies
+     */
+    public void setPictureSizeStrategy(final SizeStrategy strategy) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mSizeSelector.setPictureStrategy(strategy);
+            }
+        });
+    }
+
+    /**
+     * 设置拍照图片是否无损旋转成正常方向
+     * 开启后直接在JPEG的DCT系数上旋转、镜像，不再解码成Bitmap旋转后重新压缩，
+     * 保存的图片EXIF方向为正常，不识别EXIF方向的查看器也能正确显示
+     * 旋转的方向上不足一个MCU（最多15个像素）的边缘会被裁掉
+     *
+     * @param enabled
+     */
+    public void setLosslessRotation(final boolean enabled) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mLosslessRotation = enabled;
+            }
+        });
+    }
+
+    public void takePicture(final Callback<Bitmap> callback) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                takePictureImmediate(callback);
+            }
+        });
+    }
+
+    private void takePictureImmediate(final Callback<Bitmap> callback) {
+        if (mState != CameraState.STATE_OPENED) {
+            return;
+        }
+        setCameraState(CameraState.STATE_SHOOTING);
+        //拍照时的方向，要在关闭相机之前获取
+        final int orientation = getPictureOrientation();
+        final long shutterStart = System.nanoTime();
+        mBackend.takePicture(new CameraBackend.PictureCallback() {
+            @Override
+            public void onPictureTaken(byte[] data) {
+                mMetrics.recordSince(CameraMetrics.Timer.SHUTTER, shutterStart);
+                closeImmediate();
+                final Bitmap result;
+                if (data != null && data.length > 0) {
+                    result = decodePicture(data, orientation);
+                } else {
+                    result = null;
+                }
+
+                mUiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (callback != null) {
+                            callback.onEvent(result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 拍照并把相机输出的JPEG数据直接写入文件
+     * 不解码、不旋转、不重新压缩，图片的方向记录在EXIF的Orientation标签中
+     *
+     * @param file     保存图片的文件
+     * @param callback 保存成功回调文件，失败回调null
+     */
+    public void takePictureToFile(final File file, final Callback<File> callback) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                takePictureToFileImmediate(file, callback);
+            }
+        });
+    }
+
+    private void takePictureToFileImmediate(final File file, final Callback<File> callback) {
+        if (mState != CameraState.STATE_OPENED) {
+            return;
+        }
+        setCameraState(CameraState.STATE_SHOOTING);
+        //拍照时的方向和参数，要在关闭相机之前获取
+        final int orientation = getPictureOrientation();
+        final ExifWriter exifWriter = createExifWriter(orientation);
+        final long shutterStart = System.nanoTime();
+        mBackend.takePicture(new CameraBackend.PictureCallback() {
+            @Override
+            public void onPictureTaken(byte[] data) {
+                mMetrics.recordSince(CameraMetrics.Timer.SHUTTER, shutterStart);
+                closeImmediate();
+                File result = null;
+                if (data != null && data.length > 0) {
+                    result = savePicture(file, data, orientation, exifWriter);
+                }
+                postResult(callback, result);
+            }
+        });
     }
 
-    private CameraManager(Context context) {
-        mContext = context.getApplicationContext();
-        mCameraId = -1;
-        mUiHandler = new Handler(Looper.getMainLooper());
-        //更方便的创建一个线程，可以用它包含的Looper来创建一个handler
-        HandlerThread thread = new HandlerThread("manager Thread");
-        thread.start();
-        mThreadHandler = new Handler(thread.getLooper());
-        findCameraId();
+    /**
+     * 把JPEG数据写入文件，开启无损旋转时先旋转成正常方向
+     *
+     * @return 失败返回null
+     */
+    private File savePicture(File file, byte[] data, int orientation, ExifWriter exifWriter) {
+        if (mLosslessRotation) {
+            data = rotateJpeg(data, orientation, exifWriter);
+        }
+        try {
+            writeJpeg(file, data, exifWriter);
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "write picture failed", e);
+            return null;
+        }
+    }
 
+    private <T> void postResult(final Callback<T> callback, final T result) {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (callback != null) {
+                    callback.onEvent(result);
+                }
+            }
+        });
     }
 
     /**
-     * 获取摄像头的信息（前/后摄像头的id）
+     * 设置是否开启零延迟拍照（ZSL）
+     * 开启后相机线程把最近的几帧预览复制到环形缓冲区中（见ZslRing），
+     * 拍照时直接使用按下快门那一刻的预览帧，没有Camera.takePicture的快门延迟，但分辨率是预览尺寸
+     *
+     * @param enabled
      */
-    private void findCameraId() {
-        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
-        for (int i = 0; i < Camera.getNumberOfCameras(); i++) {//获取手机摄像头的个数
-            Camera.getCameraInfo(i, cameraInfo);
-            if (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_BACK) {//后置摄像头
-                CAMERA_ID_BACK = cameraInfo.facing;
-            } else {//前置摄像头
-                CAMERA_ID_FRONT = cameraInfo.facing;
+    public void setZslEnabled(final boolean enabled) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mZslEnabled = enabled;
+                if (!enabled) {
+                    recycleZslRing();
+                }
+                if (isOpened()) {
+                    setupPreviewCallback();
+                }
             }
+        });
+    }
+
+    public boolean isZslEnabled() {
+        return mZslEnabled;
+    }
+
+    /**
+     * 按照预览尺寸和内存预算配置环形缓冲区，尺寸没有变化时复用，只丢弃旧的帧
+     */
+    private void configureZslRing(int width, int height) {
+        if (mZslRing != null && mZslRing.getWidth() == width && mZslRing.getHeight() == height) {
+            mZslRing.clear();
+            return;
         }
+        recycleZslRing();
+        //槽位在堆外，不受Java堆大小的限制
+        int slotCount = ZslRing.getSlotCount(width, height, ZSL_MEMORY_BUDGET, ZSL_MAX_FRAMES);
+        mZslRing = slotCount > 0 ? new ZslRing(mDirectBufferPool, slotCount, width, height) : null;
     }
 
     /**
-     * 打开相机
+     * 把环形缓冲区的槽位归还到堆外缓冲池，在相机线程中调用（读取槽位也都在相机线程中，这时没有被占用的槽位）
+     * 池中只有这些槽位，不再使用时清空，堆外内存交给GC释放
+     */
+    private void recycleZslRing() {
+        if (mZslRing != null) {
+            mZslRing.recycle();
+            mZslRing = null;
+        }
+        mDirectBufferPool.clear();
+        mArgbBuffer = null;
+    }
+
+    /**
+     * 零延迟拍照：取时间戳最接近按下快门时刻的预览帧，转换成正常方向的Bitmap
+     * 没有开启ZSL或者没有合适的帧时改用普通拍照
      *
+     * @param tapNanos 按下快门的时间，和System.nanoTime使用同一个时钟
      * @param callback
      */
-    public void open(final Callback<Boolean> callback) {
-        //检测初始化是否完成
+    public void takeZslPicture(final long tapNanos, final Callback<Bitmap> callback) {
         checkInitialize();
-        //开启子线程打开相机
         mThreadHandler.post(new Runnable() {
             @Override
             public void run() {
-                openImmediate();
-                final boolean success = (mState == CameraState.STATE_OPENED);
-                //打开相机完成后用UIHandler回调结果
-                mUiHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        callback.onEvent(success);
-                    }
-                });
+                ZslRing ring = mZslRing;
+                int slot = acquireZslFrame(ring, tapNanos);
+                if (slot < 0) {
+                    takePictureImmediate(callback);
+                    return;
+                }
+                final int orientation = getPictureOrientation();
+                closeImmediate();
+                Bitmap result;
+                try {
+                    result = convertZslFrame(ring, slot, orientation);
+                } finally {
+                    ring.release(slot);
+                }
+                postResult(callback, result);
             }
         });
+    }
 
+    /**
+     * 零延迟拍照并保存到文件，预览帧压缩成JPEG后和普通拍照一样写入EXIF
+     * 没有开启ZSL或者没有合适的帧时改用普通拍照
+     *
+     * @param tapNanos 按下快门的时间，和System.nanoTime使用同一个时钟
+     * @param file     保存图片的文件
+     * @param callback 保存成功回调文件，失败回调null
+     */
+    public void takeZslPictureToFile(final long tapNanos, final File file, final Callback<File> callback) {
+        checkInitialize();
+        mThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ZslRing ring = mZslRing;
+                int slot = acquireZslFrame(ring, tapNanos);
+                if (slot < 0) {
+                    takePictureToFileImmediate(file, callback);
+                    return;
+                }
+                int orientation = getPictureOrientation();
+                ExifWriter exifWriter = createExifWriter(orientation)
+                        .setImageSize(ring.getWidth(), ring.getHeight());
+                closeImmediate();
+                byte[] jpeg;
+                try {
+                    long start = System.nanoTime();
+                    //直接从堆外的槽位转换到缓冲池中的Bitmap，不把帧复制回堆上的数组
+                    Bitmap bitmap = convertZslFrame(ring, slot, ExifWriter.ORIENTATION_NORMAL);
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(ring.getWidth() * ring.getHeight() / 2);
+                    bitmap.compress(Bitmap.CompressFormat.JPEG, 95, out);
+                    mBitmapPool.put(bitmap);
+                    jpeg = out.toByteArray();
+                    mMetrics.recordSince(CameraMetrics.Timer.ENCODE, start);
+                } finally {
+                    ring.release(slot);
+                }
+                postResult(callback, savePicture(file, jpeg, orientation, exifWriter));
+            }
+        });
     }
 
     /**
-     * 设置用于相机预览的SurfaceHolder
+     * 占用环形缓冲区中最接近按下快门时刻的帧
      *
-     * @param surfaceHolder
-     * @param width
-     * @param height
+     * @return 槽位，没有合适的帧时返回-1
      */
-    public void setSurfaceHolder(SurfaceHolder surfaceHolder, int width, int height) {
-        mSurfaceHolder = surfaceHolder;
-        mSurfaceSize.set(height, width);
+    private int acquireZslFrame(ZslRing ring, long tapNanos) {
+        if (mState != CameraState.STATE_OPENED || ring == null) {
+            return -1;
+        }
+        int slot = ring.acquireClosest(tapNanos);
+        if (slot >= 0 && Math.abs(ring.getTimestamp(slot) - tapNanos) > ZSL_MAX_DELTA_NANOS) {
+            ring.release(slot);
+            return -1;
+        }
+        return slot;
     }
 
     /**
-     * 立即打开相机
+     * 把NV21预览帧转换成Bitmap，并按照拍照方向旋转
      */
-    private void openImmediate() {
-        closeImmediate(); //先关闭相机
-        if (mSurfaceHolder == null) {//判断SurfaceView是否创建完成
-            return;
+    private Bitmap convertZslFrame(ZslRing ring, int slot, int orientation) {
+        int width = ring.getWidth();
+        int height = ring.getHeight();
+        if (mYuvConverter == null) {
+            //按行分给多个线程转换，缩短快门到出图的时间
+            mYuvConverter = new YuvConverter(Math.min(4, Runtime.getRuntime().availableProcessors()));
         }
-        if (mCameraId < 0 && CAMERA_ID_BACK >= 0) {//默认设置后置摄像头
-            mCameraId = CAMERA_ID_BACK;
+        if (mArgbBuffer == null || mArgbBuffer.length < width * height) {
+            mArgbBuffer = new int[width * height];
         }
-        if (mCameraId < 0) {//没有找到摄像头设备
-            return;
+        mYuvConverter.nv21ToArgb(ring.getBuffer(slot), width, height, mArgbBuffer);
+        Bitmap bitmap = mBitmapPool.getOrCreate(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.setPixels(mArgbBuffer, 0, width, 0, 0, width, height);
+        if (orientation == ExifWriter.ORIENTATION_NORMAL) {
+            return bitmap;
         }
-        try {
-            mCamera = Camera.open(mCameraId);
-            Camera.Parameters parameters = mCamera.getParameters();
-            CameraUtils.setPreViewParameters(mSurfaceSize, parameters);
-            mCamera.setParameters(parameters);
-            mCamera.setDisplayOrientation(getDisplayOrientation());
-            mCamera.setPreviewDisplay(mSurfaceHolder);
-            mCamera.startPreview();
-            setCameraState(CameraState.STATE_OPENED);
-        } catch (Throwable th) {
+        return rotateBitmap(bitmap, orientation);
+    }
+
+    /**
+     * 按照EXIF方向旋转Bitmap，记录耗时
+     */
+    private Bitmap rotateBitmap(Bitmap bitmap, int orientation) {
+        long start = System.nanoTime();
+        Bitmap result = mBitmapPool.transform(bitmap, CameraUtils.getExifMatrix(orientation));
+        mMetrics.recordSince(CameraMetrics.Timer.ROTATE, start);
+        return result;
+    }
+
+    /**
+     * 零延迟拍照的统计：{拍照次数, 平均快门到帧的时间差ms, 最大时间差ms, 缓冲区已满丢掉的帧数}
+     *
+     * @return
+     */
+    public long[] getZslStats() {
+        ZslRing ring = mZslRing;
+        if (ring == null) {
+            return new long[4];
         }
+        return new long[]{ring.getTapCount(), ring.getAverageTapDeltaNanos() / 1000000,
+                ring.getMaxTapDeltaNanos() / 1000000, ring.getDroppedCount()};
+    }
+
+    /**
+     * 连拍：相机和预览保持打开，按固定间隔拍摄count张图片，保存到dir目录中
+     * 每张图片交给编码、写入流水线处理，流水线满时推迟下一次拍摄
+     *
+     * @param dir        保存图片的目录
+     * @param count      拍摄张数
+     * @param intervalMs 两次拍摄的目标间隔，实际间隔受相机出图速度和流水线的限制
+     * @param listener
+     */
+    public void takeBurst(final File dir, final int count, final long intervalMs, final BurstListener listener) {
+        takeBurst(dir, count, intervalMs, listener, null);
+    }
+
+    /**
+     * 连拍并按清晰度排序：每张图片写入文件后交给单独的线程，按分析尺寸（长边不超过1024）采样解码，
+     * 计算清晰度（见SharpnessScorer），不占用写文件的流水线
+     * 所有图片处理完成后在UI线程回调排序的结果，Candidate的tag是图片文件，第一个就是最清晰的一张
+     *
+     * @param callback 排序的结果，和listener的onFinish同时回调
+     */
+    public void takeBestShot(File dir, int count, long intervalMs, BurstListener listener,
+                             Callback<SharpnessScorer.Ranking<File>> callback) {
+        takeBurst(dir, count, intervalMs, listener, callback);
     }
 
-    public void setFocus(final float x, final float y, final Callback<Boolean> callback) {
+    private void takeBurst(final File dir, final int count, final long intervalMs, final BurstListener listener,
+                           final Callback<SharpnessScorer.Ranking<File>> rankingCallback) {
         checkInitialize();
         mThreadHandler.post(new Runnable() {
             @Override
             public void run() {
-                if (mState != CameraState.STATE_OPENED) {
+                if (mState != CameraState.STATE_OPENED || count <= 0) {
+                    mUiHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (listener != null) {
+                                listener.onFinish(0);
+                            }
+                            if (rankingCallback != null) {
+                                rankingCallback.onEvent(null);
+                            }
+                        }
+                    });
                     return;
                 }
-
-                mCamera.cancelAutoFocus();
-                Camera.Parameters parameters = mCamera.getParameters();
-                CameraUtils.setFocusArea(mSurfaceSize, parameters, x, y);
-                mCamera.setParameters(parameters);
-                mCamera.autoFocus(new Camera.AutoFocusCallback() {
-                    @Override
-                    public void onAutoFocus(final boolean success, Camera camera) {
-
-                        mUiHandler.post(new Runnable() {
+                if (mCapturePipeline == null) {
+                    //两个线程写文件，最多四张图片在流水线中
+                    mCapturePipeline = new CapturePipeline(2, 4);
+                    mCapturePipeline.setTracer(mTracer);
+                }
+                SharpnessScorer.Ranking<File> ranking = null;
+                if (rankingCallback != null) {
+                    if (mSharpnessScorer == null) {
+                        mSharpnessScorer = new SharpnessScorer();
+                        mSharpnessExecutor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
                             @Override
-                            public void run() {
-                                if (callback != null) {
-                                    callback.onEvent(success);
-                                }
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "burst-sharpness");
+                                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                                return thread;
                             }
                         });
+                        mSharpnessExecutor.allowCoreThreadTimeOut(true);
                     }
-                });
+                    ranking = mSharpnessScorer.newRanking();
+                }
+                mBurst = new Burst(dir, count, intervalMs, listener, ranking, rankingCallback);
+                setCameraState(CameraState.STATE_SHOOTING);
+                mBurst.run();
             }
         });
     }
 
-    public void setZoom(final float span) {
-        checkInitialize();
-        mThreadHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                if (mState != CameraState.STATE_OPENED) {
-                    return;
+    /**
+     * 连拍流水线的统计：{已保存张数, 失败张数, 平均延迟ms, 最大延迟ms, 流水线满导致阻塞的次数}
+     *
+     * @return
+     */
+    public long[] getBurstStats() {
+        CapturePipeline pipeline = mCapturePipeline;
+        if (pipeline == null) {
+            return new long[5];
+        }
+        return new long[]{pipeline.getSavedCount(), pipeline.getFailedCount(),
+                pipeline.getAverageLatencyNanos() / 1000000, pipeline.getMaxLatencyNanos() / 1000000,
+                pipeline.getBlockedCount()};
+    }
+
+    /**
+     * 一次连拍，拍摄在相机线程中进行，旋转、写文件在流水线的工作线程中进行
+     */
+    private class Burst implements Runnable, CapturePipeline.Stage, CapturePipeline.Listener {
+        private final File mDir;
+        private final int mCount;
+        private final long mIntervalMs;
+        private final BurstListener mListener;
+        private final boolean mRotate = mLosslessRotation;
+        private final long mStartTime = SystemClock.uptimeMillis();
+        private final long mId = System.currentTimeMillis();
+        //每张图片拍摄时的方向和EXIF信息
+        private final int[] mOrientations;
+        private final ExifWriter[] mExifWriters;
+        //已经拍摄的张数
+        private int mShot;
+        //还没有完成的工作：流水线中的图片，再加上拍摄本身
+        private final AtomicInteger mOutstanding = new AtomicInteger(1);
+        private final AtomicInteger mSaved = new AtomicInteger();
+        //按清晰度排序，为null时不计算清晰度
+        private final SharpnessScorer.Ranking<File> mRanking;
+        private final Callback<SharpnessScorer.Ranking<File>> mRankingCallback;
+        //计算清晰度使用的亮度图和一行像素，只在计算清晰度的线程中使用
+        private byte[] mLuma;
+        private int[] mRow;
+
+        Burst(File dir, int count, long intervalMs, BurstListener listener,
+              SharpnessScorer.Ranking<File> ranking, Callback<SharpnessScorer.Ranking<File>> rankingCallback) {
+            mDir = dir;
+            mCount = count;
+            mIntervalMs = intervalMs;
+            mListener = listener;
+            mRanking = ranking;
+            mRankingCallback = rankingCallback;
+            mOrientations = new int[count];
+            mExifWriters = new ExifWriter[count];
+        }
+
+        /**
+         * 拍摄下一张
+         */
+        @Override
+        public void run() {
+            if (mBurst != this) {//相机已经关闭
+                return;
+            }
+            final int index = mShot++;
+            final long shutterNanos = System.nanoTime();
+            mOrientations[index] = getPictureOrientation();
+            mExifWriters[index] = createExifWriter(mOrientations[index]);
+            try {
+                mBackend.takePicture(createPictureCallback(index, shutterNanos));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "burst takePicture failed", e);
+                setCameraState(CameraState.STATE_OPENED);
+                finishShooting();
+            }
+        }
+
+        private CameraBackend.PictureCallback createPictureCallback(final int index, final long shutterNanos) {
+            return new CameraBackend.PictureCallback() {
+                @Override
+                public void onPictureTaken(byte[] data) {
+                    if (mBurst != Burst.this) {
+                        return;
+                    }
+                    mMetrics.recordSince(CameraMetrics.Timer.SHUTTER, shutterNanos, index);
+                    //拍照后预览可能停止，重新开始预览，不再关闭、重新打开相机
+                    mBackend.startPreview();
+                    if (data != null && data.length > 0) {
+                        mOutstanding.incrementAndGet();
+                        try {
+                            mCapturePipeline.submit(data, index, shutterNanos, Burst.this, Burst.this);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            onFailed(index, new IOException(e));
+                        }
+                    }
+                    if (mShot < mCount) {
+                        long next = mStartTime + mShot * mIntervalMs;
+                        mThreadHandler.postAtTime(Burst.this, Math.max(SystemClock.uptimeMillis(), next));
+                    } else {
+                        setCameraState(CameraState.STATE_OPENED);
+                        finishShooting();
+                    }
+                }
+            };
+        }
+
+        /**
+         * 拍摄结束（拍完或者相机被关闭），在相机线程中调用
+         */
+        void finishShooting() {
+            mBurst = null;
+            release();
+        }
+
+        @Override
+        public File process(byte[] jpeg, int index) throws IOException {
+            final File file = new File(mDir, String.format(Locale.US, "BURST_%d_%03d.jpg", mId, index));
+            ExifWriter exifWriter = mExifWriters[index];
+            if (mRotate) {
+                jpeg = rotateJpeg(jpeg, mOrientations[index], exifWriter);
+            }
+            writeJpeg(file, jpeg, exifWriter);
+            if (mRanking != null) {
+                //从文件采样解码，不保留JPEG数据，流水线可以马上处理下一张
+                mOutstanding.incrementAndGet();
+                mSharpnessExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            scoreFile(file);
+                        } finally {
+                            release();
+                        }
+                    }
+                });
+            }
+            return file;
+        }
+
+        /**
+         * 按分析尺寸采样解码图片，取出亮度图计算清晰度，在计算清晰度的线程中调用
+         * 评分失败不影响图片的保存
+         */
+        private void scoreFile(File file) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.getPath(), options);
+            int sampleSize = 1;
+            while (Math.max(options.outWidth, options.outHeight) / sampleSize > SHARPNESS_ANALYSIS_SIZE) {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            Bitmap bitmap = mBitmapPool.decodeFile(file.getPath(), options);
+            if (bitmap == null) {
+                Log.w(TAG, "decode " + file + " for sharpness failed");
+                return;
+            }
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            if (mLuma == null || mLuma.length < width * height) {
+                mLuma = new byte[width * height];
+            }
+            if (mRow == null || mRow.length < width) {
+                mRow = new int[width];
+            }
+            byte[] luma = mLuma;
+            int[] row = mRow;
+            for (int y = 0; y < height; y++) {
+                bitmap.getPixels(row, 0, width, 0, y, width, 1);
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    int color = row[x];
+                    //BT.601亮度
+                    luma[offset + x] = (byte) ((77 * ((color >> 16) & 0xff) + 150 * ((color >> 8) & 0xff)
+                            + 29 * (color & 0xff)) >> 8);
                 }
+            }
+            mBitmapPool.put(bitmap);
+            long start = System.nanoTime();
+            SharpnessScorer.Candidate<File> candidate = mRanking.submit(file, luma, width, height);
+            Log.d(TAG, "sharpness " + candidate + " in " + (System.nanoTime() - start) / 1000 + "us");
+        }
+
+        @Override
+        public void onSaved(final int index, final File file, final long latencyNanos) {
+            mSaved.incrementAndGet();
+            postShot(index, file, latencyNanos / 1000000);
+        }
 
-                Camera.Parameters parameters = mCamera.getParameters();
-                if (parameters.isZoomSupported()) {
-                    boolean valid = CameraUtils.setZoom(mSurfaceSize, parameters, span);
-                    if (valid) {
-                        mCamera.setParameters(parameters);
+        @Override
+        public void onFailed(int index, IOException e) {
+            Log.e(TAG, "burst picture " + index + " failed", e);
+            postShot(index, null, -1);
+        }
+
+        private void postShot(final int index, final File file, final long latencyMs) {
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mListener != null) {
+                        mListener.onShot(index, file, latencyMs);
                     }
                 }
+            });
+            release();
+        }
+
+        private void release() {
+            if (mOutstanding.decrementAndGet() != 0) {
+                return;
             }
-        });
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mListener != null) {
+                        mListener.onFinish(mSaved.get());
+                    }
+                    if (mRankingCallback != null) {
+                        mRankingCallback.onEvent(mRanking);
+                    }
+                }
+            });
+        }
     }
 
+    /**
+     * 根据拍照时的方向、图片尺寸和焦距生成EXIF信息
+     */
+    private ExifWriter createExifWriter(int orientation) {
+        ExifWriter exifWriter = new ExifWriter()
+                .setOrientation(orientation)
+                .setDateTime(System.currentTimeMillis())
+                .setMake(Build.MANUFACTURER)
+                .setModel(Build.MODEL);
+        if (mPictureSize != null) {
+            exifWriter.setImageSize(mPictureSize.width, mPictureSize.height);
+        }
+        float focalLength = mBackend.getFocalLength();
+        if (focalLength > 0) {
+            exifWriter.setFocalLength(focalLength);
+        }
+        return exifWriter;
+    }
 
-    public void setSensorRotation(int rotation) {
-        mSensorRotation = rotation;
+    /**
+     * 把JPEG数据无损旋转成正常方向，并更新EXIF中的方向和尺寸
+     * 不支持的格式（例如渐进式JPEG）保持原样，继续使用EXIF方向
+     */
+    private byte[] rotateJpeg(byte[] data, int orientation, ExifWriter exifWriter) {
+        if (orientation == ExifWriter.ORIENTATION_NORMAL) {
+            return data;
+        }
+        try {
+            byte[] rotated = transformJpeg(data, orientation);
+            int[] size = JpegTransformer.readSize(rotated);
+            exifWriter.setOrientation(ExifWriter.ORIENTATION_NORMAL)
+                    .setImageSize(size[0], size[1]);
+            return rotated;
+        } catch (IOException e) {
+            Log.w(TAG, "lossless rotation failed, keep exif orientation", e);
+            return data;
+        }
     }
 
-    public void takePicture(final Callback<Bitmap> callback) {
+    /**
+     * 把拍照得到的JPEG数据解码成正常方向的Bitmap
+     * 解码和旋转都从缓冲池中复用Bitmap，开启无损旋转时先在JPEG上旋转再解码，省掉一次整图拷贝
+     */
+    private Bitmap decodePicture(byte[] data, int orientation) {
+        if (mLosslessRotation && orientation != ExifWriter.ORIENTATION_NORMAL) {
+            try {
+                byte[] rotated = transformJpeg(data, orientation);
+                return decodeJpeg(rotated);
+            } catch (IOException e) {
+                Log.w(TAG, "lossless rotation failed, rotate bitmap instead", e);
+            }
+        }
+        Bitmap bitmap = decodeJpeg(data);
+        if (bitmap == null || orientation == ExifWriter.ORIENTATION_NORMAL) {
+            return bitmap;
+        }
+        return rotateBitmap(bitmap, orientation);
+    }
+
+    private Bitmap decodeJpeg(byte[] data) {
+        long start = System.nanoTime();
+        Bitmap bitmap = mBitmapPool.decodeByteArray(data, 0, data.length, null);
+        mMetrics.recordSince(CameraMetrics.Timer.DECODE, start);
+        return bitmap;
+    }
+
+    /**
+     * 在JPEG上无损旋转成正常方向，记录耗时
+     */
+    private byte[] transformJpeg(byte[] data, int orientation) throws IOException {
+        long start = System.nanoTime();
+        byte[] rotated = JpegTransformer.transform(data, JpegTransformer.Transform.fromExifOrientation(orientation));
+        mMetrics.recordSince(CameraMetrics.Timer.ROTATE, start);
+        return rotated;
+    }
+
+    /**
+     * 拍照、预览图片使用的Bitmap缓冲池，不再显示的图片应该归还到这里
+     *
+     * @return
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * 使用FileChannel把JPEG数据写入文件，写入的同时插入EXIF信息
+     */
+    private void writeJpeg(File file, byte[] data, ExifWriter exifWriter) throws IOException {
+        long start = System.nanoTime();
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            exifWriter.write(data, Channels.newOutputStream(channel));
+        } finally {
+            out.close();
+        }
+        mTracer.recordSince(SPAN_WRITE_FILE, start, SpanTracer.NO_ID);
+    }
+
+    /**
+     * 在子线程中解码拍照得到的图片，用于拍照后的预览
+     * 按预览控件的尺寸采样解码，并按照EXIF方向旋转
+     *
+     * @param file
+     * @param reqWidth  预览控件的宽度
+     * @param reqHeight 预览控件的高度
+     * @param callback
+     */
+    public void loadPicturePreview(final File file, final int reqWidth, final int reqHeight, final Callback<Bitmap> callback) {
         checkInitialize();
         mThreadHandler.post(new Runnable() {
             @Override
             public void run() {
-                if (mState != CameraState.STATE_OPENED) {
-                    return;
-                }
-                setCameraState(CameraState.STATE_SHOOTING);
-                mCamera.takePicture(null, null, new Camera.PictureCallback() {
+                long start = System.nanoTime();
+                final Bitmap result = CameraUtils.decodeSampledBitmap(file, reqWidth, reqHeight, mBitmapPool);
+                mMetrics.recordSince(CameraMetrics.Timer.DECODE, start);
+                mUiHandler.post(new Runnable() {
                     @Override
-                    public void onPictureTaken(byte[] data, Camera camera) {
-                        closeImmediate();
-                        final Bitmap result;
-                        if (data != null && data.length > 0) {
-                            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
-                            Matrix matrix = new Matrix();
-                            int rotation = getDisplayOrientation() + mSensorRotation;
-                            if (mCameraId == CAMERA_ID_BACK) {
-                                matrix.setRotate(rotation);
-                            } else {
-                                rotation = (360 - rotation) % 360;
-                                matrix.setRotate(rotation);
-                                matrix.postScale(-1, 1);
-                            }
-                            result = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-                        } else {
-                            result = null;
+                    public void run() {
+                        if (callback != null) {
+                            callback.onEvent(result);
                         }
-
-                        mUiHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (callback != null) {
-                                    callback.onEvent(result);
-                                }
-                            }
-                        });
                     }
                 });
             }
         });
     }
 
+    /**
+     * 获取拍照图片需要旋转的角度（0、90、180、270）
+     * 前置摄像头返回的是镜像之前需要旋转的角度
+     *
+     * @return
+     */
+    private int getPictureRotation() {
+        int rotation = (getDisplayOrientation() + mSensorRotation) % 360;
+        if (mCameraId != CAMERA_ID_BACK) {
+            rotation = (360 - rotation) % 360;
+        }
+        return rotation;
+    }
+
+    /**
+     * 获取拍照图片对应的EXIF方向
+     *
+     * @return
+     */
+    private int getPictureOrientation() {
+        return CameraUtils.getExifOrientation(getPictureRotation(), mCameraId != CAMERA_ID_BACK);
+    }
 
     /**
      * 获取手机的旋转角度
@@ -272,9 +1732,8 @@ public class CameraManager {
      * @return
      */
     private int getDisplayOrientation() {
-        //Google Api提供的方法
-        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
-        Camera.getCameraInfo(mCameraId, cameraInfo);
+        //Google Api提供的方法，摄像头的朝向和安装角度从当前摄像头的能力中读取
+        CameraCapabilities camera = mCapabilities;
         WindowManager windowManager = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
         int rotation = windowManager.getDefaultDisplay().getRotation();
         int degrees = 0;
@@ -294,11 +1753,11 @@ public class CameraManager {
         }
 
         int result;
-        if (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            result = (cameraInfo.orientation + degrees) % 360;
+        if (camera.isFront()) {
+            result = (camera.getOrientation() + degrees) % 360;
             result = (360 - result) % 360;  // compensate the mirror
         } else {  // back-facing
-            result = (cameraInfo.orientation - degrees + 360) % 360;
+            result = (camera.getOrientation() - degrees + 360) % 360;
         }
 
         return result;
@@ -306,7 +1765,7 @@ public class CameraManager {
 
 
     /**
-     * 关闭相机
+     * 关闭相机，预热打开但还没有开始预览的相机也会关闭
      */
     public void close() {
         mThreadHandler.post(new Runnable() {
@@ -321,10 +1780,24 @@ public class CameraManager {
      * 关闭相机
      */
     private void closeImmediate() {
-        if (mCamera != null) {
-            mCamera.stopPreview();//停止预览
-            mCamera.release();//释放相机资源
-            mCamera = null;
+        if (mBackend.isOpened()) {
+            mBackend.close();//停止预览，释放相机资源
+            mPreviewProcessor.reset();
+        }
+        mCapabilities = null;
+        mPreviewSize = null;
+        mSelectedPreviewSize = null;
+        mAppliedFpsRange = null;
+        mPictureSize = null;
+        mZoomRemainder = 0;
+        mMeteringZone = -1;
+        mPendingChanges.clear();
+        mThreadHandler.removeCallbacks(mApplyChangesRunnable);
+        //环形缓冲区的槽位保留到下次打开，池中空闲的堆外缓冲区不再保留
+        mDirectBufferPool.clear();
+        if (mBurst != null) {
+            mThreadHandler.removeCallbacks(mBurst);
+            mBurst.finishShooting();
         }
         if (mState != CameraState.STATE_IDLE) {
             setCameraState(CameraState.STATE_IDLE);
@@ -347,7 +1820,7 @@ public class CameraManager {
      * @return
      */
     public boolean isOpened() {
-        return mCamera != null && mState != CameraState.STATE_IDLE;
+        return mBackend.isOpened() && mState != CameraState.STATE_IDLE;
     }
 
     /**
@@ -356,10 +1829,13 @@ public class CameraManager {
      * @return true 至少两个
      */
     public boolean hasMultiCamera() {
-        if (Camera.getNumberOfCameras() > 1) {
-            return true;
+        //摄像头个数在预热、打开相机时从相机实现中得到，之后不再查询
+        int count = mCameraCount;
+        if (count < 0) {
+            count = mBackend.getCameraCount();
+            mCameraCount = count;
         }
-        return false;
+        return count > 1;
     }
 
     public void switchCamera(final Callback<Boolean> callback) {
@@ -370,6 +1846,11 @@ public class CameraManager {
                 if (!hasMultiCamera()) {
                     return;
                 }
+                loadCameras();
+                long switchStart = System.nanoTime();
+                //预热的相机是切换之前的摄像头，不能再使用
+                closeImmediate();
+                markOpenRequest();
 
                 if (mCameraId == CAMERA_ID_BACK) {
                     mCameraId = CAMERA_ID_FRONT;
@@ -382,6 +1863,9 @@ public class CameraManager {
                 openImmediate();
 
                 final boolean success = (mState == CameraState.STATE_OPENED);
+                if (success) {
+                    mMetrics.recordSince(CameraMetrics.Timer.SWITCH_CAMERA, switchStart);
+                }
                 mUiHandler.post(new Runnable() {
                     @Override
                     public void run() {
@@ -0,0 +1,169 @@
+package com.allen.customcamera;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 相机的性能指标：各个环节的耗时直方图和预览缓冲区的计数
+ * 记录只有原子操作，不加锁，相机线程、保存线程都可以直接记录；
+ * 应用可以在任意线程定期调用snapshot读取，例如上报到自己的监控系统
+ * 耗时的单位都是纳秒
+ */
+
+public class CameraMetrics {
+
+    /**
+     * 耗时指标
+     */
+    public enum Timer {
+        //打开摄像头（不包括配置和开始预览）
+        OPEN,
+        //从请求打开相机（预热或打开）到收到第一帧预览
+        FIRST_FRAME,
+        //切换摄像头，从关闭当前摄像头到新的摄像头开始预览
+        SWITCH_CAMERA,
+        //从开始对焦到对焦结果回调
+        AUTO_FOCUS,
+        //从调用拍照到拍照回调（快门延迟）
+        SHUTTER,
+        //JPEG解码成Bitmap
+        DECODE,
+        //旋转（Bitmap旋转或JPEG无损旋转）
+        ROTATE,
+        //压缩成JPEG
+        ENCODE
+    }
+
+    /**
+     * 计数指标
+     */
+    public enum Counter {
+        //回调结束后交还给相机复用的预览缓冲区
+        PREVIEW_BUFFER_RECYCLED,
+        //预览尺寸改变后作废、没有再交给相机的缓冲区
+        PREVIEW_BUFFER_DROPPED,
+        //相机手上没有可写的缓冲区（之后的帧会被相机丢掉）
+        PREVIEW_BUFFER_STARVED
+    }
+
+    private final LatencyHistogram[] mTimers = new LatencyHistogram[Timer.values().length];
+    private final AtomicLongArray mCounters = new AtomicLongArray(Counter.values().length);
+    //同时把recordSince记录的耗时写成span，可以为null
+    private volatile SpanTracer mTracer;
+
+    public CameraMetrics() {
+        for (int i = 0; i < mTimers.length; i++) {
+            mTimers[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Timer timer, long nanos) {
+        mTimers[timer.ordinal()].record(nanos);
+    }
+
+    /**
+     * 记录从startNanos（System.nanoTime）到现在的耗时
+     */
+    public void recordSince(Timer timer, long startNanos) {
+        recordSince(timer, startNanos, SpanTracer.NO_ID);
+    }
+
+    /**
+     * 记录从startNanos到现在的耗时，设置了tracer时同时记录一个以指标名称命名的span
+     *
+     * @param id span关联的编号
+     */
+    public void recordSince(Timer timer, long startNanos, long id) {
+        long now = System.nanoTime();
+        mTimers[timer.ordinal()].record(now - startNanos);
+        SpanTracer tracer = mTracer;
+        if (tracer != null) {
+            tracer.record(timer.name(), startNanos, now, id);
+        }
+    }
+
+    public void setTracer(SpanTracer tracer) {
+        mTracer = tracer;
+    }
+
+    /**
+     * @return 没有设置时返回null
+     */
+    public SpanTracer getTracer() {
+        return mTracer;
+    }
+
+    public void increment(Counter counter) {
+        mCounters.incrementAndGet(counter.ordinal());
+    }
+
+    public long get(Counter counter) {
+        return mCounters.get(counter.ordinal());
+    }
+
+    /**
+     * 清空所有指标
+     */
+    public void reset() {
+        for (LatencyHistogram timer : mTimers) {
+            timer.reset();
+        }
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * 读取所有指标的快照，不阻塞记录的线程
+     */
+    public Snapshot snapshot() {
+        LatencyHistogram.Snapshot[] timers = new LatencyHistogram.Snapshot[mTimers.length];
+        for (int i = 0; i < mTimers.length; i++) {
+            timers[i] = mTimers[i].snapshot();
+        }
+        long[] counters = new long[mCounters.length()];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = mCounters.get(i);
+        }
+        return new Snapshot(timers, counters);
+    }
+
+    /**
+     * 所有指标在某一时刻的快照
+     */
+    public static final class Snapshot {
+        private final LatencyHistogram.Snapshot[] mTimers;
+        private final long[] mCounters;
+
+        Snapshot(LatencyHistogram.Snapshot[] timers, long[] counters) {
+            mTimers = timers;
+            mCounters = counters;
+        }
+
+        public LatencyHistogram.Snapshot get(Timer timer) {
+            return mTimers[timer.ordinal()];
+        }
+
+        public long get(Counter counter) {
+            return mCounters[counter.ordinal()];
+        }
+
+        /**
+         * 每个指标一行，耗时换算成毫秒，方便打印到日志
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Timer timer : Timer.values()) {
+                LatencyHistogram.Snapshot snapshot = get(timer);
+                builder.append(timer).append(": count=").append(snapshot.getCount())
+                        .append(", p50=").append(snapshot.getPercentile(50) / 1000000).append("ms")
+                        .append(", p99=").append(snapshot.getPercentile(99) / 1000000).append("ms")
+                        .append(", max=").append(snapshot.getMax() / 1000000).append("ms\n");
+            }
+            for (Counter counter : Counter.values()) {
+                builder.append(counter).append(": ").append(get(counter)).append('\n');
+            }
+            return builder.toString();
+        }
+    }
+}
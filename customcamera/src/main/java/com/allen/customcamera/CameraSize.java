@@ -0,0 +1,45 @@
+package com.allen.customcamera;
+
+/**
+ * 相机支持的尺寸（预览尺寸、图片尺寸）
+ * 代替Camera.Size，不依赖打开的相机对象，可以缓存、序列化，也可以直接在JVM上测试
+ */
+
+public final class CameraSize {
+    public final int width;
+    public final int height;
+
+    public CameraSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * 像素个数
+     */
+    public int getArea() {
+        return width * height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CameraSize)) {
+            return false;
+        }
+        CameraSize size = (CameraSize) o;
+        return width == size.width && height == size.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * width + height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+}
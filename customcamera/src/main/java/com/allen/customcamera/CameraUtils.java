@@ -1,7 +1,10 @@
 package com.allen.customcamera;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.ImageFormat;
+import android.graphics.Matrix;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
@@ -11,6 +14,11 @@ import android.util.Size;
 import android.view.Display;
 import android.view.WindowManager;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -51,36 +59,38 @@ public class CameraUtils {
 
     /**
      * 设置相机预览视图的尺寸、拍照获取图片的尺寸
+     * 支持的模式从能力目录中读取，不再解析parameters中的列表
      *
      * @param parameters
+     * @param capabilities 当前摄像头的能力
+     * @param previewSize  选择好的预览尺寸，为null时不修改
+     * @param pictureSize  选择好的图片尺寸，为null时不修改
      */
-    public static void setPreViewParameters(Point surfaceSize, Camera.Parameters parameters) {
-        if (surfaceSize.x <= 0 || surfaceSize.y <= 0 || parameters == null) {
+    public static void setPreViewParameters(Camera.Parameters parameters, CameraCapabilities capabilities,
+                                            CameraSize previewSize, CameraSize pictureSize) {
+        if (parameters == null || capabilities == null) {
             return;
         }
-        //获取相机的预览图片尺寸集合
-        List<Camera.Size> previewSizes = parameters.getSupportedPreviewSizes();
-        Camera.Size previewSize = findProperSize(surfaceSize, previewSizes);
         if (previewSize != null) {
             //设置预览尺寸
             parameters.setPreviewSize(previewSize.width, previewSize.height);
         }
-        //点击拍照后的图片尺寸集合
-        List<Camera.Size> pictureSizeList = parameters.getSupportedPictureSizes();
-        Camera.Size pictureSize = findProperSize(surfaceSize, pictureSizeList);
         if (pictureSize != null) {
             //设置图片尺寸
             parameters.setPictureSize(pictureSize.width, pictureSize.height);
         }
 
-        List<String> focusModeList = parameters.getSupportedFocusModes();
-        if (focusModeList != null && focusModeList.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+        if (capabilities.getFocusModes().contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
             //设置聚焦的模式
             parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
         }
 
-        List<Integer> pictureFormatList = parameters.getSupportedPictureFormats();
-        if (pictureFormatList != null && pictureFormatList.contains(ImageFormat.JPEG)) {
+        if (capabilities.getPreviewFormats().contains(ImageFormat.NV21)) {
+            //预览帧使用NV21格式，预览缓冲池按此格式分配
+            parameters.setPreviewFormat(ImageFormat.NV21);
+        }
+
+        if (capabilities.getPictureFormats().contains(ImageFormat.JPEG)) {
             //设置图片的格式
             parameters.setPictureFormat(ImageFormat.JPEG);
             parameters.setJpegQuality(100);
@@ -88,101 +98,14 @@ public class CameraUtils {
     }
 
     /**
-     * 找出最合适的尺寸
-     * 步骤：
-     * 1、 先将所有尺寸按宽高比例进行分类
-     * 2、 找出和屏幕预览宽高比例最接近的一组
-     * 3、 在比例最接近的一组中找出最接近屏幕尺寸且大于屏幕尺寸
-     * 4、 如果没有找到，则去掉大于屏幕尺寸的条件在找一次
-     *
-     * @param surfaceSize
-     * @param sizeList
-     * @return
-     */
-    private static Camera.Size findProperSize(Point surfaceSize, List<Camera.Size> sizeList) {
-        if (surfaceSize.x <= 0 || surfaceSize.y <= 0 || sizeList == null) {
-            return null;
-        }
-
-        int surfaceWidth = surfaceSize.x;
-        int surfaceHeight = surfaceSize.y;
-
-        List<List<Camera.Size>> ratioListList = new ArrayList<>();
-        for (Camera.Size size : sizeList) {
-            addRatioList(ratioListList, size);
-        }
-
-        final float surfaceRatio = (float) surfaceWidth / surfaceHeight;
-        List<Camera.Size> bestRatioList = null;
-        float ratioDiff = Float.MAX_VALUE;
-        for (List<Camera.Size> ratioList : ratioListList) {
-            float ratio = (float) ratioList.get(0).width / ratioList.get(0).height;
-            float newRatioDiff = Math.abs(ratio - surfaceRatio);
-            Log.e("tog", newRatioDiff + "---");
-            if (newRatioDiff < ratioDiff) {
-                bestRatioList = ratioList;
-                ratioDiff = newRatioDiff;
-            }
-        }
-
-        Camera.Size bestSize = null;
-        int diff = Integer.MAX_VALUE;
-        assert bestRatioList != null;
-        for (Camera.Size size : bestRatioList) {
-            int newDiff = Math.abs(size.width - surfaceWidth) + Math.abs(size.height - surfaceHeight);
-            if (size.height >= surfaceHeight && newDiff < diff) {
-                bestSize = size;
-                diff = newDiff;
-            }
-        }
-
-        if (bestSize != null) {
-            return bestSize;
-        }
-
-        diff = Integer.MAX_VALUE;
-        for (Camera.Size size : bestRatioList) {
-            int newDiff = Math.abs(size.width - surfaceWidth) + Math.abs(size.height - surfaceHeight);
-            if (newDiff < diff) {
-                bestSize = size;
-                diff = newDiff;
-            }
-        }
-
-        return bestSize;
-    }
-
-    private static void addRatioList(List<List<Camera.Size>> ratioListList, Camera.Size size) {
-        float ratio = (float) size.width / size.height;
-        for (List<Camera.Size> ratioList : ratioListList) {
-            float mine = (float) ratioList.get(0).width / ratioList.get(0).height;
-            if (ratio == mine) {
-                ratioList.add(size);
-                return;
-            }
-        }
-
-        List<Camera.Size> ratioList = new ArrayList<>();
-        ratioList.add(size);
-        ratioListList.add(ratioList);
-    }
-
-    /**
-     * 根据屏幕宽度和最大缩放倍数计算缩放单位
+     * 根据屏幕宽度和最大缩放倍数计算缩放单位：手指移动多少距离缩放一级
+     * 移动屏幕宽度的五分之一缩放到最大倍数
      */
-    public static boolean setZoom(Point surfaceSize, Camera.Parameters parameters, float span) {
-        if (surfaceSize.x <= 0 || surfaceSize.y <= 0 || parameters == null) {
-            return false;
+    public static int getZoomUnit(Point surfaceSize, int maxZoom) {
+        if (surfaceSize.y <= 0 || maxZoom <= 0) {
+            return 1;
         }
-
-        int maxZoom = parameters.getMaxZoom();
-        int unit = surfaceSize.y / 5 / maxZoom;
-        int zoom = (int) (span / unit);
-        int lastZoom = parameters.getZoom();
-        int currZoom = lastZoom + zoom;
-        currZoom = clamp(currZoom, 0, maxZoom);
-        parameters.setZoom(currZoom);
-        return lastZoom != currZoom;
+        return Math.max(1, surfaceSize.y / 5 / maxZoom);
     }
 
     /**
@@ -220,21 +143,41 @@ public class CameraUtils {
             parameters.setFocusAreas(focusAreas);
         }
 
+        setMeteringArea(surfaceSize, parameters, x, y);
+
+        parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+    }
+
+    /**
+     * 只修改测光区域，不影响对焦，坐标和setFocusArea相同
+     */
+    public static void setMeteringArea(Point surfaceSize, Camera.Parameters parameters, float x, float y) {
+        if (surfaceSize.x <= 0 || surfaceSize.y <= 0 || parameters == null) {
+            return;
+        }
+
         if (parameters.getMaxNumMeteringAreas() > 0) {
             Rect meteringRect = calculateTapArea(surfaceSize, x, y, 1.5f);
             List<Camera.Area> meteringAreas = new ArrayList<>(1);
             meteringAreas.add(new Camera.Area(meteringRect, 800));
             parameters.setMeteringAreas(meteringAreas);
         }
+    }
 
-        parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+    /**
+     * calculateTapArea的逆运算：预览帧中按传感器方向的归一化坐标（0~1）转换成setFocusArea、setMeteringArea的点击坐标
+     *
+     * @return {x, y}
+     */
+    public static float[] toTapPoint(Point surfaceSize, float frameX, float frameY) {
+        return new float[]{frameX * surfaceSize.y, frameY * surfaceSize.x};
     }
 
     /**
      * 转换对焦区域
      * 范围(-1000, -1000, 1000, 1000)
      */
-    private static Rect calculateTapArea(Point surfaceSize, float x, float y, float coefficient) {
+    static Rect calculateTapArea(Point surfaceSize, float x, float y, float coefficient) {
         float focusAreaSize = 200;
         int areaSize = (int) (focusAreaSize * coefficient);
         int surfaceWidth = surfaceSize.x;
@@ -248,6 +191,143 @@ public class CameraUtils {
         return new Rect(left, top, right, bottom);
     }
 
+    /**
+     * 根据旋转角度和是否镜像计算EXIF中的Orientation值
+     * 图片显示时需要先顺时针旋转degrees度，mirror为true时再水平翻转
+     *
+     * @param degrees 0、90、180、270
+     * @param mirror  是否水平镜像（前置摄像头）
+     * @return EXIF Orientation（1~8）
+     */
+    public static int getExifOrientation(int degrees, boolean mirror) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return mirror ? 5 : 6;
+            case 180:
+                return mirror ? 4 : 3;
+            case 270:
+                return mirror ? 7 : 8;
+            default:
+                return mirror ? 2 : 1;
+        }
+    }
+
+    /**
+     * 根据EXIF中的Orientation值生成显示图片时使用的变换矩阵
+     */
+    public static Matrix getExifMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case 2:
+                matrix.postScale(-1, 1);
+                break;
+            case 3:
+                matrix.setRotate(180);
+                break;
+            case 4:
+                matrix.setRotate(180);
+                matrix.postScale(-1, 1);
+                break;
+            case 5:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case 6:
+                matrix.setRotate(90);
+                break;
+            case 7:
+                matrix.setRotate(270);
+                matrix.postScale(-1, 1);
+                break;
+            case 8:
+                matrix.setRotate(270);
+                break;
+            default:
+                break;
+        }
+        return matrix;
+    }
+
+    /**
+     * 计算解码图片时的采样率，保证解码后的图片不小于要求的尺寸
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * 按要求的尺寸采样解码图片文件，并按照EXIF方向旋转
+     *
+     * @return 解码失败返回null
+     */
+    public static Bitmap decodeSampledBitmap(File file, int reqWidth, int reqHeight) {
+        return decodeSampledBitmap(file, reqWidth, reqHeight, null);
+    }
+
+    /**
+     * 按要求的尺寸采样解码图片文件，并按照EXIF方向旋转
+     *
+     * @param pool 解码和旋转时复用Bitmap的缓冲池，可以为null
+     * @return 解码失败返回null
+     */
+    public static Bitmap decodeSampledBitmap(File file, int reqWidth, int reqHeight, BitmapPool pool) {
+        String path = file.getAbsolutePath();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int orientation = readExifOrientation(file);
+        //旋转90度的图片，宽高要互换之后再和控件比较
+        boolean transpose = orientation >= 5 && orientation <= 8;
+        options.inSampleSize = transpose
+                ? calculateInSampleSize(options.outWidth, options.outHeight, reqHeight, reqWidth)
+                : calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = pool != null ? pool.decodeFile(path, options) : BitmapFactory.decodeFile(path, options);
+        if (bitmap == null || orientation == ExifWriter.ORIENTATION_NORMAL) {
+            return bitmap;
+        }
+        if (pool != null) {
+            return pool.transform(bitmap, getExifMatrix(orientation));
+        }
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), getExifMatrix(orientation), true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    /**
+     * 读取图片文件的EXIF方向，读取失败返回ORIENTATION_NORMAL
+     */
+    public static int readExifOrientation(File file) {
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            return ExifWriter.readOrientation(in);
+        } catch (IOException e) {
+            Log.w("CameraUtils", "read exif failed", e);
+            return ExifWriter.ORIENTATION_NORMAL;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
     private static int clamp(int x, int min, int max) {
         return Math.min(Math.max(x, min), max);
     }
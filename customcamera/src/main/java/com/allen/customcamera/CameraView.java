@@ -27,6 +27,8 @@ import android.view.animation.RotateAnimation;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 
+import java.io.File;
+
 import static android.content.ContentValues.TAG;
 
 /**
@@ -50,6 +52,12 @@ public class CameraView extends FrameLayout implements SensorEventListener, View
     //相机管理类
     private CameraManager cameraManager;
     private Bitmap mPicture;
+    //拍照图片直接保存的文件，为null时回调Bitmap
+    private File mOutputFile;
+    //已经保存好的拍照图片文件
+    private File mPictureFile;
+    //是否使用零延迟拍照
+    private boolean mZslEnabled;
     private int mSensorRotation;
     private boolean isSurfaceCreated;
     private GestureDetector mGestureDetector;
@@ -63,9 +71,12 @@ public class CameraView extends FrameLayout implements SensorEventListener, View
      */
     public interface CameraListener {
 
-        //拍照
+        //拍照（需要保留图片时用claimPicture取走，否则图片继续显示，重拍或者界面关闭时归还到Bitmap缓冲池）
         void onCapture(Bitmap bitmap);
 
+        //拍照（设置了输出文件时，图片已经保存到文件中）
+        void onCapture(File file);
+
         //关闭
         void onCameraClose();
 
@@ -85,6 +96,48 @@ public class CameraView extends FrameLayout implements SensorEventListener, View
         this.mCameraListener = cameraListener;
     }
 
+    /**
+     * 设置拍照图片的输出文件
+     * 设置之后拍照得到的JPEG数据直接写入文件，不再解码成Bitmap回调
+     *
+     * @param file
+     */
+    public void setOutputFile(File file) {
+        this.mOutputFile = file;
+    }
+
+    /**
+     * 设置拍照图片是否无损旋转成正常方向，见{@link CameraManager#setLosslessRotation(boolean)}
+     *
+     * @param enabled
+     */
+    public void setLosslessRotation(boolean enabled) {
+        cameraManager.setLosslessRotation(enabled);
+    }
+
+    /**
+     * 设置是否使用零延迟拍照，见{@link CameraManager#setZslEnabled(boolean)}
+     * 开启后拍照使用按下拍照按钮那一刻的预览帧
+     *
+     * @param enabled
+     */
+    public void setZslEnabled(boolean enabled) {
+        mZslEnabled = enabled;
+        cameraManager.setZslEnabled(enabled);
+    }
+
+    /**
+     * 连拍，预览不中断，见{@link CameraManager#takeBurst(File, int, long, CameraManager.BurstListener)}
+     *
+     * @param dir        保存图片的目录
+     * @param count      拍摄张数
+     * @param intervalMs 两次拍摄的目标间隔
+     * @param listener
+     */
+    public void takeBurst(File dir, int count, long intervalMs, CameraManager.BurstListener listener) {
+        cameraManager.takeBurst(dir, count, intervalMs, listener);
+    }
+
     public CameraView(@NonNull Context context) {
         this(context, null);
     }
@@ -130,7 +183,15 @@ public class CameraView extends FrameLayout implements SensorEventListener, View
         }
         @Override
         public void onCapture() {
-            cameraManager.takePicture(new CameraManager.Callback<Bitmap>() {
+            if (mOutputFile != null) {
+                captureToFile();
+                return;
+            }
+            if (CaptureSaver.getInstance().isFull()) {
+                //还有图片没有保存完，不再拍照（只有回调Bitmap时才交给保存服务）
+                return;
+            }
+            CameraManager.Callback<Bitmap> callback = new CameraManager.Callback<Bitmap>() {
                 @Override
                 public void onEvent(Bitmap bitmap) {
                     if (bitmap != null) {
@@ -145,25 +206,114 @@ public class CameraView extends FrameLayout implements SensorEventListener, View
                         onRetry();
                     }
                 }
-            });
+            };
+            if (mZslEnabled) {
+                cameraManager.takeZslPicture(mCaptureLayout.getCaptureTapNanos(), callback);
+            } else {
+                cameraManager.takePicture(callback);
+            }
         }
         @Override
         public void onRetry() {
-            mPicture = null;
+            releasePicture();
+            if (mPictureFile != null) {
+                mPictureFile.delete();
+                mPictureFile = null;
+            }
             mSurfaceView.setVisibility(VISIBLE);
             mSwitchCamera.setVisibility(cameraManager.hasMultiCamera() ? VISIBLE : GONE);
-            mPreViewPicture.setImageBitmap(null);
             mPreViewPicture.setVisibility(GONE);
             mCaptureLayout.setIsExpand(false);
         }
         @Override
         public void onConfirm() {
-            if (mPicture != null && mCameraListener != null) {
+            if (mPictureFile != null && mCameraListener != null) {
+                mCameraListener.onCapture(mPictureFile);
+                releasePicture();
+            } else if (mPicture != null && mCameraListener != null) {
+                //没有用claimPicture取走时（例如保存队列已满）继续显示，可以再次确认或者重拍
                 mCameraListener.onCapture(mPicture);
             }
         }
     };
 
+    /**
+     * 在{@link CameraListener#onCapture(Bitmap)}回调中调用，取走拍照图片的所有权，
+     * 之后图片不再显示，也不再归还到缓冲池，例如交给{@link CaptureSaver}在后台保存
+     *
+     * @return 没有拍照图片时返回null
+     */
+    public Bitmap claimPicture() {
+        Bitmap picture = mPicture;
+        mPicture = null;
+        mPreViewPicture.setImageBitmap(null);
+        return picture;
+    }
+
+    //回调Bitmap时保存队列满禁用拍照按钮，直接保存到文件时不使用保存服务
+    private CaptureSaver.QueueListener mSaverQueueListener = new CaptureSaver.QueueListener() {
+        @Override
+        public void onQueueChanged(int pendingCount, boolean full) {
+            mCaptureLayout.setCaptureEnabled(!full || mOutputFile != null);
+        }
+    };
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        CaptureSaver saver = CaptureSaver.getInstance();
+        saver.setMetrics(cameraManager.getMetrics());
+        saver.addQueueListener(mSaverQueueListener);
+    }
+
+    /**
+     * 移除显示的图片，并把它归还到Bitmap缓冲池中
+     */
+    private void releasePicture() {
+        mPreViewPicture.setImageBitmap(null);
+        if (mPicture != null) {
+            cameraManager.getBitmapPool().put(mPicture);
+            mPicture = null;
+        }
+    }
+
+    /**
+     * 拍照并直接保存到输出文件，保存完成后按控件尺寸解码一张预览图
+     */
+    private void captureToFile() {
+        CameraManager.Callback<File> callback = new CameraManager.Callback<File>() {
+            @Override
+            public void onEvent(final File file) {
+                if (file == null) {
+                    captureClickListener.onRetry();
+                    return;
+                }
+                mPictureFile = file;
+                cameraManager.loadPicturePreview(file, getWidth(), getHeight(), new CameraManager.Callback<Bitmap>() {
+                    @Override
+                    public void onEvent(Bitmap bitmap) {
+                        if (mPictureFile != file) {
+                            //已经重拍，图片不再需要
+                            cameraManager.getBitmapPool().put(bitmap);
+                            return;
+                        }
+                        mSurfaceView.setVisibility(GONE);
+                        mSwitchCamera.setVisibility(GONE);
+                        mPreViewPicture.setVisibility(VISIBLE);
+                        mPicture = bitmap;
+                        mPreViewPicture.setImageBitmap(mPicture);
+                        mCaptureLayout.setIsExpand(true);
+                    }
+                });
+            }
+        };
+        if (mZslEnabled) {
+            cameraManager.takeZslPictureToFile(mCaptureLayout.getCaptureTapNanos(), mOutputFile, callback);
+        } else {
+            cameraManager.takePictureToFile(mOutputFile, callback);
+        }
+    }
+
     //SurfaceView创建、改变、销毁状态回调的对象
     private SurfaceHolder.Callback surfaceViewCallBack = new SurfaceHolder.Callback() {
         @Override
@@ -174,12 +324,8 @@ public class CameraView extends FrameLayout implements SensorEventListener, View
         public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {//SurfaceView 的格式或者尺寸改变的回调
             //设置相机预览的SurfaceHolder
             cameraManager.setSurfaceHolder(holder, width, height);
-            //如果相机是打开的先关闭相机
-            if (cameraManager.isOpened()) {
-                cameraManager.close();
-            }
-            //打开相机
-            cameraManager.open(new CameraManager.Callback<Boolean>() {
+            //相机已经打开时只重新配置预览，没有打开时打开相机
+            cameraManager.reconfigure(new CameraManager.Callback<Boolean>() {
                 @Override
                 public void onEvent(Boolean success) {
                     if (!success && mCameraListener != null) {
@@ -338,9 +484,9 @@ public class CameraView extends FrameLayout implements SensorEventListener, View
     }
 
     public void onPause() {
-        if (cameraManager.isOpened()) {
-            cameraManager.close();
-        }
+        //预热的相机还没有开始预览，isOpened返回false，也要关闭；
+        //close排在还没有执行的预热之后，预热打开的相机同样会被关闭
+        cameraManager.close();
 
         mSensorManager.unregisterListener(this);
     }
@@ -348,7 +494,11 @@ public class CameraView extends FrameLayout implements SensorEventListener, View
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        CaptureSaver.getInstance().removeQueueListener(mSaverQueueListener);
         mCameraListener = null;
+        //界面关闭后不再缓存图片，释放缓冲池占用的内存
+        releasePicture();
+        cameraManager.getBitmapPool().clear();
     }
 
     private void playRotateAnimation(int oldRotation, int newRotation) {
@@ -12,6 +12,7 @@ import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.LinearInterpolator;
@@ -38,6 +39,8 @@ public class CaptureLayout extends FrameLayout implements View.OnClickListener {
 
     //是否展开拍照、重拍、确认按钮的布局
     private boolean mIsExpand;
+    //最近一次按下拍照按钮的时间（System.nanoTime的时钟），零延迟拍照按这个时间选择预览帧
+    private long mCaptureTapNanos;
 
     public CaptureLayout(@NonNull Context context) {
         this(context, null);
@@ -66,6 +69,17 @@ public class CaptureLayout extends FrameLayout implements View.OnClickListener {
     private void initListener() {
         mCancel.setOnClickListener(this);
         mCapture.setOnClickListener(this);
+        mCapture.setOnTouchListener(new OnTouchListener() {
+            @Override
+            public boolean onTouch(View v, MotionEvent event) {
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                    //事件时间是uptimeMillis，和System.nanoTime都是CLOCK_MONOTONIC
+                    mCaptureTapNanos = event.getEventTime() * 1000000L;
+                }
+                //不消费事件，点击事件照常触发
+                return false;
+            }
+        });
         mRetry.setOnClickListener(this);
         mConfirm.setOnClickListener(this);
     }
@@ -92,6 +106,25 @@ public class CaptureLayout extends FrameLayout implements View.OnClickListener {
         }
     }
 
+    /**
+     * 最近一次按下拍照按钮的时间，点击事件在抬起手指时才触发，比按下晚
+     *
+     * @return 和System.nanoTime使用同一个时钟
+     */
+    public long getCaptureTapNanos() {
+        return mCaptureTapNanos;
+    }
+
+    /**
+     * 设置拍照按钮是否可用，保存队列满时禁用，避免拍出来的图片没有地方保存
+     *
+     * @param enabled
+     */
+    public void setCaptureEnabled(boolean enabled) {
+        mCapture.setEnabled(enabled);
+        mCapture.setAlpha(enabled ? 1f : 0.4f);
+    }
+
     public void setIsExpand(boolean isExpand) {
         if (mIsExpand == isExpand) {
             return;
@@ -0,0 +1,202 @@
+package com.allen.customcamera;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 拍照图片的编码、写入流水线
+ * 多个工作线程并行处理（旋转、写EXIF、写文件），同时在处理和排队的图片数有上限：
+ * 达到上限时submit阻塞，拍照线程因此放慢拍照速度（背压），不会无限制地占用内存
+ * 每张图片记录从按下快门到写入磁盘的延迟，设置了SpanTracer时同时记录排队（QUEUE）和处理（PROCESS）的span
+ * 纯Java实现，可以直接在JVM上测试
+ */
+
+public class CapturePipeline {
+
+    /**
+     * 处理一张图片，在工作线程中调用
+     */
+    public interface Stage {
+        File process(byte[] jpeg, int index) throws IOException;
+    }
+
+    /**
+     * 处理结果，在工作线程中回调
+     */
+    public interface Listener {
+        /**
+         * @param latencyNanos 从按下快门到写入磁盘的时间
+         */
+        void onSaved(int index, File file, long latencyNanos);
+
+        void onFailed(int index, IOException e);
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    //处理中和排队中的图片数上限
+    private final Semaphore mSlots;
+    private final int mCapacity;
+
+    private final AtomicInteger mSavedCount = new AtomicInteger();
+    private final AtomicInteger mFailedCount = new AtomicInteger();
+    //submit因为流水线满而阻塞的次数和总时间
+    private final AtomicInteger mBlockedCount = new AtomicInteger();
+    private long mBlockedNanos;
+    private int mLatencyCount;
+    private long mTotalLatencyNanos;
+    private long mMaxLatencyNanos;
+    //可以为null
+    private volatile SpanTracer mTracer;
+
+    /**
+     * @param workers  工作线程数
+     * @param capacity 同时在流水线中的图片数上限，不小于workers
+     */
+    public CapturePipeline(int workers, int capacity) {
+        if (workers <= 0 || capacity < workers) {
+            throw new IllegalArgumentException("workers: " + workers + ", capacity: " + capacity);
+        }
+        mCapacity = capacity;
+        mSlots = new Semaphore(capacity);
+        mExecutor = new ThreadPoolExecutor(workers, workers, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "capture-worker-" + mCount.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        //空闲时工作线程退出，不常驻
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交一张图片，流水线满时阻塞直到有图片处理完成
+     *
+     * @param shutterNanos 按下快门的时间（System.nanoTime）
+     */
+    public void submit(final byte[] jpeg, final int index, final long shutterNanos,
+                       final Stage stage, final Listener listener) throws InterruptedException {
+        final long submitNanos = System.nanoTime();
+        if (!mSlots.tryAcquire()) {
+            long start = System.nanoTime();
+            mSlots.acquire();
+            mBlockedCount.incrementAndGet();
+            synchronized (this) {
+                mBlockedNanos += System.nanoTime() - start;
+            }
+        }
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    SpanTracer tracer = mTracer;
+                    if (tracer != null) {
+                        tracer.record("QUEUE", submitNanos, start, index);
+                    }
+                    try {
+                        File file = stage.process(jpeg, index);
+                        if (tracer != null) {
+                            tracer.recordSince("PROCESS", start, index);
+                        }
+                        long latency = System.nanoTime() - shutterNanos;
+                        recordLatency(latency);
+                        mSavedCount.incrementAndGet();
+                        listener.onSaved(index, file, latency);
+                    } catch (IOException e) {
+                        mFailedCount.incrementAndGet();
+                        listener.onFailed(index, e);
+                    } catch (RuntimeException e) {
+                        mFailedCount.incrementAndGet();
+                        listener.onFailed(index, new IOException(e));
+                    } finally {
+                        mSlots.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            mSlots.release();
+            throw e;
+        }
+    }
+
+    private synchronized void recordLatency(long latency) {
+        mLatencyCount++;
+        mTotalLatencyNanos += latency;
+        if (latency > mMaxLatencyNanos) {
+            mMaxLatencyNanos = latency;
+        }
+    }
+
+    /**
+     * 设置记录span的tracer，可以为null
+     */
+    public void setTracer(SpanTracer tracer) {
+        mTracer = tracer;
+    }
+
+    /**
+     * 等待流水线中的图片全部处理完成
+     *
+     * @return 超时返回false
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!mSlots.tryAcquire(mCapacity, timeout, unit)) {
+            return false;
+        }
+        mSlots.release(mCapacity);
+        return true;
+    }
+
+    /**
+     * 流水线中（处理中和排队中）的图片数
+     */
+    public int getInFlightCount() {
+        return mCapacity - mSlots.availablePermits();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getSavedCount() {
+        return mSavedCount.get();
+    }
+
+    public int getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    public int getBlockedCount() {
+        return mBlockedCount.get();
+    }
+
+    public synchronized long getBlockedNanos() {
+        return mBlockedNanos;
+    }
+
+    public synchronized long getAverageLatencyNanos() {
+        return mLatencyCount == 0 ? 0 : mTotalLatencyNanos / mLatencyCount;
+    }
+
+    public synchronized long getMaxLatencyNanos() {
+        return mMaxLatencyNanos;
+    }
+
+    /**
+     * 不再接收新的图片，已经提交的继续处理
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+}
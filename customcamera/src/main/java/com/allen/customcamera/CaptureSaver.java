@@ -0,0 +1,297 @@
+package com.allen.customcamera;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 拍照图片的保存服务
+ * 在有界的工作线程池中压缩Bitmap、写入文件，不占用主线程；
+ * 队列满时拒绝新的图片，并通知监听者（例如禁用拍照按钮），由调用方放慢拍照速度
+ * 进程内单例，调用的Activity结束后保存照常进行
+ * 文件先写入临时文件再重命名，读取者不会看到写了一半的图片
+ */
+
+public class CaptureSaver {
+    private static final String TAG = "CaptureSaver";
+    //写文件时每次写入的字节数，也是进度回调的粒度
+    private static final int WRITE_CHUNK = 64 * 1024;
+
+    /**
+     * 保存结果的回调，在主线程中执行
+     */
+    public interface Callback {
+        /**
+         * 写入进度，压缩完成后开始回调
+         */
+        void onProgress(File file, long writtenBytes, long totalBytes);
+
+        void onSaved(File file);
+
+        void onFailed(File file, IOException e);
+    }
+
+    /**
+     * 队列状态的监听，在主线程中回调
+     */
+    public interface QueueListener {
+        /**
+         * @param pendingCount 正在保存和排队的图片数
+         * @param full         队列是否已满，满时新的图片会被拒绝
+         */
+        void onQueueChanged(int pendingCount, boolean full);
+    }
+
+    private static CaptureSaver sInstance;
+
+    public static synchronized CaptureSaver getInstance() {
+        if (sInstance == null) {
+            //两个线程保存，最多再排队两张
+            sInstance = new CaptureSaver(2, 2);
+        }
+        return sInstance;
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mCapacity;
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    //只在主线程中访问
+    private final ArrayList<QueueListener> mQueueListeners = new ArrayList<>();
+    //记录压缩耗时的性能指标，可以为null
+    private volatile CameraMetrics mMetrics;
+
+    /**
+     * @param workers   工作线程数
+     * @param queueSize 排队等待的图片数上限
+     */
+    public CaptureSaver(int workers, int queueSize) {
+        mCapacity = workers + queueSize;
+        mExecutor = new ThreadPoolExecutor(workers, workers, 10, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            private final AtomicInteger mIndex = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "capture-saver-" + mIndex.getAndIncrement());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 压缩Bitmap并保存到文件
+     * 接受后Bitmap归保存服务所有，压缩完成后归还到pool（pool为null时回收），调用者不能再使用
+     *
+     * @param quality JPEG质量
+     * @param pool    压缩完成后归还Bitmap的缓冲池，可以为null
+     * @return 队列已满时返回false，Bitmap仍归调用者所有
+     */
+    public boolean save(final Bitmap bitmap, final File file, final int quality, final BitmapPool pool,
+                        final Callback callback) {
+        return submit(file, callback, new Encoder() {
+            @Override
+            public byte[] encode() throws IOException {
+                try {
+                    long start = System.nanoTime();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(bitmap.getWidth() * bitmap.getHeight() / 4);
+                    if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out)) {
+                        throw new IOException("compress failed");
+                    }
+                    CameraMetrics metrics = mMetrics;
+                    if (metrics != null) {
+                        metrics.recordSince(CameraMetrics.Timer.ENCODE, start);
+                    }
+                    return out.toByteArray();
+                } finally {
+                    if (pool != null) {
+                        pool.put(bitmap);
+                    } else {
+                        bitmap.recycle();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 保存已经编码好的JPEG数据
+     *
+     * @return 队列已满时返回false
+     */
+    public boolean save(final byte[] jpeg, File file, Callback callback) {
+        return submit(file, callback, new Encoder() {
+            @Override
+            public byte[] encode() {
+                return jpeg;
+            }
+        });
+    }
+
+    private interface Encoder {
+        byte[] encode() throws IOException;
+    }
+
+    private boolean submit(final File file, final Callback callback, final Encoder encoder) {
+        mPendingCount.incrementAndGet();
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write(file, encoder.encode(), callback);
+                        postSaved(file, callback);
+                    } catch (IOException e) {
+                        Log.e(TAG, "save " + file + " failed", e);
+                        postFailed(file, e, callback);
+                    } catch (RuntimeException e) {
+                        //例如压缩已经回收的Bitmap，同样通知调用者失败
+                        Log.e(TAG, "save " + file + " failed", e);
+                        postFailed(file, new IOException(e), callback);
+                    } finally {
+                        mPendingCount.decrementAndGet();
+                        postQueueChanged();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mPendingCount.decrementAndGet();
+            postQueueChanged();
+            return false;
+        }
+        postQueueChanged();
+        return true;
+    }
+
+    private void write(File file, byte[] data, Callback callback) throws IOException {
+        long start = System.nanoTime();
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            for (int offset = 0; offset < data.length; offset += WRITE_CHUNK) {
+                int length = Math.min(WRITE_CHUNK, data.length - offset);
+                out.write(data, offset, length);
+                postProgress(file, offset + length, data.length, callback);
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("rename " + tmp + " failed");
+        }
+        CameraMetrics metrics = mMetrics;
+        SpanTracer tracer = metrics != null ? metrics.getTracer() : null;
+        if (tracer != null) {
+            tracer.recordSince("WRITE_FILE", start, SpanTracer.NO_ID);
+        }
+    }
+
+    private void postProgress(final File file, final long written, final long total, final Callback callback) {
+        if (callback == null) {
+            return;
+        }
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onProgress(file, written, total);
+            }
+        });
+    }
+
+    private void postSaved(final File file, final Callback callback) {
+        if (callback == null) {
+            return;
+        }
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSaved(file);
+            }
+        });
+    }
+
+    private void postFailed(final File file, final IOException e, final Callback callback) {
+        if (callback == null) {
+            return;
+        }
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFailed(file, e);
+            }
+        });
+    }
+
+    private void postQueueChanged() {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int pending = mPendingCount.get();
+                boolean full = pending >= mCapacity;
+                for (int i = mQueueListeners.size() - 1; i >= 0; i--) {
+                    mQueueListeners.get(i).onQueueChanged(pending, full);
+                }
+            }
+        });
+    }
+
+    /**
+     * 设置记录压缩耗时的性能指标，一般是CameraManager.getMetrics()，写文件的span记录到它的tracer中
+     */
+    public void setMetrics(CameraMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 添加队列状态监听，添加后立即回调一次当前状态，在主线程中调用
+     */
+    public void addQueueListener(QueueListener listener) {
+        if (!mQueueListeners.contains(listener)) {
+            mQueueListeners.add(listener);
+        }
+        int pending = mPendingCount.get();
+        listener.onQueueChanged(pending, pending >= mCapacity);
+    }
+
+    /**
+     * 在主线程中调用
+     */
+    public void removeQueueListener(QueueListener listener) {
+        mQueueListeners.remove(listener);
+    }
+
+    /**
+     * 正在保存和排队的图片数
+     */
+    public int getPendingCount() {
+        return mPendingCount.get();
+    }
+
+    /**
+     * 队列是否已满，满时新的图片会被拒绝
+     */
+    public boolean isFull() {
+        return mPendingCount.get() >= mCapacity;
+    }
+}
@@ -0,0 +1,297 @@
+package com.allen.customcamera;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 堆外（direct ByteBuffer）帧缓冲池
+ * 预览帧、零延迟拍照的环形缓冲区这类几MB的大块数据放在堆外，不占用Java堆，也不会给GC带来压力
+ * acquire取出的缓冲区带有引用计数，retain增加一个引用，release减少一个引用，减到0时归还到池中
+ * 按容量分桶保存，总字节数超过预算时按最近最少使用的顺序丢弃（交给GC释放堆外内存）
+ * 开启泄漏检测（调试版本）后记录每个缓冲区被取出的位置，没有release就被回收的缓冲区会通知LeakListener
+ * 纯Java实现，线程安全
+ */
+
+public class DirectBufferPool {
+
+    /**
+     * 泄漏通知，在调用acquire的线程中回调
+     */
+    public interface LeakListener {
+        /**
+         * @param acquiredAt 泄漏的缓冲区被取出时的调用栈
+         */
+        void onLeak(Throwable acquiredAt);
+    }
+
+    //允许池中保存的最大字节数
+    private final long mMaxBytes;
+    //池中缓冲区的总字节数
+    private long mCurrentBytes;
+    //按访问顺序排列的桶，第一个是最久没有使用的
+    private final LinkedHashMap<Integer, ArrayList<ByteBuffer>> mBuckets = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+    //还没有归还的缓冲区个数
+    private final AtomicInteger mOutstandingCount = new AtomicInteger();
+
+    //泄漏检测：还没有归还的缓冲区的记录，缓冲区被回收后记录进入队列
+    private volatile boolean mLeakDetection;
+    private volatile LeakListener mLeakListener;
+    private final Set<LeakRecord> mLeakRecords = Collections.synchronizedSet(
+            Collections.newSetFromMap(new IdentityHashMap<LeakRecord, Boolean>()));
+    private final ReferenceQueue<PooledBuffer> mLeakQueue = new ReferenceQueue<>();
+    private final AtomicInteger mLeakCount = new AtomicInteger();
+
+    /**
+     * @param maxBytes 池中最多保存的字节数
+     */
+    public DirectBufferPool(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("max bytes must not be negative: " + maxBytes);
+        }
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 开启、关闭泄漏检测，开启后每次acquire都会记录调用栈，只在调试版本中使用
+     */
+    public void setLeakDetection(boolean enabled) {
+        mLeakDetection = enabled;
+    }
+
+    public void setLeakListener(LeakListener listener) {
+        mLeakListener = listener;
+    }
+
+    /**
+     * 取出一个容量为capacity的缓冲区，引用计数为1
+     * 内容是上一次使用留下的，position为0，limit为capacity，使用本机字节序
+     */
+    public PooledBuffer acquire(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        reportLeaks();
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            ArrayList<ByteBuffer> bucket = mBuckets.get(capacity);
+            if (bucket != null && !bucket.isEmpty()) {
+                buffer = bucket.remove(bucket.size() - 1);
+                mCurrentBytes -= capacity;
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        mOutstandingCount.incrementAndGet();
+        PooledBuffer pooled = new PooledBuffer(this, buffer);
+        if (mLeakDetection) {
+            pooled.mLeakRecord = new LeakRecord(pooled, mLeakQueue);
+            mLeakRecords.add(pooled.mLeakRecord);
+        }
+        return pooled;
+    }
+
+    /**
+     * 引用计数减到0，缓冲区归还到池中
+     */
+    private void recycle(PooledBuffer pooled) {
+        mOutstandingCount.decrementAndGet();
+        LeakRecord record = pooled.mLeakRecord;
+        if (record != null) {
+            mLeakRecords.remove(record);
+            record.clear();
+        }
+        ByteBuffer buffer = pooled.mBuffer;
+        int capacity = buffer.capacity();
+        synchronized (this) {
+            if (capacity > mMaxBytes) {
+                mEvictionCount++;
+                return;
+            }
+            ArrayList<ByteBuffer> bucket = mBuckets.get(capacity);
+            if (bucket == null) {
+                bucket = new ArrayList<>();
+                mBuckets.put(capacity, bucket);
+            }
+            bucket.add(buffer);
+            mCurrentBytes += capacity;
+            trimToSizeLocked(mMaxBytes);
+        }
+    }
+
+    /**
+     * 检查已经被回收但没有release的缓冲区
+     */
+    private void reportLeaks() {
+        LeakRecord record;
+        while ((record = (LeakRecord) mLeakQueue.poll()) != null) {
+            if (!mLeakRecords.remove(record)) {
+                continue;
+            }
+            mLeakCount.incrementAndGet();
+            mOutstandingCount.decrementAndGet();
+            LeakListener listener = mLeakListener;
+            if (listener != null) {
+                listener.onLeak(record.mAcquiredAt);
+            }
+        }
+    }
+
+    /**
+     * 丢弃缓冲区直到总字节数不超过maxBytes
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        trimToSizeLocked(maxBytes);
+    }
+
+    private void trimToSizeLocked(long maxBytes) {
+        Iterator<Map.Entry<Integer, ArrayList<ByteBuffer>>> iterator = mBuckets.entrySet().iterator();
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Integer, ArrayList<ByteBuffer>> entry = iterator.next();
+            ArrayList<ByteBuffer> bucket = entry.getValue();
+            while (mCurrentBytes > maxBytes && !bucket.isEmpty()) {
+                bucket.remove(bucket.size() - 1);
+                mCurrentBytes -= entry.getKey();
+                mEvictionCount++;
+            }
+            if (bucket.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        trimToSize(0);
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * 取出之后还没有归还的缓冲区个数（检测到的泄漏不再计入）
+     */
+    public int getOutstandingCount() {
+        return mOutstandingCount.get();
+    }
+
+    /**
+     * 检测到的泄漏个数，会先检查一次已经被回收的缓冲区
+     */
+    public int getLeakCount() {
+        reportLeaks();
+        return mLeakCount.get();
+    }
+
+    /**
+     * 池中取出的缓冲区
+     */
+    public static final class PooledBuffer {
+        private final DirectBufferPool mPool;
+        private final ByteBuffer mBuffer;
+        private final AtomicInteger mRefCount = new AtomicInteger(1);
+        private LeakRecord mLeakRecord;
+
+        PooledBuffer(DirectBufferPool pool, ByteBuffer buffer) {
+            mPool = pool;
+            mBuffer = buffer;
+        }
+
+        /**
+         * 缓冲区本身，release之后不能再使用
+         * 多个线程同时读取时使用绝对位置的get，或者各自duplicate
+         */
+        public ByteBuffer getBuffer() {
+            if (mRefCount.get() <= 0) {
+                throw new IllegalStateException("buffer already released");
+            }
+            return mBuffer;
+        }
+
+        public int capacity() {
+            return mBuffer.capacity();
+        }
+
+        public int getRefCount() {
+            return mRefCount.get();
+        }
+
+        /**
+         * 增加一个引用
+         */
+        public PooledBuffer retain() {
+            while (true) {
+                int count = mRefCount.get();
+                if (count <= 0) {
+                    throw new IllegalStateException("buffer already released");
+                }
+                if (mRefCount.compareAndSet(count, count + 1)) {
+                    return this;
+                }
+            }
+        }
+
+        /**
+         * 减少一个引用，减到0时归还到池中
+         *
+         * @return 是否已经归还
+         */
+        public boolean release() {
+            int count = mRefCount.decrementAndGet();
+            if (count < 0) {
+                mRefCount.incrementAndGet();
+                throw new IllegalStateException("buffer already released");
+            }
+            if (count > 0) {
+                return false;
+            }
+            mPool.recycle(this);
+            return true;
+        }
+    }
+
+    /**
+     * 泄漏检测的记录：弱引用缓冲区，保存取出时的调用栈
+     */
+    private static final class LeakRecord extends WeakReference<PooledBuffer> {
+        private final Throwable mAcquiredAt = new Throwable("direct buffer acquired here");
+
+        LeakRecord(PooledBuffer referent, ReferenceQueue<PooledBuffer> queue) {
+            super(referent, queue);
+        }
+    }
+}
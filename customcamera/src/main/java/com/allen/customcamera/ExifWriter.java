@@ -0,0 +1,770 @@
+package com.allen.customcamera;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 在JPEG字节流中插入或修改EXIF(APP1)信息，不解码图片
+ * 只读取并缓存图片数据之前的APPn/COM段，之后的数据原样流式复制
+ * 已有EXIF中存在类型和长度都相同的标签时直接原地修改，否则重新生成整个APP1段（保留原有的标签和缩略图）
+ * 重新生成时MakerNote等内部使用绝对偏移的私有数据可能失效
+ * 纯Java实现，可以直接在JVM上测试
+ */
+
+public class ExifWriter {
+
+    //方向
+    public static final int TAG_ORIENTATION = 0x0112;
+    public static final int TAG_MAKE = 0x010F;
+    public static final int TAG_MODEL = 0x0110;
+    public static final int TAG_DATETIME = 0x0132;
+    public static final int TAG_EXIF_IFD_POINTER = 0x8769;
+    public static final int TAG_GPS_IFD_POINTER = 0x8825;
+    public static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    public static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+    public static final int TAG_EXPOSURE_TIME = 0x829A;
+    public static final int TAG_F_NUMBER = 0x829D;
+    public static final int TAG_ISO_SPEED_RATINGS = 0x8827;
+    public static final int TAG_EXIF_VERSION = 0x9000;
+    public static final int TAG_DATETIME_ORIGINAL = 0x9003;
+    public static final int TAG_DATETIME_DIGITIZED = 0x9004;
+    public static final int TAG_FOCAL_LENGTH = 0x920A;
+    public static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+    public static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+    public static final int TAG_INTEROPERABILITY_IFD_POINTER = 0xA005;
+
+    public static final int ORIENTATION_NORMAL = 1;
+
+    static final int TYPE_BYTE = 1;
+    static final int TYPE_ASCII = 2;
+    static final int TYPE_SHORT = 3;
+    static final int TYPE_LONG = 4;
+    static final int TYPE_RATIONAL = 5;
+    static final int TYPE_UNDEFINED = 7;
+    //各数据类型占用的字节数，下标为类型
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_APP15 = 0xEF;
+    private static final int MARKER_COM = 0xFE;
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+    //APP1段的最大长度（不包括标记）
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+    //待写入的标签
+    private final Map<Integer, Tag> mIfd0Tags = new TreeMap<>();
+    private final Map<Integer, Tag> mExifTags = new TreeMap<>();
+
+    /**
+     * 设置方向，取值1~8
+     */
+    public ExifWriter setOrientation(int orientation) {
+        if (orientation < 1 || orientation > 8) {
+            throw new IllegalArgumentException("invalid orientation: " + orientation);
+        }
+        mIfd0Tags.put(TAG_ORIENTATION, Tag.ofInts(TAG_ORIENTATION, TYPE_SHORT, orientation));
+        return this;
+    }
+
+    /**
+     * 设置拍摄时间，同时写入DateTime、DateTimeOriginal和DateTimeDigitized
+     */
+    public ExifWriter setDateTime(long timeMillis) {
+        String value = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US).format(new Date(timeMillis));
+        mIfd0Tags.put(TAG_DATETIME, Tag.ofString(TAG_DATETIME, value));
+        mExifTags.put(TAG_DATETIME_ORIGINAL, Tag.ofString(TAG_DATETIME_ORIGINAL, value));
+        mExifTags.put(TAG_DATETIME_DIGITIZED, Tag.ofString(TAG_DATETIME_DIGITIZED, value));
+        return this;
+    }
+
+    public ExifWriter setMake(String make) {
+        mIfd0Tags.put(TAG_MAKE, Tag.ofString(TAG_MAKE, make));
+        return this;
+    }
+
+    public ExifWriter setModel(String model) {
+        mIfd0Tags.put(TAG_MODEL, Tag.ofString(TAG_MODEL, model));
+        return this;
+    }
+
+    /**
+     * 设置焦距，单位毫米
+     */
+    public ExifWriter setFocalLength(float millimeters) {
+        mExifTags.put(TAG_FOCAL_LENGTH, Tag.ofRational(TAG_FOCAL_LENGTH, Math.round(millimeters * 100), 100));
+        return this;
+    }
+
+    /**
+     * 设置曝光时间，单位纳秒
+     */
+    public ExifWriter setExposureTime(long nanos) {
+        mExifTags.put(TAG_EXPOSURE_TIME, Tag.ofRational(TAG_EXPOSURE_TIME, nanos / 1000, 1000000));
+        return this;
+    }
+
+    public ExifWriter setFNumber(float fNumber) {
+        mExifTags.put(TAG_F_NUMBER, Tag.ofRational(TAG_F_NUMBER, Math.round(fNumber * 100), 100));
+        return this;
+    }
+
+    public ExifWriter setIso(int iso) {
+        mExifTags.put(TAG_ISO_SPEED_RATINGS, Tag.ofInts(TAG_ISO_SPEED_RATINGS, TYPE_SHORT, Math.min(iso, 0xFFFF)));
+        return this;
+    }
+
+    /**
+     * 设置图片的宽高
+     */
+    public ExifWriter setImageSize(int width, int height) {
+        mExifTags.put(TAG_PIXEL_X_DIMENSION, Tag.ofInts(TAG_PIXEL_X_DIMENSION, TYPE_LONG, width));
+        mExifTags.put(TAG_PIXEL_Y_DIMENSION, Tag.ofInts(TAG_PIXEL_Y_DIMENSION, TYPE_LONG, height));
+        return this;
+    }
+
+    /**
+     * 把修改后的JPEG写入输出流
+     * 只缓存图片数据之前的头部段，图片数据直接从输入流复制到输出流
+     */
+    public void write(InputStream in, OutputStream out) throws IOException {
+        Header header = readHeader(in);
+        out.write(buildHeader(header));
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+    }
+
+    /**
+     * 修改JPEG数据，返回新的JPEG数据
+     * 图片数据只复制一次
+     */
+    public byte[] write(byte[] jpeg) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(jpeg);
+        Header header = readHeader(in);
+        int consumed = jpeg.length - in.available();
+        byte[] head = buildHeader(header);
+        byte[] result = new byte[head.length + jpeg.length - consumed];
+        System.arraycopy(head, 0, result, 0, head.length);
+        System.arraycopy(jpeg, consumed, result, head.length, jpeg.length - consumed);
+        return result;
+    }
+
+    /**
+     * 把修改后的JPEG写入输出流，图片数据直接从原数组写出，不再复制
+     */
+    public void write(byte[] jpeg, OutputStream out) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(jpeg);
+        Header header = readHeader(in);
+        int consumed = jpeg.length - in.available();
+        out.write(buildHeader(header));
+        out.write(jpeg, consumed, jpeg.length - consumed);
+    }
+
+    /**
+     * 读取JPEG中的EXIF方向
+     *
+     * @return 没有EXIF或方向标签时返回ORIENTATION_NORMAL
+     */
+    public static int readOrientation(InputStream in) throws IOException {
+        Tiff tiff = readTiff(in);
+        if (tiff == null) {
+            return ORIENTATION_NORMAL;
+        }
+        Entry entry = tiff.mIfd0.get(TAG_ORIENTATION);
+        if (entry == null) {
+            return ORIENTATION_NORMAL;
+        }
+        int orientation = (int) entry.getLong(tiff.mOrder, 0);
+        return orientation >= 1 && orientation <= 8 ? orientation : ORIENTATION_NORMAL;
+    }
+
+    public static int readOrientation(byte[] jpeg) throws IOException {
+        return readOrientation(new ByteArrayInputStream(jpeg));
+    }
+
+    /**
+     * 读取JPEG中的EXIF结构，没有EXIF时返回null
+     */
+    static Tiff readTiff(InputStream in) throws IOException {
+        Header header = readHeader(in);
+        if (header.mExif == null) {
+            return null;
+        }
+        return Tiff.parse(header.mExif);
+    }
+
+    //---------------------------------------------------------------------------------------------
+    // JPEG段的读写
+    //---------------------------------------------------------------------------------------------
+
+    /**
+     * 图片数据之前的头部信息
+     */
+    private static class Header {
+        //原样保留的段（包括标记和长度）
+        final List<byte[]> mSegments = new ArrayList<>();
+        //原有EXIF的TIFF数据（不包括"Exif\0\0"）
+        byte[] mExif;
+        //原有EXIF段在mSegments中的位置
+        int mExifIndex = -1;
+        //头部之后的第一个标记
+        int mNextMarker;
+    }
+
+    private static Header readHeader(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != MARKER_SOI) {
+            throw new IOException("not a jpeg stream");
+        }
+        Header header = new Header();
+        while (true) {
+            int marker = readMarker(in);
+            if ((marker < MARKER_APP0 || marker > MARKER_APP15) && marker != MARKER_COM) {
+                header.mNextMarker = marker;
+                return header;
+            }
+            int length = in.readUnsignedShort();
+            if (length < 2) {
+                throw new IOException("invalid segment length: " + length);
+            }
+            byte[] segment = new byte[length + 2];
+            segment[0] = (byte) 0xFF;
+            segment[1] = (byte) marker;
+            segment[2] = (byte) (length >> 8);
+            segment[3] = (byte) length;
+            in.readFully(segment, 4, length - 2);
+            if (marker == MARKER_APP1 && header.mExif == null && isExifSegment(segment)) {
+                header.mExif = new byte[segment.length - 4 - EXIF_HEADER.length];
+                System.arraycopy(segment, 4 + EXIF_HEADER.length, header.mExif, 0, header.mExif.length);
+                header.mExifIndex = header.mSegments.size();
+            }
+            header.mSegments.add(segment);
+        }
+    }
+
+    private static int readMarker(DataInputStream in) throws IOException {
+        if (in.readUnsignedByte() != 0xFF) {
+            throw new IOException("invalid jpeg marker");
+        }
+        int marker = in.readUnsignedByte();
+        //跳过填充的0xFF
+        while (marker == 0xFF) {
+            marker = in.readUnsignedByte();
+        }
+        return marker;
+    }
+
+    private static boolean isExifSegment(byte[] segment) {
+        if (segment.length < 4 + EXIF_HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (segment[4 + i] != EXIF_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 生成新的头部：SOI、JFIF、EXIF、其余的段以及后面的第一个标记
+     */
+    private byte[] buildHeader(Header header) throws IOException {
+        byte[] exif = buildExif(header.mExif);
+        if (exif.length + EXIF_HEADER.length + 2 > MAX_SEGMENT_LENGTH) {
+            throw new IOException("exif segment too large: " + exif.length);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(exif.length + 1024);
+        out.write(0xFF);
+        out.write(MARKER_SOI);
+        List<byte[]> segments = header.mSegments;
+        int index = 0;
+        if (header.mExifIndex < 0) {
+            //JFIF的APP0段必须在最前面
+            if (!segments.isEmpty() && (segments.get(0)[1] & 0xFF) == MARKER_APP0) {
+                out.write(segments.get(0));
+                index = 1;
+            }
+            writeExifSegment(out, exif);
+        }
+        for (; index < segments.size(); index++) {
+            if (index == header.mExifIndex) {
+                writeExifSegment(out, exif);
+            } else {
+                out.write(segments.get(index));
+            }
+        }
+        out.write(0xFF);
+        out.write(header.mNextMarker);
+        return out.toByteArray();
+    }
+
+    private static void writeExifSegment(OutputStream out, byte[] tiff) throws IOException {
+        int length = tiff.length + EXIF_HEADER.length + 2;
+        out.write(0xFF);
+        out.write(MARKER_APP1);
+        out.write(length >> 8);
+        out.write(length);
+        out.write(EXIF_HEADER);
+        out.write(tiff);
+    }
+
+    //---------------------------------------------------------------------------------------------
+    // EXIF(TIFF)结构的读写
+    //---------------------------------------------------------------------------------------------
+
+    /**
+     * 生成新的TIFF数据
+     *
+     * @param original 原有的TIFF数据，可以为null
+     */
+    private byte[] buildExif(byte[] original) {
+        Tiff tiff = null;
+        if (original != null) {
+            try {
+                tiff = Tiff.parse(original);
+            } catch (IOException e) {
+                //原有的EXIF已经损坏，直接丢弃
+                tiff = null;
+            }
+        }
+        if (tiff != null) {
+            byte[] patched = patchInPlace(tiff, original);
+            if (patched != null) {
+                return patched;
+            }
+        } else {
+            tiff = new Tiff(ByteOrder.BIG_ENDIAN);
+        }
+
+        for (Tag tag : mIfd0Tags.values()) {
+            tiff.mIfd0.put(tag.toEntry(tiff.mOrder));
+        }
+        if (!mExifTags.isEmpty()) {
+            if (tiff.mExif == null) {
+                tiff.mExif = new Ifd();
+                tiff.mExif.put(new Entry(TAG_EXIF_VERSION, TYPE_UNDEFINED, 4, new byte[]{'0', '2', '2', '0'}));
+            }
+            for (Tag tag : mExifTags.values()) {
+                tiff.mExif.put(tag.toEntry(tiff.mOrder));
+            }
+        }
+        return tiff.serialize();
+    }
+
+    /**
+     * 所有待写入的标签都已经存在且类型、长度相同时，直接在原数据上修改
+     *
+     * @return 无法原地修改时返回null
+     */
+    private byte[] patchInPlace(Tiff tiff, byte[] original) {
+        if (!canPatch(tiff.mIfd0, mIfd0Tags, tiff.mOrder) || !canPatch(tiff.mExif, mExifTags, tiff.mOrder)) {
+            return null;
+        }
+        byte[] result = original.clone();
+        patch(result, tiff.mIfd0, mIfd0Tags, tiff.mOrder);
+        patch(result, tiff.mExif, mExifTags, tiff.mOrder);
+        return result;
+    }
+
+    private static boolean canPatch(Ifd ifd, Map<Integer, Tag> tags, ByteOrder order) {
+        if (tags.isEmpty()) {
+            return true;
+        }
+        if (ifd == null) {
+            return false;
+        }
+        for (Tag tag : tags.values()) {
+            Entry entry = ifd.get(tag.mTag);
+            if (entry == null || entry.mType != tag.mType || entry.mCount != tag.getCount() || entry.mValueOffset < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void patch(byte[] tiff, Ifd ifd, Map<Integer, Tag> tags, ByteOrder order) {
+        for (Tag tag : tags.values()) {
+            Entry entry = ifd.get(tag.mTag);
+            byte[] data = tag.encode(order);
+            System.arraycopy(data, 0, tiff, entry.mValueOffset, data.length);
+        }
+    }
+
+    /**
+     * 待写入的标签
+     */
+    private static class Tag {
+        final int mTag;
+        final int mType;
+        final long[] mValues;
+        final byte[] mBytes;
+
+        private Tag(int tag, int type, long[] values, byte[] bytes) {
+            mTag = tag;
+            mType = type;
+            mValues = values;
+            mBytes = bytes;
+        }
+
+        static Tag ofInts(int tag, int type, long value) {
+            return new Tag(tag, type, new long[]{value}, null);
+        }
+
+        static Tag ofRational(int tag, long numerator, long denominator) {
+            return new Tag(tag, TYPE_RATIONAL, new long[]{numerator, denominator}, null);
+        }
+
+        static Tag ofString(int tag, String value) {
+            byte[] bytes = new byte[value.length() + 1];
+            for (int i = 0; i < value.length(); i++) {
+                bytes[i] = (byte) (value.charAt(i) & 0x7F);
+            }
+            return new Tag(tag, TYPE_ASCII, null, bytes);
+        }
+
+        int getCount() {
+            if (mBytes != null) {
+                return mBytes.length;
+            }
+            return mType == TYPE_RATIONAL ? mValues.length / 2 : mValues.length;
+        }
+
+        byte[] encode(ByteOrder order) {
+            if (mBytes != null) {
+                return mBytes;
+            }
+            int size = mType == TYPE_RATIONAL ? 4 : TYPE_SIZES[mType];
+            ByteBuffer buffer = ByteBuffer.allocate(size * mValues.length).order(order);
+            for (long value : mValues) {
+                if (size == 2) {
+                    buffer.putShort((short) value);
+                } else if (size == 4) {
+                    buffer.putInt((int) value);
+                } else {
+                    buffer.put((byte) value);
+                }
+            }
+            return buffer.array();
+        }
+
+        Entry toEntry(ByteOrder order) {
+            return new Entry(mTag, mType, getCount(), encode(order));
+        }
+    }
+
+    /**
+     * IFD中的一项
+     */
+    static class Entry {
+        final int mTag;
+        final int mType;
+        final int mCount;
+        byte[] mData;
+        //值在原TIFF数据中的偏移，新建的项为-1
+        final int mValueOffset;
+
+        Entry(int tag, int type, int count, byte[] data) {
+            this(tag, type, count, data, -1);
+        }
+
+        Entry(int tag, int type, int count, byte[] data, int valueOffset) {
+            mTag = tag;
+            mType = type;
+            mCount = count;
+            mData = data;
+            mValueOffset = valueOffset;
+        }
+
+        /**
+         * 读取第index个整数值（BYTE、SHORT、LONG）
+         */
+        long getLong(ByteOrder order, int index) {
+            ByteBuffer buffer = ByteBuffer.wrap(mData).order(order);
+            switch (mType) {
+                case TYPE_SHORT:
+                    return buffer.getShort(index * 2) & 0xFFFF;
+                case TYPE_LONG:
+                    return buffer.getInt(index * 4) & 0xFFFFFFFFL;
+                default:
+                    return mData[index] & 0xFF;
+            }
+        }
+
+        String getString() {
+            StringBuilder builder = new StringBuilder(mData.length);
+            for (byte b : mData) {
+                if (b == 0) {
+                    break;
+                }
+                builder.append((char) b);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * 一个IFD，按标签排序
+     */
+    static class Ifd {
+        final TreeMap<Integer, Entry> mEntries = new TreeMap<>();
+
+        Entry get(int tag) {
+            return mEntries.get(tag);
+        }
+
+        void put(Entry entry) {
+            mEntries.put(entry.mTag, entry);
+        }
+
+        int size() {
+            int size = 2 + 12 * mEntries.size() + 4;
+            for (Entry entry : mEntries.values()) {
+                if (entry.mData.length > 4) {
+                    size += (entry.mData.length + 1) & ~1;
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * EXIF的TIFF结构：IFD0、Exif IFD、GPS IFD、Interoperability IFD、IFD1和缩略图
+     */
+    static class Tiff {
+        final ByteOrder mOrder;
+        final Ifd mIfd0 = new Ifd();
+        Ifd mExif;
+        Ifd mGps;
+        Ifd mInterop;
+        Ifd mIfd1;
+        byte[] mThumbnail;
+
+        Tiff(ByteOrder order) {
+            mOrder = order;
+        }
+
+        static Tiff parse(byte[] data) throws IOException {
+            if (data.length < 8) {
+                throw new IOException("exif too short");
+            }
+            ByteOrder order;
+            if (data[0] == 'I' && data[1] == 'I') {
+                order = ByteOrder.LITTLE_ENDIAN;
+            } else if (data[0] == 'M' && data[1] == 'M') {
+                order = ByteOrder.BIG_ENDIAN;
+            } else {
+                throw new IOException("invalid tiff byte order");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data).order(order);
+            if (buffer.getShort(2) != 42) {
+                throw new IOException("invalid tiff header");
+            }
+            Tiff tiff = new Tiff(order);
+            int ifd1Offset = readIfd(buffer, buffer.getInt(4), tiff.mIfd0);
+            Entry pointer = tiff.mIfd0.get(TAG_EXIF_IFD_POINTER);
+            if (pointer != null) {
+                tiff.mExif = new Ifd();
+                readIfd(buffer, (int) pointer.getLong(order, 0), tiff.mExif);
+                Entry interop = tiff.mExif.get(TAG_INTEROPERABILITY_IFD_POINTER);
+                if (interop != null) {
+                    tiff.mInterop = new Ifd();
+                    readIfd(buffer, (int) interop.getLong(order, 0), tiff.mInterop);
+                }
+            }
+            pointer = tiff.mIfd0.get(TAG_GPS_IFD_POINTER);
+            if (pointer != null) {
+                tiff.mGps = new Ifd();
+                readIfd(buffer, (int) pointer.getLong(order, 0), tiff.mGps);
+            }
+            if (ifd1Offset > 0) {
+                tiff.mIfd1 = new Ifd();
+                readIfd(buffer, ifd1Offset, tiff.mIfd1);
+                Entry offset = tiff.mIfd1.get(TAG_JPEG_INTERCHANGE_FORMAT);
+                Entry length = tiff.mIfd1.get(TAG_JPEG_INTERCHANGE_FORMAT_LENGTH);
+                if (offset != null && length != null) {
+                    int start = (int) offset.getLong(order, 0);
+                    int count = (int) length.getLong(order, 0);
+                    checkRange(data, start, count);
+                    tiff.mThumbnail = new byte[count];
+                    System.arraycopy(data, start, tiff.mThumbnail, 0, count);
+                }
+            }
+            return tiff;
+        }
+
+        /**
+         * 读取一个IFD
+         *
+         * @return 下一个IFD的偏移
+         */
+        private static int readIfd(ByteBuffer buffer, int offset, Ifd ifd) throws IOException {
+            byte[] data = buffer.array();
+            checkRange(data, offset, 2);
+            int count = buffer.getShort(offset) & 0xFFFF;
+            checkRange(data, offset + 2, count * 12 + 4);
+            for (int i = 0; i < count; i++) {
+                int position = offset + 2 + i * 12;
+                int tag = buffer.getShort(position) & 0xFFFF;
+                int type = buffer.getShort(position + 2) & 0xFFFF;
+                int components = buffer.getInt(position + 4);
+                if (type <= 0 || type >= TYPE_SIZES.length || components < 0) {
+                    //未知的类型，跳过
+                    continue;
+                }
+                int size = TYPE_SIZES[type] * components;
+                int valueOffset = size > 4 ? buffer.getInt(position + 8) : position + 8;
+                checkRange(data, valueOffset, size);
+                byte[] value = new byte[size];
+                System.arraycopy(data, valueOffset, value, 0, size);
+                ifd.put(new Entry(tag, type, components, value, valueOffset));
+            }
+            return buffer.getInt(offset + 2 + count * 12);
+        }
+
+        private static void checkRange(byte[] data, int offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || offset + length > data.length || offset + length < 0) {
+                throw new IOException("exif offset out of range");
+            }
+        }
+
+        /**
+         * 重新排列并生成TIFF数据
+         */
+        byte[] serialize() {
+            //先整理指针，再计算各个IFD的偏移
+            setPointer(mIfd0, TAG_EXIF_IFD_POINTER, mExif != null);
+            setPointer(mIfd0, TAG_GPS_IFD_POINTER, mGps != null);
+            if (mExif != null) {
+                setPointer(mExif, TAG_INTEROPERABILITY_IFD_POINTER, mInterop != null);
+            }
+            if (mIfd1 != null) {
+                setPointer(mIfd1, TAG_JPEG_INTERCHANGE_FORMAT, mThumbnail != null);
+                if (mThumbnail != null) {
+                    mIfd1.put(new Entry(TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, TYPE_LONG, 1, encodeLong(mThumbnail.length)));
+                } else {
+                    mIfd1.mEntries.remove(TAG_JPEG_INTERCHANGE_FORMAT_LENGTH);
+                }
+            }
+
+            int ifd0Offset = 8;
+            int offset = ifd0Offset + mIfd0.size();
+            int exifOffset = 0;
+            int interopOffset = 0;
+            int gpsOffset = 0;
+            int ifd1Offset = 0;
+            int thumbnailOffset = 0;
+            if (mExif != null) {
+                exifOffset = offset;
+                offset += mExif.size();
+                if (mInterop != null) {
+                    interopOffset = offset;
+                    offset += mInterop.size();
+                }
+            }
+            if (mGps != null) {
+                gpsOffset = offset;
+                offset += mGps.size();
+            }
+            if (mIfd1 != null) {
+                ifd1Offset = offset;
+                offset += mIfd1.size();
+                if (mThumbnail != null) {
+                    thumbnailOffset = offset;
+                    offset += mThumbnail.length;
+                }
+            }
+
+            if (mExif != null) {
+                mIfd0.get(TAG_EXIF_IFD_POINTER).mData = encodeLong(exifOffset);
+                if (mInterop != null) {
+                    mExif.get(TAG_INTEROPERABILITY_IFD_POINTER).mData = encodeLong(interopOffset);
+                }
+            }
+            if (mGps != null) {
+                mIfd0.get(TAG_GPS_IFD_POINTER).mData = encodeLong(gpsOffset);
+            }
+            if (mThumbnail != null) {
+                mIfd1.get(TAG_JPEG_INTERCHANGE_FORMAT).mData = encodeLong(thumbnailOffset);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(offset).order(mOrder);
+            buffer.put(mOrder == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+            buffer.put(mOrder == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+            buffer.putShort((short) 42);
+            buffer.putInt(ifd0Offset);
+            writeIfd(buffer, ifd0Offset, mIfd0, ifd1Offset);
+            if (mExif != null) {
+                writeIfd(buffer, exifOffset, mExif, 0);
+                if (mInterop != null) {
+                    writeIfd(buffer, interopOffset, mInterop, 0);
+                }
+            }
+            if (mGps != null) {
+                writeIfd(buffer, gpsOffset, mGps, 0);
+            }
+            if (mIfd1 != null) {
+                writeIfd(buffer, ifd1Offset, mIfd1, 0);
+                if (mThumbnail != null) {
+                    buffer.position(thumbnailOffset);
+                    buffer.put(mThumbnail);
+                }
+            }
+            return buffer.array();
+        }
+
+        private void setPointer(Ifd ifd, int tag, boolean present) {
+            if (present) {
+                //偏移在计算布局之后再填写
+                ifd.put(new Entry(tag, TYPE_LONG, 1, new byte[4]));
+            } else {
+                ifd.mEntries.remove(tag);
+            }
+        }
+
+        private byte[] encodeLong(int value) {
+            return ByteBuffer.allocate(4).order(mOrder).putInt(value).array();
+        }
+
+        private static void writeIfd(ByteBuffer buffer, int offset, Ifd ifd, int nextOffset) {
+            int dataOffset = offset + 2 + 12 * ifd.mEntries.size() + 4;
+            buffer.position(offset);
+            buffer.putShort((short) ifd.mEntries.size());
+            for (Entry entry : ifd.mEntries.values()) {
+                buffer.putShort((short) entry.mTag);
+                buffer.putShort((short) entry.mType);
+                buffer.putInt(entry.mCount);
+                if (entry.mData.length > 4) {
+                    buffer.putInt(dataOffset);
+                    int position = buffer.position();
+                    buffer.position(dataOffset);
+                    buffer.put(entry.mData);
+                    buffer.position(position);
+                    dataOffset += (entry.mData.length + 1) & ~1;
+                } else {
+                    int position = buffer.position();
+                    buffer.put(entry.mData);
+                    buffer.position(position + 4);
+                }
+            }
+            buffer.putInt(nextOffset);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.allen.customcamera;
+
+import java.util.Arrays;
+
+/**
+ * 预览帧的亮度统计：256级亮度直方图、过曝/欠曝像素比例、网格分区的平均亮度，用于自动选择测光区域
+ * 按步长在Y平面上均匀采样，采样点数不超过预算（1080p默认约8000个点）；
+ * 保存上一帧每个采样点的亮度，新的一帧只更新亮度变化了的采样点，直方图、分区亮度、过曝欠曝计数都按差值增量更新，
+ * 画面静止时几乎没有计算量
+ * 坐标都按预览帧（传感器方向）计算，纯Java实现，线程安全
+ */
+
+public class ExposureStats {
+    //默认的采样点数预算
+    public static final int DEFAULT_SAMPLE_BUDGET = 8192;
+    //默认的网格
+    public static final int DEFAULT_GRID = 5;
+    //测光的目标亮度（18%灰）
+    private static final int TARGET_LUMA = 118;
+    //过曝、欠曝像素占比超过这个值时才不再使用中心测光
+    private static final float CLIP_TRIGGER = 0.05f;
+    //新的测光区域要比当前的好这么多才切换，避免来回跳
+    private static final float SWITCH_MARGIN = 0.1f;
+
+    private final int mColumns;
+    private final int mRows;
+    private final int mSampleBudget;
+    private int mClipLow = 8;
+    private int mClipHigh = 247;
+
+    //当前的帧尺寸和采样布局
+    private int mWidth;
+    private int mHeight;
+    private int mStride;
+    private int mSampleColumns;
+    private int mSampleRows;
+    //每个采样列、采样行所在的分区
+    private int[] mColumnZones;
+    private int[] mRowZones;
+    //上一帧每个采样点的亮度
+    private byte[] mSamples;
+
+    private final int[] mHistogram = new int[256];
+    private final long[] mZoneSums;
+    private final int[] mZoneCounts;
+    private long mSum;
+    private int mLowCount;
+    private int mHighCount;
+    private int mChangedCount;
+    private long mFrameCount;
+
+    public ExposureStats() {
+        this(DEFAULT_GRID, DEFAULT_GRID, DEFAULT_SAMPLE_BUDGET);
+    }
+
+    /**
+     * @param columns      网格的列数（按传感器方向）
+     * @param rows         网格的行数
+     * @param sampleBudget 每帧最多的采样点数
+     */
+    public ExposureStats(int columns, int rows, int sampleBudget) {
+        if (columns <= 0 || rows <= 0 || sampleBudget <= 0) {
+            throw new IllegalArgumentException("invalid grid " + columns + "x" + rows + " or budget " + sampleBudget);
+        }
+        mColumns = columns;
+        mRows = rows;
+        mSampleBudget = sampleBudget;
+        mZoneSums = new long[columns * rows];
+        mZoneCounts = new int[columns * rows];
+    }
+
+    /**
+     * 设置欠曝、过曝的亮度阈值，亮度不超过low或不低于high的像素计入欠曝、过曝
+     */
+    public synchronized void setClipThresholds(int low, int high) {
+        if (low < 0 || high > 255 || low >= high) {
+            throw new IllegalArgumentException("invalid thresholds " + low + ", " + high);
+        }
+        mClipLow = low;
+        mClipHigh = high;
+        //按新的阈值重新统计
+        mWidth = 0;
+    }
+
+    /**
+     * 用新的一帧更新统计
+     *
+     * @param nv21 NV21数据，只读取Y平面
+     */
+    public synchronized void update(byte[] nv21, int width, int height) {
+        if (nv21.length < width * height) {
+            throw new IllegalArgumentException("invalid frame: " + width + "x" + height);
+        }
+        if (width != mWidth || height != mHeight) {
+            configure(width, height);
+            initialize(nv21);
+        } else {
+            applyDelta(nv21);
+        }
+        mFrameCount++;
+    }
+
+    /**
+     * 按预算计算采样步长，以及每个采样点所在的分区
+     */
+    private void configure(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid frame " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mStride = Math.max(1, (int) Math.ceil(Math.sqrt((double) width * height / mSampleBudget)));
+        mSampleColumns = (width + mStride - 1) / mStride;
+        mSampleRows = (height + mStride - 1) / mStride;
+        while (mSampleColumns * mSampleRows > mSampleBudget) {
+            mStride++;
+            mSampleColumns = (width + mStride - 1) / mStride;
+            mSampleRows = (height + mStride - 1) / mStride;
+        }
+        mColumnZones = new int[mSampleColumns];
+        for (int i = 0; i < mSampleColumns; i++) {
+            mColumnZones[i] = i * mStride * mColumns / width;
+        }
+        mRowZones = new int[mSampleRows];
+        for (int i = 0; i < mSampleRows; i++) {
+            mRowZones[i] = i * mStride * mRows / height * mColumns;
+        }
+        mSamples = new byte[mSampleColumns * mSampleRows];
+    }
+
+    /**
+     * 第一帧（或尺寸变化后）完整统计一次
+     */
+    private void initialize(byte[] nv21) {
+        Arrays.fill(mHistogram, 0);
+        Arrays.fill(mZoneSums, 0);
+        Arrays.fill(mZoneCounts, 0);
+        mSum = 0;
+        mLowCount = 0;
+        mHighCount = 0;
+        int index = 0;
+        for (int row = 0; row < mSampleRows; row++) {
+            int offset = row * mStride * mWidth;
+            int rowZone = mRowZones[row];
+            for (int column = 0; column < mSampleColumns; column++) {
+                int value = nv21[offset + column * mStride] & 0xff;
+                mSamples[index++] = (byte) value;
+                int zone = rowZone + mColumnZones[column];
+                mZoneSums[zone] += value;
+                mZoneCounts[zone]++;
+                mHistogram[value]++;
+                mSum += value;
+                if (value <= mClipLow) {
+                    mLowCount++;
+                } else if (value >= mClipHigh) {
+                    mHighCount++;
+                }
+            }
+        }
+        mChangedCount = mSamples.length;
+    }
+
+    /**
+     * 只处理和上一帧相比亮度变化了的采样点
+     */
+    private void applyDelta(byte[] nv21) {
+        byte[] samples = mSamples;
+        int[] histogram = mHistogram;
+        int stride = mStride;
+        int low = mClipLow;
+        int high = mClipHigh;
+        int changed = 0;
+        long sumDelta = 0;
+        int index = 0;
+        for (int row = 0; row < mSampleRows; row++) {
+            int offset = row * stride * mWidth;
+            int rowZone = mRowZones[row];
+            for (int column = 0; column < mSampleColumns; column++, index++, offset += stride) {
+                byte current = nv21[offset];
+                byte previous = samples[index];
+                if (current == previous) {
+                    continue;
+                }
+                samples[index] = current;
+                int value = current & 0xff;
+                int old = previous & 0xff;
+                histogram[old]--;
+                histogram[value]++;
+                sumDelta += value - old;
+                mZoneSums[rowZone + mColumnZones[column]] += value - old;
+                if (old <= low) {
+                    mLowCount--;
+                } else if (old >= high) {
+                    mHighCount--;
+                }
+                if (value <= low) {
+                    mLowCount++;
+                } else if (value >= high) {
+                    mHighCount++;
+                }
+                changed++;
+            }
+        }
+        mSum += sumDelta;
+        mChangedCount = changed;
+    }
+
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public synchronized int getSampleCount() {
+        return mSamples != null ? mSamples.length : 0;
+    }
+
+    /**
+     * 采样的步长（像素）
+     */
+    public synchronized int getStride() {
+        return mStride;
+    }
+
+    /**
+     * 最近一帧中亮度变化了的采样点数
+     */
+    public synchronized int getChangedCount() {
+        return mChangedCount;
+    }
+
+    /**
+     * 复制直方图
+     *
+     * @param out 长度至少256
+     */
+    public synchronized void getHistogram(int[] out) {
+        System.arraycopy(mHistogram, 0, out, 0, 256);
+    }
+
+    public synchronized float getMean() {
+        int count = getSampleCount();
+        return count == 0 ? 0 : (float) mSum / count;
+    }
+
+    /**
+     * 亮度的百分位数
+     *
+     * @param percentile 0~100
+     */
+    public synchronized int getPercentile(float percentile) {
+        int count = getSampleCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < 256; i++) {
+            seen += mHistogram[i];
+            if (seen >= rank) {
+                return i;
+            }
+        }
+        return 255;
+    }
+
+    /**
+     * 欠曝像素的比例
+     */
+    public synchronized float getClippedLowRatio() {
+        int count = getSampleCount();
+        return count == 0 ? 0 : (float) mLowCount / count;
+    }
+
+    /**
+     * 过曝像素的比例
+     */
+    public synchronized float getClippedHighRatio() {
+        int count = getSampleCount();
+        return count == 0 ? 0 : (float) mHighCount / count;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    /**
+     * 分区的平均亮度
+     */
+    public synchronized float getZoneMean(int column, int row) {
+        int zone = row * mColumns + column;
+        return mZoneCounts[zone] == 0 ? 0 : (float) mZoneSums[zone] / mZoneCounts[zone];
+    }
+
+    /**
+     * 分区中心在预览帧中的归一化横坐标（0~1）
+     */
+    public float getZoneCenterX(int zone) {
+        return (zone % mColumns + 0.5f) / mColumns;
+    }
+
+    /**
+     * 分区中心在预览帧中的归一化纵坐标（0~1）
+     */
+    public float getZoneCenterY(int zone) {
+        return (zone / mColumns + 0.5f) / mRows;
+    }
+
+    public int getCenterZone() {
+        return mRows / 2 * mColumns + mColumns / 2;
+    }
+
+    /**
+     * 选择测光的分区
+     * 过曝、欠曝的像素不多时使用中心分区；否则（例如逆光）选择平均亮度最接近18%灰的分区，离中心越远越不优先
+     *
+     * @param current 当前的测光分区，没有时为-1；新的分区要明显更好才切换
+     * @return 还没有统计数据时返回-1
+     */
+    public synchronized int selectMeteringZone(int current) {
+        if (getSampleCount() == 0) {
+            return -1;
+        }
+        int center = getCenterZone();
+        if (getClippedLowRatio() + getClippedHighRatio() < CLIP_TRIGGER) {
+            return center;
+        }
+        int best = -1;
+        float bestScore = Float.MAX_VALUE;
+        for (int zone = 0; zone < mZoneSums.length; zone++) {
+            float score = getMeteringScore(zone);
+            if (score < bestScore) {
+                bestScore = score;
+                best = zone;
+            }
+        }
+        if (current >= 0 && current < mZoneSums.length && getMeteringScore(current) - bestScore < SWITCH_MARGIN) {
+            return current;
+        }
+        return best;
+    }
+
+    /**
+     * 测光分区的评分，越小越好：平均亮度和18%灰的相对差距，加上离中心的距离
+     */
+    private float getMeteringScore(int zone) {
+        if (mZoneCounts[zone] == 0) {
+            return Float.MAX_VALUE;
+        }
+        float mean = (float) mZoneSums[zone] / mZoneCounts[zone];
+        float dx = getZoneCenterX(zone) - 0.5f;
+        float dy = getZoneCenterY(zone) - 0.5f;
+        return Math.abs(mean - TARGET_LUMA) / TARGET_LUMA + 0.5f * (float) Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,419 @@
+package com.allen.customcamera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模拟的相机，纯Java实现，不需要设备
+ * 按设定的帧率生成NV21预览帧写入交给相机的缓冲区，拍照返回指定尺寸的灰色JPEG，对焦总是成功
+ * 和真实相机一样没有可用的缓冲区时丢帧，可以在JVM上测试预览帧、拍照流程的吞吐和延迟
+ * 只使用Android的常量（编译时内联），不调用任何Android的方法
+ */
+
+public class FakeCameraBackend implements CameraBackend {
+    private final List<CameraCapabilities> mCameras;
+    private final int mFps;
+    //拍照的快门延迟
+    private volatile long mShutterLagMs;
+
+    private ScheduledExecutorService mScheduler;
+    private ScheduledFuture<?> mPreviewTask;
+    private Executor mExecutor;
+    private CameraCapabilities mCapabilities;
+    private CameraSize mPreviewSize;
+    private CameraSize mPictureSize;
+    //拍照的JPEG只生成一次
+    private byte[] mPictureJpeg;
+    private int mZoom;
+    private int mCommittedZoom;
+    //设置的和已经提交的帧率上限（乘以1000），0表示使用mFps
+    private int mFpsLimit;
+    private volatile int mCommittedFpsLimit;
+    //设置的和已经提交的测光点（点击坐标），null表示没有设置
+    private float[] mMeteringPoint;
+    private volatile float[] mCommittedMeteringPoint;
+
+    //交给相机的预览缓冲区，在调用者线程中加入，在模拟相机的线程中取出
+    private final ArrayDeque<byte[]> mBuffers = new ArrayDeque<>();
+    private volatile FrameCallback mFrameCallback;
+    private volatile FrameCallback mOneShotCallback;
+
+    //生成的帧数、写入缓冲区交给回调的帧数、没有缓冲区丢掉的帧数
+    private final AtomicLong mFrameCount = new AtomicLong();
+    private final AtomicLong mDeliveredCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mPictureCount = new AtomicLong();
+    private final AtomicLong mCommitCount = new AtomicLong();
+
+    /**
+     * @param cameras 模拟的摄像头，下标就是摄像头的id
+     * @param fps     预览帧率
+     */
+    public FakeCameraBackend(List<CameraCapabilities> cameras, int fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("fps: " + fps);
+        }
+        mCameras = Collections.unmodifiableList(new ArrayList<>(cameras));
+        mFps = fps;
+    }
+
+    /**
+     * 一个后置、一个前置摄像头，常见的预览、图片尺寸和帧率范围
+     */
+    public static List<CameraCapabilities> defaultCameras() {
+        List<CameraCapabilities> cameras = new ArrayList<>(2);
+        cameras.add(createCamera(0, CameraCapabilities.FACING_BACK, 90));
+        cameras.add(createCamera(1, CameraCapabilities.FACING_FRONT, 270));
+        return cameras;
+    }
+
+    private static CameraCapabilities createCamera(int id, int facing, int orientation) {
+        CameraCapabilities camera = new CameraCapabilities(id, facing, orientation);
+        List<Integer> zoomRatios = new ArrayList<>();
+        for (int i = 0; i <= 30; i++) {
+            zoomRatios.add(100 + i * 10);
+        }
+        List<int[]> fpsRanges = Arrays.asList(new int[]{15000, 15000}, new int[]{24000, 24000},
+                new int[]{7500, 30000}, new int[]{30000, 30000});
+        camera.setParameters(
+                Arrays.asList(new CameraSize(1920, 1080), new CameraSize(1280, 720), new CameraSize(640, 480)),
+                Arrays.asList(new CameraSize(4000, 3000), new CameraSize(1920, 1080), new CameraSize(640, 480)),
+                Arrays.asList(Camera.Parameters.FOCUS_MODE_AUTO, Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE),
+                Collections.singletonList(ImageFormat.NV21), Collections.singletonList(ImageFormat.JPEG),
+                true, 30, zoomRatios, fpsRanges, 1, 1);
+        return camera;
+    }
+
+    /**
+     * 设置拍照的快门延迟，默认为0
+     */
+    public void setShutterLag(long shutterLagMs) {
+        mShutterLagMs = shutterLagMs;
+    }
+
+    @Override
+    public int getCameraCount() {
+        return mCameras.size();
+    }
+
+    @Override
+    public List<CameraCapabilities> getCameras() {
+        return mCameras;
+    }
+
+    @Override
+    public CameraCapabilities open(int cameraId, Executor callbackExecutor) throws IOException {
+        close();
+        if (cameraId < 0 || cameraId >= mCameras.size()) {
+            throw new IOException("no camera " + cameraId);
+        }
+        mExecutor = callbackExecutor;
+        mCapabilities = mCameras.get(cameraId);
+        mScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fake-camera");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        return mCapabilities;
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mCapabilities != null;
+    }
+
+    @Override
+    public void configure(CameraSize previewSize, CameraSize pictureSize, int displayOrientation) throws IOException {
+        if (mCapabilities == null) {
+            throw new IOException("camera is not opened");
+        }
+        mPreviewSize = previewSize;
+        if (pictureSize != null && !pictureSize.equals(mPictureSize)) {
+            mPictureJpeg = null;
+        }
+        mPictureSize = pictureSize;
+        //和真实相机一样，配置时连同之前修改的帧率范围一起生效
+        mCommittedFpsLimit = mFpsLimit;
+    }
+
+    @Override
+    public CameraSize setPreviewDisplay(SurfaceHolder holder) {
+        //没有需要显示的Surface
+        return null;
+    }
+
+    @Override
+    public int getMaxPreviewFps() {
+        int limit = mCommittedFpsLimit;
+        return limit > 0 ? Math.min(limit, mFps * 1000) : mFps * 1000;
+    }
+
+    @Override
+    public void setPreviewFpsRange(int minFps, int maxFps) {
+        mFpsLimit = maxFps;
+    }
+
+    @Override
+    public float getFocalLength() {
+        return 4.0f;
+    }
+
+    @Override
+    public void setFrameCallback(FrameCallback callback) {
+        mFrameCallback = callback;
+        if (callback == null) {
+            synchronized (mBuffers) {
+                mBuffers.clear();
+            }
+        }
+    }
+
+    @Override
+    public void setOneShotFrameCallback(FrameCallback callback) {
+        mOneShotCallback = callback;
+    }
+
+    /**
+     * 同一个数组还在队列中时再次加入会抛出IllegalStateException：真实的相机不检查，同一帧会被下一帧覆盖
+     */
+    @Override
+    public void addCallbackBuffer(byte[] buffer) {
+        synchronized (mBuffers) {
+            for (byte[] queued : mBuffers) {
+                if (queued == buffer) {
+                    throw new IllegalStateException("buffer already queued");
+                }
+            }
+            mBuffers.add(buffer);
+        }
+    }
+
+    /**
+     * 取出下一个交给相机的缓冲区，和生成预览帧时的顺序相同，没有时返回null
+     * 测试中不启动预览，手动取出缓冲区驱动回调
+     */
+    public byte[] pollCallbackBuffer() {
+        synchronized (mBuffers) {
+            return mBuffers.poll();
+        }
+    }
+
+    @Override
+    public void startPreview() {
+        if (mScheduler == null || mPreviewTask != null || mPreviewSize == null) {
+            return;
+        }
+        final int width = mPreviewSize.width;
+        final int height = mPreviewSize.height;
+        mPreviewTask = mScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                produceFrame(width, height);
+            }
+        }, 0, 1000000000L * 1000 / getMaxPreviewFps(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 生成一帧：亮度按行渐变并随帧序号移动，色度为灰色
+     */
+    private void produceFrame(int width, int height) {
+        long index = mFrameCount.getAndIncrement();
+        final FrameCallback callback = mFrameCallback;
+        byte[] buffer = null;
+        if (callback != null) {
+            synchronized (mBuffers) {
+                buffer = mBuffers.poll();
+            }
+            if (buffer == null) {
+                mDroppedCount.incrementAndGet();
+            } else if (buffer.length >= PreviewBufferPool.getFrameSize(width, height)) {
+                for (int row = 0; row < height; row++) {
+                    Arrays.fill(buffer, row * width, (row + 1) * width, (byte) (row + index));
+                }
+                Arrays.fill(buffer, width * height, PreviewBufferPool.getFrameSize(width, height), (byte) 128);
+            }
+        }
+        final FrameCallback oneShot = mOneShotCallback;
+        mOneShotCallback = null;
+        final byte[] data = buffer;
+        if (oneShot == null && data == null) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (oneShot != null) {
+                    oneShot.onPreviewFrame(data);
+                }
+                if (callback != null && data != null) {
+                    mDeliveredCount.incrementAndGet();
+                    callback.onPreviewFrame(data);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stopPreview() {
+        if (mPreviewTask != null) {
+            mPreviewTask.cancel(false);
+            mPreviewTask = null;
+        }
+    }
+
+    @Override
+    public void takePicture(final PictureCallback callback) {
+        if (mScheduler == null || mPictureSize == null) {
+            callback.onPictureTaken(null);
+            return;
+        }
+        if (mPictureJpeg == null) {
+            mPictureJpeg = JpegTransformer.createGray(mPictureSize.width, mPictureSize.height, 128);
+        }
+        final byte[] jpeg = mPictureJpeg;
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mPictureCount.incrementAndGet();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        //每次回调一份新的数据，和真实相机一样可以交给其他线程
+                        callback.onPictureTaken(jpeg.clone());
+                    }
+                });
+            }
+        }, mShutterLagMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int getZoom() {
+        return mZoom;
+    }
+
+    @Override
+    public void setZoom(int zoom) {
+        mZoom = zoom;
+    }
+
+    @Override
+    public void setFocusArea(float x, float y, int surfaceWidth, int surfaceHeight) {
+    }
+
+    @Override
+    public void setMeteringArea(float x, float y, int surfaceWidth, int surfaceHeight) {
+        mMeteringPoint = new float[]{x, y};
+    }
+
+    @Override
+    public void commitSettings() {
+        mCommittedZoom = mZoom;
+        mCommittedMeteringPoint = mMeteringPoint;
+        mCommitCount.incrementAndGet();
+        if (mFpsLimit != mCommittedFpsLimit) {
+            mCommittedFpsLimit = mFpsLimit;
+            //按新的帧率重新开始生成预览帧
+            if (mPreviewTask != null) {
+                stopPreview();
+                startPreview();
+            }
+        }
+    }
+
+    @Override
+    public void autoFocus(final FocusCallback callback) {
+        if (mScheduler == null) {
+            callback.onAutoFocus(false);
+            return;
+        }
+        //一帧之后对焦完成
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onAutoFocus(true);
+                    }
+                });
+            }
+        }, 1000 / mFps, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void cancelAutoFocus() {
+    }
+
+    @Override
+    public void close() {
+        stopPreview();
+        if (mScheduler != null) {
+            mScheduler.shutdownNow();
+            mScheduler = null;
+        }
+        synchronized (mBuffers) {
+            mBuffers.clear();
+        }
+        mFrameCallback = null;
+        mOneShotCallback = null;
+        mCapabilities = null;
+        mZoom = 0;
+        mCommittedZoom = 0;
+        mFpsLimit = 0;
+        mCommittedFpsLimit = 0;
+        mMeteringPoint = null;
+        mCommittedMeteringPoint = null;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return mDeliveredCount.get();
+    }
+
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    public long getPictureCount() {
+        return mPictureCount.get();
+    }
+
+    public long getCommitCount() {
+        return mCommitCount.get();
+    }
+
+    /**
+     * 最近一次commitSettings提交的缩放级别
+     */
+    public int getCommittedZoom() {
+        return mCommittedZoom;
+    }
+
+    /**
+     * 最近一次commitSettings提交的测光点{x, y}，没有设置时返回null
+     */
+    public float[] getCommittedMeteringPoint() {
+        return mCommittedMeteringPoint;
+    }
+}
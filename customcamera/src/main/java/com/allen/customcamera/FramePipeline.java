@@ -0,0 +1,560 @@
+package com.allen.customcamera;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预览帧分析流水线
+ * 每个阶段（例如曝光统计、运动检测、文档检测）在自己的线程或Executor中执行，阶段之间用有界队列连接，
+ * 队列满时丢弃最旧的帧，分析总是拿到最新的画面，慢的阶段不会拖慢相机和其他阶段
+ * 预览帧进入流水线时复制一次到缓冲池中的Frame，之后所有阶段通过引用计数共享同一份只读数据，不再复制；
+ * 最后一个引用释放后Frame回到缓冲池，稳定运行时不分配内存
+ * 每一帧带有按需计算的亮度金字塔（LumaPyramid），只需要缩小的亮度图的分析直接共享
+ * 每个阶段统计收到、处理、丢弃的帧数，排队和处理的耗时，以及吞吐量
+ * 纯Java实现，可以用录制的帧在JVM上测试
+ */
+
+public class FramePipeline {
+
+    /**
+     * 分析一帧，在阶段自己的线程中调用
+     */
+    public interface Analyzer {
+        /**
+         * @param frame 只读，返回后不能再使用，需要保留时先调用retain，用完后release
+         * @return 是否把这一帧交给下游的阶段
+         */
+        boolean analyze(Frame frame);
+    }
+
+    /**
+     * 流水线中的一帧NV21数据，通过引用计数在各个阶段之间共享
+     */
+    public static final class Frame {
+        private final FramePipeline mOwner;
+        private final byte[] mData;
+        private final int mWidth;
+        private final int mHeight;
+        private final AtomicInteger mRefCount = new AtomicInteger();
+        //和Frame一起复用的亮度金字塔
+        private final LumaPyramid mPyramid = new LumaPyramid();
+        private long mTimestamp;
+        private long mSequence;
+
+        Frame(FramePipeline owner, int width, int height) {
+            mOwner = owner;
+            mWidth = width;
+            mHeight = height;
+            mData = new byte[PreviewBufferPool.getFrameSize(width, height)];
+        }
+
+        /**
+         * 只读，所有阶段共享同一个数组，不能修改
+         */
+        public byte[] getData() {
+            return mData;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * 这一帧的亮度金字塔，所有阶段共享，每一级最多计算一次
+         */
+        public LumaPyramid getLumaPyramid() {
+            return mPyramid;
+        }
+
+        /**
+         * 相机回调这一帧的时间（System.nanoTime）
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * 进入流水线的序号，从0开始
+         */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        public void retain() {
+            if (mRefCount.getAndIncrement() <= 0) {
+                throw new IllegalStateException("frame already released");
+            }
+        }
+
+        public void release() {
+            int count = mRefCount.decrementAndGet();
+            if (count == 0) {
+                mOwner.recycle(this);
+            } else if (count < 0) {
+                throw new IllegalStateException("frame released too many times");
+            }
+        }
+    }
+
+    /**
+     * 流水线的一个阶段，输入是丢弃最旧帧的有界队列，同一个阶段的帧按顺序串行处理
+     */
+    public static final class Stage {
+        private final FramePipeline mOwner;
+        private final String mName;
+        private final Analyzer mAnalyzer;
+        private final Executor mExecutor;
+        //阶段自己创建的线程，关闭流水线时一起关闭
+        private final ExecutorService mOwnExecutor;
+        private final List<Stage> mChildren = new CopyOnWriteArrayList<>();
+
+        //环形队列，和入队时间一一对应，入队出队不分配对象
+        private final Frame[] mQueue;
+        private final long[] mEnqueueTimes;
+        private int mHead;
+        private int mSize;
+        private boolean mScheduled;
+        private boolean mClosed;
+
+        private final AtomicLong mReceivedCount = new AtomicLong();
+        private final AtomicLong mProcessedCount = new AtomicLong();
+        private final AtomicLong mDroppedCount = new AtomicLong();
+        private final AtomicLong mFailedCount = new AtomicLong();
+        private final LatencyHistogram mQueueLatency = new LatencyHistogram();
+        private final LatencyHistogram mProcessLatency = new LatencyHistogram();
+        private volatile long mFirstReceivedNanos;
+        private volatile long mLastProcessedNanos;
+
+        Stage(FramePipeline owner, String name, Analyzer analyzer, int capacity, Executor executor) {
+            mOwner = owner;
+            mName = name;
+            mAnalyzer = analyzer;
+            mQueue = new Frame[capacity];
+            mEnqueueTimes = new long[capacity];
+            if (executor != null) {
+                mExecutor = executor;
+                mOwnExecutor = null;
+            } else {
+                mOwnExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "frame-" + mName);
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                });
+                mExecutor = mOwnExecutor;
+            }
+        }
+
+        int getCapacity() {
+            return mQueue.length;
+        }
+
+        /**
+         * 帧进入队列，队列满时丢弃最旧的一帧
+         */
+        void offer(Frame frame, long now) {
+            frame.retain();
+            mOwner.mPendingCount.incrementAndGet();
+            if (mFirstReceivedNanos == 0) {
+                mFirstReceivedNanos = now;
+            }
+            mReceivedCount.incrementAndGet();
+            Frame dropped = null;
+            boolean schedule = false;
+            synchronized (this) {
+                if (mClosed) {
+                    dropped = frame;
+                } else {
+                    if (mSize == mQueue.length) {
+                        dropped = mQueue[mHead];
+                        mQueue[mHead] = null;
+                        mHead = (mHead + 1) % mQueue.length;
+                        mSize--;
+                    }
+                    int tail = (mHead + mSize) % mQueue.length;
+                    mQueue[tail] = frame;
+                    mEnqueueTimes[tail] = now;
+                    mSize++;
+                    if (!mScheduled) {
+                        mScheduled = true;
+                        schedule = true;
+                    }
+                }
+            }
+            if (dropped != null) {
+                mDroppedCount.incrementAndGet();
+                dropped.release();
+                mOwner.onFrameDone();
+            }
+            if (schedule) {
+                try {
+                    mExecutor.execute(mDrain);
+                } catch (RejectedExecutionException e) {
+                    //同时关闭了流水线（或者共享的Executor已经关闭），队列中的帧不会再处理
+                    discardQueued(false);
+                }
+            }
+        }
+
+        private final Runnable mDrain = new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    Frame frame;
+                    long enqueued;
+                    synchronized (Stage.this) {
+                        if (mSize == 0) {
+                            mScheduled = false;
+                            return;
+                        }
+                        frame = mQueue[mHead];
+                        enqueued = mEnqueueTimes[mHead];
+                        mQueue[mHead] = null;
+                        mHead = (mHead + 1) % mQueue.length;
+                        mSize--;
+                    }
+                    process(frame, enqueued);
+                }
+            }
+        };
+
+        private void process(Frame frame, long enqueued) {
+            long start = System.nanoTime();
+            boolean forward = false;
+            try {
+                forward = mAnalyzer.analyze(frame);
+            } catch (RuntimeException e) {
+                //分析失败只影响这一帧
+                mFailedCount.incrementAndGet();
+            }
+            long end = System.nanoTime();
+            mQueueLatency.record(start - enqueued);
+            mProcessLatency.record(end - start);
+            mProcessedCount.incrementAndGet();
+            mLastProcessedNanos = end;
+            if (forward) {
+                for (Stage child : mChildren) {
+                    child.offer(frame, end);
+                }
+            }
+            frame.release();
+            mOwner.onFrameDone();
+        }
+
+        /**
+         * 清空队列，不再接收新的帧
+         */
+        void close() {
+            discardQueued(true);
+            if (mOwnExecutor != null) {
+                mOwnExecutor.shutdown();
+            }
+        }
+
+        /**
+         * 释放队列中等待的帧
+         *
+         * @param close 是否同时关闭，不再接收新的帧
+         */
+        private void discardQueued(boolean close) {
+            List<Frame> dropped = new ArrayList<>();
+            synchronized (this) {
+                if (close) {
+                    mClosed = true;
+                } else {
+                    mScheduled = false;
+                }
+                while (mSize > 0) {
+                    dropped.add(mQueue[mHead]);
+                    mQueue[mHead] = null;
+                    mHead = (mHead + 1) % mQueue.length;
+                    mSize--;
+                }
+            }
+            for (Frame frame : dropped) {
+                frame.release();
+                mOwner.onFrameDone();
+            }
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getReceivedCount() {
+            return mReceivedCount.get();
+        }
+
+        public long getProcessedCount() {
+            return mProcessedCount.get();
+        }
+
+        /**
+         * 队列满时被丢弃的帧数
+         */
+        public long getDroppedCount() {
+            return mDroppedCount.get();
+        }
+
+        /**
+         * 分析时抛出异常的帧数
+         */
+        public long getFailedCount() {
+            return mFailedCount.get();
+        }
+
+        public synchronized int getQueueSize() {
+            return mSize;
+        }
+
+        /**
+         * 从进入队列到开始处理的耗时
+         */
+        public LatencyHistogram.Snapshot getQueueLatency() {
+            return mQueueLatency.snapshot();
+        }
+
+        /**
+         * 分析一帧的耗时
+         */
+        public LatencyHistogram.Snapshot getProcessLatency() {
+            return mProcessLatency.snapshot();
+        }
+
+        /**
+         * 从收到第一帧到最近一次处理完成的平均吞吐量（帧每秒）
+         */
+        public float getThroughput() {
+            long first = mFirstReceivedNanos;
+            long last = mLastProcessedNanos;
+            if (first == 0 || last <= first) {
+                return 0;
+            }
+            return mProcessedCount.get() * 1e9f / (last - first);
+        }
+
+        @Override
+        public String toString() {
+            LatencyHistogram.Snapshot process = getProcessLatency();
+            return mName + ": received=" + getReceivedCount() + ", processed=" + getProcessedCount()
+                    + ", dropped=" + getDroppedCount() + ", failed=" + getFailedCount()
+                    + ", fps=" + getThroughput() + ", process p50=" + process.getPercentile(50) / 1000 + "us"
+                    + ", p99=" + process.getPercentile(99) / 1000 + "us";
+        }
+    }
+
+    //直接接收预览帧的阶段
+    private final List<Stage> mRoots = new CopyOnWriteArrayList<>();
+    private final List<Stage> mStages = new CopyOnWriteArrayList<>();
+    //空闲的Frame，尺寸和当前预览一致
+    private final ArrayDeque<Frame> mFreeFrames = new ArrayDeque<>();
+    private int mAllocatedCount;
+    private long mSequence;
+    //进入流水线的帧数、缓冲池耗尽（分析阶段持有太多帧）被丢弃的帧数
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    //在各个阶段的队列中和正在处理的帧数，用于等待流水线空闲
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+    private volatile boolean mShutdown;
+
+    /**
+     * 添加一个直接接收预览帧的阶段，在自己的线程中执行
+     *
+     * @param queueCapacity 队列中最多等待的帧数，满时丢弃最旧的帧
+     */
+    public Stage addStage(String name, Analyzer analyzer, int queueCapacity) {
+        return addStage(null, name, analyzer, queueCapacity, null);
+    }
+
+    /**
+     * 添加一个阶段
+     *
+     * @param upstream      上游阶段，上游分析完成并返回true后交给这个阶段；为null时直接接收预览帧
+     * @param queueCapacity 队列中最多等待的帧数，满时丢弃最旧的帧
+     * @param executor      执行分析的Executor，可以和其他阶段共享（同一个阶段仍然串行执行）；为null时创建自己的线程
+     */
+    public Stage addStage(Stage upstream, String name, Analyzer analyzer, int queueCapacity, Executor executor) {
+        if (name == null || analyzer == null || queueCapacity <= 0) {
+            throw new IllegalArgumentException("invalid stage: " + name + ", capacity " + queueCapacity);
+        }
+        if (upstream != null && upstream.mOwner != this) {
+            throw new IllegalArgumentException("upstream stage belongs to another pipeline");
+        }
+        if (mShutdown) {
+            throw new IllegalStateException("pipeline is shut down");
+        }
+        Stage stage = new Stage(this, name, analyzer, queueCapacity, executor);
+        mStages.add(stage);
+        if (upstream != null) {
+            upstream.mChildren.add(stage);
+        } else {
+            mRoots.add(stage);
+        }
+        return stage;
+    }
+
+    public List<Stage> getStages() {
+        return mStages;
+    }
+
+    /**
+     * 提交一帧预览，复制到缓冲池中的Frame后交给各个阶段，调用返回后data可以交还给相机
+     * 在相机线程中调用
+     *
+     * @return 没有阶段、已经关闭或者缓冲池耗尽时返回false
+     */
+    public boolean submit(byte[] data, int width, int height, long timestampNanos) {
+        if (mShutdown || mRoots.isEmpty()) {
+            return false;
+        }
+        Frame frame = obtainFrame(width, height);
+        if (frame == null) {
+            mRejectedCount.incrementAndGet();
+            return false;
+        }
+        System.arraycopy(data, 0, frame.mData, 0, frame.mData.length);
+        frame.mPyramid.reset(frame.mData, width, height);
+        frame.mTimestamp = timestampNanos;
+        frame.mSequence = mSequence++;
+        //提交者持有一个引用，交给所有阶段后释放
+        frame.mRefCount.set(1);
+        mSubmittedCount.incrementAndGet();
+        long now = System.nanoTime();
+        for (Stage stage : mRoots) {
+            stage.offer(frame, now);
+        }
+        frame.release();
+        return true;
+    }
+
+    /**
+     * 从缓冲池取出一个尺寸一致的Frame，尺寸变化后旧的Frame直接丢弃
+     * 同时存在的Frame数不超过所有队列的容量加上每个阶段正在处理的一帧，再留一帧给提交者
+     */
+    private Frame obtainFrame(int width, int height) {
+        synchronized (mFreeFrames) {
+            Frame frame;
+            while ((frame = mFreeFrames.poll()) != null) {
+                if (frame.mWidth == width && frame.mHeight == height) {
+                    return frame;
+                }
+                mAllocatedCount--;
+            }
+            if (mAllocatedCount >= getFrameLimit()) {
+                return null;
+            }
+            mAllocatedCount++;
+        }
+        return new Frame(this, width, height);
+    }
+
+    private int getFrameLimit() {
+        int limit = 1;
+        for (Stage stage : mStages) {
+            limit += stage.getCapacity() + 1;
+        }
+        return limit;
+    }
+
+    void recycle(Frame frame) {
+        synchronized (mFreeFrames) {
+            mFreeFrames.add(frame);
+        }
+    }
+
+    void onFrameDone() {
+        if (mPendingCount.decrementAndGet() == 0) {
+            synchronized (mPendingCount) {
+                mPendingCount.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 等待所有阶段处理完队列中的帧
+     *
+     * @return 超时返回false
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mPendingCount) {
+            while (mPendingCount.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(mPendingCount, remaining);
+            }
+        }
+        return true;
+    }
+
+    public long getSubmittedCount() {
+        return mSubmittedCount.get();
+    }
+
+    /**
+     * 缓冲池耗尽没能进入流水线的帧数，分析阶段retain了太多帧时出现
+     */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    /**
+     * 已经分配的Frame数
+     */
+    public int getAllocatedFrameCount() {
+        synchronized (mFreeFrames) {
+            return mAllocatedCount;
+        }
+    }
+
+    /**
+     * 缓冲池中空闲的Frame数，流水线空闲并且没有阶段保留帧时等于getAllocatedFrameCount
+     */
+    public int getFreeFrameCount() {
+        synchronized (mFreeFrames) {
+            return mFreeFrames.size();
+        }
+    }
+
+    /**
+     * 不再接收新的帧，丢弃队列中等待的帧，正在处理的帧处理完成后结束，关闭各阶段自己创建的线程
+     */
+    public void shutdown() {
+        mShutdown = true;
+        for (Stage stage : mStages) {
+            stage.close();
+        }
+    }
+
+    public boolean isShutdown() {
+        return mShutdown;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("FramePipeline: submitted=").append(getSubmittedCount())
+                .append(", rejected=").append(getRejectedCount()).append('\n');
+        for (Stage stage : mStages) {
+            builder.append(stage).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,157 @@
+package com.allen.customcamera;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 把预览帧录制到文件，之后在JVM上用RecordedFrameSource回放，复现现场的性能问题
+ * 作为FrameListener交给CameraManager.setFrameListener使用，第一帧决定录制的尺寸，尺寸不同的帧不录制
+ * 文件格式（小端）：
+ * <pre>
+ * int  MAGIC
+ * int  VERSION
+ * int  width
+ * int  height
+ * int  count     已录制的帧数，close时写入
+ * int  capacity  最多录制的帧数
+ * long timestamps[capacity]
+ * byte frames[capacity][width * height * 3 / 2]   NV21
+ * </pre>
+ * 每一帧的位置是固定的，用FileChannel按位置直接写入，不经过其他缓冲区
+ * 写文件在回调线程（相机线程）中进行，只用于调试和采集测试数据
+ */
+
+public class FrameRecorder implements CameraManager.FrameListener, Closeable {
+    public static final int MAGIC = 0x3132564e;
+    public static final int VERSION = 1;
+    //timestamps之前的字节数
+    public static final int HEADER_SIZE = 24;
+    static final int COUNT_OFFSET = 16;
+
+    private final int mCapacity;
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mTimestamp = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    private int mWidth;
+    private int mHeight;
+    private int mFrameSize;
+    private int mCount;
+    private long mDroppedCount;
+    private boolean mClosed;
+    //写文件失败后停止录制，close时抛出
+    private IOException mError;
+
+    /**
+     * @param file     录制的文件，已经存在时覆盖
+     * @param capacity 最多录制的帧数
+     */
+    public FrameRecorder(File file, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+    }
+
+    /**
+     * 在回调线程中写入一帧
+     */
+    @Override
+    public synchronized void onPreviewFrame(byte[] data, int width, int height, long timestampNanos) {
+        if (mClosed || mError != null) {
+            return;
+        }
+        try {
+            if (mFrameSize == 0) {
+                writeHeader(width, height);
+            }
+            if (width != mWidth || height != mHeight || mCount >= mCapacity || data.length < mFrameSize) {
+                mDroppedCount++;
+                return;
+            }
+            writeFully(ByteBuffer.wrap(data, 0, mFrameSize), getFrameOffset(mCount));
+            mTimestamp.clear();
+            mTimestamp.putLong(0, timestampNanos);
+            writeFully(mTimestamp, HEADER_SIZE + mCount * 8L);
+            mCount++;
+        } catch (IOException e) {
+            mError = e;
+        }
+    }
+
+    private void writeHeader(int width, int height) throws IOException {
+        int frameSize = PreviewBufferPool.getFrameSize(width, height);
+        if (HEADER_SIZE + mCapacity * (8L + frameSize) > Integer.MAX_VALUE) {
+            //回放时整个文件映射成一个MappedByteBuffer，不能超过2GB
+            throw new IOException("recording of " + mCapacity + " frames " + width + "x" + height + " exceeds 2GB");
+        }
+        mWidth = width;
+        mHeight = height;
+        mFrameSize = frameSize;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(0).putInt(mCapacity);
+        header.flip();
+        writeFully(header, 0);
+    }
+
+    private long getFrameOffset(int index) {
+        return getFramesOffset(mCapacity) + (long) index * mFrameSize;
+    }
+
+    /**
+     * 第一帧在文件中的位置
+     */
+    static long getFramesOffset(int capacity) {
+        return HEADER_SIZE + capacity * 8L;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += mChannel.write(buffer, position);
+        }
+    }
+
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * 尺寸不同或者超出容量没有录制的帧数
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * 写入帧数，截掉没有使用的空间并关闭文件
+     *
+     * @throws IOException 录制过程中写文件失败
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mError == null && mFrameSize > 0) {
+                ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                count.putInt(0, mCount);
+                writeFully(count, COUNT_OFFSET);
+                mChannel.truncate(getFrameOffset(mCount));
+            }
+        } finally {
+            mFile.close();
+        }
+        if (mError != null) {
+            throw mError;
+        }
+    }
+}
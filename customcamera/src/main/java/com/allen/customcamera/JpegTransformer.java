@@ -0,0 +1,1188 @@
+package com.allen.customcamera;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JPEG无损旋转、镜像
+ * 和jpegtran的做法一样，只做熵解码得到DCT系数，在系数上完成转置、翻转后重新熵编码，
+ * 不经过IDCT/DCT和重新量化，画质没有任何损失
+ * 需要翻转的方向上不足一个MCU的边缘会被裁掉（和jpegtran -trim相同，最多裁掉一个MCU减一个像素）
+ * 只支持基线/扩展顺序Huffman编码的8位JPEG（相机输出的JPEG都是这种格式）
+ * 输出使用根据转换后的系数重新生成的最优Huffman表，APPn和COM段原样保留
+ * 纯Java实现，可以直接在JVM上测试
+ */
+
+public class JpegTransformer {
+
+    /**
+     * 转换类型，与EXIF方向一一对应
+     */
+    public enum Transform {
+        NONE(false, false, false),
+        FLIP_HORIZONTAL(true, false, false),
+        ROTATE_180(true, true, false),
+        FLIP_VERTICAL(false, true, false),
+        TRANSPOSE(false, false, true),
+        ROTATE_90(false, true, true),
+        TRANSVERSE(true, true, true),
+        ROTATE_270(true, false, true);
+
+        //先在原图上水平翻转、垂直翻转，再沿主对角线转置
+        final boolean mFlipX;
+        final boolean mFlipY;
+        final boolean mTranspose;
+
+        Transform(boolean flipX, boolean flipY, boolean transpose) {
+            mFlipX = flipX;
+            mFlipY = flipY;
+            mTranspose = transpose;
+        }
+
+        /**
+         * 把EXIF方向对应的图片变换成正常方向需要的转换
+         *
+         * @param orientation EXIF方向（1~8）
+         */
+        public static Transform fromExifOrientation(int orientation) {
+            switch (orientation) {
+                case 2:
+                    return FLIP_HORIZONTAL;
+                case 3:
+                    return ROTATE_180;
+                case 4:
+                    return FLIP_VERTICAL;
+                case 5:
+                    return TRANSPOSE;
+                case 6:
+                    return ROTATE_90;
+                case 7:
+                    return TRANSVERSE;
+                case 8:
+                    return ROTATE_270;
+                default:
+                    return NONE;
+            }
+        }
+    }
+
+    //Z字形顺序到自然顺序的映射
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOF0 = 0xC0;
+    private static final int SOF1 = 0xC1;
+    private static final int DHT = 0xC4;
+    private static final int SOS = 0xDA;
+    private static final int DQT = 0xDB;
+    private static final int DRI = 0xDD;
+    private static final int RST0 = 0xD0;
+    private static final int RST7 = 0xD7;
+    private static final int APP0 = 0xE0;
+    private static final int APP15 = 0xEF;
+    private static final int COM = 0xFE;
+
+    private JpegTransformer() {
+    }
+
+    /**
+     * 对JPEG数据做无损转换
+     *
+     * @return 转换后的JPEG数据
+     * @throws IOException 不支持的格式或数据损坏
+     */
+    public static byte[] transform(byte[] jpeg, Transform transform) throws IOException {
+        Image image = new Decoder(jpeg).decode();
+        Image result = image.transform(transform);
+        return new Encoder(result).encode();
+    }
+
+    /**
+     * 读取JPEG的宽高
+     *
+     * @return {宽, 高}
+     */
+    static int[] readSize(byte[] jpeg) throws IOException {
+        int position = 2;
+        while (position + 8 < jpeg.length) {
+            if ((jpeg[position] & 0xFF) != 0xFF) {
+                break;
+            }
+            int marker = jpeg[position + 1] & 0xFF;
+            if (marker >= SOF0 && marker <= 0xCF && marker != DHT && marker != 0xC8 && marker != 0xCC) {
+                int height = ((jpeg[position + 5] & 0xFF) << 8) | (jpeg[position + 6] & 0xFF);
+                int width = ((jpeg[position + 7] & 0xFF) << 8) | (jpeg[position + 8] & 0xFF);
+                return new int[]{width, height};
+            }
+            position += 2 + (((jpeg[position + 2] & 0xFF) << 8) | (jpeg[position + 3] & 0xFF));
+        }
+        throw new IOException("frame header not found");
+    }
+
+    /**
+     * 生成一张纯灰色的单分量JPEG，用于模拟相机拍照
+     * 量化表全为1，每个块只有DC系数，编码很快，不依赖Bitmap
+     *
+     * @param gray 灰度值（0~255）
+     */
+    static byte[] createGray(int width, int height, int gray) {
+        Image image = new Image();
+        image.mWidth = width;
+        image.mHeight = height;
+        image.mMaxH = 1;
+        image.mMaxV = 1;
+        int[] table = new int[64];
+        Arrays.fill(table, 1);
+        image.mQuantTables[0] = table;
+        Component component = new Component();
+        component.mId = 1;
+        component.mH = 1;
+        component.mV = 1;
+        image.mComponents = new Component[]{component};
+        image.layout();
+        short[] coefficients = new short[component.mBlocksPerLine * component.mBlocksPerColumn * 64];
+        //DC系数是块内（像素值-128）之和的1/8
+        short dc = (short) ((Math.max(0, Math.min(255, gray)) - 128) * 8);
+        for (int offset = 0; offset < coefficients.length; offset += 64) {
+            coefficients[offset] = dc;
+        }
+        component.mCoefficients = coefficients;
+        try {
+            return new Encoder(image).encode();
+        } catch (IOException e) {
+            //只写入内存，不会发生
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //---------------------------------------------------------------------------------------------
+    // 图片的系数模型
+    //---------------------------------------------------------------------------------------------
+
+    /**
+     * 一个颜色分量
+     */
+    private static class Component {
+        int mId;
+        int mH;
+        int mV;
+        int mQuantId;
+        //Huffman表的编号
+        int mDcTable;
+        int mAcTable;
+        //分量的像素宽高
+        int mWidth;
+        int mHeight;
+        //按MCU补齐后的块数
+        int mBlocksPerLine;
+        int mBlocksPerColumn;
+        //自然顺序的DCT系数，每个块64个
+        short[] mCoefficients;
+
+        int getVisibleBlocksPerLine() {
+            return (mWidth + 7) / 8;
+        }
+
+        int getVisibleBlocksPerColumn() {
+            return (mHeight + 7) / 8;
+        }
+    }
+
+    /**
+     * 解码后的图片：尺寸、量化表、分量以及需要保留的段
+     */
+    private static class Image {
+        int mWidth;
+        int mHeight;
+        int mMaxH;
+        int mMaxV;
+        Component[] mComponents;
+        //量化表（自然顺序），null表示未定义
+        final int[][] mQuantTables = new int[4][];
+        final boolean[] mQuantSixteenBit = new boolean[4];
+        //原样保留的APPn、COM段
+        final List<byte[]> mSegments = new ArrayList<>();
+
+        /**
+         * 根据图片尺寸计算各个分量的尺寸和块数
+         */
+        void layout() {
+            int mcuWidth = 8 * mMaxH;
+            int mcuHeight = 8 * mMaxV;
+            int mcusX = (mWidth + mcuWidth - 1) / mcuWidth;
+            int mcusY = (mHeight + mcuHeight - 1) / mcuHeight;
+            for (Component component : mComponents) {
+                component.mWidth = (mWidth * component.mH + mMaxH - 1) / mMaxH;
+                component.mHeight = (mHeight * component.mV + mMaxV - 1) / mMaxV;
+                component.mBlocksPerLine = mcusX * component.mH;
+                component.mBlocksPerColumn = mcusY * component.mV;
+            }
+        }
+
+        /**
+         * 翻转方向上需要对齐的像素数（一个iMCU）
+         */
+        int getMcuWidth() {
+            return mComponents.length == 1 ? 8 : 8 * mMaxH;
+        }
+
+        int getMcuHeight() {
+            return mComponents.length == 1 ? 8 : 8 * mMaxV;
+        }
+
+        Image transform(Transform transform) throws IOException {
+            //需要翻转的方向裁掉不足一个MCU的边缘
+            int width = transform.mFlipX ? mWidth / getMcuWidth() * getMcuWidth() : mWidth;
+            int height = transform.mFlipY ? mHeight / getMcuHeight() * getMcuHeight() : mHeight;
+            if (width == 0 || height == 0) {
+                throw new IOException("image too small to transform: " + mWidth + "x" + mHeight);
+            }
+
+            Image result = new Image();
+            result.mSegments.addAll(mSegments);
+            boolean transpose = transform.mTranspose;
+            result.mWidth = transpose ? height : width;
+            result.mHeight = transpose ? width : height;
+            result.mMaxH = transpose ? mMaxV : mMaxH;
+            result.mMaxV = transpose ? mMaxH : mMaxV;
+            for (int i = 0; i < mQuantTables.length; i++) {
+                result.mQuantSixteenBit[i] = mQuantSixteenBit[i];
+                if (mQuantTables[i] != null) {
+                    result.mQuantTables[i] = transpose ? transposeTable(mQuantTables[i]) : mQuantTables[i];
+                }
+            }
+            result.mComponents = new Component[mComponents.length];
+            for (int i = 0; i < mComponents.length; i++) {
+                Component source = mComponents[i];
+                Component target = new Component();
+                target.mId = source.mId;
+                target.mH = transpose ? source.mV : source.mH;
+                target.mV = transpose ? source.mH : source.mV;
+                target.mQuantId = source.mQuantId;
+                result.mComponents[i] = target;
+            }
+            result.layout();
+
+            for (int i = 0; i < mComponents.length; i++) {
+                transformComponent(mComponents[i], result.mComponents[i], width, height, transform);
+            }
+            return result;
+        }
+
+        /**
+         * 按块重新排列系数，并对每个块做对应的系数变换
+         */
+        private void transformComponent(Component source, Component target, int width, int height, Transform transform) {
+            //裁剪后原图中该分量可见的块数
+            int sourceBlocksX = ((width * source.mH + mMaxH - 1) / mMaxH + 7) / 8;
+            int sourceBlocksY = ((height * source.mV + mMaxV - 1) / mMaxV + 7) / 8;
+            short[] input = source.mCoefficients;
+            short[] output = new short[target.mBlocksPerLine * target.mBlocksPerColumn * 64];
+            for (int oy = 0; oy < target.mBlocksPerColumn; oy++) {
+                for (int ox = 0; ox < target.mBlocksPerLine; ox++) {
+                    int x = transform.mTranspose ? oy : ox;
+                    int y = transform.mTranspose ? ox : oy;
+                    if (transform.mFlipX) {
+                        x = sourceBlocksX - 1 - x;
+                    }
+                    if (transform.mFlipY) {
+                        y = sourceBlocksY - 1 - y;
+                    }
+                    if (x < 0 || y < 0 || x >= source.mBlocksPerLine || y >= source.mBlocksPerColumn) {
+                        //补齐MCU的块，保持为0
+                        continue;
+                    }
+                    transformBlock(input, (y * source.mBlocksPerLine + x) * 64,
+                            output, (oy * target.mBlocksPerLine + ox) * 64, transform);
+                }
+            }
+            target.mCoefficients = output;
+        }
+
+        private static void transformBlock(short[] input, int inOffset, short[] output, int outOffset, Transform transform) {
+            for (int v = 0; v < 8; v++) {
+                for (int u = 0; u < 8; u++) {
+                    int value = input[inOffset + v * 8 + u];
+                    //水平翻转时奇数列的频率分量取反，垂直翻转时奇数行取反
+                    if (transform.mFlipX && (u & 1) != 0) {
+                        value = -value;
+                    }
+                    if (transform.mFlipY && (v & 1) != 0) {
+                        value = -value;
+                    }
+                    output[outOffset + (transform.mTranspose ? u * 8 + v : v * 8 + u)] = (short) value;
+                }
+            }
+        }
+
+        private static int[] transposeTable(int[] table) {
+            int[] result = new int[64];
+            for (int v = 0; v < 8; v++) {
+                for (int u = 0; u < 8; u++) {
+                    result[u * 8 + v] = table[v * 8 + u];
+                }
+            }
+            return result;
+        }
+    }
+
+    //---------------------------------------------------------------------------------------------
+    // 解码
+    //---------------------------------------------------------------------------------------------
+
+    /**
+     * 解码用的Huffman表
+     */
+    private static class HuffmanTable {
+        private static final int LOOKAHEAD = 9;
+
+        final int[] mMaxCode = new int[18];
+        final int[] mValOffset = new int[17];
+        final int[] mValues;
+        //前LOOKAHEAD位的快速查找表：高8位为码长，低8位为符号，0表示需要慢速查找
+        final int[] mLookup = new int[1 << LOOKAHEAD];
+
+        HuffmanTable(int[] counts, int[] values) throws IOException {
+            mValues = values;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                mValOffset[length] = index - code;
+                if (counts[length] > 0) {
+                    for (int i = 0; i < counts[length]; i++) {
+                        if (length <= LOOKAHEAD) {
+                            int shift = LOOKAHEAD - length;
+                            int start = code << shift;
+                            for (int j = 0; j < (1 << shift); j++) {
+                                mLookup[start + j] = (length << 8) | values[index];
+                            }
+                        }
+                        code++;
+                        index++;
+                    }
+                    mMaxCode[length] = code - 1;
+                } else {
+                    mMaxCode[length] = -1;
+                }
+                if (code > (1 << length)) {
+                    throw new IOException("invalid huffman table");
+                }
+                code <<= 1;
+            }
+            mMaxCode[17] = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 熵编码数据的位读取器，处理0xFF00填充字节和标记
+     */
+    private static class BitReader {
+        private final byte[] mData;
+        private int mPosition;
+        private int mBuffer;
+        private int mBits;
+        //遇到标记后不再读取，后面补0
+        private boolean mMarkerHit;
+
+        BitReader(byte[] data, int position) {
+            mData = data;
+            mPosition = position;
+        }
+
+        private void fill() {
+            while (mBits <= 24) {
+                int b = 0;
+                if (!mMarkerHit && mPosition < mData.length) {
+                    b = mData[mPosition] & 0xFF;
+                    if (b == 0xFF) {
+                        int next = mPosition + 1 < mData.length ? mData[mPosition + 1] & 0xFF : 0;
+                        if (next == 0) {
+                            mPosition += 2;
+                        } else {
+                            mMarkerHit = true;
+                            b = 0;
+                        }
+                    } else {
+                        mPosition++;
+                    }
+                }
+                mBuffer |= b << (24 - mBits);
+                mBits += 8;
+            }
+        }
+
+        int peek(int count) {
+            if (mBits < count) {
+                fill();
+            }
+            return mBuffer >>> (32 - count);
+        }
+
+        void skip(int count) {
+            mBuffer <<= count;
+            mBits -= count;
+        }
+
+        int readBits(int count) {
+            if (count == 0) {
+                return 0;
+            }
+            int value = peek(count);
+            skip(count);
+            return value;
+        }
+
+        int decode(HuffmanTable table) throws IOException {
+            int lookup = table.mLookup[peek(HuffmanTable.LOOKAHEAD)];
+            if (lookup != 0) {
+                skip(lookup >> 8);
+                return lookup & 0xFF;
+            }
+            //慢速查找
+            int code = 0;
+            int length = 0;
+            do {
+                code = (code << 1) | readBits(1);
+                length++;
+            } while (code > table.mMaxCode[length] && length < 16);
+            if (code > table.mMaxCode[length]) {
+                throw new IOException("invalid huffman code");
+            }
+            return table.mValues[table.mValOffset[length] + code];
+        }
+
+        /**
+         * 读取幅值并按JPEG规则扩展符号
+         */
+        int receiveExtend(int size) {
+            if (size == 0) {
+                return 0;
+            }
+            int value = readBits(size);
+            if (value < (1 << (size - 1))) {
+                value += (-1 << size) + 1;
+            }
+            return value;
+        }
+
+        /**
+         * 丢弃剩余的位，跳过RST标记
+         */
+        void restart() throws IOException {
+            mBuffer = 0;
+            mBits = 0;
+            mMarkerHit = false;
+            while (mPosition + 1 < mData.length) {
+                if ((mData[mPosition] & 0xFF) == 0xFF) {
+                    int marker = mData[mPosition + 1] & 0xFF;
+                    if (marker >= RST0 && marker <= RST7) {
+                        mPosition += 2;
+                        return;
+                    }
+                    if (marker != 0 && marker != 0xFF) {
+                        throw new IOException("missing restart marker");
+                    }
+                }
+                mPosition++;
+            }
+            throw new IOException("missing restart marker");
+        }
+
+        /**
+         * 扫描结束后下一个标记的位置
+         */
+        int findMarker() {
+            int position = mPosition;
+            while (position + 1 < mData.length) {
+                if ((mData[position] & 0xFF) == 0xFF) {
+                    int marker = mData[position + 1] & 0xFF;
+                    if (marker != 0 && marker != 0xFF && (marker < RST0 || marker > RST7)) {
+                        return position;
+                    }
+                }
+                position++;
+            }
+            return mData.length;
+        }
+    }
+
+    private static class Decoder {
+        private final byte[] mData;
+        private int mPosition;
+        private final Image mImage = new Image();
+        private final HuffmanTable[] mDcTables = new HuffmanTable[4];
+        private final HuffmanTable[] mAcTables = new HuffmanTable[4];
+        private int mRestartInterval;
+
+        Decoder(byte[] data) {
+            mData = data;
+        }
+
+        Image decode() throws IOException {
+            if (mData.length < 4 || (mData[0] & 0xFF) != 0xFF || (mData[1] & 0xFF) != SOI) {
+                throw new IOException("not a jpeg stream");
+            }
+            mPosition = 2;
+            boolean frameRead = false;
+            boolean scanRead = false;
+            while (true) {
+                int marker = nextMarker();
+                if (marker == EOI) {
+                    break;
+                }
+                if (marker >= RST0 && marker <= RST7) {
+                    continue;
+                }
+                int length = readUnsignedShort(mPosition);
+                int start = mPosition + 2;
+                int end = mPosition + length;
+                if (length < 2 || end > mData.length) {
+                    throw new IOException("invalid segment length");
+                }
+                if ((marker >= APP0 && marker <= APP15) || marker == COM) {
+                    if (!scanRead) {
+                        byte[] segment = new byte[length + 2];
+                        System.arraycopy(mData, mPosition - 2, segment, 0, segment.length);
+                        mImage.mSegments.add(segment);
+                    }
+                } else if (marker == DQT) {
+                    readQuantTables(start, end);
+                } else if (marker == DHT) {
+                    readHuffmanTables(start, end);
+                } else if (marker == DRI) {
+                    mRestartInterval = readUnsignedShort(start);
+                } else if (marker == SOF0 || marker == SOF1) {
+                    readFrame(start);
+                    frameRead = true;
+                } else if (marker == SOS) {
+                    if (!frameRead) {
+                        throw new IOException("scan before frame");
+                    }
+                    mPosition = end;
+                    readScan(start);
+                    scanRead = true;
+                    continue;
+                } else if (marker >= 0xC2 && marker <= 0xCF && marker != DHT && marker != 0xC8 && marker != 0xCC) {
+                    throw new IOException("unsupported jpeg process: 0x" + Integer.toHexString(marker));
+                }
+                mPosition = end;
+            }
+            if (!scanRead) {
+                throw new IOException("no image data");
+            }
+            return mImage;
+        }
+
+        private int nextMarker() throws IOException {
+            while (mPosition < mData.length && (mData[mPosition] & 0xFF) != 0xFF) {
+                mPosition++;
+            }
+            while (mPosition < mData.length && (mData[mPosition] & 0xFF) == 0xFF) {
+                mPosition++;
+            }
+            if (mPosition >= mData.length) {
+                //没有EOI，按结束处理
+                return EOI;
+            }
+            return mData[mPosition++] & 0xFF;
+        }
+
+        private int readUnsignedShort(int position) throws IOException {
+            if (position + 1 >= mData.length) {
+                throw new IOException("unexpected end of jpeg");
+            }
+            return ((mData[position] & 0xFF) << 8) | (mData[position + 1] & 0xFF);
+        }
+
+        private void readQuantTables(int position, int end) throws IOException {
+            while (position < end) {
+                int info = mData[position++] & 0xFF;
+                boolean sixteenBit = (info >> 4) != 0;
+                int id = info & 0x0F;
+                if (id > 3) {
+                    throw new IOException("invalid quant table id");
+                }
+                int[] table = new int[64];
+                for (int i = 0; i < 64; i++) {
+                    if (sixteenBit) {
+                        table[ZIGZAG[i]] = readUnsignedShort(position);
+                        position += 2;
+                    } else {
+                        table[ZIGZAG[i]] = mData[position++] & 0xFF;
+                    }
+                }
+                mImage.mQuantTables[id] = table;
+                mImage.mQuantSixteenBit[id] = sixteenBit;
+            }
+        }
+
+        private void readHuffmanTables(int position, int end) throws IOException {
+            while (position < end) {
+                int info = mData[position++] & 0xFF;
+                int tableClass = info >> 4;
+                int id = info & 0x0F;
+                if (id > 3 || tableClass > 1) {
+                    throw new IOException("invalid huffman table id");
+                }
+                int[] counts = new int[17];
+                int total = 0;
+                for (int i = 1; i <= 16; i++) {
+                    counts[i] = mData[position++] & 0xFF;
+                    total += counts[i];
+                }
+                if (position + total > end) {
+                    throw new IOException("invalid huffman table");
+                }
+                int[] values = new int[total];
+                for (int i = 0; i < total; i++) {
+                    values[i] = mData[position++] & 0xFF;
+                }
+                HuffmanTable table = new HuffmanTable(counts, values);
+                if (tableClass == 0) {
+                    mDcTables[id] = table;
+                } else {
+                    mAcTables[id] = table;
+                }
+            }
+        }
+
+        private void readFrame(int position) throws IOException {
+            if ((mData[position] & 0xFF) != 8) {
+                throw new IOException("only 8-bit jpeg is supported");
+            }
+            mImage.mHeight = readUnsignedShort(position + 1);
+            mImage.mWidth = readUnsignedShort(position + 3);
+            int count = mData[position + 5] & 0xFF;
+            if (mImage.mWidth == 0 || mImage.mHeight == 0 || count == 0 || count > 4) {
+                throw new IOException("invalid frame header");
+            }
+            mImage.mComponents = new Component[count];
+            position += 6;
+            for (int i = 0; i < count; i++) {
+                Component component = new Component();
+                component.mId = mData[position] & 0xFF;
+                component.mH = (mData[position + 1] & 0xFF) >> 4;
+                component.mV = mData[position + 1] & 0x0F;
+                component.mQuantId = mData[position + 2] & 0x03;
+                if (component.mH < 1 || component.mH > 4 || component.mV < 1 || component.mV > 4) {
+                    throw new IOException("invalid sampling factor");
+                }
+                mImage.mMaxH = Math.max(mImage.mMaxH, component.mH);
+                mImage.mMaxV = Math.max(mImage.mMaxV, component.mV);
+                mImage.mComponents[i] = component;
+                position += 3;
+            }
+            mImage.layout();
+            for (Component component : mImage.mComponents) {
+                component.mCoefficients = new short[component.mBlocksPerLine * component.mBlocksPerColumn * 64];
+            }
+        }
+
+        private void readScan(int position) throws IOException {
+            int count = mData[position++] & 0xFF;
+            Component[] components = new Component[count];
+            for (int i = 0; i < count; i++) {
+                int id = mData[position] & 0xFF;
+                int tables = mData[position + 1] & 0xFF;
+                position += 2;
+                for (Component component : mImage.mComponents) {
+                    if (component.mId == id) {
+                        components[i] = component;
+                    }
+                }
+                if (components[i] == null) {
+                    throw new IOException("unknown component in scan: " + id);
+                }
+                components[i].mDcTable = tables >> 4;
+                components[i].mAcTable = tables & 0x0F;
+                if (mDcTables[components[i].mDcTable & 3] == null || mAcTables[components[i].mAcTable & 3] == null) {
+                    throw new IOException("missing huffman table");
+                }
+            }
+
+            BitReader reader = new BitReader(mData, mPosition);
+            int[] predictors = new int[count];
+            int restartsLeft = mRestartInterval;
+            if (count == 1) {
+                //非交织扫描，按分量自身的块数逐块解码
+                Component component = components[0];
+                int blocksX = component.getVisibleBlocksPerLine();
+                int blocksY = component.getVisibleBlocksPerColumn();
+                for (int by = 0; by < blocksY; by++) {
+                    for (int bx = 0; bx < blocksX; bx++) {
+                        if (mRestartInterval > 0) {
+                            if (restartsLeft == 0) {
+                                reader.restart();
+                                predictors[0] = 0;
+                                restartsLeft = mRestartInterval;
+                            }
+                            restartsLeft--;
+                        }
+                        decodeBlock(reader, component, (by * component.mBlocksPerLine + bx) * 64, predictors, 0);
+                    }
+                }
+            } else {
+                int mcusX = (mImage.mWidth + 8 * mImage.mMaxH - 1) / (8 * mImage.mMaxH);
+                int mcusY = (mImage.mHeight + 8 * mImage.mMaxV - 1) / (8 * mImage.mMaxV);
+                for (int my = 0; my < mcusY; my++) {
+                    for (int mx = 0; mx < mcusX; mx++) {
+                        if (mRestartInterval > 0) {
+                            if (restartsLeft == 0) {
+                                reader.restart();
+                                for (int i = 0; i < count; i++) {
+                                    predictors[i] = 0;
+                                }
+                                restartsLeft = mRestartInterval;
+                            }
+                            restartsLeft--;
+                        }
+                        for (int i = 0; i < count; i++) {
+                            Component component = components[i];
+                            for (int v = 0; v < component.mV; v++) {
+                                int row = my * component.mV + v;
+                                for (int h = 0; h < component.mH; h++) {
+                                    int column = mx * component.mH + h;
+                                    decodeBlock(reader, component, (row * component.mBlocksPerLine + column) * 64, predictors, i);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            mPosition = reader.findMarker();
+        }
+
+        private void decodeBlock(BitReader reader, Component component, int offset, int[] predictors, int index) throws IOException {
+            short[] coefficients = component.mCoefficients;
+            HuffmanTable dcTable = mDcTables[component.mDcTable & 3];
+            HuffmanTable acTable = mAcTables[component.mAcTable & 3];
+            int size = reader.decode(dcTable);
+            predictors[index] += reader.receiveExtend(size);
+            coefficients[offset] = (short) predictors[index];
+            int k = 1;
+            while (k < 64) {
+                int symbol = reader.decode(acTable);
+                int run = symbol >> 4;
+                size = symbol & 0x0F;
+                if (size == 0) {
+                    if (run != 15) {
+                        //EOB
+                        break;
+                    }
+                    k += 16;
+                    continue;
+                }
+                k += run;
+                if (k > 63) {
+                    throw new IOException("invalid ac coefficient index");
+                }
+                coefficients[offset + ZIGZAG[k]] = (short) reader.receiveExtend(size);
+                k++;
+            }
+        }
+    }
+
+    //---------------------------------------------------------------------------------------------
+    // 编码
+    //---------------------------------------------------------------------------------------------
+
+    /**
+     * 熵编码的位写入器，自动插入0xFF00填充字节
+     */
+    private static class BitWriter {
+        private final ByteArrayOutputStream mOut;
+        private int mBuffer;
+        private int mBits;
+
+        BitWriter(ByteArrayOutputStream out) {
+            mOut = out;
+        }
+
+        void write(int value, int count) {
+            if (count == 0) {
+                return;
+            }
+            mBuffer = (mBuffer << count) | (value & ((1 << count) - 1));
+            mBits += count;
+            while (mBits >= 8) {
+                int b = (mBuffer >> (mBits - 8)) & 0xFF;
+                mOut.write(b);
+                if (b == 0xFF) {
+                    mOut.write(0);
+                }
+                mBits -= 8;
+            }
+        }
+
+        /**
+         * 剩余的位用1补齐
+         */
+        void flush() {
+            if (mBits > 0) {
+                write(0x7F, 8 - mBits);
+            }
+            mBuffer = 0;
+        }
+    }
+
+    /**
+     * 编码用的Huffman表，根据符号的统计频率生成最优表（JPEG标准附录K.2）
+     */
+    private static class HuffmanEncoder {
+        final long[] mFrequencies = new long[257];
+        final int[] mCodes = new int[256];
+        final int[] mLengths = new int[256];
+        final int[] mCounts = new int[17];
+        int[] mValues;
+
+        void count(int symbol) {
+            mFrequencies[symbol]++;
+        }
+
+        void build() {
+            long[] frequency = mFrequencies.clone();
+            //保留一个码字，保证没有全1的码字
+            frequency[256] = 1;
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            for (int i = 0; i < 257; i++) {
+                others[i] = -1;
+            }
+            while (true) {
+                int c1 = -1;
+                long v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (frequency[i] != 0 && frequency[i] <= v) {
+                        v = frequency[i];
+                        c1 = i;
+                    }
+                }
+                int c2 = -1;
+                v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (frequency[i] != 0 && frequency[i] <= v && i != c1) {
+                        v = frequency[i];
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) {
+                    break;
+                }
+                frequency[c1] += frequency[c2];
+                frequency[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+
+            int[] bits = new int[33];
+            for (int i = 0; i <= 256; i++) {
+                if (codeSize[i] > 0) {
+                    bits[codeSize[i]]++;
+                }
+            }
+            //码长限制在16位以内
+            for (int i = 32; i > 16; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) {
+                        j--;
+                    }
+                    bits[i] -= 2;
+                    bits[i - 1]++;
+                    bits[j + 1] += 2;
+                    bits[j]--;
+                }
+            }
+            //去掉保留的码字
+            int i = 16;
+            while (bits[i] == 0) {
+                i--;
+            }
+            bits[i]--;
+
+            int total = 0;
+            for (int length = 1; length <= 16; length++) {
+                mCounts[length] = bits[length];
+                total += bits[length];
+            }
+            mValues = new int[total];
+            int index = 0;
+            for (int length = 1; length <= 32 && index < total; length++) {
+                for (int symbol = 0; symbol < 256; symbol++) {
+                    if (codeSize[symbol] == length) {
+                        mValues[index++] = symbol;
+                    }
+                }
+            }
+
+            //按码长分配码字
+            int code = 0;
+            index = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int j = 0; j < mCounts[length]; j++) {
+                    int symbol = mValues[index++];
+                    mCodes[symbol] = code++;
+                    mLengths[symbol] = length;
+                }
+                code <<= 1;
+            }
+        }
+
+        void write(BitWriter writer, int symbol) {
+            writer.write(mCodes[symbol], mLengths[symbol]);
+        }
+    }
+
+    private static class Encoder {
+        private final Image mImage;
+        private final ByteArrayOutputStream mOut;
+        //编号0给第一个分量（亮度），编号1给其余分量（色度）
+        private final HuffmanEncoder[] mDcEncoders = {new HuffmanEncoder(), new HuffmanEncoder()};
+        private final HuffmanEncoder[] mAcEncoders = {new HuffmanEncoder(), new HuffmanEncoder()};
+
+        Encoder(Image image) {
+            mImage = image;
+            int coefficients = 0;
+            for (Component component : image.mComponents) {
+                coefficients += component.mCoefficients.length;
+                component.mDcTable = component == image.mComponents[0] ? 0 : 1;
+                component.mAcTable = component.mDcTable;
+            }
+            //经验值：熵编码后的大小一般小于系数个数的一半
+            mOut = new ByteArrayOutputStream(coefficients / 2 + 4096);
+        }
+
+        byte[] encode() throws IOException {
+            //第一遍统计符号频率，生成最优Huffman表
+            encodeScan(null);
+            int tables = mImage.mComponents.length > 1 ? 2 : 1;
+            for (int i = 0; i < tables; i++) {
+                mDcEncoders[i].build();
+                mAcEncoders[i].build();
+            }
+
+            mOut.write(0xFF);
+            mOut.write(SOI);
+            for (byte[] segment : mImage.mSegments) {
+                mOut.write(segment);
+            }
+            writeQuantTables();
+            writeFrame();
+            for (int i = 0; i < tables; i++) {
+                writeHuffmanTable(0, i, mDcEncoders[i]);
+                writeHuffmanTable(1, i, mAcEncoders[i]);
+            }
+            writeScanHeader();
+            BitWriter writer = new BitWriter(mOut);
+            encodeScan(writer);
+            writer.flush();
+            mOut.write(0xFF);
+            mOut.write(EOI);
+            return mOut.toByteArray();
+        }
+
+        private void writeMarker(int marker, int length) {
+            mOut.write(0xFF);
+            mOut.write(marker);
+            mOut.write(length >> 8);
+            mOut.write(length);
+        }
+
+        private void writeQuantTables() {
+            for (int id = 0; id < mImage.mQuantTables.length; id++) {
+                int[] table = mImage.mQuantTables[id];
+                if (table == null) {
+                    continue;
+                }
+                boolean sixteenBit = mImage.mQuantSixteenBit[id];
+                writeMarker(DQT, 2 + 1 + (sixteenBit ? 128 : 64));
+                mOut.write((sixteenBit ? 0x10 : 0) | id);
+                for (int i = 0; i < 64; i++) {
+                    int value = table[ZIGZAG[i]];
+                    if (sixteenBit) {
+                        mOut.write(value >> 8);
+                    }
+                    mOut.write(value);
+                }
+            }
+        }
+
+        private void writeFrame() {
+            boolean extended = false;
+            for (boolean sixteenBit : mImage.mQuantSixteenBit) {
+                extended |= sixteenBit;
+            }
+            Component[] components = mImage.mComponents;
+            writeMarker(extended ? SOF1 : SOF0, 8 + components.length * 3);
+            mOut.write(8);
+            mOut.write(mImage.mHeight >> 8);
+            mOut.write(mImage.mHeight);
+            mOut.write(mImage.mWidth >> 8);
+            mOut.write(mImage.mWidth);
+            mOut.write(components.length);
+            for (Component component : components) {
+                mOut.write(component.mId);
+                mOut.write((component.mH << 4) | component.mV);
+                mOut.write(component.mQuantId);
+            }
+        }
+
+        private void writeHuffmanTable(int tableClass, int id, HuffmanEncoder encoder) {
+            writeMarker(DHT, 2 + 1 + 16 + encoder.mValues.length);
+            mOut.write((tableClass << 4) | id);
+            for (int i = 1; i <= 16; i++) {
+                mOut.write(encoder.mCounts[i]);
+            }
+            for (int value : encoder.mValues) {
+                mOut.write(value);
+            }
+        }
+
+        private void writeScanHeader() {
+            Component[] components = mImage.mComponents;
+            writeMarker(SOS, 6 + components.length * 2);
+            mOut.write(components.length);
+            for (Component component : components) {
+                mOut.write(component.mId);
+                mOut.write((component.mDcTable << 4) | component.mAcTable);
+            }
+            //Ss、Se、Ah/Al
+            mOut.write(0);
+            mOut.write(63);
+            mOut.write(0);
+        }
+
+        /**
+         * 按扫描顺序遍历所有的块
+         *
+         * @param writer 为null时只统计符号频率
+         */
+        private void encodeScan(BitWriter writer) {
+            Component[] components = mImage.mComponents;
+            int[] predictors = new int[components.length];
+            if (components.length == 1) {
+                Component component = components[0];
+                int blocksX = component.getVisibleBlocksPerLine();
+                int blocksY = component.getVisibleBlocksPerColumn();
+                for (int by = 0; by < blocksY; by++) {
+                    for (int bx = 0; bx < blocksX; bx++) {
+                        encodeBlock(writer, component, (by * component.mBlocksPerLine + bx) * 64, predictors, 0);
+                    }
+                }
+                return;
+            }
+            int mcusX = (mImage.mWidth + 8 * mImage.mMaxH - 1) / (8 * mImage.mMaxH);
+            int mcusY = (mImage.mHeight + 8 * mImage.mMaxV - 1) / (8 * mImage.mMaxV);
+            for (int my = 0; my < mcusY; my++) {
+                for (int mx = 0; mx < mcusX; mx++) {
+                    for (int i = 0; i < components.length; i++) {
+                        Component component = components[i];
+                        for (int v = 0; v < component.mV; v++) {
+                            int row = my * component.mV + v;
+                            for (int h = 0; h < component.mH; h++) {
+                                int column = mx * component.mH + h;
+                                encodeBlock(writer, component, (row * component.mBlocksPerLine + column) * 64, predictors, i);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private void encodeBlock(BitWriter writer, Component component, int offset, int[] predictors, int index) {
+            short[] coefficients = component.mCoefficients;
+            HuffmanEncoder dc = mDcEncoders[component.mDcTable];
+            HuffmanEncoder ac = mAcEncoders[component.mAcTable];
+
+            int value = coefficients[offset];
+            int diff = value - predictors[index];
+            predictors[index] = value;
+            int size = bitSize(diff);
+            if (writer == null) {
+                dc.count(size);
+            } else {
+                dc.write(writer, size);
+                writeAmplitude(writer, diff, size);
+            }
+
+            int run = 0;
+            for (int k = 1; k < 64; k++) {
+                int coefficient = coefficients[offset + ZIGZAG[k]];
+                if (coefficient == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    //ZRL
+                    if (writer == null) {
+                        ac.count(0xF0);
+                    } else {
+                        ac.write(writer, 0xF0);
+                    }
+                    run -= 16;
+                }
+                size = bitSize(coefficient);
+                int symbol = (run << 4) | size;
+                if (writer == null) {
+                    ac.count(symbol);
+                } else {
+                    ac.write(writer, symbol);
+                    writeAmplitude(writer, coefficient, size);
+                }
+                run = 0;
+            }
+            if (run > 0) {
+                //EOB
+                if (writer == null) {
+                    ac.count(0x00);
+                } else {
+                    ac.write(writer, 0x00);
+                }
+            }
+        }
+
+        private static void writeAmplitude(BitWriter writer, int value, int size) {
+            if (size == 0) {
+                return;
+            }
+            if (value < 0) {
+                value += (1 << size) - 1;
+            }
+            writer.write(value, size);
+        }
+
+        private static int bitSize(int value) {
+            if (value < 0) {
+                value = -value;
+            }
+            int size = 0;
+            while (value != 0) {
+                size++;
+                value >>= 1;
+            }
+            return size;
+        }
+    }
+}
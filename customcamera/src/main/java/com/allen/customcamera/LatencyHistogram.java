@@ -0,0 +1,150 @@
+package com.allen.customcamera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 耗时直方图（对数-线性分桶，和HdrHistogram的思路相同）
+ * 小于32的值每个值一个桶，之后每个2的幂区间再等分成16个桶，任意值的相对误差不超过1/16，
+ * 桶的个数固定（960个），覆盖long的全部范围，不需要预先知道取值范围
+ * 记录只有几次原子操作，不加锁，可以在相机线程中调用；任意线程都可以随时读取快照
+ */
+
+public class LatencyHistogram {
+    //每个2的幂区间等分的桶数为2^(SUB_BITS - 1)
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT / 2;
+    private static final int BUCKET_COUNT = SUB_COUNT + (63 - SUB_BITS) * HALF_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * 记录一次耗时，负数按0处理
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets.incrementAndGet(getBucket(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        while (true) {
+            long max = mMax.get();
+            if (value <= max || mMax.compareAndSet(max, value)) {
+                return;
+            }
+        }
+    }
+
+    static int getBucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        //value所在的2的幂区间，保留最高的SUB_BITS位
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - (SUB_BITS - 1);
+        int sub = (int) (value >>> shift);
+        return SUB_COUNT + (exponent - SUB_BITS) * HALF_COUNT + (sub - HALF_COUNT);
+    }
+
+    /**
+     * 桶中最大的值
+     */
+    static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int index = bucket - SUB_COUNT;
+        int exponent = index / HALF_COUNT + SUB_BITS;
+        long sub = index % HALF_COUNT + HALF_COUNT;
+        int shift = exponent - (SUB_BITS - 1);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * 清空所有记录，和record同时调用时可能丢掉几条记录
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * 读取当前的分布，不阻塞记录的线程
+     * 和record同时调用时各个统计值之间可能差几条记录
+     */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+            total += buckets[i];
+        }
+        return new Snapshot(buckets, total, mSum.get(), mMax.get());
+    }
+
+    /**
+     * 直方图在某一时刻的快照
+     */
+    public static final class Snapshot {
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(long[] buckets, long count, long sum, long max) {
+            mBuckets = buckets;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * 百分位数，返回所在桶的上界（不超过最大值）
+         *
+         * @param percentile 0~100
+         * @return 没有记录时返回0
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * mCount);
+            rank = Math.max(1, rank);
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    return Math.min(getBucketUpperBound(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + ", mean=" + getMean() + ", p50=" + getPercentile(50)
+                    + ", p90=" + getPercentile(90) + ", p99=" + getPercentile(99) + ", max=" + mMax;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.allen.customcamera;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 基于android.hardware.Camera的相机实现，所有版本都可以使用
+ * 相机参数打开时读取一次并缓存，之后的修改都在缓存上进行，commitSettings时一次性setParameters
+ * 回调由系统在打开相机的线程（相机线程的Looper）中执行，不使用callbackExecutor
+ */
+
+public class LegacyCameraBackend implements CameraBackend {
+    private final Context mContext;
+    //摄像头能力目录，第一次使用时加载
+    private CameraCatalog mCatalog;
+    private Camera mCamera;
+    private int mCameraId = -1;
+    //当前相机参数的缓存
+    private Camera.Parameters mParameters;
+    private FrameCallback mFrameCallback;
+
+    public LegacyCameraBackend(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    private CameraCatalog getCatalog() {
+        if (mCatalog == null) {
+            mCatalog = CameraCatalog.load(mContext);
+        }
+        return mCatalog;
+    }
+
+    @Override
+    public int getCameraCount() {
+        CameraCatalog catalog = mCatalog;
+        return catalog != null ? catalog.getCameraCount() : Camera.getNumberOfCameras();
+    }
+
+    @Override
+    public List<CameraCapabilities> getCameras() {
+        CameraCatalog catalog = getCatalog();
+        List<CameraCapabilities> cameras = new ArrayList<>(catalog.getCameraCount());
+        for (int i = 0; i < catalog.getCameraCount(); i++) {
+            cameras.add(catalog.getCamera(i));
+        }
+        return cameras;
+    }
+
+    @Override
+    public CameraCapabilities open(int cameraId, Executor callbackExecutor) throws IOException {
+        close();
+        try {
+            mCamera = Camera.open(cameraId);
+            mParameters = mCamera.getParameters();
+        } catch (RuntimeException e) {
+            close();
+            throw new IOException("open camera " + cameraId + " failed", e);
+        }
+        mCameraId = cameraId;
+        //第一次打开时记录摄像头的能力，之后直接使用缓存
+        return getCatalog().update(cameraId, mParameters);
+    }
+
+    @Override
+    public boolean isOpened() {
+        return mCamera != null;
+    }
+
+    @Override
+    public void configure(CameraSize previewSize, CameraSize pictureSize, int displayOrientation) throws IOException {
+        try {
+            CameraUtils.setPreViewParameters(mParameters, getCatalog().getCamera(mCameraId), previewSize, pictureSize);
+            mCamera.setParameters(mParameters);
+            mCamera.setDisplayOrientation(displayOrientation);
+        } catch (RuntimeException e) {
+            throw new IOException("configure camera failed", e);
+        }
+    }
+
+    @Override
+    public CameraSize setPreviewDisplay(SurfaceHolder holder) throws IOException {
+        mCamera.setPreviewDisplay(holder);
+        return null;
+    }
+
+    @Override
+    public int getMaxPreviewFps() {
+        if (mParameters == null) {
+            return 0;
+        }
+        int[] range = new int[2];
+        mParameters.getPreviewFpsRange(range);
+        return range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+    }
+
+    @Override
+    public void setPreviewFpsRange(int minFps, int maxFps) {
+        mParameters.setPreviewFpsRange(minFps, maxFps);
+    }
+
+    @Override
+    public float getFocalLength() {
+        return mParameters != null ? mParameters.getFocalLength() : 0;
+    }
+
+    @Override
+    public void setFrameCallback(FrameCallback callback) {
+        mFrameCallback = callback;
+        mCamera.setPreviewCallbackWithBuffer(callback != null ? mPreviewCallback : null);
+    }
+
+    private final Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            FrameCallback callback = mFrameCallback;
+            if (callback != null) {
+                callback.onPreviewFrame(data);
+            }
+        }
+    };
+
+    @Override
+    public void setOneShotFrameCallback(final FrameCallback callback) {
+        mCamera.setOneShotPreviewCallback(new Camera.PreviewCallback() {
+            @Override
+            public void onPreviewFrame(byte[] data, Camera camera) {
+                callback.onPreviewFrame(data);
+            }
+        });
+    }
+
+    @Override
+    public void addCallbackBuffer(byte[] buffer) {
+        mCamera.addCallbackBuffer(buffer);
+    }
+
+    @Override
+    public void startPreview() {
+        mCamera.startPreview();
+    }
+
+    @Override
+    public void stopPreview() {
+        mCamera.stopPreview();
+    }
+
+    @Override
+    public void takePicture(final PictureCallback callback) {
+        mCamera.takePicture(null, null, new Camera.PictureCallback() {
+            @Override
+            public void onPictureTaken(byte[] data, Camera camera) {
+                callback.onPictureTaken(data != null && data.length > 0 ? data : null);
+            }
+        });
+    }
+
+    @Override
+    public int getZoom() {
+        return mParameters.getZoom();
+    }
+
+    @Override
+    public void setZoom(int zoom) {
+        mParameters.setZoom(zoom);
+    }
+
+    @Override
+    public void setFocusArea(float x, float y, int surfaceWidth, int surfaceHeight) {
+        CameraUtils.setFocusArea(new Point(surfaceWidth, surfaceHeight), mParameters, x, y);
+    }
+
+    @Override
+    public void setMeteringArea(float x, float y, int surfaceWidth, int surfaceHeight) {
+        CameraUtils.setMeteringArea(new Point(surfaceWidth, surfaceHeight), mParameters, x, y);
+    }
+
+    @Override
+    public void commitSettings() {
+        mCamera.setParameters(mParameters);
+    }
+
+    @Override
+    public void autoFocus(final FocusCallback callback) {
+        mCamera.autoFocus(new Camera.AutoFocusCallback() {
+            @Override
+            public void onAutoFocus(boolean success, Camera camera) {
+                callback.onAutoFocus(success);
+            }
+        });
+    }
+
+    @Override
+    public void cancelAutoFocus() {
+        mCamera.cancelAutoFocus();
+    }
+
+    @Override
+    public void close() {
+        if (mCamera != null) {
+            mCamera.setPreviewCallbackWithBuffer(null);
+            mCamera.stopPreview();//停止预览
+            mCamera.release();//释放相机资源
+            mCamera = null;
+        }
+        mFrameCallback = null;
+        mParameters = null;
+        mCameraId = -1;
+    }
+}
@@ -0,0 +1,129 @@
+package com.allen.customcamera;
+
+/**
+ * 一帧预览的亮度金字塔：1/2、1/4、1/8的亮度图
+ * 大多数分析只需要缩小的亮度图，共享一个金字塔后不用每个分析各自遍历整个Y平面
+ * 每一级都是上一级2x2的均值（盒式滤波，同时起到抗混叠的作用），第一次读取某一级时才计算，
+ * 每一帧每一级最多计算一次，多个线程同时读取时只有一个线程计算
+ * 数组在帧之间复用，尺寸不变时不再分配内存
+ * 纯Java实现，输入就是CameraManager回调的NV21数据
+ */
+
+public class LumaPyramid {
+    //最多缩小到1/8
+    public static final int MAX_LEVEL = 3;
+
+    private final byte[][] mLevels = new byte[MAX_LEVEL + 1][];
+    private final int[] mWidths = new int[MAX_LEVEL + 1];
+    private final int[] mHeights = new int[MAX_LEVEL + 1];
+    //已经计算好的最高一级，0表示只有原始的Y平面
+    private volatile int mBuiltLevel;
+    //计算的次数，用于统计和测试
+    private long mBuildCount;
+
+    /**
+     * 换成新的一帧，丢弃已经计算的结果
+     * 不能和getLevel同时调用，一般在帧进入流水线之前调用
+     *
+     * @param nv21 NV21数据，前width * height个字节是Y平面，金字塔只保留引用，不能在使用期间修改
+     */
+    public void reset(byte[] nv21, int width, int height) {
+        if (width <= 0 || height <= 0 || nv21.length < width * height) {
+            throw new IllegalArgumentException("invalid frame: " + width + "x" + height);
+        }
+        synchronized (this) {
+            mLevels[0] = nv21;
+            mWidths[0] = width;
+            mHeights[0] = height;
+            for (int level = 1; level <= MAX_LEVEL; level++) {
+                mWidths[level] = Math.max(1, mWidths[level - 1] / 2);
+                mHeights[level] = Math.max(1, mHeights[level - 1] / 2);
+            }
+            mBuiltLevel = 0;
+        }
+    }
+
+    /**
+     * 读取某一级的亮度图，还没有计算时先计算（包括它之前的级别）
+     *
+     * @param level 0是原始的Y平面，1~3分别是1/2、1/4、1/8
+     * @return 按行存储，宽高为getWidth(level)、getHeight(level)；数组可能比需要的大，只读
+     */
+    public byte[] getLevel(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level: " + level);
+        }
+        if (mBuiltLevel < level) {
+            synchronized (this) {
+                if (mLevels[0] == null) {
+                    throw new IllegalStateException("no frame");
+                }
+                for (int i = mBuiltLevel + 1; i <= level; i++) {
+                    build(i);
+                    mBuiltLevel = i;
+                }
+            }
+        }
+        return mLevels[level];
+    }
+
+    public int getWidth(int level) {
+        return mWidths[level];
+    }
+
+    public int getHeight(int level) {
+        return mHeights[level];
+    }
+
+    /**
+     * 读取缩小后某个点的亮度（0~255）
+     */
+    public int getLuma(int level, int x, int y) {
+        return getLevel(level)[y * mWidths[level] + x] & 0xff;
+    }
+
+    /**
+     * 累计计算了多少级
+     */
+    public synchronized long getBuildCount() {
+        return mBuildCount;
+    }
+
+    /**
+     * 用上一级2x2的均值计算这一级，尺寸是奇数时丢弃最后一行、一列
+     */
+    private void build(int level) {
+        int srcWidth = mWidths[level - 1];
+        int srcHeight = mHeights[level - 1];
+        int width = mWidths[level];
+        int height = mHeights[level];
+        byte[] src = mLevels[level - 1];
+        byte[] dst = mLevels[level];
+        if (dst == null || dst.length < width * height) {
+            dst = new byte[width * height];
+            mLevels[level] = dst;
+        }
+        if (srcWidth < 2 || srcHeight < 2) {
+            //已经缩小到一行或一列，直接复制
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    dst[y * width + x] = src[Math.min(y * 2, srcHeight - 1) * srcWidth + Math.min(x * 2, srcWidth - 1)];
+                }
+            }
+        } else {
+            for (int y = 0; y < height; y++) {
+                int top = y * 2 * srcWidth;
+                int bottom = top + srcWidth;
+                int out = y * width;
+                for (int x = 0; x < width; x++) {
+                    int sum = (src[top] & 0xff) + (src[top + 1] & 0xff)
+                            + (src[bottom] & 0xff) + (src[bottom + 1] & 0xff);
+                    dst[out++] = (byte) ((sum + 2) >> 2);
+                    top += 2;
+                    bottom += 2;
+                }
+            }
+        }
+        mBuildCount++;
+    }
+}
@@ -0,0 +1,126 @@
+package com.allen.customcamera;
+
+/**
+ * 还没有提交给相机的参数修改
+ * 缩放、对焦（包括测光区域）手势先合并到这里，相机线程每个预览帧最多提交一次：
+ * 缩放距离累加，新的对焦请求直接替换还没有提交的旧请求（旧请求的回调不再触发）
+ * 纯Java实现，线程安全：UI线程添加修改，相机线程取出后提交
+ *
+ * @param <T> 对焦请求附带的回调
+ */
+
+class ParameterChanges<T> {
+    private float mZoomSpan;
+    private boolean mZoomPending;
+    private boolean mFocusPending;
+    private float mFocusX;
+    private float mFocusY;
+    private T mFocusCallback;
+    //是否已经安排了提交，安排之后新的修改只需要合并进来
+    private boolean mScheduled;
+
+    //统计：收到的修改次数、被替换掉的对焦请求数、实际提交的次数
+    private long mRequestCount;
+    private long mSupersededCount;
+    private long mTransactionCount;
+
+    /**
+     * 一次提交的内容，由相机线程复用
+     */
+    static class Transaction<T> {
+        boolean mZoomPending;
+        float mZoomSpan;
+        boolean mFocusPending;
+        float mFocusX;
+        float mFocusY;
+        T mFocusCallback;
+
+        boolean isEmpty() {
+            return !mZoomPending && !mFocusPending;
+        }
+    }
+
+    /**
+     * 累加缩放的手指距离
+     *
+     * @return 是否需要安排一次提交（之前没有安排过）
+     */
+    synchronized boolean addZoom(float span) {
+        mZoomSpan += span;
+        mZoomPending = true;
+        mRequestCount++;
+        return schedule();
+    }
+
+    /**
+     * 设置对焦点，替换还没有提交的对焦请求
+     *
+     * @return 是否需要安排一次提交（之前没有安排过）
+     */
+    synchronized boolean setFocus(float x, float y, T callback) {
+        if (mFocusPending) {
+            mSupersededCount++;
+        }
+        mFocusPending = true;
+        mFocusX = x;
+        mFocusY = y;
+        mFocusCallback = callback;
+        mRequestCount++;
+        return schedule();
+    }
+
+    private boolean schedule() {
+        if (mScheduled) {
+            return false;
+        }
+        mScheduled = true;
+        return true;
+    }
+
+    /**
+     * 取出所有待提交的修改，之后的修改需要重新安排提交
+     *
+     * @return 是否有需要提交的修改
+     */
+    synchronized boolean drainTo(Transaction<T> transaction) {
+        transaction.mZoomPending = mZoomPending;
+        transaction.mZoomSpan = mZoomSpan;
+        transaction.mFocusPending = mFocusPending;
+        transaction.mFocusX = mFocusX;
+        transaction.mFocusY = mFocusY;
+        transaction.mFocusCallback = mFocusCallback;
+        reset();
+        if (transaction.isEmpty()) {
+            return false;
+        }
+        mTransactionCount++;
+        return true;
+    }
+
+    /**
+     * 丢弃所有待提交的修改（相机关闭时）
+     */
+    synchronized void clear() {
+        reset();
+    }
+
+    private void reset() {
+        mZoomSpan = 0;
+        mZoomPending = false;
+        mFocusPending = false;
+        mFocusCallback = null;
+        mScheduled = false;
+    }
+
+    synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    synchronized long getSupersededCount() {
+        return mSupersededCount;
+    }
+
+    synchronized long getTransactionCount() {
+        return mTransactionCount;
+    }
+}
@@ -0,0 +1,136 @@
+package com.allen.customcamera;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预览帧缓冲池
+ * 配合Camera.setPreviewCallbackWithBuffer使用，按预览尺寸预先分配固定数量的NV21缓冲区，
+ * 每次回调结束后把缓冲区交还给相机循环使用，稳定预览时不再产生任何内存分配
+ * 只在相机线程中调用，统计数据可以在任意线程读取
+ */
+
+public class PreviewBufferPool {
+    //默认的缓冲区个数
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+    //NV21格式每个像素占用的位数
+    private static final int NV21_BITS_PER_PIXEL = 12;
+
+    private final int mBufferCount;
+    private byte[][] mBuffers;
+    //当前缓冲区对应的预览宽高
+    private int mWidth;
+    private int mHeight;
+    //每一帧的字节数
+    private int mFrameSize;
+    //已经交给相机、还没有回调回来的缓冲区个数
+    private int mQueuedCount;
+    //已经分发的帧数
+    private final AtomicLong mFrameCount = new AtomicLong();
+    //缓冲区被耗尽（相机没有可写的缓冲区，下一帧会被丢弃）的次数
+    private final AtomicLong mStarvationCount = new AtomicLong();
+
+    public PreviewBufferPool() {
+        this(DEFAULT_BUFFER_COUNT);
+    }
+
+    public PreviewBufferPool(int bufferCount) {
+        if (bufferCount <= 0) {
+            throw new IllegalArgumentException("buffer count must be positive: " + bufferCount);
+        }
+        mBufferCount = bufferCount;
+    }
+
+    /**
+     * 计算NV21格式一帧的字节数
+     */
+    public static int getFrameSize(int width, int height) {
+        return width * height * NV21_BITS_PER_PIXEL / 8;
+    }
+
+    /**
+     * 根据预览尺寸配置缓冲区，尺寸没有变化时复用已经分配的缓冲区
+     * 不修改交给相机的缓冲区个数，相机还持有缓冲区时先清空（见reset）再重新交给相机
+     *
+     * @return true 重新分配了缓冲区
+     */
+    public boolean configure(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid preview size: " + width + "x" + height);
+        }
+        if (mBuffers != null && width == mWidth && height == mHeight) {
+            return false;
+        }
+        mWidth = width;
+        mHeight = height;
+        mFrameSize = getFrameSize(width, height);
+        mBuffers = new byte[mBufferCount][];
+        for (int i = 0; i < mBufferCount; i++) {
+            mBuffers[i] = new byte[mFrameSize];
+        }
+        return true;
+    }
+
+    public int getBufferCount() {
+        return mBufferCount;
+    }
+
+    public byte[] getBuffer(int index) {
+        return mBuffers[index];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * 缓冲区交给相机之后调用
+     */
+    public void onBufferQueued() {
+        mQueuedCount++;
+    }
+
+    /**
+     * 相机回调一帧数据时调用
+     *
+     * @param buffer 回调的缓冲区
+     * @return true 缓冲区属于当前的缓冲池，可以继续交给相机使用
+     */
+    public boolean onFrameDelivered(byte[] buffer) {
+        if (buffer == null || buffer.length != mFrameSize) {
+            //预览尺寸已经改变，旧的缓冲区直接丢弃
+            return false;
+        }
+        mFrameCount.incrementAndGet();
+        if (mQueuedCount > 0) {
+            mQueuedCount--;
+        }
+        if (mQueuedCount == 0) {
+            //相机手上已经没有可写的缓冲区了
+            mStarvationCount.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * 相机关闭后调用，相机持有的缓冲区全部作废
+     */
+    public void reset() {
+        mQueuedCount = 0;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount.get();
+    }
+
+    public long getStarvationCount() {
+        return mStarvationCount.get();
+    }
+}
@@ -0,0 +1,194 @@
+package com.allen.customcamera;
+
+/**
+ * 预览帧回调的处理：缓冲池记账、统计，依次交给监听器（按跳帧设置）、分析流水线、曝光统计、零延迟拍照的环形缓冲区，
+ * 最后把缓冲区交还给相机，并把处理耗时交给自动降级的控制器
+ * 需要相机线程执行的操作（第一帧、测光、降级）通过Host通知，不在回调中直接修改相机参数
+ * CameraManager和负载测试（CameraLoadHarness）共用，纯Java实现，可以直接在JVM上测试
+ * 只在相机线程中使用
+ */
+
+class PreviewFrameProcessor implements CameraBackend.FrameCallback {
+    //每隔这么多帧检查一次测光分区
+    static final int METERING_INTERVAL_FRAMES = 15;
+    private static final String SPAN_PREVIEW_FRAME = "PREVIEW_FRAME";
+
+    /**
+     * 需要在相机线程中处理的事件，在回调中调用，实现不要阻塞
+     */
+    interface Host {
+        /**
+         * 缓冲池接受了一帧，交给使用者之前调用
+         */
+        void onFrameDelivered();
+
+        /**
+         * 曝光统计累计了METERING_INTERVAL_FRAMES帧，可以检查测光分区
+         */
+        void onExposureSampled(ExposureStats stats);
+
+        /**
+         * 自动降级的控制器级别变化，需要应用新的设置
+         */
+        void onAdaptiveStepChanged();
+    }
+
+    private final PreviewBufferPool mBufferPool;
+    private final CameraMetrics mMetrics;
+    private final SpanTracer mTracer;
+    private final Host mHost;
+
+    //处理完的缓冲区交还给这个相机实现
+    private CameraBackend mBackend;
+    //已经把缓冲区交给mBackend并设置为它的预览帧回调
+    private boolean mAttached;
+    private CameraManager.FrameListener mFrameListener;
+    private FramePipeline mFramePipeline;
+    private ExposureStats mExposureStats;
+    private ZslRing mZslRing;
+    private AdaptivePreviewController mAdaptiveController;
+    //每交给监听器一帧之后跳过的帧数
+    private int mFrameSkip;
+    //距离上一次交给监听器已经跳过的帧数
+    private int mSkippedFrames;
+
+    /**
+     * @param tracer 可以为null
+     */
+    PreviewFrameProcessor(PreviewBufferPool bufferPool, CameraMetrics metrics, SpanTracer tracer, Host host) {
+        mBufferPool = bufferPool;
+        mMetrics = metrics;
+        mTracer = tracer;
+        mHost = host;
+    }
+
+    /**
+     * 按预览尺寸配置缓冲池，把缓冲区交给相机并设置为相机的预览帧回调
+     * 已经按相同的尺寸设置过时不做任何事：缓冲区还在相机手上，再交一次同一个数组会在相机的队列中出现两次，
+     * 相机可能在回调处理上一帧时就把下一帧写进同一个数组
+     *
+     * @return true 重新设置了回调和缓冲区
+     */
+    boolean attach(CameraBackend backend, int width, int height) {
+        if (mAttached && backend == mBackend && width == mBufferPool.getWidth() && height == mBufferPool.getHeight()) {
+            return false;
+        }
+        //先清空相机手上的缓冲区
+        backend.setFrameCallback(null);
+        reset();
+        mBackend = backend;
+        mBufferPool.configure(width, height);
+        for (int i = 0; i < mBufferPool.getBufferCount(); i++) {
+            backend.addCallbackBuffer(mBufferPool.getBuffer(i));
+            mBufferPool.onBufferQueued();
+        }
+        backend.setFrameCallback(this);
+        mAttached = true;
+        return true;
+    }
+
+    /**
+     * 相机清空了手上的缓冲区（取消了预览帧回调或者关闭了相机）之后调用，下一次attach重新交给相机缓冲区
+     */
+    void reset() {
+        mBufferPool.reset();
+        mAttached = false;
+    }
+
+    /**
+     * 设置预览帧的使用者，都可以为null
+     */
+    void setConsumers(CameraManager.FrameListener listener, FramePipeline pipeline, ExposureStats stats,
+                      ZslRing zslRing, AdaptivePreviewController controller) {
+        mFrameListener = listener;
+        mFramePipeline = pipeline;
+        mExposureStats = stats;
+        mZslRing = zslRing;
+        mAdaptiveController = controller;
+    }
+
+    /**
+     * 修改跳帧数，已经跳过的帧数继续累计
+     */
+    void setFrameSkip(int frameSkip) {
+        mFrameSkip = frameSkip;
+    }
+
+    /**
+     * 修改跳帧数，重新开始计数（重新配置预览时）
+     */
+    void resetFrameSkip(int frameSkip) {
+        mFrameSkip = frameSkip;
+        mSkippedFrames = 0;
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data) {
+        process(data, System.nanoTime());
+    }
+
+    /**
+     * 处理一帧
+     *
+     * @param timestampNanos 帧的时间，交给使用者，和System.nanoTime使用同一个时钟
+     */
+    void process(byte[] data, long timestampNanos) {
+        long start = System.nanoTime();
+        long starvation = mBufferPool.getStarvationCount();
+        if (!mBufferPool.onFrameDelivered(data)) {
+            mMetrics.increment(CameraMetrics.Counter.PREVIEW_BUFFER_DROPPED);
+            return;
+        }
+        boolean starved = mBufferPool.getStarvationCount() != starvation;
+        if (starved) {
+            mMetrics.increment(CameraMetrics.Counter.PREVIEW_BUFFER_STARVED);
+        }
+        mHost.onFrameDelivered();
+        int width = mBufferPool.getWidth();
+        int height = mBufferPool.getHeight();
+        CameraManager.FrameListener listener = mFrameListener;
+        if (listener != null && shouldDeliverFrame()) {
+            listener.onPreviewFrame(data, width, height, timestampNanos);
+        }
+        FramePipeline pipeline = mFramePipeline;
+        if (pipeline != null) {
+            pipeline.submit(data, width, height, timestampNanos);
+        }
+        ExposureStats stats = mExposureStats;
+        if (stats != null) {
+            stats.update(data, width, height);
+            if (stats.getFrameCount() % METERING_INTERVAL_FRAMES == 1) {
+                mHost.onExposureSampled(stats);
+            }
+        }
+        ZslRing zslRing = mZslRing;
+        if (zslRing != null) {
+            zslRing.write(data, timestampNanos);
+        }
+        long processing = System.nanoTime() - start;
+        //回调结束，缓冲区交还给相机
+        mBackend.addCallbackBuffer(data);
+        mBufferPool.onBufferQueued();
+        mMetrics.increment(CameraMetrics.Counter.PREVIEW_BUFFER_RECYCLED);
+        if (mTracer != null) {
+            mTracer.record(SPAN_PREVIEW_FRAME, start, start + processing, mBufferPool.getFrameCount());
+        }
+        AdaptivePreviewController controller = mAdaptiveController;
+        if (controller != null && controller.onFrame(timestampNanos, processing, starved)) {
+            //缓冲区已经交还给相机
+            mHost.onAdaptiveStepChanged();
+        }
+    }
+
+    /**
+     * 设置了跳帧时，每交给监听器一帧之后跳过mFrameSkip帧
+     */
+    private boolean shouldDeliverFrame() {
+        if (mSkippedFrames >= mFrameSkip) {
+            mSkippedFrames = 0;
+            return true;
+        }
+        mSkippedFrames++;
+        return false;
+    }
+}
@@ -0,0 +1,188 @@
+package com.allen.customcamera;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 回放FrameRecorder录制的预览帧，不需要设备就能复现现场的性能问题
+ * 整个文件映射到内存，每一帧都是映射中的一段只读ByteBuffer，回放时直接交给BufferListener，不复制数据
+ * 可以按录制时的帧间隔回放（跟不上时记录延迟），也可以尽快回放
+ * 也可以回放给CameraManager.FrameListener（见replayToFrameListener），这个接口需要byte[]，每一帧复制到同一个数组中
+ * 纯Java实现，回放在调用replay的线程中进行
+ */
+
+public class RecordedFrameSource implements Closeable {
+    //比计划晚这么多才算延迟，忽略计时的误差
+    private static final long LATE_TOLERANCE_NANOS = 1000000;
+
+    /**
+     * 直接接收映射中的帧
+     */
+    public interface BufferListener {
+        /**
+         * @param frame          只读的NV21数据，position为0，limit为帧大小，只在回调期间有效
+         * @param timestampNanos 交给监听器的时间，和System.nanoTime使用同一个时钟
+         */
+        void onPreviewFrame(ByteBuffer frame, int width, int height, long timestampNanos);
+    }
+
+    private final RandomAccessFile mFile;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameSize;
+    private final long[] mTimestamps;
+    //每一帧在映射中的只读视图
+    private final ByteBuffer[] mFrames;
+    private volatile boolean mStopped;
+    //按录制的间隔回放时，交给监听器的时间比计划晚了多久
+    private long mMaxLagNanos;
+    private long mLateCount;
+
+    public RecordedFrameSource(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = mFile.getChannel();
+            long length = channel.size();
+            if (length < FrameRecorder.HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("not a frame recording: " + file);
+            }
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            mapping.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapping.getInt(0) != FrameRecorder.MAGIC || mapping.getInt(4) != FrameRecorder.VERSION) {
+                throw new IOException("not a frame recording: " + file);
+            }
+            mWidth = mapping.getInt(8);
+            mHeight = mapping.getInt(12);
+            int count = mapping.getInt(FrameRecorder.COUNT_OFFSET);
+            int capacity = mapping.getInt(20);
+            if (mWidth <= 0 || mHeight <= 0 || count < 0 || count > capacity) {
+                throw new IOException("corrupt frame recording: " + file);
+            }
+            mFrameSize = PreviewBufferPool.getFrameSize(mWidth, mHeight);
+            long framesOffset = FrameRecorder.getFramesOffset(capacity);
+            if (framesOffset + (long) count * mFrameSize > length) {
+                throw new IOException("truncated frame recording: " + file);
+            }
+            mTimestamps = new long[count];
+            mFrames = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                mTimestamps[i] = mapping.getLong(FrameRecorder.HEADER_SIZE + i * 8);
+                ByteBuffer frame = mapping.duplicate();
+                frame.position((int) (framesOffset + (long) i * mFrameSize));
+                frame.limit(frame.position() + mFrameSize);
+                mFrames[i] = frame.slice();
+            }
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFrameCount() {
+        return mFrames.length;
+    }
+
+    /**
+     * 录制时的时间戳
+     */
+    public long getTimestamp(int index) {
+        return mTimestamps[index];
+    }
+
+    /**
+     * 一帧在映射中的只读视图，不复制数据
+     */
+    public ByteBuffer getFrame(int index) {
+        return mFrames[index];
+    }
+
+    /**
+     * 回放所有的帧，直到回放完或者stop
+     *
+     * @param realtime true按录制时的帧间隔回放，false尽快回放
+     * @return 回放的帧数
+     */
+    public int replay(BufferListener listener, boolean realtime) throws InterruptedException {
+        mStopped = false;
+        long start = System.nanoTime();
+        int index = 0;
+        for (; index < mFrames.length && !mStopped; index++) {
+            long now = System.nanoTime();
+            if (realtime) {
+                long due = start + (mTimestamps[index] - mTimestamps[0]);
+                if (due > now) {
+                    long delay = due - now;
+                    Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                    now = System.nanoTime();
+                } else if (now - due > LATE_TOLERANCE_NANOS) {
+                    recordLag(now - due);
+                }
+            }
+            ByteBuffer frame = mFrames[index];
+            frame.clear();
+            listener.onPreviewFrame(frame, mWidth, mHeight, now);
+        }
+        return index;
+    }
+
+    /**
+     * 回放给CameraManager的预览帧监听器，每一帧复制到同一个数组中（接口需要byte[]）
+     */
+    public int replayToFrameListener(final CameraManager.FrameListener listener, boolean realtime) throws InterruptedException {
+        final byte[] data = new byte[mFrameSize];
+        return replay(new BufferListener() {
+            @Override
+            public void onPreviewFrame(ByteBuffer frame, int width, int height, long timestampNanos) {
+                frame.get(data);
+                listener.onPreviewFrame(data, width, height, timestampNanos);
+            }
+        }, realtime);
+    }
+
+    /**
+     * 停止正在进行的回放，可以在任意线程调用
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    private synchronized void recordLag(long lag) {
+        mLateCount++;
+        if (lag > mMaxLagNanos) {
+            mMaxLagNanos = lag;
+        }
+    }
+
+    /**
+     * 按录制的间隔回放时，比计划晚交给监听器的帧数
+     */
+    public synchronized long getLateCount() {
+        return mLateCount;
+    }
+
+    public synchronized long getMaxLagNanos() {
+        return mMaxLagNanos;
+    }
+
+    /**
+     * 关闭文件，映射在getFrame返回的ByteBuffer都被GC回收之后才释放
+     */
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
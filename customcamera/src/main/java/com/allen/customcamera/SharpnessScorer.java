@@ -0,0 +1,387 @@
+package com.allen.customcamera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图片清晰度评分：亮度图上拉普拉斯算子结果的方差，越大越清晰（对焦准、没有抖动）
+ * 亮度图切成若干块，调用线程和线程池中的线程一起领取块，并行计算每一块的和、平方和，最后合并成整张图的方差
+ * 多张图片选最清晰的一张时（见Ranking），先计算均匀分布的1/4的块作为估计，
+ * 明显比目前最好的一张差时不再计算剩下的块
+ * 纯Java实现，可以直接在JVM上测试
+ */
+
+public class SharpnessScorer {
+    //默认的块大小（像素）
+    public static final int DEFAULT_TILE_SIZE = 64;
+    //一行拉普拉斯算子的平方和用int累加，块的宽度不能超过这个值
+    public static final int MAX_TILE_SIZE = 1024;
+    //估计值低于目前最好分数的这个比例时提前结束
+    public static final float DEFAULT_REJECT_RATIO = 0.5f;
+    //每个线程每次领取的块数
+    private static final int TILES_PER_TASK = 8;
+    //第一轮估计计算的块：每4块取1块
+    private static final int ESTIMATE_STEP = 4;
+
+    private final int mParallelism;
+    //除调用线程之外参与计算的线程，单线程计算时为null
+    private final ExecutorService mExecutor;
+    private final int mTileSize;
+    private final float mRejectRatio;
+
+    /**
+     * 线程数和CPU核数相同
+     */
+    public SharpnessScorer() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_TILE_SIZE, DEFAULT_REJECT_RATIO);
+    }
+
+    /**
+     * @param parallelism 并行计算的线程数，包括调用线程
+     * @param tileSize    块大小（像素），不超过MAX_TILE_SIZE
+     * @param rejectRatio 提前结束的比例，0表示总是完整计算
+     */
+    public SharpnessScorer(int parallelism, int tileSize, float rejectRatio) {
+        if (parallelism <= 0 || tileSize <= 0 || tileSize > MAX_TILE_SIZE || rejectRatio < 0 || rejectRatio >= 1) {
+            throw new IllegalArgumentException("invalid parallelism " + parallelism + ", tile " + tileSize
+                    + " or ratio " + rejectRatio);
+        }
+        mParallelism = parallelism;
+        if (parallelism > 1) {
+            mExecutor = Executors.newFixedThreadPool(parallelism - 1, new ThreadFactory() {
+                private final AtomicInteger mIndex = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "sharpness-worker-" + mIndex.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            mExecutor = null;
+        }
+        mTileSize = tileSize;
+        mRejectRatio = rejectRatio;
+    }
+
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * 完整计算一张图的清晰度
+     *
+     * @param luma 亮度图，按行存储，可以直接传入NV21数据（只读取前width * height个字节）
+     */
+    public float score(byte[] luma, int width, int height) {
+        Job job = new Job(luma, width, height, mTileSize);
+        scoreTiles(job, 0, job.mOrder.length);
+        return job.variance(0, job.mOrder.length);
+    }
+
+    /**
+     * 计算mOrder中[from, to)的块，块多时交给工作线程一起计算，全部完成后返回
+     */
+    private void scoreTiles(Job job, int from, int to) {
+        int helpers = mExecutor == null ? 0 : Math.min(mParallelism - 1, (to - from - 1) / TILES_PER_TASK);
+        TileRange range = new TileRange(job, from, to, helpers);
+        for (int i = 0; i < helpers; i++) {
+            mExecutor.execute(range);
+        }
+        range.scoreTiles();
+        if (helpers == 0) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                range.mDone.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 开始一次新的比较，例如一次连拍
+     */
+    public <T> Ranking<T> newRanking() {
+        return new Ranking<>();
+    }
+
+    /**
+     * 关闭线程池
+     */
+    public void release() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 一张参与比较的图片
+     */
+    public static final class Candidate<T> {
+        private final T mTag;
+        private final float mScore;
+        private final boolean mRejected;
+
+        Candidate(T tag, float score, boolean rejected) {
+            mTag = tag;
+            mScore = score;
+            mRejected = rejected;
+        }
+
+        /**
+         * 提交时传入的标记，例如图片文件
+         */
+        public T getTag() {
+            return mTag;
+        }
+
+        public float getScore() {
+            return mScore;
+        }
+
+        /**
+         * 是否提前结束，这时分数只是估计值
+         */
+        public boolean isRejected() {
+            return mRejected;
+        }
+
+        @Override
+        public String toString() {
+            return mTag + ": " + mScore + (mRejected ? " (rejected)" : "");
+        }
+    }
+
+    /**
+     * 多张图片按清晰度排序，可以在多个线程中同时提交
+     */
+    public final class Ranking<T> {
+        private final List<Candidate<T>> mCandidates = new ArrayList<>();
+        private float mBestScore;
+        private int mRejectedCount;
+
+        Ranking() {
+        }
+
+        /**
+         * 计算一张图片的清晰度并加入比较，返回后不再读取luma
+         */
+        public Candidate<T> submit(T tag, byte[] luma, int width, int height) {
+            Job job = new Job(luma, width, height, mTileSize);
+            scoreTiles(job, 0, job.mEstimateCount);
+            float best = getBestScore();
+            float estimate = job.variance(0, job.mEstimateCount);
+            Candidate<T> candidate;
+            if (job.mEstimateCount < job.mOrder.length && best > 0 && estimate < best * mRejectRatio) {
+                candidate = new Candidate<>(tag, estimate, true);
+            } else {
+                scoreTiles(job, job.mEstimateCount, job.mOrder.length);
+                candidate = new Candidate<>(tag, job.variance(0, job.mOrder.length), false);
+            }
+            synchronized (this) {
+                mCandidates.add(candidate);
+                if (candidate.mRejected) {
+                    mRejectedCount++;
+                } else if (candidate.mScore > mBestScore) {
+                    mBestScore = candidate.mScore;
+                }
+            }
+            return candidate;
+        }
+
+        public synchronized float getBestScore() {
+            return mBestScore;
+        }
+
+        /**
+         * 最清晰的一张，还没有图片时返回null
+         */
+        public synchronized Candidate<T> getBest() {
+            List<Candidate<T>> ranked = getRanked();
+            return ranked.isEmpty() ? null : ranked.get(0);
+        }
+
+        /**
+         * 按清晰度从高到低排序的结果，提前结束的图片按估计值排在后面
+         */
+        public synchronized List<Candidate<T>> getRanked() {
+            List<Candidate<T>> ranked = new ArrayList<>(mCandidates);
+            Collections.sort(ranked, new Comparator<Candidate<T>>() {
+                @Override
+                public int compare(Candidate<T> lhs, Candidate<T> rhs) {
+                    if (lhs.mRejected != rhs.mRejected) {
+                        return lhs.mRejected ? 1 : -1;
+                    }
+                    return Float.compare(rhs.mScore, lhs.mScore);
+                }
+            });
+            return ranked;
+        }
+
+        public synchronized int getSize() {
+            return mCandidates.size();
+        }
+
+        /**
+         * 提前结束的图片数
+         */
+        public synchronized int getRejectedCount() {
+            return mRejectedCount;
+        }
+    }
+
+    /**
+     * 一张图片的计算：块的划分、计算顺序和每一块的结果
+     * 只计算内部的像素（去掉一圈边缘），第一轮估计的块在mOrder的前面
+     */
+    private static final class Job {
+        final byte[] mLuma;
+        final int mWidth;
+        final int mHeight;
+        final int mTileSize;
+        final int mTilesX;
+        final int[] mOrder;
+        final int mEstimateCount;
+        final long[] mSums;
+        final long[] mSquares;
+        final int[] mCounts;
+
+        Job(byte[] luma, int width, int height, int tileSize) {
+            if (width < 3 || height < 3 || luma.length < width * height) {
+                throw new IllegalArgumentException("invalid frame: " + width + "x" + height);
+            }
+            mLuma = luma;
+            mWidth = width;
+            mHeight = height;
+            mTileSize = tileSize;
+            mTilesX = (width - 2 + tileSize - 1) / tileSize;
+            int tilesY = (height - 2 + tileSize - 1) / tileSize;
+            int tileCount = mTilesX * tilesY;
+            mOrder = new int[tileCount];
+            //对角线方向每隔几块取一块，在整张图上均匀分布
+            int index = 0;
+            for (int tile = 0; tile < tileCount; tile++) {
+                if ((tile % mTilesX + tile / mTilesX) % ESTIMATE_STEP == 0) {
+                    mOrder[index++] = tile;
+                }
+            }
+            mEstimateCount = index;
+            for (int tile = 0; tile < tileCount; tile++) {
+                if ((tile % mTilesX + tile / mTilesX) % ESTIMATE_STEP != 0) {
+                    mOrder[index++] = tile;
+                }
+            }
+            mSums = new long[tileCount];
+            mSquares = new long[tileCount];
+            mCounts = new int[tileCount];
+        }
+
+        /**
+         * 计算一块中每个像素的拉普拉斯算子（4邻域）的和、平方和
+         */
+        void scoreTile(int tile) {
+            int left = 1 + tile % mTilesX * mTileSize;
+            int top = 1 + tile / mTilesX * mTileSize;
+            int right = Math.min(left + mTileSize, mWidth - 1);
+            int bottom = Math.min(top + mTileSize, mHeight - 1);
+            byte[] luma = mLuma;
+            int width = mWidth;
+            long sum = 0;
+            long squares = 0;
+            for (int y = top; y < bottom; y++) {
+                int i = y * width + left;
+                int end = y * width + right;
+                //一行最多MAX_TILE_SIZE个像素，平方和不会超出int
+                int rowSum = 0;
+                int rowSquares = 0;
+                for (; i < end; i++) {
+                    int laplacian = 4 * (luma[i] & 0xff) - (luma[i - 1] & 0xff) - (luma[i + 1] & 0xff)
+                            - (luma[i - width] & 0xff) - (luma[i + width] & 0xff);
+                    rowSum += laplacian;
+                    rowSquares += laplacian * laplacian;
+                }
+                sum += rowSum;
+                squares += rowSquares;
+            }
+            mSums[tile] = sum;
+            mSquares[tile] = squares;
+            mCounts[tile] = (right - left) * (bottom - top);
+        }
+
+        /**
+         * 合并mOrder中[from, to)的块，计算方差
+         */
+        float variance(int from, int to) {
+            long sum = 0;
+            long squares = 0;
+            long count = 0;
+            for (int i = from; i < to; i++) {
+                int tile = mOrder[i];
+                sum += mSums[tile];
+                squares += mSquares[tile];
+                count += mCounts[tile];
+            }
+            if (count == 0) {
+                return 0;
+            }
+            double mean = (double) sum / count;
+            return (float) ((double) squares / count - mean * mean);
+        }
+    }
+
+    /**
+     * mOrder中[from, to)的块，调用线程和工作线程每次领取TILES_PER_TASK块，直到全部领完
+     */
+    private static final class TileRange implements Runnable {
+        private final Job mJob;
+        private final int mTo;
+        private final AtomicInteger mNext;
+        //工作线程完成的计数
+        private final CountDownLatch mDone;
+
+        TileRange(Job job, int from, int to, int helpers) {
+            mJob = job;
+            mTo = to;
+            mNext = new AtomicInteger(from);
+            mDone = new CountDownLatch(helpers);
+        }
+
+        @Override
+        public void run() {
+            try {
+                scoreTiles();
+            } finally {
+                mDone.countDown();
+            }
+        }
+
+        void scoreTiles() {
+            while (true) {
+                int from = mNext.getAndAdd(TILES_PER_TASK);
+                if (from >= mTo) {
+                    return;
+                }
+                int to = Math.min(from + TILES_PER_TASK, mTo);
+                for (int i = from; i < to; i++) {
+                    mJob.scoreTile(mJob.mOrder[i]);
+                }
+            }
+        }
+    }
+}
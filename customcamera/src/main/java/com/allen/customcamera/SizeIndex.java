@@ -0,0 +1,161 @@
+package com.allen.customcamera;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 相机尺寸的索引
+ * 构建时把尺寸按宽高比分组（比例相差在ASPECT_TOLERANCE以内的算一组），组按比例升序排列，
+ * 组内和全部尺寸都按面积升序排列，选择尺寸时只需要二分查找，不再每次重新分组
+ * 构建后不可修改，可以在多个线程中使用
+ */
+
+public class SizeIndex {
+    //宽高比的相对误差在1%以内算同一比例（例如1920x1088和1920x1080）
+    public static final float ASPECT_TOLERANCE = 0.01f;
+
+    private static final Comparator<CameraSize> AREA_ORDER = new Comparator<CameraSize>() {
+        @Override
+        public int compare(CameraSize a, CameraSize b) {
+            int areaA = a.getArea();
+            int areaB = b.getArea();
+            if (areaA != areaB) {
+                return areaA < areaB ? -1 : 1;
+            }
+            return a.width - b.width;
+        }
+    };
+
+    private static final Comparator<CameraSize> RATIO_ORDER = new Comparator<CameraSize>() {
+        @Override
+        public int compare(CameraSize a, CameraSize b) {
+            return Float.compare(ratioOf(a), ratioOf(b));
+        }
+    };
+
+    //全部尺寸，按面积升序
+    private final CameraSize[] mSizes;
+    //每组的宽高比（组内第一个尺寸的比例），升序
+    private final float[] mRatios;
+    //每组的尺寸，按面积升序
+    private final CameraSize[][] mGroups;
+
+    public SizeIndex(List<CameraSize> sizes) {
+        List<CameraSize> valid = new ArrayList<>(sizes.size());
+        for (CameraSize size : sizes) {
+            if (size != null && size.width > 0 && size.height > 0) {
+                valid.add(size);
+            }
+        }
+        mSizes = valid.toArray(new CameraSize[valid.size()]);
+        Arrays.sort(mSizes, AREA_ORDER);
+
+        CameraSize[] byRatio = mSizes.clone();
+        Arrays.sort(byRatio, RATIO_ORDER);
+        List<CameraSize[]> groups = new ArrayList<>();
+        List<Float> ratios = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= byRatio.length; i++) {
+            if (i == byRatio.length || ratioOf(byRatio[i]) - ratioOf(byRatio[start]) > ratioOf(byRatio[start]) * ASPECT_TOLERANCE) {
+                CameraSize[] group = Arrays.copyOfRange(byRatio, start, i);
+                Arrays.sort(group, AREA_ORDER);
+                groups.add(group);
+                ratios.add(ratioOf(byRatio[start]));
+                start = i;
+            }
+        }
+        mGroups = groups.toArray(new CameraSize[groups.size()][]);
+        mRatios = new float[ratios.size()];
+        for (int i = 0; i < mRatios.length; i++) {
+            mRatios[i] = ratios.get(i);
+        }
+    }
+
+    public static float ratioOf(CameraSize size) {
+        return (float) size.width / size.height;
+    }
+
+    public boolean isEmpty() {
+        return mSizes.length == 0;
+    }
+
+    public int size() {
+        return mSizes.length;
+    }
+
+    /**
+     * 按面积升序的第index个尺寸
+     */
+    public CameraSize get(int index) {
+        return mSizes[index];
+    }
+
+    public int getGroupCount() {
+        return mGroups.length;
+    }
+
+    public float getGroupRatio(int group) {
+        return mRatios[group];
+    }
+
+    public int getGroupSize(int group) {
+        return mGroups[group].length;
+    }
+
+    /**
+     * 第group组中按面积升序的第index个尺寸
+     */
+    public CameraSize get(int group, int index) {
+        return mGroups[group][index];
+    }
+
+    /**
+     * 查找宽高比最接近的一组，两组一样接近时取比例较小的一组
+     *
+     * @return 没有尺寸时返回-1
+     */
+    public int findClosestGroup(float ratio) {
+        if (mRatios.length == 0) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(mRatios, ratio);
+        if (index >= 0) {
+            return index;
+        }
+        int insertion = -index - 1;
+        if (insertion == 0) {
+            return 0;
+        }
+        if (insertion == mRatios.length) {
+            return mRatios.length - 1;
+        }
+        float lower = ratio - mRatios[insertion - 1];
+        float upper = mRatios[insertion] - ratio;
+        return upper < lower ? insertion : insertion - 1;
+    }
+
+    /**
+     * 查找面积不超过maxArea的最大尺寸
+     *
+     * @param group 在第group组中查找，-1表示在全部尺寸中查找
+     * @return 按面积排序的下标，没有时返回-1
+     */
+    public int findLargestWithin(int group, long maxArea) {
+        CameraSize[] sizes = group < 0 ? mSizes : mGroups[group];
+        int low = 0;
+        int high = sizes.length - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sizes[mid].getArea() <= maxArea) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+}
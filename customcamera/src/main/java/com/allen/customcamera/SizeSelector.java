@@ -0,0 +1,65 @@
+package com.allen.customcamera;
+
+import java.util.HashMap;
+
+/**
+ * 预览尺寸和图片尺寸的选择器
+ * 使用可替换的选择策略，结果按(摄像头, 目标尺寸)缓存，再次打开、切换相机时直接返回
+ * 只在相机线程中使用
+ */
+
+public class SizeSelector {
+    private SizeStrategy mPreviewStrategy = SizeStrategies.closestToSurface();
+    private SizeStrategy mPictureStrategy = SizeStrategies.closestToSurface();
+    private final HashMap<Long, CameraSize> mPreviewCache = new HashMap<>();
+    private final HashMap<Long, CameraSize> mPictureCache = new HashMap<>();
+
+    public void setPreviewStrategy(SizeStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy == null");
+        }
+        mPreviewStrategy = strategy;
+        mPreviewCache.clear();
+    }
+
+    public void setPictureStrategy(SizeStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy == null");
+        }
+        mPictureStrategy = strategy;
+        mPictureCache.clear();
+    }
+
+    /**
+     * @return 没有可选的预览尺寸时返回null
+     */
+    public CameraSize selectPreviewSize(CameraCapabilities camera, int targetWidth, int targetHeight) {
+        return select(mPreviewCache, mPreviewStrategy, camera, camera.getPreviewSizeIndex(), targetWidth, targetHeight);
+    }
+
+    /**
+     * @return 没有可选的图片尺寸时返回null
+     */
+    public CameraSize selectPictureSize(CameraCapabilities camera, int targetWidth, int targetHeight) {
+        return select(mPictureCache, mPictureStrategy, camera, camera.getPictureSizeIndex(), targetWidth, targetHeight);
+    }
+
+    private static CameraSize select(HashMap<Long, CameraSize> cache, SizeStrategy strategy, CameraCapabilities camera,
+                                     SizeIndex sizes, int targetWidth, int targetHeight) {
+        Long key = ((long) camera.getId() << 32) | ((long) (targetWidth & 0xFFFF) << 16) | (targetHeight & 0xFFFF);
+        CameraSize size = cache.get(key);
+        if (size == null && !cache.containsKey(key)) {
+            size = strategy.select(camera, sizes, targetWidth, targetHeight);
+            cache.put(key, size);
+        }
+        return size;
+    }
+
+    /**
+     * 摄像头的能力发生变化时清空缓存
+     */
+    public void clear() {
+        mPreviewCache.clear();
+        mPictureCache.clear();
+    }
+}
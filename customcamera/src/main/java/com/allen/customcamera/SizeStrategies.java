@@ -0,0 +1,159 @@
+package com.allen.customcamera;
+
+/**
+ * 常用的尺寸选择策略
+ */
+
+public final class SizeStrategies {
+
+    private static final SizeStrategy CLOSEST_TO_SURFACE = new ClosestToSurface(Long.MAX_VALUE);
+
+    private SizeStrategies() {
+    }
+
+    /**
+     * 最接近预览控件的尺寸（原来findProperSize的规则）
+     * 1、找出和目标宽高比最接近的一组
+     * 2、在这一组中找出高度不小于目标高度、宽高差之和最小的尺寸
+     * 3、如果没有找到，去掉高度不小于目标高度的条件再找一次
+     */
+    public static SizeStrategy closestToSurface() {
+        return CLOSEST_TO_SURFACE;
+    }
+
+    /**
+     * 像素数不超过maxPixels的最大尺寸，优先使用宽高比最接近的一组
+     * 所有尺寸都超过预算时返回最小的尺寸
+     */
+    public static SizeStrategy maxResolution(long maxPixels) {
+        if (maxPixels <= 0) {
+            throw new IllegalArgumentException("pixel budget must be positive: " + maxPixels);
+        }
+        return new MaxResolution(maxPixels);
+    }
+
+    /**
+     * 考虑帧率的预览尺寸：按摄像头能达到的帧率（不超过targetFps）计算每帧的像素预算，
+     * 在预算之内选择最接近预览控件的尺寸，避免高分辨率预览把帧率拖慢
+     *
+     * @param targetFps          期望的帧率
+     * @param maxPixelsPerSecond 设备每秒能处理的最大像素数
+     */
+    public static SizeStrategy fpsAware(int targetFps, long maxPixelsPerSecond) {
+        if (targetFps <= 0 || maxPixelsPerSecond <= 0) {
+            throw new IllegalArgumentException("invalid fps " + targetFps + " or pixel rate " + maxPixelsPerSecond);
+        }
+        return new FpsAware(targetFps, maxPixelsPerSecond);
+    }
+
+    /**
+     * 在最接近目标比例的一组中选择最接近目标尺寸的，只考虑面积不超过maxArea的尺寸
+     *
+     * @return 这一组中没有满足条件的尺寸时返回null
+     */
+    static CameraSize selectClosest(SizeIndex sizes, int group, int targetWidth, int targetHeight, long maxArea) {
+        int last = sizes.findLargestWithin(group, maxArea);
+        CameraSize best = null;
+        int bestDiff = Integer.MAX_VALUE;
+        for (int i = 0; i <= last; i++) {
+            CameraSize size = sizes.get(group, i);
+            int diff = Math.abs(size.width - targetWidth) + Math.abs(size.height - targetHeight);
+            if (size.height >= targetHeight && diff < bestDiff) {
+                best = size;
+                bestDiff = diff;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        for (int i = 0; i <= last; i++) {
+            CameraSize size = sizes.get(group, i);
+            int diff = Math.abs(size.width - targetWidth) + Math.abs(size.height - targetHeight);
+            if (diff < bestDiff) {
+                best = size;
+                bestDiff = diff;
+            }
+        }
+        return best;
+    }
+
+    static CameraSize selectLargestWithin(SizeIndex sizes, int group, long maxPixels) {
+        int index = group >= 0 ? sizes.findLargestWithin(group, maxPixels) : -1;
+        if (index >= 0) {
+            return sizes.get(group, index);
+        }
+        index = sizes.findLargestWithin(-1, maxPixels);
+        //所有尺寸都超过预算，使用最小的
+        return sizes.get(Math.max(index, 0));
+    }
+
+    private static float targetRatio(int targetWidth, int targetHeight) {
+        return (float) targetWidth / targetHeight;
+    }
+
+    private static class ClosestToSurface implements SizeStrategy {
+        private final long mMaxArea;
+
+        ClosestToSurface(long maxArea) {
+            mMaxArea = maxArea;
+        }
+
+        @Override
+        public CameraSize select(CameraCapabilities camera, SizeIndex sizes, int targetWidth, int targetHeight) {
+            if (sizes.isEmpty() || targetWidth <= 0 || targetHeight <= 0) {
+                return null;
+            }
+            int group = sizes.findClosestGroup(targetRatio(targetWidth, targetHeight));
+            CameraSize size = selectClosest(sizes, group, targetWidth, targetHeight, mMaxArea);
+            if (size == null) {
+                //这一组的尺寸都超过了预算
+                size = selectLargestWithin(sizes, group, mMaxArea);
+            }
+            return size;
+        }
+    }
+
+    private static class MaxResolution implements SizeStrategy {
+        private final long mMaxPixels;
+
+        MaxResolution(long maxPixels) {
+            mMaxPixels = maxPixels;
+        }
+
+        @Override
+        public CameraSize select(CameraCapabilities camera, SizeIndex sizes, int targetWidth, int targetHeight) {
+            if (sizes.isEmpty()) {
+                return null;
+            }
+            int group = targetWidth > 0 && targetHeight > 0
+                    ? sizes.findClosestGroup(targetRatio(targetWidth, targetHeight)) : -1;
+            return selectLargestWithin(sizes, group, mMaxPixels);
+        }
+    }
+
+    private static class FpsAware implements SizeStrategy {
+        private final int mTargetFps;
+        private final long mMaxPixelsPerSecond;
+
+        FpsAware(int targetFps, long maxPixelsPerSecond) {
+            mTargetFps = targetFps;
+            mMaxPixelsPerSecond = maxPixelsPerSecond;
+        }
+
+        @Override
+        public CameraSize select(CameraCapabilities camera, SizeIndex sizes, int targetWidth, int targetHeight) {
+            int fps = mTargetFps;
+            if (camera != null && !camera.getFpsRanges().isEmpty()) {
+                //帧率范围乘以了1000
+                int maxFps = 0;
+                for (int[] range : camera.getFpsRanges()) {
+                    maxFps = Math.max(maxFps, range[1] / 1000);
+                }
+                if (maxFps > 0) {
+                    fps = Math.min(fps, maxFps);
+                }
+            }
+            return new ClosestToSurface(mMaxPixelsPerSecond / fps).select(camera, sizes, targetWidth, targetHeight);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.allen.customcamera;
+
+/**
+ * 预览尺寸、图片尺寸的选择策略，常用的实现见SizeStrategies
+ * 实现必须是无状态的：相同的输入总是返回相同的结果，结果会按(摄像头, 目标尺寸)缓存
+ */
+
+public interface SizeStrategy {
+
+    /**
+     * 从候选尺寸中选出一个
+     *
+     * @param camera       摄像头的能力
+     * @param sizes        候选尺寸的索引
+     * @param targetWidth  目标宽度（长边）
+     * @param targetHeight 目标高度（短边）
+     * @return 没有候选尺寸时返回null
+     */
+    CameraSize select(CameraCapabilities camera, SizeIndex sizes, int targetWidth, int targetHeight);
+}
@@ -0,0 +1,220 @@
+package com.allen.customcamera;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 轻量的耗时片段（span）记录，用来查看单次拍照的时间花在了哪里：点击、对焦、拍照回调、解码、旋转、压缩、写文件
+ * 记录写入预先分配的环形缓冲区，满了之后覆盖最旧的记录；记录时只有一次原子操作和几次有序的数组写入，不分配对象，
+ * 名称要求是常量字符串（只保存引用）
+ * 每个槽位用序号做顺序锁：所有字段都通过原子数组读写，导出时读到正在写入或已经被覆盖的记录会被丢弃，不会导出混在一起的记录
+ * 需要时调用writeJson导出成Chrome trace-event格式，可以直接在chrome://tracing或Perfetto中打开
+ * 默认不记录，调用setEnabled(true)开启
+ */
+
+public class SpanTracer {
+    //没有关联的编号
+    public static final long NO_ID = -1;
+
+    private final int mMask;
+    private final AtomicReferenceArray<String> mNames;
+    private final AtomicLongArray mStarts;
+    private final AtomicLongArray mEnds;
+    private final AtomicLongArray mThreadIds;
+    private final AtomicLongArray mIds;
+    //每个槽位写入完成后的序号加1，写入过程中为0，导出时用来跳过正在写入或已经被覆盖的记录
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mNext = new AtomicLong();
+    private volatile boolean mEnabled;
+
+    /**
+     * @param capacity 保留的记录数，向上取整为2的幂
+     */
+    public SpanTracer(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 20) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mNames = new AtomicReferenceArray<>(size);
+        mStarts = new AtomicLongArray(size);
+        mEnds = new AtomicLongArray(size);
+        mThreadIds = new AtomicLongArray(size);
+        mIds = new AtomicLongArray(size);
+        mSequences = new AtomicLongArray(size);
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * 记录一个从startNanos到endNanos（System.nanoTime）的片段
+     *
+     * @param name 常量字符串
+     * @param id   关联的编号，例如连拍的第几张、第几帧，没有时为NO_ID
+     */
+    public void record(String name, long startNanos, long endNanos, long id) {
+        if (!mEnabled) {
+            return;
+        }
+        long sequence = mNext.getAndIncrement();
+        int slot = (int) (sequence & mMask);
+        mSequences.set(slot, 0);
+        //有序写入（release）：读到其中任意一个新值的线程一定也能看到前面写入的0
+        mNames.lazySet(slot, name);
+        mStarts.lazySet(slot, startNanos);
+        mEnds.lazySet(slot, endNanos);
+        mThreadIds.lazySet(slot, Thread.currentThread().getId());
+        mIds.lazySet(slot, id);
+        mSequences.lazySet(slot, sequence + 1);
+    }
+
+    /**
+     * 记录从startNanos到现在的片段
+     */
+    public void recordSince(String name, long startNanos, long id) {
+        if (mEnabled) {
+            record(name, startNanos, System.nanoTime(), id);
+        }
+    }
+
+    /**
+     * 记录一个瞬时事件，例如点击
+     */
+    public void mark(String name, long id) {
+        if (mEnabled) {
+            long now = System.nanoTime();
+            record(name, now, now, id);
+        }
+    }
+
+    /**
+     * 已经记录的片段总数（包括已经被覆盖的）
+     */
+    public long getRecordedCount() {
+        return mNext.get();
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * 清空记录，不能和record同时调用
+     */
+    public void clear() {
+        for (int i = 0; i <= mMask; i++) {
+            mSequences.set(i, 0);
+            mNames.set(i, null);
+        }
+        mNext.set(0);
+    }
+
+    /**
+     * 按Chrome trace-event的JSON格式导出环形缓冲区中的记录，可以在记录的同时调用
+     * 时间戳单位为微秒，线程名称取导出时还在运行的线程
+     */
+    public void writeJson(Writer writer) throws IOException {
+        Map<Long, String> threadNames = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            threadNames.put(thread.getId(), thread.getName());
+        }
+        Map<Long, Boolean> seenThreads = new HashMap<>();
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        long end = mNext.get();
+        long begin = Math.max(0, end - getCapacity());
+        for (long sequence = begin; sequence < end; sequence++) {
+            int slot = (int) (sequence & mMask);
+            if (mSequences.get(slot) != sequence + 1) {
+                continue;
+            }
+            //volatile读取（acquire），不会被重排到下面再次读取序号之后
+            String name = mNames.get(slot);
+            long start = mStarts.get(slot);
+            long duration = mEnds.get(slot) - start;
+            long threadId = mThreadIds.get(slot);
+            long id = mIds.get(slot);
+            //读取期间被覆盖的记录丢弃
+            if (mSequences.get(slot) != sequence + 1 || name == null) {
+                continue;
+            }
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            if (seenThreads.put(threadId, Boolean.TRUE) == null) {
+                String threadName = threadNames.get(threadId);
+                writer.write("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":" + threadId
+                        + ",\"args\":{\"name\":\"" + escape(threadName != null ? threadName : "thread-" + threadId)
+                        + "\"}},");
+            }
+            writer.write("{\"name\":\"" + escape(name) + "\",\"cat\":\"camera\",\"pid\":1,\"tid\":" + threadId);
+            if (duration > 0) {
+                writer.write(",\"ph\":\"X\",\"ts\":" + toMicros(start) + ",\"dur\":" + toMicros(duration));
+            } else {
+                writer.write(",\"ph\":\"i\",\"s\":\"t\",\"ts\":" + toMicros(start));
+            }
+            if (id != NO_ID) {
+                writer.write(",\"args\":{\"id\":" + id + "}");
+            }
+            writer.write('}');
+        }
+        writer.write("]}");
+        writer.flush();
+    }
+
+    /**
+     * 导出到文件
+     */
+    public void dump(File file) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writeJson(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * 纳秒转换成微秒，保留三位小数
+     */
+    static String toMicros(long nanos) {
+        String sign = nanos < 0 ? "-" : "";
+        nanos = Math.abs(nanos);
+        long fraction = nanos % 1000;
+        return sign + nanos / 1000 + (fraction < 10 ? ".00" : fraction < 100 ? ".0" : ".") + fraction;
+    }
+
+    private static String escape(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,308 @@
+package com.allen.customcamera;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NV21预览帧转换成ARGB_8888(int[])或RGB_565(short[])像素
+ * 纯Java实现，不依赖Android，可以直接在JVM上测试
+ * 按行把图像切成若干条带，分给工作线程并行转换，调用线程本身也会处理第一条带
+ * 输出数组由调用者提供并复用，转换过程不分配像素内存
+ * 输入也可以是堆外的ByteBuffer（见DirectBufferPool），直接读取，不复制到byte[]
+ * 同一时刻只处理一帧，多个线程同时调用时会排队
+ */
+
+public class YuvConverter {
+
+    private static final int OUTPUT_ARGB = 0;
+    private static final int OUTPUT_RGB565 = 1;
+
+    //条带数量（包括调用线程）
+    private final int mStripeCount;
+    private final ExecutorService mExecutor;
+    private final Stripe[] mStripes;
+
+    //当前正在转换的帧
+    private byte[] mNv21;
+    private ByteBuffer mNv21Buffer;
+    private int mWidth;
+    private int mHeight;
+    private int[] mArgbOut;
+    private short[] mRgb565Out;
+    private int mOutputType;
+    private CountDownLatch mLatch;
+
+    /**
+     * 单线程转换
+     */
+    public YuvConverter() {
+        this(1);
+    }
+
+    /**
+     * @param threadCount 参与转换的线程数，包括调用线程
+     */
+    public YuvConverter(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("thread count must be positive: " + threadCount);
+        }
+        mStripeCount = threadCount;
+        mStripes = new Stripe[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            mStripes[i] = new Stripe();
+        }
+        if (threadCount > 1) {
+            mExecutor = Executors.newFixedThreadPool(threadCount - 1, new ThreadFactory() {
+                private final AtomicInteger mIndex = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "yuv-worker-" + mIndex.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            mExecutor = null;
+        }
+    }
+
+    public int getThreadCount() {
+        return mStripeCount;
+    }
+
+    /**
+     * NV21转换成ARGB_8888
+     *
+     * @param nv21   NV21数据，长度至少width*height*3/2
+     * @param width  宽度，必须是偶数
+     * @param height 高度，必须是偶数
+     * @param out    输出数组，长度至少width*height
+     */
+    public synchronized void nv21ToArgb(byte[] nv21, int width, int height, int[] out) {
+        checkArguments(nv21 == null ? -1 : nv21.length, width, height, out == null ? -1 : out.length);
+        mArgbOut = out;
+        convert(nv21, width, height, OUTPUT_ARGB);
+        mArgbOut = null;
+    }
+
+    /**
+     * NV21转换成ARGB_8888，直接读取ByteBuffer（一般是堆外的缓冲区）
+     *
+     * @param nv21   NV21数据，使用绝对位置读取，不修改position，容量至少width*height*3/2
+     * @param width  宽度，必须是偶数
+     * @param height 高度，必须是偶数
+     * @param out    输出数组，长度至少width*height
+     */
+    public synchronized void nv21ToArgb(ByteBuffer nv21, int width, int height, int[] out) {
+        checkArguments(nv21 == null ? -1 : nv21.capacity(), width, height, out == null ? -1 : out.length);
+        mArgbOut = out;
+        mNv21Buffer = nv21;
+        convert(null, width, height, OUTPUT_ARGB);
+        mNv21Buffer = null;
+        mArgbOut = null;
+    }
+
+    /**
+     * NV21转换成RGB_565
+     *
+     * @param nv21   NV21数据，长度至少width*height*3/2
+     * @param width  宽度，必须是偶数
+     * @param height 高度，必须是偶数
+     * @param out    输出数组，长度至少width*height
+     */
+    public synchronized void nv21ToRgb565(byte[] nv21, int width, int height, short[] out) {
+        checkArguments(nv21 == null ? -1 : nv21.length, width, height, out == null ? -1 : out.length);
+        mRgb565Out = out;
+        convert(nv21, width, height, OUTPUT_RGB565);
+        mRgb565Out = null;
+    }
+
+    /**
+     * 关闭工作线程，之后不能再使用
+     */
+    public void release() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    private void checkArguments(int nv21Length, int width, int height, int outLength) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("invalid frame size: " + width + "x" + height);
+        }
+        if (nv21Length < PreviewBufferPool.getFrameSize(width, height)) {
+            throw new IllegalArgumentException("nv21 buffer too small for " + width + "x" + height);
+        }
+        if (outLength < width * height) {
+            throw new IllegalArgumentException("output buffer too small for " + width + "x" + height);
+        }
+    }
+
+    private void convert(byte[] nv21, int width, int height, int outputType) {
+        mNv21 = nv21;
+        mWidth = width;
+        mHeight = height;
+        mOutputType = outputType;
+        //条带按两行对齐，保证每个条带拥有完整的UV行
+        int pairs = height / 2;
+        int stripes = Math.min(mStripeCount, pairs);
+        int pairsPerStripe = pairs / stripes;
+        int remainder = pairs % stripes;
+        int row = 0;
+        for (int i = 0; i < stripes; i++) {
+            int count = pairsPerStripe + (i < remainder ? 1 : 0);
+            mStripes[i].mStartRow = row;
+            mStripes[i].mEndRow = row + count * 2;
+            row += count * 2;
+        }
+
+        if (stripes > 1) {
+            mLatch = new CountDownLatch(stripes - 1);
+            for (int i = 1; i < stripes; i++) {
+                mExecutor.execute(mStripes[i]);
+            }
+        }
+        mStripes[0].convertRows();
+        if (stripes > 1) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mLatch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            mLatch = null;
+        }
+        mNv21 = null;
+    }
+
+    /**
+     * 一个条带的转换任务
+     */
+    private class Stripe implements Runnable {
+        private int mStartRow;
+        private int mEndRow;
+
+        @Override
+        public void run() {
+            try {
+                convertRows();
+            } finally {
+                mLatch.countDown();
+            }
+        }
+
+        void convertRows() {
+            if (mNv21Buffer != null) {
+                convertArgb(mNv21Buffer, mWidth, mHeight, mStartRow, mEndRow, mArgbOut);
+            } else if (mOutputType == OUTPUT_ARGB) {
+                convertArgb(mNv21, mWidth, mHeight, mStartRow, mEndRow, mArgbOut);
+            } else {
+                convertRgb565(mNv21, mWidth, mHeight, mStartRow, mEndRow, mRgb565Out);
+            }
+        }
+    }
+
+    /**
+     * BT.601 标准的整数运算转换，输出ARGB_8888
+     */
+    static void convertArgb(byte[] nv21, int width, int height, int startRow, int endRow, int[] out) {
+        int frameSize = width * height;
+        for (int y = startRow; y < endRow; y++) {
+            int yIndex = y * width;
+            int uvIndex = frameSize + (y >> 1) * width;
+            int u = 0;
+            int v = 0;
+            for (int x = 0; x < width; x++) {
+                int luma = (nv21[yIndex] & 0xff) - 16;
+                if (luma < 0) {
+                    luma = 0;
+                }
+                if ((x & 1) == 0) {
+                    v = (nv21[uvIndex++] & 0xff) - 128;
+                    u = (nv21[uvIndex++] & 0xff) - 128;
+                }
+                int c = 298 * luma + 128;
+                int r = (c + 409 * v) >> 8;
+                int g = (c - 100 * u - 208 * v) >> 8;
+                int b = (c + 516 * u) >> 8;
+                r = r < 0 ? 0 : (r > 255 ? 255 : r);
+                g = g < 0 ? 0 : (g > 255 ? 255 : g);
+                b = b < 0 ? 0 : (b > 255 ? 255 : b);
+                out[yIndex++] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * 和convertArgb(byte[]...)相同，从ByteBuffer的绝对位置读取
+     */
+    static void convertArgb(ByteBuffer nv21, int width, int height, int startRow, int endRow, int[] out) {
+        int frameSize = width * height;
+        for (int y = startRow; y < endRow; y++) {
+            int yIndex = y * width;
+            int uvIndex = frameSize + (y >> 1) * width;
+            int u = 0;
+            int v = 0;
+            for (int x = 0; x < width; x++) {
+                int luma = (nv21.get(yIndex) & 0xff) - 16;
+                if (luma < 0) {
+                    luma = 0;
+                }
+                if ((x & 1) == 0) {
+                    v = (nv21.get(uvIndex++) & 0xff) - 128;
+                    u = (nv21.get(uvIndex++) & 0xff) - 128;
+                }
+                int c = 298 * luma + 128;
+                int r = (c + 409 * v) >> 8;
+                int g = (c - 100 * u - 208 * v) >> 8;
+                int b = (c + 516 * u) >> 8;
+                r = r < 0 ? 0 : (r > 255 ? 255 : r);
+                g = g < 0 ? 0 : (g > 255 ? 255 : g);
+                b = b < 0 ? 0 : (b > 255 ? 255 : b);
+                out[yIndex++] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * BT.601 标准的整数运算转换，输出RGB_565
+     */
+    static void convertRgb565(byte[] nv21, int width, int height, int startRow, int endRow, short[] out) {
+        int frameSize = width * height;
+        for (int y = startRow; y < endRow; y++) {
+            int yIndex = y * width;
+            int uvIndex = frameSize + (y >> 1) * width;
+            int u = 0;
+            int v = 0;
+            for (int x = 0; x < width; x++) {
+                int luma = (nv21[yIndex] & 0xff) - 16;
+                if (luma < 0) {
+                    luma = 0;
+                }
+                if ((x & 1) == 0) {
+                    v = (nv21[uvIndex++] & 0xff) - 128;
+                    u = (nv21[uvIndex++] & 0xff) - 128;
+                }
+                int c = 298 * luma + 128;
+                int r = (c + 409 * v) >> 8;
+                int g = (c - 100 * u - 208 * v) >> 8;
+                int b = (c + 516 * u) >> 8;
+                r = r < 0 ? 0 : (r > 255 ? 255 : r);
+                g = g < 0 ? 0 : (g > 255 ? 255 : g);
+                b = b < 0 ? 0 : (b > 255 ? 255 : b);
+                out[yIndex++] = (short) (((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3));
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.allen.customcamera;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 零延迟拍照（ZSL）的预览帧环形缓冲区
+ * 按内存预算预先分配固定个数的NV21缓冲区，相机线程把每一帧预览复制进来，覆盖最旧的一帧；
+ * 拍照时直接取时间戳最接近按下快门的那一帧，不再经过Camera.takePicture
+ * 生产者和读取者之间不加锁：每个槽位有一个状态（-1 正在写入，0 空闲，大于0 被读取者占用的个数），
+ * 都通过CAS切换，写入时跳过被占用的槽位，读取者占用期间可以直接使用槽位中的数据，不需要再复制
+ * 槽位是DirectBufferPool中取出的堆外缓冲区，几帧预览不占用Java堆，转换、压缩时直接读取，不再复制回byte[]
+ * 只有一个生产者（相机线程），读取者可以在任意线程
+ */
+
+public class ZslRing {
+    private static final int STATE_WRITING = -1;
+    private static final int STATE_FREE = 0;
+    //槽位中没有有效的帧
+    private static final long NO_FRAME = Long.MIN_VALUE;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final DirectBufferPool.PooledBuffer[] mSlots;
+    private final ByteBuffer[] mBuffers;
+    private final AtomicIntegerArray mStates;
+    private final AtomicLongArray mTimestamps;
+    //下一个写入的槽位，只在生产者线程中访问
+    private int mNext;
+
+    //写入的帧数、所有槽位都被占用而丢掉的帧数
+    private final AtomicLong mWrittenCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    //按下快门到取出的帧之间的时间差（绝对值）
+    private final AtomicLong mTapCount = new AtomicLong();
+    private final AtomicLong mTapDeltaSum = new AtomicLong();
+    private final AtomicLong mTapDeltaMax = new AtomicLong();
+
+    /**
+     * 在内存预算内能放下的帧数
+     *
+     * @param maxFrames 帧数上限
+     * @return 可能为0，表示一帧也放不下
+     */
+    public static int getSlotCount(int width, int height, long memoryBudget, int maxFrames) {
+        long frameSize = PreviewBufferPool.getFrameSize(width, height);
+        return (int) Math.min(maxFrames, memoryBudget / frameSize);
+    }
+
+    public ZslRing(int slotCount, int width, int height) {
+        this(new DirectBufferPool(0), slotCount, width, height);
+    }
+
+    /**
+     * @param pool 槽位从这个池中取出，recycle时归还
+     */
+    public ZslRing(DirectBufferPool pool, int slotCount, int width, int height) {
+        if (slotCount <= 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("slots: " + slotCount + ", size: " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mSlots = new DirectBufferPool.PooledBuffer[slotCount];
+        mBuffers = new ByteBuffer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            mSlots[i] = pool.acquire(PreviewBufferPool.getFrameSize(width, height));
+            mBuffers[i] = mSlots[i].getBuffer();
+        }
+        mStates = new AtomicIntegerArray(slotCount);
+        mTimestamps = new AtomicLongArray(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            mTimestamps.set(i, NO_FRAME);
+        }
+    }
+
+    /**
+     * 复制一帧预览到最旧的空闲槽位，在相机线程中调用
+     *
+     * @return 所有槽位都被读取者占用时丢掉这一帧，返回false
+     */
+    public boolean write(byte[] frame, long timestampNanos) {
+        int count = mSlots.length;
+        for (int n = 0; n < count; n++) {
+            int slot = mNext;
+            mNext = (mNext + 1) % count;
+            if (!mStates.compareAndSet(slot, STATE_FREE, STATE_WRITING)) {
+                continue;
+            }
+            ByteBuffer buffer = mBuffers[slot];
+            buffer.clear();
+            buffer.put(frame, 0, Math.min(frame.length, buffer.capacity()));
+            mTimestamps.set(slot, timestampNanos);
+            //写入完成，之后占用这个槽位的读取者能看到新的数据和时间戳
+            mStates.set(slot, STATE_FREE);
+            mWrittenCount.incrementAndGet();
+            return true;
+        }
+        mDroppedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 占用时间戳最接近targetNanos的一帧，使用完之后必须调用release
+     *
+     * @return 槽位，没有可用的帧时返回-1
+     */
+    public int acquireClosest(long targetNanos) {
+        int count = mSlots.length;
+        //写入者可能刚好在覆盖选中的槽位，重新查找
+        for (int attempt = 0; attempt < count * 2; attempt++) {
+            int best = -1;
+            long bestDelta = Long.MAX_VALUE;
+            long bestTimestamp = NO_FRAME;
+            for (int slot = 0; slot < count; slot++) {
+                long timestamp = mTimestamps.get(slot);
+                if (timestamp == NO_FRAME) {
+                    continue;
+                }
+                long delta = Math.abs(timestamp - targetNanos);
+                if (delta < bestDelta) {
+                    best = slot;
+                    bestDelta = delta;
+                    bestTimestamp = timestamp;
+                }
+            }
+            if (best < 0) {
+                return -1;
+            }
+            if (!pin(best)) {
+                continue;
+            }
+            if (mTimestamps.get(best) != bestTimestamp) {
+                release(best);
+                continue;
+            }
+            recordTapDelta(bestDelta);
+            return best;
+        }
+        return -1;
+    }
+
+    private boolean pin(int slot) {
+        while (true) {
+            int state = mStates.get(slot);
+            if (state == STATE_WRITING) {
+                return false;
+            }
+            if (mStates.compareAndSet(slot, state, state + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放acquireClosest占用的槽位
+     */
+    public void release(int slot) {
+        mStates.decrementAndGet(slot);
+    }
+
+    /**
+     * 槽位中的NV21数据，只在占用期间读取，使用绝对位置的get
+     */
+    public ByteBuffer getBuffer(int slot) {
+        return mBuffers[slot];
+    }
+
+    public long getTimestamp(int slot) {
+        return mTimestamps.get(slot);
+    }
+
+    /**
+     * 丢弃所有没有被占用的帧（重新打开相机时），在相机线程中调用
+     */
+    public void clear() {
+        for (int slot = 0; slot < mSlots.length; slot++) {
+            if (mStates.compareAndSet(slot, STATE_FREE, STATE_WRITING)) {
+                mTimestamps.set(slot, NO_FRAME);
+                mStates.set(slot, STATE_FREE);
+            }
+        }
+    }
+
+    /**
+     * 把槽位归还到池中，之后不能再使用，在相机线程中调用，调用时不能有槽位被占用
+     */
+    public void recycle() {
+        for (int slot = 0; slot < mSlots.length; slot++) {
+            mTimestamps.set(slot, NO_FRAME);
+            mStates.set(slot, STATE_WRITING);
+            mSlots[slot].release();
+        }
+    }
+
+    private void recordTapDelta(long delta) {
+        mTapCount.incrementAndGet();
+        mTapDeltaSum.addAndGet(delta);
+        while (true) {
+            long max = mTapDeltaMax.get();
+            if (delta <= max || mTapDeltaMax.compareAndSet(max, delta)) {
+                return;
+            }
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getSlotCount() {
+        return mSlots.length;
+    }
+
+    public long getWrittenCount() {
+        return mWrittenCount.get();
+    }
+
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    public long getTapCount() {
+        return mTapCount.get();
+    }
+
+    public long getAverageTapDeltaNanos() {
+        long count = mTapCount.get();
+        return count == 0 ? 0 : mTapDeltaSum.get() / count;
+    }
+
+    public long getMaxTapDeltaNanos() {
+        return mTapDeltaMax.get();
+    }
+}
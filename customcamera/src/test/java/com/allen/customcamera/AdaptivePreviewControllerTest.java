@@ -0,0 +1,176 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 预览自动降级：用模拟的帧序列驱动控制器，处理耗时和预览尺寸的像素数成正比，
+ * 相机按当前级别的帧率出帧，处理不完时下一帧被推迟（缓冲区耗尽）
+ */
+public class AdaptivePreviewControllerTest {
+    private static final SizeIndex SIZES = new SizeIndex(Arrays.asList(new CameraSize(1920, 1080),
+            new CameraSize(1280, 720), new CameraSize(960, 540), new CameraSize(640, 480)));
+    private static final CameraSize BASE_SIZE = new CameraSize(1920, 1080);
+    private static final int BASE_FPS = 30;
+
+    /**
+     * 模拟的帧源：按控制器当前的级别出帧，记录级别的变化
+     */
+    private static class SimulatedSource {
+        private final AdaptivePreviewController mController;
+        //每个像素的处理耗时
+        double mNanosPerPixel;
+        long mNow;
+        int mSkipped;
+        final List<Integer> mLevels = new ArrayList<>();
+
+        SimulatedSource(AdaptivePreviewController controller, double nanosPerPixel) {
+            mController = controller;
+            mNanosPerPixel = nanosPerPixel;
+            mLevels.add(controller.getLevel());
+        }
+
+        void run(int frames) {
+            for (int i = 0; i < frames; i++) {
+                AdaptivePreviewController.Step step = mController.getStep();
+                int fps = step.maxFps > 0 ? Math.min(step.maxFps, BASE_FPS) : BASE_FPS;
+                long interval = 1000000000L / fps;
+                CameraSize size = AdaptivePreviewController.selectSmallerSize(SIZES, BASE_SIZE, step.sizeSteps);
+                long processing = 0;
+                if (mSkipped >= step.frameSkip) {
+                    mSkipped = 0;
+                    processing = (long) (mNanosPerPixel * size.width * size.height);
+                } else {
+                    mSkipped++;
+                }
+                boolean starved = processing > interval;
+                if (mController.onFrame(mNow, processing, starved)) {
+                    mLevels.add(mController.getLevel());
+                }
+                mNow += Math.max(interval, processing);
+            }
+        }
+
+        int getChangeCount() {
+            return mLevels.size() - 1;
+        }
+    }
+
+    @Test
+    public void sustainedBacklog_stepsDownLadderInOrder() {
+        AdaptivePreviewController controller = new AdaptivePreviewController();
+        //整图处理64ms：24、15帧都跟不上，降一档尺寸后负载约0.43
+        SimulatedSource source = new SimulatedSource(controller, 64000000.0 / (1920 * 1080));
+        source.run(3000);
+        assertEquals(Arrays.asList(0, 1, 2, 3), source.mLevels);
+        assertEquals(3, controller.getLevel());
+        assertEquals(15, controller.getStep().maxFps);
+        assertEquals(1, controller.getStep().sizeSteps);
+        assertEquals(0, controller.getStep().frameSkip);
+    }
+
+    @Test
+    public void extremeBacklog_fallsBackToFrameSkipping() {
+        AdaptivePreviewController controller = new AdaptivePreviewController();
+        //最小的尺寸处理也要超过一帧
+        SimulatedSource source = new SimulatedSource(controller, 400000000.0 / (1920 * 1080));
+        source.run(5000);
+        assertEquals(6, controller.getLevel());
+        assertEquals(2, controller.getStep().frameSkip);
+        for (int i = 1; i < source.mLevels.size(); i++) {
+            assertEquals(i, source.mLevels.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void headroom_stepsBackUp() {
+        AdaptivePreviewController controller = new AdaptivePreviewController();
+        SimulatedSource source = new SimulatedSource(controller, 64000000.0 / (1920 * 1080));
+        source.run(3000);
+        assertEquals(3, controller.getLevel());
+        //处理变快之后逐级恢复
+        source.mNanosPerPixel = 1;
+        source.run(3000);
+        assertEquals(0, controller.getLevel());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 2, 1, 0), source.mLevels);
+    }
+
+    @Test
+    public void lightLoad_staysAtFullQuality() {
+        AdaptivePreviewController controller = new AdaptivePreviewController();
+        SimulatedSource source = new SimulatedSource(controller, 10000000.0 / (1920 * 1080));
+        source.run(3000);
+        assertEquals(0, source.getChangeCount());
+        assertEquals(0.3f, controller.getLastLoad(), 0.01f);
+    }
+
+    @Test
+    public void oscillation_isDampedByBackoff() {
+        //只有跳帧一级：不跳帧时负载0.9，跳两帧时负载0.3，会在两级之间来回切换
+        AdaptivePreviewController controller = new AdaptivePreviewController(
+                Arrays.asList(new AdaptivePreviewController.Step(0, 0, 0), new AdaptivePreviewController.Step(0, 0, 2)),
+                AdaptivePreviewController.DEFAULT_THRESHOLDS);
+        SimulatedSource source = new SimulatedSource(controller, 30000000.0 / (1920 * 1080));
+        //200个窗口，没有退避时大约切换60多次
+        source.run(200 * 30);
+        assertTrue("changes: " + source.getChangeCount(), source.getChangeCount() <= 12);
+        assertTrue(source.getChangeCount() >= 4);
+
+        controller.reset();
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void restart_discardsPartialWindow() {
+        AdaptivePreviewController.Thresholds thresholds = new AdaptivePreviewController.Thresholds(10, 0.8f, 0.2f, 0.5f, 1, 1);
+        AdaptivePreviewController controller = new AdaptivePreviewController(AdaptivePreviewController.defaultLadder(), thresholds);
+        long now = 0;
+        for (int i = 0; i < 9; i++) {
+            assertFalse(controller.onFrame(now, 30000000, false));
+            now += 33000000;
+        }
+        controller.restart();
+        //重新计时，第一帧只作为起点
+        now += 1000000000L;
+        for (int i = 0; i < 10; i++) {
+            assertFalse(controller.onFrame(now, 30000000, false));
+            now += 33000000;
+        }
+        assertTrue(controller.onFrame(now, 30000000, false));
+        assertEquals(1, controller.getLevel());
+        assertEquals(1, controller.getChangeCount());
+    }
+
+    @Test
+    public void selectFpsRange_prefersHighestWithinLimit() {
+        List<int[]> ranges = Arrays.asList(new int[]{15000, 15000}, new int[]{24000, 24000},
+                new int[]{7500, 30000}, new int[]{30000, 30000});
+        assertArrayEquals(new int[]{7500, 30000}, AdaptivePreviewController.selectFpsRange(ranges, 0));
+        assertArrayEquals(new int[]{24000, 24000}, AdaptivePreviewController.selectFpsRange(ranges, 24));
+        assertArrayEquals(new int[]{15000, 15000}, AdaptivePreviewController.selectFpsRange(ranges, 20));
+        //没有满足的范围时用最低的
+        assertArrayEquals(new int[]{15000, 15000}, AdaptivePreviewController.selectFpsRange(ranges, 10));
+        assertNull(AdaptivePreviewController.selectFpsRange(new ArrayList<int[]>(), 15));
+    }
+
+    @Test
+    public void selectSmallerSize_keepsAspectRatio() {
+        assertEquals(BASE_SIZE, AdaptivePreviewController.selectSmallerSize(SIZES, BASE_SIZE, 0));
+        assertEquals(new CameraSize(1280, 720), AdaptivePreviewController.selectSmallerSize(SIZES, BASE_SIZE, 1));
+        assertEquals(new CameraSize(960, 540), AdaptivePreviewController.selectSmallerSize(SIZES, BASE_SIZE, 2));
+        //不会选择其他宽高比的尺寸
+        assertEquals(new CameraSize(960, 540), AdaptivePreviewController.selectSmallerSize(SIZES, BASE_SIZE, 5));
+        assertEquals(new CameraSize(640, 480),
+                AdaptivePreviewController.selectSmallerSize(SIZES, new CameraSize(640, 480), 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidThresholds_rejected() {
+        new AdaptivePreviewController.Thresholds(30, 0.3f, 0.5f, 0.2f, 2, 4);
+    }
+}
@@ -0,0 +1,117 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CameraCapabilitiesTest {
+
+    private static final String FINGERPRINT = "vendor/device/device:8.0.0/OPR1/1:user/release-keys";
+
+    private static CameraCapabilities createBackCamera() {
+        CameraCapabilities camera = new CameraCapabilities(0, CameraCapabilities.FACING_BACK, 90);
+        List<int[]> fpsRanges = new ArrayList<>();
+        fpsRanges.add(new int[]{15000, 30000});
+        fpsRanges.add(new int[]{30000, 30000});
+        camera.setParameters(
+                Arrays.asList(new CameraSize(1920, 1080), new CameraSize(1280, 720), new CameraSize(640, 480)),
+                Arrays.asList(new CameraSize(4000, 3000), new CameraSize(1920, 1080)),
+                Arrays.asList("auto", "continuous-picture", "fixed"),
+                Arrays.asList(17, 842094169),
+                Arrays.asList(256),
+                true, 3, Arrays.asList(100, 150, 200, 400),
+                fpsRanges, 1, 2);
+        return camera;
+    }
+
+    private static byte[] write(List<CameraCapabilities> cameras) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CameraCapabilities.writeAll(out, FINGERPRINT, cameras);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static List<CameraCapabilities> read(byte[] data, String fingerprint) throws IOException {
+        return CameraCapabilities.readAll(new DataInputStream(new ByteArrayInputStream(data)), fingerprint);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        CameraCapabilities front = new CameraCapabilities(1, CameraCapabilities.FACING_FRONT, 270);
+        byte[] data = write(Arrays.asList(createBackCamera(), front));
+
+        List<CameraCapabilities> cameras = read(data, FINGERPRINT);
+        assertEquals(2, cameras.size());
+
+        CameraCapabilities back = cameras.get(0);
+        assertEquals(0, back.getId());
+        assertFalse(back.isFront());
+        assertEquals(90, back.getOrientation());
+        assertTrue(back.hasParameters());
+        assertEquals(Arrays.asList(new CameraSize(1920, 1080), new CameraSize(1280, 720), new CameraSize(640, 480)),
+                back.getPreviewSizes());
+        assertEquals(new CameraSize(4000, 3000), back.getPictureSizes().get(0));
+        assertEquals(Arrays.asList("auto", "continuous-picture", "fixed"), back.getFocusModes());
+        assertEquals(Arrays.asList(17, 842094169), back.getPreviewFormats());
+        assertEquals(Arrays.asList(256), back.getPictureFormats());
+        assertTrue(back.isZoomSupported());
+        assertEquals(3, back.getMaxZoom());
+        assertEquals(Arrays.asList(100, 150, 200, 400), back.getZoomRatios());
+        assertEquals(2, back.getFpsRanges().size());
+        assertArrayEquals(new int[]{15000, 30000}, back.getFpsRanges().get(0));
+        assertEquals(1, back.getMaxNumFocusAreas());
+        assertEquals(2, back.getMaxNumMeteringAreas());
+
+        //还没有打开过的摄像头只有朝向和角度
+        CameraCapabilities frontRead = cameras.get(1);
+        assertTrue(frontRead.isFront());
+        assertEquals(270, frontRead.getOrientation());
+        assertFalse(frontRead.hasParameters());
+        assertTrue(frontRead.getPreviewSizes().isEmpty());
+    }
+
+    @Test
+    public void fingerprintChanged_returnsNull() throws Exception {
+        byte[] data = write(Arrays.asList(createBackCamera()));
+        assertNull(read(data, "vendor/device/device:9/PPR1/2:user/release-keys"));
+    }
+
+    @Test
+    public void corruptedData_throws() throws Exception {
+        byte[] data = write(Arrays.asList(createBackCamera()));
+        try {
+            read(Arrays.copyOf(data, data.length / 2), FINGERPRINT);
+            fail("truncated data should be rejected");
+        } catch (IOException expected) {
+            //文件不完整
+        }
+        data[0] = 0;
+        try {
+            read(data, FINGERPRINT);
+            fail("bad magic should be rejected");
+        } catch (IOException expected) {
+            //不是能力目录文件
+        }
+    }
+
+    @Test
+    public void parameterLists_areUnmodifiable() {
+        CameraCapabilities camera = createBackCamera();
+        try {
+            camera.getPreviewSizes().clear();
+            fail("preview sizes should be unmodifiable");
+        } catch (UnsupportedOperationException expected) {
+            //缓存的能力不能被修改
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package com.allen.customcamera;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 相机负载测试：用FakeCameraBackend按指定的分辨率、帧率生成预览帧，交给CameraManager使用的PreviewFrameProcessor，
+ * 走一遍缓冲池、分析流水线（带指定耗时的消费者）、曝光统计和零延迟拍照的环形缓冲区，同时定时拍照交给拍照流水线
+ * 统计从生成一帧到消费者处理完成的端到端延迟（p50/p99/p999）、吞吐量、丢帧数、GC次数和内存分配速率
+ * 预热之后再开始统计，避免把类加载、JIT编译和第一次分配缓冲区算进去
+ * 在IDE中直接运行main方法（使用单元测试的classpath），参数：宽 高 帧率 消费者耗时(微秒) 统计时长(秒) [拍照间隔(毫秒)]
+ */
+public class CameraLoadHarness {
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFps;
+    //消费者处理一帧的耗时，用忙等模拟占用CPU的分析
+    private long mConsumerCostNanos;
+    //拍照间隔，0表示不拍照
+    private long mCaptureIntervalMs;
+
+    //模拟相机生成一帧的时间，在相机线程中设置和读取
+    private long mProducedNanos;
+    private final LatencyHistogram mFrameLatency = new LatencyHistogram();
+    private final LatencyHistogram mCaptureLatency = new LatencyHistogram();
+    private final AtomicLong mConsumedCount = new AtomicLong();
+    private final AtomicLong mCapturedCount = new AtomicLong();
+    //防止忙等被优化掉
+    private volatile long mSink;
+
+    public CameraLoadHarness(int width, int height, int fps) {
+        if (width <= 0 || height <= 0 || fps <= 0) {
+            throw new IllegalArgumentException("invalid load: " + width + "x" + height + "@" + fps);
+        }
+        mWidth = width;
+        mHeight = height;
+        mFps = fps;
+    }
+
+    public CameraLoadHarness setConsumerCost(long micros) {
+        mConsumerCostNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+        return this;
+    }
+
+    public CameraLoadHarness setCaptureInterval(long ms) {
+        mCaptureIntervalMs = ms;
+        return this;
+    }
+
+    /**
+     * 运行负载测试
+     *
+     * @param warmupMs   预热时长，不计入统计
+     * @param durationMs 统计时长
+     */
+    public Result run(long warmupMs, long durationMs) throws IOException, InterruptedException {
+        final ExecutorService cameraThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "load-camera");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        //模拟的相机生成一帧后马上交给回调线程，在这里记下生成的时间
+        Executor stampingExecutor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                final long produced = System.nanoTime();
+                cameraThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mProducedNanos = produced;
+                        command.run();
+                    }
+                });
+            }
+        };
+        final FakeCameraBackend backend = new FakeCameraBackend(FakeCameraBackend.defaultCameras(), mFps);
+        final PreviewBufferPool bufferPool = new PreviewBufferPool();
+        final FramePipeline pipeline = new FramePipeline();
+        final ExposureStats stats = new ExposureStats();
+        DirectBufferPool directPool = new DirectBufferPool(64L * 1024 * 1024);
+        final ZslRing zslRing = new ZslRing(directPool, 4, mWidth, mHeight);
+        CapturePipeline capturePipeline = new CapturePipeline(2, 4);
+        FramePipeline.Stage consumer = pipeline.addStage("consumer", new FramePipeline.Analyzer() {
+            @Override
+            public boolean analyze(FramePipeline.Frame frame) {
+                consume(frame);
+                return false;
+            }
+        }, 2);
+        try {
+            backend.open(0, stampingExecutor);
+            backend.configure(new CameraSize(mWidth, mHeight), new CameraSize(1920, 1080), 90);
+            //测光、降级需要真实的相机，这里不处理
+            PreviewFrameProcessor processor = new PreviewFrameProcessor(bufferPool, new CameraMetrics(),
+                    null, new PreviewFrameProcessor.Host() {
+                @Override
+                public void onFrameDelivered() {
+                }
+
+                @Override
+                public void onExposureSampled(ExposureStats stats) {
+                }
+
+                @Override
+                public void onAdaptiveStepChanged() {
+                }
+            }) {
+                @Override
+                public void onPreviewFrame(byte[] data) {
+                    //时间戳使用模拟相机生成这一帧的时间，延迟包括在相机线程中排队的时间
+                    process(data, mProducedNanos);
+                }
+            };
+            processor.setConsumers(null, pipeline, stats, zslRing, null);
+            processor.attach(backend, mWidth, mHeight);
+            backend.startPreview();
+
+            runCaptures(backend, capturePipeline, warmupMs);
+            Snapshot before = new Snapshot(backend, pipeline, consumer);
+            mFrameLatency.reset();
+            mCaptureLatency.reset();
+            mConsumedCount.set(0);
+            mCapturedCount.set(0);
+            runCaptures(backend, capturePipeline, durationMs);
+            Snapshot after = new Snapshot(backend, pipeline, consumer);
+
+            backend.stopPreview();
+            pipeline.awaitIdle(5, TimeUnit.SECONDS);
+            capturePipeline.awaitIdle(5, TimeUnit.SECONDS);
+            return new Result(this, before, after);
+        } finally {
+            backend.close();
+            pipeline.shutdown();
+            capturePipeline.shutdown();
+            cameraThread.shutdown();
+            zslRing.recycle();
+        }
+    }
+
+    /**
+     * 消费者：忙等指定的时间后记录端到端延迟
+     */
+    private void consume(FramePipeline.Frame frame) {
+        long start = System.nanoTime();
+        byte[] data = frame.getData();
+        long sum = 0;
+        int index = 0;
+        while (System.nanoTime() - start < mConsumerCostNanos) {
+            sum += data[index];
+            index = (index + 4099) % data.length;
+        }
+        mSink = sum;
+        mFrameLatency.record(System.nanoTime() - frame.getTimestamp());
+        mConsumedCount.incrementAndGet();
+    }
+
+    /**
+     * 运行durationMs，期间按间隔拍照
+     */
+    private void runCaptures(FakeCameraBackend backend, final CapturePipeline capturePipeline, long durationMs)
+            throws InterruptedException {
+        final CapturePipeline.Stage stage = new CapturePipeline.Stage() {
+            @Override
+            public File process(byte[] jpeg, int index) throws IOException {
+                JpegTransformer.readSize(jpeg);
+                return new File("shot" + index);
+            }
+        };
+        final CapturePipeline.Listener listener = new CapturePipeline.Listener() {
+            @Override
+            public void onSaved(int index, File file, long latencyNanos) {
+                mCaptureLatency.record(latencyNanos);
+                mCapturedCount.incrementAndGet();
+            }
+
+            @Override
+            public void onFailed(int index, IOException e) {
+            }
+        };
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        int index = 0;
+        while (true) {
+            long remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            if (mCaptureIntervalMs <= 0) {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+                return;
+            }
+            final int shot = index++;
+            final long shutterNanos = System.nanoTime();
+            backend.takePicture(new CameraBackend.PictureCallback() {
+                @Override
+                public void onPictureTaken(byte[] data) {
+                    try {
+                        capturePipeline.submit(data, shot, shutterNanos, stage, listener);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(mCaptureIntervalMs)));
+        }
+    }
+
+    /**
+     * 某一时刻的计数、GC和各个线程分配的字节数
+     */
+    private static final class Snapshot {
+        final long mNanos = System.nanoTime();
+        final long mFrames;
+        final long mCameraDropped;
+        final long mRejected;
+        final long mConsumerDropped;
+        final long mGcCount;
+        final long mGcTimeMs;
+        final Map<Long, Long> mAllocatedBytes = new HashMap<>();
+
+        Snapshot(FakeCameraBackend backend, FramePipeline pipeline, FramePipeline.Stage consumer) {
+            mFrames = backend.getFrameCount();
+            mCameraDropped = backend.getDroppedCount();
+            mRejected = pipeline.getRejectedCount();
+            mConsumerDropped = consumer.getDroppedCount();
+            long count = 0;
+            long time = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+                time += Math.max(0, gc.getCollectionTime());
+            }
+            mGcCount = count;
+            mGcTimeMs = time;
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                long[] ids = bean.getAllThreadIds();
+                long[] bytes = ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(ids);
+                for (int i = 0; i < ids.length; i++) {
+                    if (bytes[i] >= 0) {
+                        mAllocatedBytes.put(ids[i], bytes[i]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 两次快照之间所有线程分配的字节数，期间结束的线程不计入
+         *
+         * @return 不支持统计时返回-1
+         */
+        long allocatedSince(Snapshot before) {
+            if (mAllocatedBytes.isEmpty()) {
+                return -1;
+            }
+            long total = 0;
+            for (Map.Entry<Long, Long> entry : mAllocatedBytes.entrySet()) {
+                Long start = before.mAllocatedBytes.get(entry.getKey());
+                total += entry.getValue() - (start == null ? 0 : start);
+            }
+            return total;
+        }
+    }
+
+    /**
+     * 一次负载测试的结果
+     */
+    public static final class Result {
+        private final long mDurationNanos;
+        private final long mProducedCount;
+        private final long mConsumedCount;
+        private final long mCapturedCount;
+        private final long mCameraDroppedCount;
+        private final long mPipelineDroppedCount;
+        private final long mGcCount;
+        private final long mGcTimeMs;
+        private final long mAllocatedBytes;
+        private final LatencyHistogram.Snapshot mFrameLatency;
+        private final LatencyHistogram.Snapshot mCaptureLatency;
+
+        Result(CameraLoadHarness harness, Snapshot before, Snapshot after) {
+            mDurationNanos = after.mNanos - before.mNanos;
+            mProducedCount = after.mFrames - before.mFrames;
+            mConsumedCount = harness.mConsumedCount.get();
+            mCapturedCount = harness.mCapturedCount.get();
+            mCameraDroppedCount = after.mCameraDropped - before.mCameraDropped;
+            mPipelineDroppedCount = after.mRejected - before.mRejected
+                    + after.mConsumerDropped - before.mConsumerDropped;
+            mGcCount = after.mGcCount - before.mGcCount;
+            mGcTimeMs = after.mGcTimeMs - before.mGcTimeMs;
+            mAllocatedBytes = after.allocatedSince(before);
+            mFrameLatency = harness.mFrameLatency.snapshot();
+            mCaptureLatency = harness.mCaptureLatency.snapshot();
+        }
+
+        /**
+         * 端到端延迟：模拟相机生成一帧到消费者处理完成
+         */
+        public LatencyHistogram.Snapshot getFrameLatency() {
+            return mFrameLatency;
+        }
+
+        /**
+         * 拍照延迟：调用takePicture到拍照流水线处理完成
+         */
+        public LatencyHistogram.Snapshot getCaptureLatency() {
+            return mCaptureLatency;
+        }
+
+        public long getProducedCount() {
+            return mProducedCount;
+        }
+
+        public long getConsumedCount() {
+            return mConsumedCount;
+        }
+
+        public long getCapturedCount() {
+            return mCapturedCount;
+        }
+
+        /**
+         * 没有可用的预览缓冲区，模拟相机丢掉的帧数
+         */
+        public long getCameraDroppedCount() {
+            return mCameraDroppedCount;
+        }
+
+        /**
+         * 流水线缓冲池耗尽或者消费者队列满丢掉的帧数
+         */
+        public long getPipelineDroppedCount() {
+            return mPipelineDroppedCount;
+        }
+
+        /**
+         * 消费者每秒处理的帧数
+         */
+        public float getThroughput() {
+            return mDurationNanos <= 0 ? 0 : mConsumedCount * 1e9f / mDurationNanos;
+        }
+
+        public long getGcCount() {
+            return mGcCount;
+        }
+
+        public long getGcTimeMs() {
+            return mGcTimeMs;
+        }
+
+        /**
+         * 统计期间所有线程分配的字节数，不支持统计时返回-1
+         */
+        public long getAllocatedBytes() {
+            return mAllocatedBytes;
+        }
+
+        /**
+         * 每秒分配的字节数，不支持统计时返回-1
+         */
+        public long getAllocationRate() {
+            if (mAllocatedBytes < 0 || mDurationNanos <= 0) {
+                return -1;
+            }
+            return (long) (mAllocatedBytes * 1e9 / mDurationNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "frames: produced=" + mProducedCount + ", consumed=" + mConsumedCount
+                    + ", camera dropped=" + mCameraDroppedCount + ", pipeline dropped=" + mPipelineDroppedCount
+                    + ", throughput=" + String.format("%.1f", getThroughput()) + "fps\n"
+                    + "frame latency(us): p50=" + mFrameLatency.getPercentile(50) / 1000
+                    + ", p99=" + mFrameLatency.getPercentile(99) / 1000
+                    + ", p999=" + mFrameLatency.getPercentile(99.9) / 1000
+                    + ", max=" + mFrameLatency.getMax() / 1000 + "\n"
+                    + "capture latency(us): count=" + mCapturedCount
+                    + ", p50=" + mCaptureLatency.getPercentile(50) / 1000
+                    + ", p99=" + mCaptureLatency.getPercentile(99) / 1000 + "\n"
+                    + "gc: count=" + mGcCount + ", time=" + mGcTimeMs + "ms, allocation rate="
+                    + (getAllocationRate() < 0 ? "n/a" : getAllocationRate() / 1024 + "KB/s");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+        int fps = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        long costMicros = args.length > 3 ? Long.parseLong(args[3]) : 5000;
+        long seconds = args.length > 4 ? Long.parseLong(args[4]) : 10;
+        long captureIntervalMs = args.length > 5 ? Long.parseLong(args[5]) : 500;
+        Result result = new CameraLoadHarness(width, height, fps)
+                .setConsumerCost(costMicros)
+                .setCaptureInterval(captureIntervalMs)
+                .run(2000, TimeUnit.SECONDS.toMillis(seconds));
+        System.out.println(width + "x" + height + "@" + fps + "fps, consumer " + costMicros + "us");
+        System.out.println(result);
+    }
+}
@@ -0,0 +1,56 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 负载测试：帧和拍照都能走完整个流程、稳定预览时不分配帧大小的内存每次都检查
+ * 丢帧、吞吐量、延迟这些和机器速度有关的断言只在-Dcamera.loadTest=true时检查，
+ * 阈值比较宽松，只抓明显的退化
+ */
+public class CameraLoadHarnessTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FPS = 30;
+
+    //是否检查和耗时有关的断言
+    private static final boolean CHECK_TIMING = Boolean.getBoolean("camera.loadTest");
+
+    @Test
+    public void nominalLoad_keepsUpWithCamera() throws Exception {
+        CameraLoadHarness.Result result = new CameraLoadHarness(WIDTH, HEIGHT, FPS)
+                .setConsumerCost(2000)
+                .setCaptureInterval(200)
+                .run(500, 2000);
+        assertTrue(result.toString(), result.getConsumedCount() > 0);
+        assertTrue(result.toString(), result.getCapturedCount() > 0);
+        //稳定运行时预览帧都在缓冲池中复用，每帧分配的内存远小于一帧的大小
+        if (result.getAllocatedBytes() >= 0) {
+            long perFrame = result.getAllocatedBytes() / Math.max(1, result.getProducedCount());
+            assertTrue(result.toString(), perFrame < PreviewBufferPool.getFrameSize(WIDTH, HEIGHT) / 10);
+        }
+        if (CHECK_TIMING) {
+            assertEquals(result.toString(), 0, result.getCameraDroppedCount());
+            assertEquals(result.toString(), 0, result.getPipelineDroppedCount());
+            assertTrue(result.toString(), result.getThroughput() >= FPS * 0.8f);
+            assertTrue(result.toString(), result.getFrameLatency().getPercentile(99) < TimeUnit.MILLISECONDS.toNanos(50));
+        }
+    }
+
+    @Test
+    public void overload_dropsOldestAndBoundsLatency() throws Exception {
+        CameraLoadHarness.Result result = new CameraLoadHarness(WIDTH, HEIGHT, FPS)
+                .setConsumerCost(60000)
+                .run(500, 2000);
+        assertTrue(result.toString(), result.getConsumedCount() > 0);
+        if (CHECK_TIMING) {
+            //慢的消费者不占用相机的缓冲区，只在流水线中丢掉最旧的帧
+            assertEquals(result.toString(), 0, result.getCameraDroppedCount());
+            assertTrue(result.toString(), result.getPipelineDroppedCount() > 0);
+            assertTrue(result.toString(), result.getFrameLatency().getPercentile(99) < TimeUnit.MILLISECONDS.toNanos(500));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 相机性能指标的记录和快照
+ */
+public class CameraMetricsTest {
+
+    @Test
+    public void snapshot_isIndependentOfLaterRecords() {
+        CameraMetrics metrics = new CameraMetrics();
+        metrics.record(CameraMetrics.Timer.OPEN, 120000000L);
+        metrics.record(CameraMetrics.Timer.OPEN, 80000000L);
+        metrics.record(CameraMetrics.Timer.SHUTTER, 300000000L);
+        metrics.increment(CameraMetrics.Counter.PREVIEW_BUFFER_RECYCLED);
+        metrics.increment(CameraMetrics.Counter.PREVIEW_BUFFER_RECYCLED);
+        metrics.increment(CameraMetrics.Counter.PREVIEW_BUFFER_STARVED);
+
+        CameraMetrics.Snapshot snapshot = metrics.snapshot();
+        metrics.record(CameraMetrics.Timer.OPEN, 1000000000L);
+        metrics.increment(CameraMetrics.Counter.PREVIEW_BUFFER_RECYCLED);
+
+        assertEquals(2, snapshot.get(CameraMetrics.Timer.OPEN).getCount());
+        assertEquals(120000000L, snapshot.get(CameraMetrics.Timer.OPEN).getMax());
+        assertEquals(100000000L, snapshot.get(CameraMetrics.Timer.OPEN).getMean());
+        assertEquals(1, snapshot.get(CameraMetrics.Timer.SHUTTER).getCount());
+        assertEquals(0, snapshot.get(CameraMetrics.Timer.DECODE).getCount());
+        assertEquals(2, snapshot.get(CameraMetrics.Counter.PREVIEW_BUFFER_RECYCLED));
+        assertEquals(1, snapshot.get(CameraMetrics.Counter.PREVIEW_BUFFER_STARVED));
+        assertEquals(0, snapshot.get(CameraMetrics.Counter.PREVIEW_BUFFER_DROPPED));
+        assertEquals(3, metrics.get(CameraMetrics.Counter.PREVIEW_BUFFER_RECYCLED));
+        assertTrue(snapshot.toString().contains("SHUTTER: count=1"));
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().get(CameraMetrics.Timer.OPEN).getCount());
+        assertEquals(0, metrics.get(CameraMetrics.Counter.PREVIEW_BUFFER_RECYCLED));
+    }
+}
@@ -0,0 +1,117 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 拍照编码、写入流水线的并发和背压
+ */
+public class CapturePipelineTest {
+
+    private static class CountingListener implements CapturePipeline.Listener {
+        final AtomicInteger mSaved = new AtomicInteger();
+        final AtomicInteger mFailed = new AtomicInteger();
+
+        @Override
+        public void onSaved(int index, File file, long latencyNanos) {
+            assertTrue(latencyNanos >= 0);
+            mSaved.incrementAndGet();
+        }
+
+        @Override
+        public void onFailed(int index, IOException e) {
+            mFailed.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void processesAllAndReportsFailures() throws Exception {
+        CapturePipeline pipeline = new CapturePipeline(2, 4);
+        CountingListener listener = new CountingListener();
+        CapturePipeline.Stage stage = new CapturePipeline.Stage() {
+            @Override
+            public File process(byte[] jpeg, int index) throws IOException {
+                if (index % 5 == 0) {
+                    throw new IOException("disk full");
+                }
+                return new File("shot" + index);
+            }
+        };
+        for (int i = 0; i < 50; i++) {
+            pipeline.submit(new byte[16], i, System.nanoTime(), stage, listener);
+        }
+        assertTrue(pipeline.awaitIdle(5, TimeUnit.SECONDS));
+        assertEquals(40, listener.mSaved.get());
+        assertEquals(10, listener.mFailed.get());
+        assertEquals(40, pipeline.getSavedCount());
+        assertEquals(10, pipeline.getFailedCount());
+        assertEquals(0, pipeline.getInFlightCount());
+        assertTrue(pipeline.getMaxLatencyNanos() >= pipeline.getAverageLatencyNanos());
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void submitBlocksWhenFull() throws Exception {
+        final int capacity = 3;
+        final CapturePipeline pipeline = new CapturePipeline(1, capacity);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CapturePipeline.Stage stage = new CapturePipeline.Stage() {
+            @Override
+            public File process(byte[] jpeg, int index) throws IOException {
+                running.incrementAndGet();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return null;
+            }
+        };
+        final CountingListener listener = new CountingListener();
+        for (int i = 0; i < capacity; i++) {
+            pipeline.submit(new byte[1], i, System.nanoTime(), stage, listener);
+        }
+        assertEquals(capacity, pipeline.getInFlightCount());
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pipeline.submit(new byte[1], capacity, System.nanoTime(), stage, listener);
+                    maxInFlight.set(pipeline.getInFlightCount());
+                    submitted.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        //流水线已满，第四张必须等待
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, running.get());
+
+        gate.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.awaitIdle(5, TimeUnit.SECONDS));
+        assertTrue(maxInFlight.get() <= capacity);
+        assertEquals(capacity + 1, listener.mSaved.get());
+        assertEquals(1, pipeline.getBlockedCount());
+        assertTrue(pipeline.getBlockedNanos() > 0);
+        pipeline.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityLessThanWorkers_rejected() {
+        new CapturePipeline(4, 2);
+    }
+}
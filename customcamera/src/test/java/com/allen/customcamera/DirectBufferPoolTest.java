@@ -0,0 +1,120 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 堆外缓冲池：复用、引用计数、预算淘汰、泄漏检测
+ */
+public class DirectBufferPoolTest {
+
+    @Test
+    public void released_buffersAreReused() {
+        DirectBufferPool pool = new DirectBufferPool(1024);
+        DirectBufferPool.PooledBuffer first = pool.acquire(256);
+        ByteBuffer buffer = first.getBuffer();
+        assertTrue(buffer.isDirect());
+        assertEquals(ByteOrder.nativeOrder(), buffer.order());
+        assertEquals(256, buffer.capacity());
+        buffer.position(100);
+        assertTrue(first.release());
+        assertEquals(256, pool.getCurrentBytes());
+
+        DirectBufferPool.PooledBuffer second = pool.acquire(256);
+        assertSame(buffer, second.getBuffer());
+        assertEquals(0, second.getBuffer().position());
+        assertEquals(1, pool.getHitCount());
+        //容量不同的缓冲区分开保存
+        pool.acquire(128).release();
+        assertEquals(2, pool.getMissCount());
+        second.release();
+        assertEquals(384, pool.getCurrentBytes());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void refCount_returnsOnLastRelease() {
+        DirectBufferPool pool = new DirectBufferPool(1024);
+        DirectBufferPool.PooledBuffer buffer = pool.acquire(64);
+        assertSame(buffer, buffer.retain());
+        assertEquals(2, buffer.getRefCount());
+        assertFalse(buffer.release());
+        assertEquals(1, pool.getOutstandingCount());
+        assertTrue(buffer.release());
+        assertEquals(0, pool.getOutstandingCount());
+        try {
+            buffer.getBuffer();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            buffer.retain();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleRelease_isRejected() {
+        DirectBufferPool.PooledBuffer buffer = new DirectBufferPool(1024).acquire(64);
+        buffer.release();
+        buffer.release();
+    }
+
+    @Test
+    public void budget_evictsLeastRecentlyUsed() {
+        DirectBufferPool pool = new DirectBufferPool(1000);
+        DirectBufferPool.PooledBuffer a = pool.acquire(400);
+        DirectBufferPool.PooledBuffer b = pool.acquire(500);
+        DirectBufferPool.PooledBuffer c = pool.acquire(300);
+        a.release();
+        b.release();
+        //400的桶最久没有使用，被丢弃
+        c.release();
+        assertEquals(800, pool.getCurrentBytes());
+        assertEquals(1, pool.getEvictionCount());
+        //超过预算的缓冲区直接丢弃
+        pool.acquire(2000).release();
+        assertEquals(800, pool.getCurrentBytes());
+        pool.clear();
+        assertEquals(0, pool.getCurrentBytes());
+    }
+
+    @Test
+    public void leakDetection_reportsUnreleasedBuffers() throws InterruptedException {
+        DirectBufferPool pool = new DirectBufferPool(1024 * 1024);
+        pool.setLeakDetection(true);
+        final List<Throwable> leaks = new ArrayList<>();
+        pool.setLeakListener(new DirectBufferPool.LeakListener() {
+            @Override
+            public void onLeak(Throwable acquiredAt) {
+                leaks.add(acquiredAt);
+            }
+        });
+        pool.acquire(128).release();
+        acquireAndForget(pool);
+        for (int i = 0; i < 50 && pool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(1, pool.getLeakCount());
+        assertEquals(1, leaks.size());
+        assertEquals(0, pool.getOutstandingCount());
+        //调用栈指向取出缓冲区的位置
+        boolean found = false;
+        for (StackTraceElement element : leaks.get(0).getStackTrace()) {
+            found |= "acquireAndForget".equals(element.getMethodName());
+        }
+        assertTrue(found);
+    }
+
+    private static void acquireAndForget(DirectBufferPool pool) {
+        pool.acquire(256).getBuffer().put(0, (byte) 1);
+    }
+}
@@ -0,0 +1,135 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ExifWriterTest {
+
+    //没有EXIF的JFIF图片
+    private static final String PLAIN_JFIF = "/jpeg/plain_jfif.jpg";
+    //带有EXIF（小端、Exif IFD、IFD1缩略图）的相机图片
+    private static final String CAMERA_EXIF = "/jpeg/camera_exif_le.jpg";
+
+    static byte[] readFixture(String name) throws IOException {
+        InputStream in = ExifWriterTest.class.getResourceAsStream(name);
+        assertNotNull("missing fixture " + name, in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 图片数据（第一个非APPn段开始）的偏移
+     */
+    private static int imageDataOffset(byte[] jpeg) {
+        int offset = 2;
+        while (true) {
+            int marker = jpeg[offset + 1] & 0xFF;
+            if ((marker < 0xE0 || marker > 0xEF) && marker != 0xFE) {
+                return offset;
+            }
+            offset += 2 + (((jpeg[offset + 2] & 0xFF) << 8) | (jpeg[offset + 3] & 0xFF));
+        }
+    }
+
+    private static void assertSameImageData(byte[] expected, byte[] actual) {
+        byte[] a = Arrays.copyOfRange(expected, imageDataOffset(expected), expected.length);
+        byte[] b = Arrays.copyOfRange(actual, imageDataOffset(actual), actual.length);
+        assertArrayEquals("image data changed", a, b);
+    }
+
+    @Test
+    public void insert_intoPlainJfif() throws Exception {
+        byte[] jpeg = readFixture(PLAIN_JFIF);
+        assertEquals(ExifWriter.ORIENTATION_NORMAL, ExifWriter.readOrientation(jpeg));
+
+        byte[] result = new ExifWriter()
+                .setOrientation(6)
+                .setDateTime(0)
+                .setFocalLength(4.2f)
+                .write(jpeg);
+
+        assertEquals(6, ExifWriter.readOrientation(result));
+        //JFIF的APP0段仍然在最前面
+        assertEquals(0xE0, result[3] & 0xFF);
+        assertSameImageData(jpeg, result);
+
+        ExifWriter.Tiff tiff = ExifWriter.readTiff(new ByteArrayInputStream(result));
+        assertNotNull(tiff.mExif);
+        assertEquals(20, tiff.mIfd0.get(ExifWriter.TAG_DATETIME).mCount);
+        assertEquals(tiff.mIfd0.get(ExifWriter.TAG_DATETIME).getString(),
+                tiff.mExif.get(ExifWriter.TAG_DATETIME_ORIGINAL).getString());
+        assertNotNull(tiff.mExif.get(ExifWriter.TAG_FOCAL_LENGTH));
+    }
+
+    @Test
+    public void patch_existingOrientationInPlace() throws Exception {
+        byte[] jpeg = readFixture(CAMERA_EXIF);
+        assertEquals(1, ExifWriter.readOrientation(jpeg));
+
+        byte[] result = new ExifWriter().setOrientation(8).write(jpeg);
+
+        //原地修改，长度不变，只有方向的值改变
+        assertEquals(jpeg.length, result.length);
+        assertEquals(8, ExifWriter.readOrientation(result));
+        int diff = 0;
+        for (int i = 0; i < jpeg.length; i++) {
+            if (jpeg[i] != result[i]) {
+                diff++;
+            }
+        }
+        assertEquals(1, diff);
+    }
+
+    @Test
+    public void rebuild_keepsExistingTagsAndThumbnail() throws Exception {
+        byte[] jpeg = readFixture(CAMERA_EXIF);
+        ExifWriter.Tiff original = ExifWriter.readTiff(new ByteArrayInputStream(jpeg));
+
+        byte[] result = new ExifWriter()
+                .setOrientation(3)
+                .setImageSize(24, 16)
+                .setModel("A much longer model name")
+                .write(jpeg);
+
+        ExifWriter.Tiff tiff = ExifWriter.readTiff(new ByteArrayInputStream(result));
+        assertEquals(ByteOrder.LITTLE_ENDIAN, tiff.mOrder);
+        assertEquals(3, ExifWriter.readOrientation(result));
+        assertEquals("FixtureCam", tiff.mIfd0.get(ExifWriter.TAG_MAKE).getString());
+        assertEquals("A much longer model name", tiff.mIfd0.get(ExifWriter.TAG_MODEL).getString());
+        assertEquals("2017:11:20 10:00:00", tiff.mExif.get(ExifWriter.TAG_DATETIME_ORIGINAL).getString());
+        assertEquals(24, tiff.mExif.get(ExifWriter.TAG_PIXEL_X_DIMENSION).getLong(tiff.mOrder, 0));
+        assertArrayEquals(original.mThumbnail, tiff.mThumbnail);
+        assertSameImageData(jpeg, result);
+    }
+
+    @Test
+    public void streamAndArrayOutputsMatch() throws Exception {
+        byte[] jpeg = readFixture(CAMERA_EXIF);
+        ExifWriter writer = new ExifWriter().setOrientation(5).setIso(400);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(new ByteArrayInputStream(jpeg), out);
+        assertArrayEquals(writer.write(jpeg), out.toByteArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void notJpeg_isRejected() throws Exception {
+        new ExifWriter().setOrientation(6).write(new byte[]{1, 2, 3, 4});
+    }
+}
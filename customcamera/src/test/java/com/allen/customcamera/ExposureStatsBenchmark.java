@@ -0,0 +1,97 @@
+package com.allen.customcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1080p预览帧亮度统计的JMH基准测试，单线程，每帧的耗时要小于1ms：
+ * 静止的画面、每帧所有采样点都变化（最坏情况）、第一帧的完整统计，以及不采样逐个像素统计的对比
+ * 在IDE中直接运行main方法（使用单元测试的classpath）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExposureStatsBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    @Param({"8192", "65536"})
+    public int mSampleBudget;
+
+    //两帧所有像素都不同，交替输入时每个采样点都要更新
+    private byte[][] mFrames;
+    private int mNext;
+    private ExposureStats mStats;
+    private ExposureStats mFullStats;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mFrames = new byte[2][PreviewBufferPool.getFrameSize(WIDTH, HEIGHT)];
+        random.nextBytes(mFrames[0]);
+        for (int i = 0; i < mFrames[0].length; i++) {
+            mFrames[1][i] = (byte) (mFrames[0][i] ^ 0x55);
+        }
+        mStats = new ExposureStats(ExposureStats.DEFAULT_GRID, ExposureStats.DEFAULT_GRID, mSampleBudget);
+        mStats.update(mFrames[0], WIDTH, HEIGHT);
+        mFullStats = new ExposureStats(ExposureStats.DEFAULT_GRID, ExposureStats.DEFAULT_GRID, WIDTH * HEIGHT);
+        mFullStats.update(mFrames[0], WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public int staticScene() {
+        mStats.update(mFrames[0], WIDTH, HEIGHT);
+        return mStats.getChangedCount();
+    }
+
+    @Benchmark
+    public int everySampleChanged() {
+        mNext ^= 1;
+        mStats.update(mFrames[mNext], WIDTH, HEIGHT);
+        return mStats.getChangedCount();
+    }
+
+    /**
+     * 尺寸变化时的完整统计
+     */
+    @Benchmark
+    public int fullRecompute() {
+        ExposureStats stats = new ExposureStats(ExposureStats.DEFAULT_GRID, ExposureStats.DEFAULT_GRID, mSampleBudget);
+        stats.update(mFrames[0], WIDTH, HEIGHT);
+        return stats.getSampleCount();
+    }
+
+    /**
+     * 不采样，逐个像素增量统计
+     */
+    @Benchmark
+    public int everyPixelChanged() {
+        mNext ^= 1;
+        mFullStats.update(mFrames[mNext], WIDTH, HEIGHT);
+        return mFullStats.getChangedCount();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ExposureStatsBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
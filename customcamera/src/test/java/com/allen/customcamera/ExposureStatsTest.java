@@ -0,0 +1,165 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 亮度统计：采样预算、增量更新和完整统计的结果一致、过曝欠曝比例、分区亮度、测光分区的选择
+ */
+public class ExposureStatsTest {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    private static byte[] frame(int width, int height, int luma) {
+        byte[] nv21 = new byte[PreviewBufferPool.getFrameSize(width, height)];
+        Arrays.fill(nv21, (byte) luma);
+        return nv21;
+    }
+
+    /**
+     * 把预览帧中一个矩形区域的亮度改成luma
+     */
+    private static void fillRect(byte[] nv21, int width, int left, int top, int right, int bottom, int luma) {
+        for (int y = top; y < bottom; y++) {
+            Arrays.fill(nv21, y * width + left, y * width + right, (byte) luma);
+        }
+    }
+
+    private static void assertSameStats(ExposureStats expected, ExposureStats actual) {
+        int[] expectedHistogram = new int[256];
+        int[] actualHistogram = new int[256];
+        expected.getHistogram(expectedHistogram);
+        actual.getHistogram(actualHistogram);
+        assertArrayEquals(expectedHistogram, actualHistogram);
+        assertEquals(expected.getMean(), actual.getMean(), 1e-3);
+        assertEquals(expected.getClippedLowRatio(), actual.getClippedLowRatio(), 1e-6);
+        assertEquals(expected.getClippedHighRatio(), actual.getClippedHighRatio(), 1e-6);
+        for (int row = 0; row < expected.getRows(); row++) {
+            for (int column = 0; column < expected.getColumns(); column++) {
+                assertEquals(expected.getZoneMean(column, row), actual.getZoneMean(column, row), 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void sampling_staysWithinBudget() {
+        ExposureStats stats = new ExposureStats();
+        stats.update(frame(WIDTH, HEIGHT, 100), WIDTH, HEIGHT);
+        assertTrue(stats.getSampleCount() <= ExposureStats.DEFAULT_SAMPLE_BUDGET);
+        assertTrue(stats.getSampleCount() > ExposureStats.DEFAULT_SAMPLE_BUDGET / 2);
+        assertEquals(16, stats.getStride());
+        int[] histogram = new int[256];
+        stats.getHistogram(histogram);
+        assertEquals(stats.getSampleCount(), histogram[100]);
+        assertEquals(100, stats.getMean(), 1e-3);
+
+        //预算足够时逐个像素统计
+        ExposureStats full = new ExposureStats(2, 2, 64 * 48);
+        full.update(frame(64, 48, 7), 64, 48);
+        assertEquals(1, full.getStride());
+        assertEquals(64 * 48, full.getSampleCount());
+    }
+
+    @Test
+    public void incrementalUpdate_matchesFullRecompute() {
+        Random random = new Random(5);
+        byte[] nv21 = new byte[PreviewBufferPool.getFrameSize(640, 480)];
+        random.nextBytes(nv21);
+        ExposureStats incremental = new ExposureStats(4, 3, 4096);
+        incremental.update(nv21, 640, 480);
+        for (int i = 0; i < 20; i++) {
+            //每帧随机修改一部分像素
+            for (int j = 0; j < 5000; j++) {
+                nv21[random.nextInt(640 * 480)] = (byte) random.nextInt(256);
+            }
+            fillRect(nv21, 640, random.nextInt(320), random.nextInt(240), 320 + random.nextInt(320),
+                    240 + random.nextInt(240), random.nextInt(256));
+            incremental.update(nv21, 640, 480);
+            ExposureStats full = new ExposureStats(4, 3, 4096);
+            full.update(nv21, 640, 480);
+            assertSameStats(full, incremental);
+        }
+    }
+
+    @Test
+    public void staticScene_changesNoSamples() {
+        byte[] nv21 = frame(WIDTH, HEIGHT, 80);
+        ExposureStats stats = new ExposureStats();
+        stats.update(nv21, WIDTH, HEIGHT);
+        assertEquals(stats.getSampleCount(), stats.getChangedCount());
+        stats.update(nv21, WIDTH, HEIGHT);
+        assertEquals(0, stats.getChangedCount());
+        //只有左上角变化
+        fillRect(nv21, WIDTH, 0, 0, 160, 160, 200);
+        stats.update(nv21, WIDTH, HEIGHT);
+        assertEquals(100, stats.getChangedCount());
+        assertEquals(3, stats.getFrameCount());
+    }
+
+    @Test
+    public void clippedRatiosAndPercentiles() {
+        byte[] nv21 = frame(WIDTH, HEIGHT, 120);
+        //上面1/4过曝，下面1/4欠曝
+        fillRect(nv21, WIDTH, 0, 0, WIDTH, HEIGHT / 4, 255);
+        fillRect(nv21, WIDTH, 0, HEIGHT * 3 / 4, WIDTH, HEIGHT, 0);
+        ExposureStats stats = new ExposureStats();
+        stats.update(nv21, WIDTH, HEIGHT);
+        assertEquals(0.25, stats.getClippedHighRatio(), 0.02);
+        assertEquals(0.25, stats.getClippedLowRatio(), 0.02);
+        assertEquals(0, stats.getPercentile(10));
+        assertEquals(120, stats.getPercentile(50));
+        assertEquals(255, stats.getPercentile(90));
+
+        //放宽阈值后重新统计
+        stats.setClipThresholds(0, 255);
+        stats.update(nv21, WIDTH, HEIGHT);
+        assertEquals(0.25, stats.getClippedHighRatio(), 0.02);
+        stats.setClipThresholds(130, 200);
+        stats.update(nv21, WIDTH, HEIGHT);
+        assertEquals(0.75, stats.getClippedLowRatio(), 0.02);
+    }
+
+    @Test
+    public void zoneMeans_followTheGrid() {
+        byte[] nv21 = frame(WIDTH, HEIGHT, 50);
+        //右下角的分区
+        fillRect(nv21, WIDTH, WIDTH * 3 / 4, HEIGHT / 2, WIDTH, HEIGHT, 210);
+        ExposureStats stats = new ExposureStats(4, 2, ExposureStats.DEFAULT_SAMPLE_BUDGET);
+        stats.update(nv21, WIDTH, HEIGHT);
+        assertEquals(210, stats.getZoneMean(3, 1), 1e-3);
+        assertEquals(50, stats.getZoneMean(2, 1), 1e-3);
+        assertEquals(50, stats.getZoneMean(3, 0), 1e-3);
+        assertEquals(0.875f, stats.getZoneCenterX(7), 1e-6);
+        assertEquals(0.75f, stats.getZoneCenterY(7), 1e-6);
+    }
+
+    @Test
+    public void metering_usesCenterUnlessClipped() {
+        ExposureStats stats = new ExposureStats();
+        assertEquals(-1, stats.selectMeteringZone(-1));
+        byte[] nv21 = frame(WIDTH, HEIGHT, 90);
+        stats.update(nv21, WIDTH, HEIGHT);
+        assertEquals(stats.getCenterZone(), stats.selectMeteringZone(-1));
+
+        //逆光：除了左下角的分区都过曝
+        Arrays.fill(nv21, 0, WIDTH * HEIGHT, (byte) 255);
+        fillRect(nv21, WIDTH, 0, HEIGHT * 4 / 5, WIDTH / 5, HEIGHT, 110);
+        stats.update(nv21, WIDTH, HEIGHT);
+        int zone = stats.selectMeteringZone(stats.getCenterZone());
+        assertEquals(20, zone);
+
+        //亮度相近的分区不会让测光区域来回切换
+        fillRect(nv21, WIDTH, WIDTH * 4 / 5, HEIGHT * 4 / 5, WIDTH, HEIGHT, 114);
+        stats.update(nv21, WIDTH, HEIGHT);
+        assertEquals(zone, stats.selectMeteringZone(zone));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortFrame_isRejected() {
+        new ExposureStats().update(new byte[100], 640, 480);
+    }
+}
@@ -0,0 +1,286 @@
+package com.allen.customcamera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * 模拟相机：预览帧的帧率和缓冲区复用、拍照，以及驱动预览帧和拍照流程
+ */
+public class FakeCameraBackendTest {
+    private static final CameraSize PREVIEW_SIZE = new CameraSize(640, 480);
+    private static final CameraSize PICTURE_SIZE = new CameraSize(1920, 1080);
+
+    //代替相机线程
+    private ExecutorService mCameraThread;
+    private FakeCameraBackend mBackend;
+
+    @Before
+    public void setUp() throws IOException {
+        mCameraThread = Executors.newSingleThreadExecutor();
+        mBackend = new FakeCameraBackend(FakeCameraBackend.defaultCameras(), 100);
+        CameraCapabilities camera = mBackend.open(0, mCameraThread);
+        assertEquals(CameraCapabilities.FACING_BACK, camera.getFacing());
+        mBackend.configure(PREVIEW_SIZE, PICTURE_SIZE, 90);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mBackend.close();
+        mCameraThread.shutdown();
+        assertTrue(mCameraThread.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void returnedBuffers_areReused() throws InterruptedException {
+        final CountDownLatch frames = new CountDownLatch(30);
+        final AtomicReference<String> error = new AtomicReference<>();
+        mBackend.setFrameCallback(new CameraBackend.FrameCallback() {
+            @Override
+            public void onPreviewFrame(byte[] data) {
+                //亮度按行递增，色度为灰色
+                if ((byte) (data[PREVIEW_SIZE.width] - data[0]) != 1 || data[data.length - 1] != (byte) 128) {
+                    error.set("unexpected frame content");
+                }
+                mBackend.addCallbackBuffer(data);
+                frames.countDown();
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            mBackend.addCallbackBuffer(new byte[PreviewBufferPool.getFrameSize(PREVIEW_SIZE.width, PREVIEW_SIZE.height)]);
+        }
+        mBackend.startPreview();
+        assertTrue(frames.await(5, TimeUnit.SECONDS));
+        mBackend.stopPreview();
+        assertNull(error.get());
+        assertTrue(mBackend.getDeliveredCount() >= 30);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void sameBuffer_queuedTwiceIsRejected() {
+        byte[] buffer = new byte[PreviewBufferPool.getFrameSize(PREVIEW_SIZE.width, PREVIEW_SIZE.height)];
+        mBackend.addCallbackBuffer(buffer);
+        mBackend.addCallbackBuffer(buffer);
+    }
+
+    @Test
+    public void previewProcessor_consumerChangeKeepsQueuedBuffers() throws Exception {
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final AtomicInteger frames = new AtomicInteger();
+        final PreviewBufferPool bufferPool = new PreviewBufferPool();
+        final PreviewFrameProcessor processor = new PreviewFrameProcessor(bufferPool, new CameraMetrics(), null,
+                new PreviewFrameProcessor.Host() {
+                    @Override
+                    public void onFrameDelivered() {
+                        frames.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onExposureSampled(ExposureStats stats) {
+                    }
+
+                    @Override
+                    public void onAdaptiveStepChanged() {
+                    }
+                }) {
+            @Override
+            public void onPreviewFrame(byte[] data) {
+                try {
+                    super.onPreviewFrame(data);
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            }
+        };
+        //和CameraManager一样在相机线程中设置回调
+        mCameraThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                processor.attach(mBackend, PREVIEW_SIZE.width, PREVIEW_SIZE.height);
+            }
+        }).get();
+        mBackend.startPreview();
+        waitForFrames(frames, 5);
+        //预览中加上使用者，缓冲区还在相机手上，不能再交一次
+        final ExposureStats stats = new ExposureStats();
+        assertFalse(mCameraThread.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                processor.setConsumers(null, null, stats, null, null);
+                return processor.attach(mBackend, PREVIEW_SIZE.width, PREVIEW_SIZE.height);
+            }
+        }).get());
+        waitForFrames(frames, frames.get() + 10);
+        mBackend.stopPreview();
+        assertNull(error.get());
+        assertTrue(stats.getFrameCount() > 0);
+    }
+
+    private static void waitForFrames(AtomicInteger frames, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (frames.get() < count) {
+            assertTrue("timeout waiting for " + count + " frames", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void heldBuffers_dropFrames() throws InterruptedException {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        mBackend.setFrameCallback(new CameraBackend.FrameCallback() {
+            @Override
+            public void onPreviewFrame(byte[] data) {
+                //不归还缓冲区
+                delivered.countDown();
+            }
+        });
+        mBackend.addCallbackBuffer(new byte[PreviewBufferPool.getFrameSize(PREVIEW_SIZE.width, PREVIEW_SIZE.height)]);
+        mBackend.startPreview();
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        mBackend.stopPreview();
+        assertEquals(1, mBackend.getDeliveredCount());
+        assertTrue(mBackend.getDroppedCount() > 0);
+    }
+
+    @Test
+    public void takePicture_returnsJpegOfPictureSize() throws Exception {
+        final CountDownLatch taken = new CountDownLatch(1);
+        final AtomicReference<byte[]> jpeg = new AtomicReference<>();
+        mBackend.takePicture(new CameraBackend.PictureCallback() {
+            @Override
+            public void onPictureTaken(byte[] data) {
+                jpeg.set(data);
+                taken.countDown();
+            }
+        });
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        assertArrayEquals(new int[]{PICTURE_SIZE.width, PICTURE_SIZE.height}, JpegTransformer.readSize(jpeg.get()));
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg.get()));
+        assertEquals(PICTURE_SIZE.width, image.getWidth());
+        assertEquals(PICTURE_SIZE.height, image.getHeight());
+        assertEquals(128, image.getRaster().getSample(100, 100, 0), 1);
+    }
+
+    @Test
+    public void drivesFrameAndCapturePipelines() throws Exception {
+        final PreviewBufferPool pool = new PreviewBufferPool();
+        final ZslRing ring = new ZslRing(4, PREVIEW_SIZE.width, PREVIEW_SIZE.height);
+        final CountDownLatch frames = new CountDownLatch(20);
+        pool.configure(PREVIEW_SIZE.width, PREVIEW_SIZE.height);
+        mBackend.setFrameCallback(new CameraBackend.FrameCallback() {
+            @Override
+            public void onPreviewFrame(byte[] data) {
+                //和CameraManager中的预览帧回调相同
+                if (!pool.onFrameDelivered(data)) {
+                    return;
+                }
+                ring.write(data, System.nanoTime());
+                mBackend.addCallbackBuffer(data);
+                pool.onBufferQueued();
+                frames.countDown();
+            }
+        });
+        for (int i = 0; i < pool.getBufferCount(); i++) {
+            mBackend.addCallbackBuffer(pool.getBuffer(i));
+            pool.onBufferQueued();
+        }
+        mBackend.startPreview();
+
+        //预览的同时连拍，每张图片交给流水线处理
+        final CapturePipeline pipeline = new CapturePipeline(2, 4);
+        final AtomicInteger saved = new AtomicInteger();
+        final CapturePipeline.Stage stage = new CapturePipeline.Stage() {
+            @Override
+            public File process(byte[] jpeg, int index) throws IOException {
+                JpegTransformer.readSize(jpeg);
+                return new File("shot" + index);
+            }
+        };
+        final CapturePipeline.Listener listener = new CapturePipeline.Listener() {
+            @Override
+            public void onSaved(int index, File file, long latencyNanos) {
+                saved.incrementAndGet();
+            }
+
+            @Override
+            public void onFailed(int index, IOException e) {
+            }
+        };
+        final CountDownLatch shots = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            final int index = i;
+            final long shutterNanos = System.nanoTime();
+            mBackend.takePicture(new CameraBackend.PictureCallback() {
+                @Override
+                public void onPictureTaken(byte[] data) {
+                    try {
+                        pipeline.submit(data, index, shutterNanos, stage, listener);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    shots.countDown();
+                }
+            });
+        }
+        assertTrue(shots.await(5, TimeUnit.SECONDS));
+        assertTrue(frames.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.awaitIdle(5, TimeUnit.SECONDS));
+        mBackend.stopPreview();
+        pipeline.shutdown();
+
+        assertEquals(10, saved.get());
+        assertEquals(10, mBackend.getPictureCount());
+        assertTrue(pool.getFrameCount() >= 20);
+        assertTrue(ring.getWrittenCount() >= 20);
+        int slot = ring.acquireClosest(System.nanoTime());
+        assertTrue(slot >= 0);
+        ring.release(slot);
+    }
+
+    @Test
+    public void fpsRange_takesEffectOnCommit() {
+        assertEquals(100000, mBackend.getMaxPreviewFps());
+        mBackend.setPreviewFpsRange(15000, 15000);
+        assertEquals(100000, mBackend.getMaxPreviewFps());
+        mBackend.commitSettings();
+        assertEquals(15000, mBackend.getMaxPreviewFps());
+    }
+
+    @Test
+    public void zoomAndFocus_commitTogether() throws InterruptedException {
+        mBackend.setZoom(5);
+        mBackend.setFocusArea(10, 10, 1920, 1080);
+        assertEquals(0, mBackend.getCommittedZoom());
+        mBackend.commitSettings();
+        assertEquals(5, mBackend.getCommittedZoom());
+        assertEquals(1, mBackend.getCommitCount());
+
+        final CountDownLatch focused = new CountDownLatch(1);
+        mBackend.autoFocus(new CameraBackend.FocusCallback() {
+            @Override
+            public void onAutoFocus(boolean success) {
+                if (success) {
+                    focused.countDown();
+                }
+            }
+        });
+        assertTrue(focused.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,275 @@
+package com.allen.customcamera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 预览帧分析流水线：用录制好的一组帧驱动，检查共享缓冲区、丢弃最旧帧、阶段串联和统计
+ */
+public class FramePipelineTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private List<byte[]> mRecording;
+    private FramePipeline mPipeline;
+
+    @Before
+    public void setUp() {
+        //录制的帧：每一帧的亮度都等于帧序号
+        mRecording = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] frame = new byte[PreviewBufferPool.getFrameSize(WIDTH, HEIGHT)];
+            Arrays.fill(frame, 0, WIDTH * HEIGHT, (byte) i);
+            Arrays.fill(frame, WIDTH * HEIGHT, frame.length, (byte) 128);
+            mRecording.add(frame);
+        }
+        mPipeline = new FramePipeline();
+    }
+
+    @After
+    public void tearDown() {
+        mPipeline.shutdown();
+    }
+
+    private void replay(int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(mPipeline.submit(mRecording.get(i), WIDTH, HEIGHT, i * 33000000L));
+        }
+    }
+
+    @Test
+    public void stages_shareOneReadOnlyBuffer() throws InterruptedException {
+        final Map<Long, byte[]> exposureFrames = new ConcurrentHashMap<>();
+        final Map<Long, byte[]> motionFrames = new ConcurrentHashMap<>();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        mPipeline.addStage("exposure", new FramePipeline.Analyzer() {
+            @Override
+            public boolean analyze(FramePipeline.Frame frame) {
+                exposureFrames.put(frame.getSequence(), frame.getData());
+                if (frame.getData()[0] != (byte) frame.getSequence()) {
+                    errors.add("exposure " + frame.getSequence());
+                }
+                return true;
+            }
+        }, 32);
+        mPipeline.addStage("motion", new FramePipeline.Analyzer() {
+            @Override
+            public boolean analyze(FramePipeline.Frame frame) {
+                motionFrames.put(frame.getSequence(), frame.getData());
+                if (frame.getData()[WIDTH * HEIGHT - 1] != (byte) frame.getSequence()) {
+                    errors.add("motion " + frame.getSequence());
+                }
+                return true;
+            }
+        }, 32);
+        replay(20);
+        assertTrue(mPipeline.awaitIdle(5, TimeUnit.SECONDS));
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(20, exposureFrames.size());
+        assertEquals(20, motionFrames.size());
+        for (long i = 0; i < 20; i++) {
+            //两个阶段拿到的是同一个数组，没有复制
+            assertSame(exposureFrames.get(i), motionFrames.get(i));
+        }
+        //所有帧都回到了缓冲池
+        assertEquals(mPipeline.getAllocatedFrameCount(), mPipeline.getFreeFrameCount());
+        assertTrue(mPipeline.getAllocatedFrameCount() <= 1 + 33 + 33);
+        assertEquals(20, mPipeline.getSubmittedCount());
+    }
+
+    @Test
+    public void slowStage_dropsOldestFrames() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Long> slowFrames = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Long> fastFrames = Collections.synchronizedList(new ArrayList<Long>());
+        FramePipeline.Stage slow = mPipeline.addStage("document", new FramePipeline.Analyzer() {
+            @Override
+            public boolean analyze(FramePipeline.Frame frame) {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                slowFrames.add(frame.getSequence());
+                return true;
+            }
+        }, 2);
+        FramePipeline.Stage fast = mPipeline.addStage("exposure", new FramePipeline.Analyzer() {
+            @Override
+            public boolean analyze(FramePipeline.Frame frame) {
+                fastFrames.add(frame.getSequence());
+                return true;
+            }
+        }, 16);
+        replay(1);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        //第一帧还在处理，之后的帧只保留最新的两帧
+        for (int i = 1; i < 10; i++) {
+            assertTrue(mPipeline.submit(mRecording.get(i), WIDTH, HEIGHT, i));
+        }
+        assertEquals(2, slow.getQueueSize());
+        gate.countDown();
+        assertTrue(mPipeline.awaitIdle(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(0L, 8L, 9L), slowFrames);
+        assertEquals(7, slow.getDroppedCount());
+        assertEquals(10, slow.getReceivedCount());
+        assertEquals(3, slow.getProcessedCount());
+        //慢的阶段不影响其他阶段
+        assertEquals(10, fastFrames.size());
+        assertEquals(0, fast.getDroppedCount());
+        assertEquals(mPipeline.getAllocatedFrameCount(), mPipeline.getFreeFrameCount());
+    }
+
+    @Test
+    public void chainedStages_receiveForwardedFramesOnly() throws InterruptedException {
+        ExecutorService shared = Executors.newFixedThreadPool(2);
+        try {
+            final List<Long> detected = Collections.synchronizedList(new ArrayList<Long>());
+            FramePipeline.Stage motion = mPipeline.addStage(null, "motion", new FramePipeline.Analyzer() {
+                @Override
+                public boolean analyze(FramePipeline.Frame frame) {
+                    //只有“静止”的帧交给文档检测
+                    return frame.getSequence() % 2 == 0;
+                }
+            }, 32, shared);
+            FramePipeline.Stage document = mPipeline.addStage(motion, "document", new FramePipeline.Analyzer() {
+                @Override
+                public boolean analyze(FramePipeline.Frame frame) {
+                    detected.add(frame.getSequence());
+                    return false;
+                }
+            }, 32, shared);
+            replay(20);
+            assertTrue(mPipeline.awaitIdle(5, TimeUnit.SECONDS));
+
+            //同一个阶段即使在共享的线程池中也按顺序执行
+            List<Long> expected = new ArrayList<>();
+            for (long i = 0; i < 20; i += 2) {
+                expected.add(i);
+            }
+            assertEquals(expected, detected);
+            assertEquals(20, motion.getProcessedCount());
+            assertEquals(10, document.getReceivedCount());
+            assertEquals(20, motion.getProcessLatency().getCount());
+            assertEquals(20, motion.getQueueLatency().getCount());
+            assertTrue(motion.getThroughput() > 0);
+        } finally {
+            shared.shutdown();
+        }
+    }
+
+    @Test
+    public void failingAnalyzer_isCountedAndFrameReleased() throws InterruptedException {
+        FramePipeline.Stage stage = mPipeline.addStage("broken", new FramePipeline.Analyzer() {
+            @Override
+            public boolean analyze(FramePipeline.Frame frame) {
+                throw new IllegalStateException("analyzer failed");
+            }
+        }, 4);
+        replay(3);
+        assertTrue(mPipeline.awaitIdle(5, TimeUnit.SECONDS));
+        assertEquals(3, stage.getFailedCount());
+        assertEquals(3, stage.getProcessedCount());
+        assertEquals(mPipeline.getAllocatedFrameCount(), mPipeline.getFreeFrameCount());
+    }
+
+    @Test
+    public void retainedFrames_boundMemory() throws InterruptedException {
+        final List<FramePipeline.Frame> retained = Collections.synchronizedList(new ArrayList<FramePipeline.Frame>());
+        mPipeline.addStage("history", new FramePipeline.Analyzer() {
+            @Override
+            public boolean analyze(FramePipeline.Frame frame) {
+                //保留所有帧，例如和之前的帧做比较
+                frame.retain();
+                retained.add(frame);
+                return true;
+            }
+        }, 1);
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (mPipeline.submit(mRecording.get(i), WIDTH, HEIGHT, i)) {
+                accepted++;
+            }
+            assertTrue(mPipeline.awaitIdle(5, TimeUnit.SECONDS));
+        }
+        //缓冲池最多1 + (1 + 1)帧，耗尽后新的帧被拒绝，不会无限分配
+        assertEquals(3, accepted);
+        assertEquals(7, mPipeline.getRejectedCount());
+        assertEquals(3, mPipeline.getAllocatedFrameCount());
+
+        for (FramePipeline.Frame frame : retained) {
+            frame.release();
+        }
+        assertEquals(3, mPipeline.getFreeFrameCount());
+        assertTrue(mPipeline.submit(mRecording.get(0), WIDTH, HEIGHT, 0));
+    }
+
+    @Test
+    public void sizeChange_replacesPooledFrames() throws InterruptedException {
+        mPipeline.addStage("exposure", new FramePipeline.Analyzer() {
+            @Override
+            public boolean analyze(FramePipeline.Frame frame) {
+                return true;
+            }
+        }, 4);
+        replay(5);
+        assertTrue(mPipeline.awaitIdle(5, TimeUnit.SECONDS));
+        byte[] small = new byte[PreviewBufferPool.getFrameSize(32, 24)];
+        for (int i = 0; i < 5; i++) {
+            assertTrue(mPipeline.submit(small, 32, 24, i));
+            assertTrue(mPipeline.awaitIdle(5, TimeUnit.SECONDS));
+        }
+        //旧尺寸的Frame被丢弃，只剩下一个新尺寸的
+        assertEquals(1, mPipeline.getAllocatedFrameCount());
+    }
+
+    @Test
+    public void shutdown_rejectsFrames() {
+        mPipeline.addStage("exposure", new FramePipeline.Analyzer() {
+            @Override
+            public boolean analyze(FramePipeline.Frame frame) {
+                return true;
+            }
+        }, 4);
+        mPipeline.shutdown();
+        assertFalse(mPipeline.submit(mRecording.get(0), WIDTH, HEIGHT, 0));
+        assertTrue(mPipeline.isShutdown());
+    }
+
+    @Test
+    public void rejectedExecution_releasesQueuedFrames() throws InterruptedException {
+        //和流水线同时关闭时Executor拒绝执行，不能在相机线程中抛出异常
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        FramePipeline.Stage stage = mPipeline.addStage(null, "exposure", new FramePipeline.Analyzer() {
+            @Override
+            public boolean analyze(FramePipeline.Frame frame) {
+                return true;
+            }
+        }, 4, executor);
+        replay(3);
+        assertTrue(mPipeline.awaitIdle(1, TimeUnit.SECONDS));
+        assertEquals(0, stage.getQueueSize());
+        assertEquals(0, stage.getProcessedCount());
+        //所有的Frame都回到了缓冲池
+        assertEquals(mPipeline.getAllocatedFrameCount(), mPipeline.getFreeFrameCount());
+    }
+}
@@ -0,0 +1,188 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import static org.junit.Assert.*;
+
+public class JpegTransformerTest {
+
+    /**
+     * 生成测试用的JPEG，ImageIO默认使用4:2:0采样
+     */
+    private static byte[] createJpeg(int width, int height, int type, boolean progressive) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / width;
+                int g = y * 255 / height;
+                int b = ((x / 8 + y / 8) & 1) * 200;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.9f);
+        if (progressive) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out);
+        writer.setOutput(stream);
+        writer.write(null, new IIOImage(image, null, null), param);
+        stream.close();
+        writer.dispose();
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull("output is not a valid jpeg", image);
+        return image;
+    }
+
+    /**
+     * 转换后的坐标(x, y)对应原图中的坐标
+     */
+    private static int[] sourcePoint(JpegTransformer.Transform transform, int x, int y, int width, int height) {
+        int sx = transform.mTranspose ? y : x;
+        int sy = transform.mTranspose ? x : y;
+        if (transform.mFlipX) {
+            sx = width - 1 - sx;
+        }
+        if (transform.mFlipY) {
+            sy = height - 1 - sy;
+        }
+        return new int[]{sx, sy};
+    }
+
+    /**
+     * 转换结果与在像素上做同样变换的原图逐像素比较，只允许IDCT舍入造成的微小误差
+     * 裁剪后边缘的色度上采样会用到不同的相邻像素，最大误差不统计边缘两个像素
+     */
+    private static void assertTransformed(byte[] jpeg, JpegTransformer.Transform transform) throws IOException {
+        BufferedImage source = decode(jpeg);
+        BufferedImage result = decode(JpegTransformer.transform(jpeg, transform));
+        int width = transform.mTranspose ? result.getHeight() : result.getWidth();
+        int height = transform.mTranspose ? result.getWidth() : result.getHeight();
+        long total = 0;
+        int max = 0;
+        for (int y = 0; y < result.getHeight(); y++) {
+            for (int x = 0; x < result.getWidth(); x++) {
+                int[] point = sourcePoint(transform, x, y, width, height);
+                int a = source.getRGB(point[0], point[1]);
+                int b = result.getRGB(x, y);
+                boolean edge = x < 2 || y < 2 || x >= result.getWidth() - 2 || y >= result.getHeight() - 2;
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int diff = Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF));
+                    total += diff;
+                    if (!edge) {
+                        max = Math.max(max, diff);
+                    }
+                }
+            }
+        }
+        double mean = (double) total / (result.getWidth() * result.getHeight() * 3);
+        assertTrue(transform + " mean error " + mean, mean < 1.0);
+        assertTrue(transform + " max error " + max, max <= 12);
+    }
+
+    @Test
+    public void transform_matchesPixelTransform() throws Exception {
+        byte[] jpeg = createJpeg(64, 48, BufferedImage.TYPE_INT_RGB, false);
+        for (JpegTransformer.Transform transform : JpegTransformer.Transform.values()) {
+            assertTransformed(jpeg, transform);
+        }
+    }
+
+    @Test
+    public void transform_grayscale() throws Exception {
+        byte[] jpeg = createJpeg(40, 24, BufferedImage.TYPE_BYTE_GRAY, false);
+        for (JpegTransformer.Transform transform : JpegTransformer.Transform.values()) {
+            assertTransformed(jpeg, transform);
+        }
+    }
+
+    @Test
+    public void transform_trimsPartialMcu() throws Exception {
+        //4:2:0的MCU是16x16
+        byte[] jpeg = createJpeg(70, 45, BufferedImage.TYPE_INT_RGB, false);
+
+        BufferedImage rotated = decode(JpegTransformer.transform(jpeg, JpegTransformer.Transform.ROTATE_90));
+        assertEquals(32, rotated.getWidth());
+        assertEquals(70, rotated.getHeight());
+
+        BufferedImage rotated180 = decode(JpegTransformer.transform(jpeg, JpegTransformer.Transform.ROTATE_180));
+        assertEquals(64, rotated180.getWidth());
+        assertEquals(32, rotated180.getHeight());
+
+        //不需要翻转的方向保留全部像素
+        BufferedImage transposed = decode(JpegTransformer.transform(jpeg, JpegTransformer.Transform.TRANSPOSE));
+        assertEquals(45, transposed.getWidth());
+        assertEquals(70, transposed.getHeight());
+
+        for (JpegTransformer.Transform transform : JpegTransformer.Transform.values()) {
+            assertTransformed(jpeg, transform);
+        }
+    }
+
+    @Test
+    public void transform_isLossless() throws Exception {
+        byte[] jpeg = createJpeg(64, 48, BufferedImage.TYPE_INT_RGB, false);
+        byte[] expected = JpegTransformer.transform(jpeg, JpegTransformer.Transform.NONE);
+        byte[] rotated = jpeg;
+        for (int i = 0; i < 4; i++) {
+            rotated = JpegTransformer.transform(rotated, JpegTransformer.Transform.ROTATE_90);
+        }
+        assertArrayEquals(expected, rotated);
+        byte[] mirrored = JpegTransformer.transform(
+                JpegTransformer.transform(jpeg, JpegTransformer.Transform.FLIP_HORIZONTAL),
+                JpegTransformer.Transform.FLIP_HORIZONTAL);
+        assertArrayEquals(expected, mirrored);
+    }
+
+    @Test
+    public void transform_keepsExif() throws Exception {
+        byte[] jpeg = ExifWriterTest.readFixture("/jpeg/camera_exif_le.jpg");
+        byte[] rotated = JpegTransformer.transform(jpeg, JpegTransformer.Transform.ROTATE_270);
+        ExifWriter.Tiff tiff = ExifWriter.readTiff(new ByteArrayInputStream(rotated));
+        assertNotNull(tiff);
+        assertEquals("FixtureCam", tiff.mIfd0.get(ExifWriter.TAG_MAKE).getString());
+        assertEquals(ExifWriter.ORIENTATION_NORMAL, ExifWriter.readOrientation(rotated));
+        decode(rotated);
+    }
+
+    @Test
+    public void transform_rejectsProgressive() throws Exception {
+        byte[] jpeg = createJpeg(32, 32, BufferedImage.TYPE_INT_RGB, true);
+        try {
+            JpegTransformer.transform(jpeg, JpegTransformer.Transform.ROTATE_90);
+            fail("progressive jpeg should be rejected");
+        } catch (IOException expected) {
+            //不支持渐进式JPEG
+        }
+    }
+
+    @Test
+    public void fromExifOrientation() {
+        assertEquals(JpegTransformer.Transform.NONE, JpegTransformer.Transform.fromExifOrientation(1));
+        assertEquals(JpegTransformer.Transform.ROTATE_90, JpegTransformer.Transform.fromExifOrientation(6));
+        assertEquals(JpegTransformer.Transform.ROTATE_180, JpegTransformer.Transform.fromExifOrientation(3));
+        assertEquals(JpegTransformer.Transform.ROTATE_270, JpegTransformer.Transform.fromExifOrientation(8));
+        assertEquals(JpegTransformer.Transform.TRANSVERSE, JpegTransformer.Transform.fromExifOrientation(7));
+        assertEquals(JpegTransformer.Transform.NONE, JpegTransformer.Transform.fromExifOrientation(0));
+    }
+}
@@ -0,0 +1,79 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 耗时直方图的分桶精度、百分位数和并发记录
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverRangeWithBoundedError() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            int bucket = LatencyHistogram.getBucket(value);
+            long upper = LatencyHistogram.getBucketUpperBound(bucket);
+            assertTrue(value + " > " + upper, value <= upper);
+            //上界和值的相对误差不超过1/16
+            assertTrue(value + " vs " + upper, (double) (upper - value) <= value / 16.0 + 1);
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.getBucketUpperBound(bucket - 1));
+            }
+        }
+        assertEquals(959, LatencyHistogram.getBucket(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getBucketUpperBound(959));
+    }
+
+    @Test
+    public void percentiles_ofUniformValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+        histogram.record(-5);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1001, snapshot.getCount());
+        assertEquals(1000000000L, snapshot.getMax());
+        assertEquals(500, snapshot.getPercentile(50) / 1000000, 500 / 16);
+        assertEquals(990, snapshot.getPercentile(99) / 1000000, 990 / 16);
+        assertEquals(1000000000L, snapshot.getPercentile(100));
+        assertEquals(0, snapshot.getPercentile(0));
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getPercentile(50));
+    }
+
+    @Test
+    public void concurrentRecording_countsEverything() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50000; i++) {
+                        histogram.record(i + offset);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        //记录的同时读取快照，不会阻塞
+        for (int i = 0; i < 100; i++) {
+            assertTrue(histogram.snapshot().getCount() <= 200000);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(200000, snapshot.getCount());
+        assertEquals(50002, snapshot.getMax());
+    }
+}
@@ -0,0 +1,109 @@
+package com.allen.customcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1080p预览帧亮度金字塔的JMH基准测试：
+ * 计算1/2、全部三级，以及三个分析各自从Y平面缩小到1/8和共享一个金字塔的对比
+ * 在IDE中直接运行main方法（使用单元测试的classpath）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LumaPyramidBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    //模拟的分析个数
+    private static final int CONSUMERS = 3;
+
+    private byte[] mFrame;
+    private LumaPyramid mPyramid;
+    private byte[] mScratch;
+
+    @Setup
+    public void setUp() {
+        mFrame = new byte[PreviewBufferPool.getFrameSize(WIDTH, HEIGHT)];
+        new Random(42).nextBytes(mFrame);
+        mPyramid = new LumaPyramid();
+        mScratch = new byte[(WIDTH / 8) * (HEIGHT / 8)];
+    }
+
+    @Benchmark
+    public byte[] buildHalf() {
+        mPyramid.reset(mFrame, WIDTH, HEIGHT);
+        return mPyramid.getLevel(1);
+    }
+
+    @Benchmark
+    public byte[] buildAllLevels() {
+        mPyramid.reset(mFrame, WIDTH, HEIGHT);
+        return mPyramid.getLevel(LumaPyramid.MAX_LEVEL);
+    }
+
+    /**
+     * 每个分析各自遍历整个Y平面，按8x8的块求均值
+     */
+    @Benchmark
+    public int separateDownscalePerConsumer() {
+        int checksum = 0;
+        for (int i = 0; i < CONSUMERS; i++) {
+            downscale8(mFrame, WIDTH, HEIGHT, mScratch);
+            checksum += mScratch[i];
+        }
+        return checksum;
+    }
+
+    /**
+     * 所有分析共享一个金字塔，只计算一次
+     */
+    @Benchmark
+    public int sharedPyramidPerConsumer() {
+        mPyramid.reset(mFrame, WIDTH, HEIGHT);
+        int checksum = 0;
+        for (int i = 0; i < CONSUMERS; i++) {
+            checksum += mPyramid.getLevel(3)[i];
+        }
+        return checksum;
+    }
+
+    private static void downscale8(byte[] y, int width, int height, byte[] out) {
+        int outWidth = width / 8;
+        int outHeight = height / 8;
+        for (int by = 0; by < outHeight; by++) {
+            for (int bx = 0; bx < outWidth; bx++) {
+                int sum = 0;
+                for (int dy = 0; dy < 8; dy++) {
+                    int row = (by * 8 + dy) * width + bx * 8;
+                    for (int dx = 0; dx < 8; dx++) {
+                        sum += y[row + dx] & 0xff;
+                    }
+                }
+                out[by * outWidth + bx] = (byte) (sum >> 6);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(LumaPyramidBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
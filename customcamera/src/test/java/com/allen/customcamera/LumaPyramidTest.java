@@ -0,0 +1,163 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 亮度金字塔：每一级的数值、按需计算、多个线程只计算一次、帧之间复用数组
+ */
+public class LumaPyramidTest {
+
+    private static byte[] randomFrame(Random random, int width, int height) {
+        byte[] nv21 = new byte[PreviewBufferPool.getFrameSize(width, height)];
+        random.nextBytes(nv21);
+        return nv21;
+    }
+
+    /**
+     * 直接在Y平面上按块求均值，作为参照
+     */
+    private static int blockAverage(byte[] y, int width, int x, int yy, int block) {
+        int sum = 0;
+        for (int dy = 0; dy < block; dy++) {
+            for (int dx = 0; dx < block; dx++) {
+                sum += y[(yy * block + dy) * width + x * block + dx] & 0xff;
+            }
+        }
+        return sum / (block * block);
+    }
+
+    @Test
+    public void levels_matchBlockAverages() {
+        int width = 64;
+        int height = 48;
+        byte[] nv21 = randomFrame(new Random(7), width, height);
+        LumaPyramid pyramid = new LumaPyramid();
+        pyramid.reset(nv21, width, height);
+        assertSame(nv21, pyramid.getLevel(0));
+        for (int level = 1; level <= LumaPyramid.MAX_LEVEL; level++) {
+            int block = 1 << level;
+            assertEquals(width / block, pyramid.getWidth(level));
+            assertEquals(height / block, pyramid.getHeight(level));
+            for (int y = 0; y < pyramid.getHeight(level); y++) {
+                for (int x = 0; x < pyramid.getWidth(level); x++) {
+                    //逐级取整，每级最多差0.5
+                    assertEquals(blockAverage(nv21, width, x, y, block), pyramid.getLuma(level, x, y), level);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void levels_areBuiltLazilyAndOnce() {
+        LumaPyramid pyramid = new LumaPyramid();
+        pyramid.reset(randomFrame(new Random(1), 32, 32), 32, 32);
+        assertEquals(0, pyramid.getBuildCount());
+        pyramid.getLevel(2);
+        assertEquals(2, pyramid.getBuildCount());
+        pyramid.getLevel(1);
+        pyramid.getLevel(2);
+        assertEquals(2, pyramid.getBuildCount());
+        pyramid.getLevel(3);
+        assertEquals(3, pyramid.getBuildCount());
+    }
+
+    @Test
+    public void concurrentConsumers_shareOneBuild() throws InterruptedException {
+        final LumaPyramid pyramid = new LumaPyramid();
+        pyramid.reset(randomFrame(new Random(2), 1920, 1080), 1920, 1080);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<byte[]> first = new AtomicReference<>();
+        final AtomicReference<String> error = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    byte[] level = pyramid.getLevel(3);
+                    if (!first.compareAndSet(null, level) && first.get() != level) {
+                        error.set("different arrays");
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        assertNull(error.get());
+        assertEquals(3, pyramid.getBuildCount());
+    }
+
+    @Test
+    public void reset_reusesArrays() {
+        Random random = new Random(3);
+        LumaPyramid pyramid = new LumaPyramid();
+        pyramid.reset(randomFrame(random, 640, 480), 640, 480);
+        byte[] level1 = pyramid.getLevel(1);
+        byte[] level3 = pyramid.getLevel(3);
+        byte[] next = randomFrame(random, 640, 480);
+        pyramid.reset(next, 640, 480);
+        assertSame(level1, pyramid.getLevel(1));
+        assertSame(level3, pyramid.getLevel(3));
+        assertEquals(blockAverage(next, 640, 5, 7, 8), pyramid.getLuma(3, 5, 7), 3);
+        //尺寸变小时也复用
+        pyramid.reset(randomFrame(random, 320, 240), 320, 240);
+        assertSame(level1, pyramid.getLevel(1));
+        assertEquals(160, pyramid.getWidth(1));
+    }
+
+    @Test
+    public void oddAndTinySizes_areHandled() {
+        LumaPyramid pyramid = new LumaPyramid();
+        byte[] nv21 = new byte[PreviewBufferPool.getFrameSize(6, 6) + 12];
+        java.util.Arrays.fill(nv21, (byte) 200);
+        pyramid.reset(nv21, 7, 5);
+        assertEquals(3, pyramid.getWidth(1));
+        assertEquals(2, pyramid.getHeight(1));
+        assertEquals(1, pyramid.getWidth(3));
+        assertEquals(1, pyramid.getHeight(3));
+        assertEquals(200, pyramid.getLuma(3, 0, 0));
+    }
+
+    @Test
+    public void framePipeline_sharesPyramidBetweenStages() throws InterruptedException {
+        FramePipeline pipeline = new FramePipeline();
+        final AtomicReference<String> error = new AtomicReference<>();
+        FramePipeline.Analyzer analyzer = new FramePipeline.Analyzer() {
+            @Override
+            public boolean analyze(FramePipeline.Frame frame) {
+                LumaPyramid pyramid = frame.getLumaPyramid();
+                if (pyramid.getLuma(2, 0, 0) != (frame.getSequence() & 0xff)) {
+                    error.set("frame " + frame.getSequence());
+                }
+                return true;
+            }
+        };
+        pipeline.addStage("exposure", analyzer, 8);
+        pipeline.addStage("motion", analyzer, 8);
+        try {
+            for (int i = 0; i < 5; i++) {
+                byte[] nv21 = new byte[PreviewBufferPool.getFrameSize(64, 48)];
+                java.util.Arrays.fill(nv21, (byte) i);
+                assertTrue(pipeline.submit(nv21, 64, 48, i));
+                assertTrue(pipeline.awaitIdle(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pipeline.shutdown();
+        }
+        assertNull(error.get());
+    }
+}
@@ -0,0 +1,97 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * 缩放、对焦修改的合并
+ */
+public class ParameterChangesTest {
+
+    @Test
+    public void zoom_accumulatesIntoOneTransaction() {
+        ParameterChanges<String> changes = new ParameterChanges<>();
+        assertTrue(changes.addZoom(3));
+        assertFalse(changes.addZoom(4.5f));
+        assertFalse(changes.addZoom(-1.5f));
+
+        ParameterChanges.Transaction<String> transaction = new ParameterChanges.Transaction<>();
+        assertTrue(changes.drainTo(transaction));
+        assertTrue(transaction.mZoomPending);
+        assertFalse(transaction.mFocusPending);
+        assertEquals(6f, transaction.mZoomSpan, 0);
+        assertEquals(3, changes.getRequestCount());
+        assertEquals(1, changes.getTransactionCount());
+
+        //取出后为空，下一次修改需要重新安排提交
+        assertFalse(changes.drainTo(transaction));
+        assertTrue(transaction.isEmpty());
+        assertTrue(changes.addZoom(1));
+    }
+
+    @Test
+    public void focus_latestRequestWins() {
+        ParameterChanges<String> changes = new ParameterChanges<>();
+        assertTrue(changes.setFocus(10, 20, "first"));
+        assertFalse(changes.addZoom(5));
+        assertFalse(changes.setFocus(30, 40, "second"));
+
+        ParameterChanges.Transaction<String> transaction = new ParameterChanges.Transaction<>();
+        assertTrue(changes.drainTo(transaction));
+        assertTrue(transaction.mFocusPending);
+        assertTrue(transaction.mZoomPending);
+        assertEquals(30f, transaction.mFocusX, 0);
+        assertEquals(40f, transaction.mFocusY, 0);
+        assertEquals("second", transaction.mFocusCallback);
+        assertEquals(1, changes.getSupersededCount());
+    }
+
+    @Test
+    public void clear_dropsPendingChanges() {
+        ParameterChanges<String> changes = new ParameterChanges<>();
+        changes.setFocus(1, 2, "callback");
+        changes.addZoom(3);
+        changes.clear();
+
+        ParameterChanges.Transaction<String> transaction = new ParameterChanges.Transaction<>();
+        assertFalse(changes.drainTo(transaction));
+        assertNull(transaction.mFocusCallback);
+        assertTrue(changes.addZoom(1));
+    }
+
+    @Test
+    public void concurrentProducers_noLostZoom() throws InterruptedException {
+        final ParameterChanges<String> changes = new ParameterChanges<>();
+        final int threads = 4;
+        final int perThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        changes.addZoom(1);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        //消费者一边取一边累加，最后必须等于所有生产者的总和
+        ParameterChanges.Transaction<String> transaction = new ParameterChanges.Transaction<>();
+        double total = 0;
+        while (done.getCount() > 0) {
+            if (changes.drainTo(transaction)) {
+                total += transaction.mZoomSpan;
+            }
+        }
+        if (changes.drainTo(transaction)) {
+            total += transaction.mZoomSpan;
+        }
+        assertEquals(threads * perThread, total, 0);
+        assertTrue(changes.getTransactionCount() <= threads * perThread);
+    }
+}
@@ -0,0 +1,58 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PreviewBufferPoolTest {
+
+    @Test
+    public void configure_allocatesNv21Buffers() throws Exception {
+        PreviewBufferPool pool = new PreviewBufferPool(3);
+        assertTrue(pool.configure(1920, 1080));
+        assertEquals(1920 * 1080 * 3 / 2, pool.getFrameSize());
+        for (int i = 0; i < pool.getBufferCount(); i++) {
+            assertEquals(pool.getFrameSize(), pool.getBuffer(i).length);
+        }
+    }
+
+    @Test
+    public void configure_sameSizeReusesBuffers() throws Exception {
+        PreviewBufferPool pool = new PreviewBufferPool(2);
+        pool.configure(640, 480);
+        byte[] first = pool.getBuffer(0);
+        assertFalse(pool.configure(640, 480));
+        assertSame(first, pool.getBuffer(0));
+        assertTrue(pool.configure(1280, 720));
+        assertNotSame(first, pool.getBuffer(0));
+    }
+
+    @Test
+    public void starvation_countedWhenCameraRunsOutOfBuffers() throws Exception {
+        PreviewBufferPool pool = new PreviewBufferPool(2);
+        pool.configure(320, 240);
+        pool.onBufferQueued();
+        pool.onBufferQueued();
+
+        //正常回收，不会耗尽
+        assertTrue(pool.onFrameDelivered(pool.getBuffer(0)));
+        pool.onBufferQueued();
+        assertEquals(0, pool.getStarvationCount());
+
+        //两个缓冲区都没有及时交还
+        assertTrue(pool.onFrameDelivered(pool.getBuffer(1)));
+        assertTrue(pool.onFrameDelivered(pool.getBuffer(0)));
+        assertEquals(1, pool.getStarvationCount());
+        assertEquals(3, pool.getFrameCount());
+    }
+
+    @Test
+    public void staleBuffer_isNotRecycled() throws Exception {
+        PreviewBufferPool pool = new PreviewBufferPool(2);
+        pool.configure(320, 240);
+        byte[] stale = pool.getBuffer(0);
+        pool.configure(640, 480);
+        assertFalse(pool.onFrameDelivered(stale));
+        assertEquals(0, pool.getFrameCount());
+    }
+}
@@ -0,0 +1,123 @@
+package com.allen.customcamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 预览帧回调的处理：缓冲区记账、跳帧、通知Host
+ */
+public class PreviewFrameProcessorTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private FakeCameraBackend mBackend;
+    private PreviewBufferPool mBufferPool;
+    private CameraMetrics mMetrics;
+    private PreviewFrameProcessor mProcessor;
+    private final List<Long> mDelivered = new ArrayList<>();
+    private int mFrameEvents;
+    private int mExposureSamples;
+
+    @Before
+    public void setUp() {
+        mBufferPool = new PreviewBufferPool(2);
+        mMetrics = new CameraMetrics();
+        mProcessor = new PreviewFrameProcessor(mBufferPool, mMetrics, null, new PreviewFrameProcessor.Host() {
+            @Override
+            public void onFrameDelivered() {
+                mFrameEvents++;
+            }
+
+            @Override
+            public void onExposureSampled(ExposureStats stats) {
+                mExposureSamples++;
+            }
+
+            @Override
+            public void onAdaptiveStepChanged() {
+            }
+        });
+        mBackend = new FakeCameraBackend(FakeCameraBackend.defaultCameras(), 30);
+        assertTrue(mProcessor.attach(mBackend, WIDTH, HEIGHT));
+    }
+
+    private CameraManager.FrameListener recordingListener() {
+        return new CameraManager.FrameListener() {
+            @Override
+            public void onPreviewFrame(byte[] data, int width, int height, long timestampNanos) {
+                assertEquals(WIDTH, width);
+                assertEquals(HEIGHT, height);
+                mDelivered.add(timestampNanos);
+            }
+        };
+    }
+
+    @Test
+    public void frames_deliveredAndBuffersRecycled() throws Exception {
+        mProcessor.setConsumers(recordingListener(), null, null, null, null);
+        for (int i = 0; i < 4; i++) {
+            mProcessor.process(mBackend.pollCallbackBuffer(), i);
+        }
+        assertEquals(4, mDelivered.size());
+        assertEquals(3L, (long) mDelivered.get(3));
+        assertEquals(4, mFrameEvents);
+        assertEquals(4, mMetrics.get(CameraMetrics.Counter.PREVIEW_BUFFER_RECYCLED));
+        assertEquals(0, mMetrics.get(CameraMetrics.Counter.PREVIEW_BUFFER_DROPPED));
+    }
+
+    @Test
+    public void attach_sameSizeKeepsQueuedBuffers() throws Exception {
+        //预览中更换使用者：缓冲区已经在相机手上，不再交一次（FakeCameraBackend会抛出异常）
+        mProcessor.setConsumers(recordingListener(), null, null, null, null);
+        assertFalse(mProcessor.attach(mBackend, WIDTH, HEIGHT));
+        //尺寸变化时清空相机手上的缓冲区后重新交给相机
+        assertTrue(mProcessor.attach(mBackend, WIDTH * 2, HEIGHT * 2));
+        byte[] data = mBackend.pollCallbackBuffer();
+        assertEquals(PreviewBufferPool.getFrameSize(WIDTH * 2, HEIGHT * 2), data.length);
+        //取消回调后重新设置
+        mBackend.setFrameCallback(null);
+        mProcessor.reset();
+        assertTrue(mProcessor.attach(mBackend, WIDTH * 2, HEIGHT * 2));
+    }
+
+    @Test
+    public void staleBuffer_droppedWithoutConsumers() throws Exception {
+        mProcessor.setConsumers(recordingListener(), null, null, null, null);
+        mProcessor.process(new byte[16], 0);
+        assertTrue(mDelivered.isEmpty());
+        assertEquals(0, mFrameEvents);
+        assertEquals(1, mMetrics.get(CameraMetrics.Counter.PREVIEW_BUFFER_DROPPED));
+        assertEquals(0, mMetrics.get(CameraMetrics.Counter.PREVIEW_BUFFER_RECYCLED));
+    }
+
+    @Test
+    public void frameSkip_deliversEveryNthFrame() throws Exception {
+        mProcessor.setConsumers(recordingListener(), null, null, null, null);
+        mProcessor.resetFrameSkip(2);
+        for (int i = 0; i < 7; i++) {
+            mProcessor.process(mBackend.pollCallbackBuffer(), i);
+        }
+        //重新计数后先跳过2帧，之后每3帧交给监听器1帧
+        assertEquals(2, mDelivered.size());
+        assertEquals(2L, (long) mDelivered.get(0));
+        assertEquals(5L, (long) mDelivered.get(1));
+        //其他帧照常计数
+        assertEquals(7, mFrameEvents);
+    }
+
+    @Test
+    public void exposureStats_sampledAtMeteringInterval() throws Exception {
+        ExposureStats stats = new ExposureStats();
+        mProcessor.setConsumers(null, null, stats, null, null);
+        for (int i = 0; i < PreviewFrameProcessor.METERING_INTERVAL_FRAMES * 2; i++) {
+            mProcessor.process(mBackend.pollCallbackBuffer(), i);
+        }
+        assertEquals(PreviewFrameProcessor.METERING_INTERVAL_FRAMES * 2, stats.getFrameCount());
+        assertEquals(2, mExposureSamples);
+    }
+}
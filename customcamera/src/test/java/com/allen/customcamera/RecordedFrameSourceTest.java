@@ -0,0 +1,210 @@
+package com.allen.customcamera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 预览帧的录制和回放：数据和时间戳一致、按原来的间隔或者尽快回放、不复制数据、格式检查
+ */
+public class RecordedFrameSourceTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("frames", ".nv21");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static byte[] frame(int index) {
+        byte[] data = new byte[PreviewBufferPool.getFrameSize(WIDTH, HEIGHT)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (index * 31 + i);
+        }
+        return data;
+    }
+
+    /**
+     * 录制count帧，帧间隔intervalMs
+     */
+    private void record(int count, int capacity, long intervalMs) throws IOException {
+        FrameRecorder recorder = new FrameRecorder(mFile, capacity);
+        try {
+            for (int i = 0; i < count; i++) {
+                recorder.onPreviewFrame(frame(i), WIDTH, HEIGHT, 1000000000L + i * TimeUnit.MILLISECONDS.toNanos(intervalMs));
+            }
+        } finally {
+            recorder.close();
+        }
+    }
+
+    @Test
+    public void recordedFrames_replayIdentically() throws Exception {
+        record(5, 8, 33);
+        //没有使用的容量被截掉
+        assertEquals(FrameRecorder.getFramesOffset(8) + 5L * PreviewBufferPool.getFrameSize(WIDTH, HEIGHT), mFile.length());
+        RecordedFrameSource source = new RecordedFrameSource(mFile);
+        try {
+            assertEquals(WIDTH, source.getWidth());
+            assertEquals(HEIGHT, source.getHeight());
+            assertEquals(5, source.getFrameCount());
+            assertEquals(1000000000L + 2 * 33000000L, source.getTimestamp(2));
+            final List<byte[]> frames = new ArrayList<>();
+            assertEquals(5, source.replayToFrameListener(new CameraManager.FrameListener() {
+                @Override
+                public void onPreviewFrame(byte[] data, int width, int height, long timestampNanos) {
+                    assertEquals(WIDTH, width);
+                    assertEquals(HEIGHT, height);
+                    frames.add(data.clone());
+                }
+            }, false));
+            for (int i = 0; i < 5; i++) {
+                assertArrayEquals(frame(i), frames.get(i));
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void bufferListener_readsMappingWithoutCopies() throws Exception {
+        record(3, 3, 33);
+        RecordedFrameSource source = new RecordedFrameSource(mFile);
+        try {
+            final List<ByteBuffer> delivered = new ArrayList<>();
+            source.replay(new RecordedFrameSource.BufferListener() {
+                @Override
+                public void onPreviewFrame(ByteBuffer frame, int width, int height, long timestampNanos) {
+                    assertTrue(frame.isDirect());
+                    assertTrue(frame.isReadOnly());
+                    assertEquals(PreviewBufferPool.getFrameSize(WIDTH, HEIGHT), frame.remaining());
+                    delivered.add(frame);
+                }
+            }, false);
+            //每次回放交给监听器的都是映射中的同一段
+            for (int i = 0; i < 3; i++) {
+                assertSame(source.getFrame(i), delivered.get(i));
+                assertEquals(frame(i)[100], source.getFrame(i).get(100));
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void realtimeReplay_keepsOriginalSpacing() throws Exception {
+        record(6, 6, 20);
+        RecordedFrameSource source = new RecordedFrameSource(mFile);
+        try {
+            final List<Long> times = new ArrayList<>();
+            RecordedFrameSource.BufferListener listener = new RecordedFrameSource.BufferListener() {
+                @Override
+                public void onPreviewFrame(ByteBuffer frame, int width, int height, long timestampNanos) {
+                    times.add(timestampNanos);
+                }
+            };
+            source.replay(listener, true);
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(times.get(5) - times.get(0));
+            assertTrue("elapsed " + elapsedMs, elapsedMs >= 98 && elapsedMs < 1000);
+            assertEquals(0, source.getLateCount());
+
+            //尽快回放
+            times.clear();
+            source.replay(listener, false);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(times.get(5) - times.get(0)) < 98);
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void slowListener_isReportedLate() throws Exception {
+        record(4, 4, 10);
+        RecordedFrameSource source = new RecordedFrameSource(mFile);
+        try {
+            source.replay(new RecordedFrameSource.BufferListener() {
+                @Override
+                public void onPreviewFrame(ByteBuffer frame, int width, int height, long timestampNanos) {
+                    try {
+                        Thread.sleep(30);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, true);
+            assertEquals(3, source.getLateCount());
+            assertTrue(source.getMaxLagNanos() >= TimeUnit.MILLISECONDS.toNanos(40));
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void stop_endsReplay() throws Exception {
+        record(10, 10, 1);
+        final RecordedFrameSource source = new RecordedFrameSource(mFile);
+        try {
+            assertEquals(4, source.replay(new RecordedFrameSource.BufferListener() {
+                private int mCount;
+
+                @Override
+                public void onPreviewFrame(ByteBuffer frame, int width, int height, long timestampNanos) {
+                    if (++mCount == 4) {
+                        source.stop();
+                    }
+                }
+            }, false));
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void recorder_dropsMismatchedAndOverflowFrames() throws IOException {
+        FrameRecorder recorder = new FrameRecorder(mFile, 2);
+        recorder.onPreviewFrame(frame(0), WIDTH, HEIGHT, 0);
+        recorder.onPreviewFrame(new byte[PreviewBufferPool.getFrameSize(32, 24)], 32, 24, 1);
+        recorder.onPreviewFrame(frame(1), WIDTH, HEIGHT, 2);
+        recorder.onPreviewFrame(frame(2), WIDTH, HEIGHT, 3);
+        recorder.close();
+        assertEquals(2, recorder.getCount());
+        assertEquals(2, recorder.getDroppedCount());
+        //关闭后不再录制
+        recorder.onPreviewFrame(frame(3), WIDTH, HEIGHT, 4);
+        assertEquals(2, recorder.getCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidFile_isRejected() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(new byte[64]);
+        } finally {
+            out.close();
+        }
+        new RecordedFrameSource(mFile);
+    }
+
+    @Test(expected = IOException.class)
+    public void emptyRecording_isRejected() throws IOException {
+        new FrameRecorder(mFile, 4).close();
+        new RecordedFrameSource(mFile);
+    }
+}
@@ -0,0 +1,80 @@
+package com.allen.customcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连拍10张1200万像素（4000x3000）亮度图按清晰度排序的JMH基准测试：
+ * 1个、4个线程，提前结束和全部完整计算的对比
+ * 只在单核机器上测过，1个线程完整计算大约210ms；4个线程的结果要在多核机器上实际运行才有意义
+ * 连拍时实际解码的图片长边不超过1024（见CameraManager.takeBestShot），计算量远小于这里
+ * 在IDE中直接运行main方法（使用单元测试的classpath）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SharpnessScorerBenchmark {
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+    private static final int FRAMES = 10;
+
+    @Param({"1", "4"})
+    public int mParallelism;
+
+    @Param({"0", "0.5"})
+    public float mRejectRatio;
+
+    private byte[][] mFrames;
+    private SharpnessScorer mScorer;
+
+    @Setup
+    public void setUp() {
+        byte[] sharp = SharpnessScorerTest.sharpImage(new Random(42), WIDTH, HEIGHT);
+        //抖动、失焦程度不同的连拍，第4张最清晰
+        int[] radii = {2, 1, 3, 0, 1, 2, 4, 1, 3, 2};
+        mFrames = new byte[FRAMES][];
+        for (int i = 0; i < FRAMES; i++) {
+            mFrames[i] = radii[i] == 0 ? sharp : SharpnessScorerTest.blur(sharp, WIDTH, HEIGHT, radii[i]);
+        }
+        mScorer = new SharpnessScorer(mParallelism, SharpnessScorer.DEFAULT_TILE_SIZE, mRejectRatio);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mScorer.release();
+    }
+
+    @Benchmark
+    public Object rankBurst() {
+        SharpnessScorer.Ranking<Integer> ranking = mScorer.newRanking();
+        for (int i = 0; i < FRAMES; i++) {
+            ranking.submit(i, mFrames[i], WIDTH, HEIGHT);
+        }
+        return ranking.getBest();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SharpnessScorerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,213 @@
+package com.allen.customcamera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 清晰度评分：和逐个像素计算的结果一致、模糊的图片分数更低、排序、提前结束、多个线程同时提交
+ */
+public class SharpnessScorerTest {
+    private SharpnessScorer mScorer;
+
+    @Before
+    public void setUp() {
+        mScorer = new SharpnessScorer(4, SharpnessScorer.DEFAULT_TILE_SIZE, SharpnessScorer.DEFAULT_REJECT_RATIO);
+    }
+
+    @After
+    public void tearDown() {
+        mScorer.release();
+    }
+
+    /**
+     * 随机的细节（棋盘格加噪声）
+     */
+    static byte[] sharpImage(Random random, int width, int height) {
+        byte[] luma = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int base = ((x / 4 + y / 4) & 1) == 0 ? 60 : 190;
+                luma[y * width + x] = (byte) (base + random.nextInt(30) - 15);
+            }
+        }
+        return luma;
+    }
+
+    /**
+     * 水平、垂直各做radius次3点均值，模拟失焦
+     */
+    static byte[] blur(byte[] luma, int width, int height, int radius) {
+        byte[] src = luma.clone();
+        byte[] dst = new byte[src.length];
+        for (int pass = 0; pass < radius; pass++) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int left = src[y * width + Math.max(0, x - 1)] & 0xff;
+                    int right = src[y * width + Math.min(width - 1, x + 1)] & 0xff;
+                    dst[y * width + x] = (byte) ((left + (src[y * width + x] & 0xff) + right) / 3);
+                }
+            }
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int up = dst[Math.max(0, y - 1) * width + x] & 0xff;
+                    int down = dst[Math.min(height - 1, y + 1) * width + x] & 0xff;
+                    src[y * width + x] = (byte) ((up + (dst[y * width + x] & 0xff) + down) / 3);
+                }
+            }
+        }
+        return src;
+    }
+
+    /**
+     * 直接在整张图上计算拉普拉斯的方差，作为参照
+     */
+    private static double referenceVariance(byte[] luma, int width, int height) {
+        double sum = 0;
+        double squares = 0;
+        long count = 0;
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                int laplacian = 4 * (luma[i] & 0xff) - (luma[i - 1] & 0xff) - (luma[i + 1] & 0xff)
+                        - (luma[i - width] & 0xff) - (luma[i + width] & 0xff);
+                sum += laplacian;
+                squares += (double) laplacian * laplacian;
+                count++;
+            }
+        }
+        double mean = sum / count;
+        return squares / count - mean * mean;
+    }
+
+    @Test
+    public void score_matchesReference() {
+        Random random = new Random(1);
+        //尺寸不是块大小的整数倍
+        int width = 333;
+        int height = 201;
+        byte[] luma = new byte[width * height];
+        random.nextBytes(luma);
+        double expected = referenceVariance(luma, width, height);
+        assertEquals(expected, mScorer.score(luma, width, height), expected * 1e-5);
+        //单线程、不同块大小的结果相同
+        SharpnessScorer serial = new SharpnessScorer(1, 17, 0);
+        try {
+            assertEquals(expected, serial.score(luma, width, height), expected * 1e-5);
+        } finally {
+            serial.release();
+        }
+    }
+
+    @Test
+    public void flatImage_scoresZero() {
+        byte[] luma = new byte[64 * 64];
+        java.util.Arrays.fill(luma, (byte) 128);
+        assertEquals(0, mScorer.score(luma, 64, 64), 0);
+    }
+
+    @Test
+    public void blur_lowersScore() {
+        byte[] sharp = sharpImage(new Random(2), 640, 480);
+        float previous = mScorer.score(sharp, 640, 480);
+        for (int radius = 1; radius <= 4; radius++) {
+            float score = mScorer.score(blur(sharp, 640, 480, radius), 640, 480);
+            assertTrue(radius + ": " + score + " >= " + previous, score < previous);
+            previous = score;
+        }
+    }
+
+    @Test
+    public void ranking_picksSharpestAndRejectsEarly() {
+        byte[] sharp = sharpImage(new Random(3), 640, 480);
+        SharpnessScorer.Ranking<Integer> ranking = mScorer.newRanking();
+        assertNull(ranking.getBest());
+        //第一张稍微模糊，第二张最清晰，后面越来越模糊
+        int[] radii = {1, 0, 2, 3, 4};
+        for (int i = 0; i < radii.length; i++) {
+            ranking.submit(i, radii[i] == 0 ? sharp : blur(sharp, 640, 480, radii[i]), 640, 480);
+        }
+        List<SharpnessScorer.Candidate<Integer>> ranked = ranking.getRanked();
+        assertEquals(5, ranked.size());
+        assertEquals(Integer.valueOf(1), ranking.getBest().getTag());
+        assertFalse(ranking.getBest().isRejected());
+        assertEquals(Integer.valueOf(0), ranked.get(1).getTag());
+        //明显更模糊的图片只计算了一部分
+        assertTrue(ranking.getRejectedCount() > 0);
+        assertTrue(ranked.get(4).isRejected());
+        for (int i = 1; i < ranked.size(); i++) {
+            SharpnessScorer.Candidate<Integer> lhs = ranked.get(i - 1);
+            SharpnessScorer.Candidate<Integer> rhs = ranked.get(i);
+            assertTrue(lhs.isRejected() == rhs.isRejected() ? lhs.getScore() >= rhs.getScore() : rhs.isRejected());
+        }
+    }
+
+    @Test
+    public void noRejectRatio_scoresEverything() {
+        SharpnessScorer scorer = new SharpnessScorer(2, SharpnessScorer.DEFAULT_TILE_SIZE, 0);
+        try {
+            byte[] sharp = sharpImage(new Random(4), 320, 240);
+            SharpnessScorer.Ranking<Integer> ranking = scorer.newRanking();
+            ranking.submit(0, sharp, 320, 240);
+            ranking.submit(1, blur(sharp, 320, 240, 4), 320, 240);
+            assertEquals(0, ranking.getRejectedCount());
+            assertEquals(scorer.score(sharp, 320, 240), ranking.getBestScore(), 0);
+        } finally {
+            scorer.release();
+        }
+    }
+
+    @Test
+    public void concurrentSubmits_rankAllCandidates() throws InterruptedException {
+        final byte[] sharp = sharpImage(new Random(5), 640, 480);
+        final SharpnessScorer.Ranking<Integer> ranking = mScorer.newRanking();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            final int radius = i;
+            final byte[] image = radius == 0 ? sharp : blur(sharp, 640, 480, radius);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        ranking.submit(radius, image, 640, 480);
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        assertNull(error.get());
+        assertEquals(6, ranking.getSize());
+        assertEquals(Integer.valueOf(0), ranking.getBest().getTag());
+        List<Integer> tags = new ArrayList<>();
+        for (SharpnessScorer.Candidate<Integer> candidate : ranking.getRanked()) {
+            tags.add(candidate.getTag());
+        }
+        Collections.sort(tags);
+        assertEquals(java.util.Arrays.asList(0, 1, 2, 3, 4, 5), tags);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hugeTiles_areRejected() {
+        new SharpnessScorer(1, SharpnessScorer.MAX_TILE_SIZE + 1, 0);
+    }
+}
@@ -0,0 +1,92 @@
+package com.allen.customcamera;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 尺寸选择测试和基准测试共用的数据
+ */
+
+final class SizeFixtures {
+    //常见的宽高比（长边:短边）
+    private static final int[][] RATIOS = {{4, 3}, {16, 9}, {1, 1}, {3, 2}, {18, 9}, {11, 9}, {5, 3}};
+
+    private SizeFixtures() {
+    }
+
+    /**
+     * 随机生成相机支持的尺寸列表，尺寸都是精确的常见比例，顺序打乱，可能有重复
+     */
+    static List<CameraSize> randomSizes(Random random, int count) {
+        List<CameraSize> sizes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int[] ratio = RATIOS[random.nextInt(RATIOS.length)];
+            int unit = 8 + random.nextInt(400);
+            sizes.add(new CameraSize(ratio[0] * unit, ratio[1] * unit));
+        }
+        return sizes;
+    }
+
+    /**
+     * 原来CameraUtils.findProperSize的实现（去掉了日志），作为对照
+     */
+    static CameraSize legacyFindProperSize(int surfaceWidth, int surfaceHeight, List<CameraSize> sizeList) {
+        if (surfaceWidth <= 0 || surfaceHeight <= 0 || sizeList == null || sizeList.isEmpty()) {
+            return null;
+        }
+
+        List<List<CameraSize>> ratioListList = new ArrayList<>();
+        for (CameraSize size : sizeList) {
+            float ratio = (float) size.width / size.height;
+            List<CameraSize> found = null;
+            for (List<CameraSize> ratioList : ratioListList) {
+                float mine = (float) ratioList.get(0).width / ratioList.get(0).height;
+                if (ratio == mine) {
+                    found = ratioList;
+                    break;
+                }
+            }
+            if (found == null) {
+                found = new ArrayList<>();
+                ratioListList.add(found);
+            }
+            found.add(size);
+        }
+
+        float surfaceRatio = (float) surfaceWidth / surfaceHeight;
+        List<CameraSize> bestRatioList = null;
+        float ratioDiff = Float.MAX_VALUE;
+        for (List<CameraSize> ratioList : ratioListList) {
+            float ratio = (float) ratioList.get(0).width / ratioList.get(0).height;
+            float newRatioDiff = Math.abs(ratio - surfaceRatio);
+            if (newRatioDiff < ratioDiff) {
+                bestRatioList = ratioList;
+                ratioDiff = newRatioDiff;
+            }
+        }
+
+        CameraSize bestSize = null;
+        int diff = Integer.MAX_VALUE;
+        for (CameraSize size : bestRatioList) {
+            int newDiff = Math.abs(size.width - surfaceWidth) + Math.abs(size.height - surfaceHeight);
+            if (size.height >= surfaceHeight && newDiff < diff) {
+                bestSize = size;
+                diff = newDiff;
+            }
+        }
+        if (bestSize != null) {
+            return bestSize;
+        }
+
+        diff = Integer.MAX_VALUE;
+        for (CameraSize size : bestRatioList) {
+            int newDiff = Math.abs(size.width - surfaceWidth) + Math.abs(size.height - surfaceHeight);
+            if (newDiff < diff) {
+                bestSize = size;
+                diff = newDiff;
+            }
+        }
+        return bestSize;
+    }
+}
@@ -0,0 +1,79 @@
+package com.allen.customcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 尺寸选择的JMH基准测试：原来的findProperSize、每次重建索引、复用索引、缓存结果
+ * 在IDE中直接运行main方法（使用单元测试的classpath）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SizeSelectionBenchmark {
+
+    //常见设备支持的尺寸个数在20~60之间
+    @Param({"20", "60"})
+    public int sizeCount;
+
+    private List<CameraSize> mSizes;
+    private SizeIndex mIndex;
+    private CameraCapabilities mCamera;
+    private SizeSelector mSelector;
+    private final int mSurfaceWidth = 2160;
+    private final int mSurfaceHeight = 1080;
+
+    @Setup
+    public void setUp() {
+        mSizes = SizeFixtures.randomSizes(new Random(42), sizeCount);
+        mIndex = new SizeIndex(mSizes);
+        mCamera = new CameraCapabilities(0, CameraCapabilities.FACING_BACK, 90);
+        mCamera.setParameters(mSizes, mSizes, null, null, null, false, 0, null, null, 0, 0);
+        mSelector = new SizeSelector();
+    }
+
+    @Benchmark
+    public CameraSize legacyFindProperSize() {
+        return SizeFixtures.legacyFindProperSize(mSurfaceWidth, mSurfaceHeight, mSizes);
+    }
+
+    @Benchmark
+    public CameraSize buildIndexAndSelect() {
+        return SizeStrategies.closestToSurface().select(null, new SizeIndex(mSizes), mSurfaceWidth, mSurfaceHeight);
+    }
+
+    @Benchmark
+    public CameraSize selectWithIndex() {
+        return SizeStrategies.closestToSurface().select(null, mIndex, mSurfaceWidth, mSurfaceHeight);
+    }
+
+    @Benchmark
+    public CameraSize selectMemoized() {
+        return mSelector.selectPreviewSize(mCamera, mSurfaceWidth, mSurfaceHeight);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SizeSelectionBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,194 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 尺寸选择的属性测试：在随机生成的尺寸列表和目标尺寸上检查各个策略的性质
+ */
+public class SizeSelectionTest {
+    private static final int ITERATIONS = 2000;
+
+    private static CameraCapabilities camera(int id, List<CameraSize> previewSizes, List<int[]> fpsRanges) {
+        CameraCapabilities camera = new CameraCapabilities(id, CameraCapabilities.FACING_BACK, 90);
+        camera.setParameters(previewSizes, previewSizes, null, null, null, false, 0, null, fpsRanges, 0, 0);
+        return camera;
+    }
+
+    private static float ratioDiff(CameraSize size, int width, int height) {
+        return Math.abs(SizeIndex.ratioOf(size) - (float) width / height);
+    }
+
+    private static int distance(CameraSize size, int width, int height) {
+        return Math.abs(size.width - width) + Math.abs(size.height - height);
+    }
+
+    /**
+     * 和目标比例最接近的那一组尺寸（暴力查找）
+     */
+    private static List<CameraSize> closestRatioGroup(List<CameraSize> sizes, int width, int height) {
+        float best = Float.MAX_VALUE;
+        for (CameraSize size : sizes) {
+            best = Math.min(best, ratioDiff(size, width, height));
+        }
+        List<CameraSize> group = new ArrayList<>();
+        for (CameraSize size : sizes) {
+            if (ratioDiff(size, width, height) == best) {
+                group.add(size);
+            }
+        }
+        return group;
+    }
+
+    @Test
+    public void index_groupsAndSorts() {
+        Random random = new Random(1);
+        for (int n = 0; n < 200; n++) {
+            List<CameraSize> sizes = SizeFixtures.randomSizes(random, 1 + random.nextInt(40));
+            SizeIndex index = new SizeIndex(sizes);
+            assertEquals(sizes.size(), index.size());
+            int total = 0;
+            for (int g = 0; g < index.getGroupCount(); g++) {
+                if (g > 0) {
+                    assertTrue(index.getGroupRatio(g - 1) < index.getGroupRatio(g));
+                }
+                for (int i = 0; i < index.getGroupSize(g); i++) {
+                    CameraSize size = index.get(g, i);
+                    assertEquals(index.getGroupRatio(g), SizeIndex.ratioOf(size), index.getGroupRatio(g) * SizeIndex.ASPECT_TOLERANCE);
+                    if (i > 0) {
+                        assertTrue(index.get(g, i - 1).getArea() <= size.getArea());
+                    }
+                    total++;
+                }
+            }
+            assertEquals(sizes.size(), total);
+            for (int i = 1; i < index.size(); i++) {
+                assertTrue(index.get(i - 1).getArea() <= index.get(i).getArea());
+            }
+        }
+    }
+
+    @Test
+    public void closestToSurface_matchesLegacy() {
+        Random random = new Random(2);
+        SizeStrategy strategy = SizeStrategies.closestToSurface();
+        for (int n = 0; n < ITERATIONS; n++) {
+            List<CameraSize> sizes = SizeFixtures.randomSizes(random, 1 + random.nextInt(30));
+            int width = 100 + random.nextInt(3000);
+            int height = 100 + random.nextInt(3000);
+            CameraSize expected = SizeFixtures.legacyFindProperSize(width, height, sizes);
+            CameraSize actual = strategy.select(null, new SizeIndex(sizes), width, height);
+            assertNotNull(actual);
+            assertTrue(sizes.contains(actual));
+            //可能有多个同样好的尺寸，比较的是评分而不是具体对象
+            assertEquals(ratioDiff(expected, width, height), ratioDiff(actual, width, height), 0);
+            assertEquals(expected.height >= height, actual.height >= height);
+            assertEquals(distance(expected, width, height), distance(actual, width, height));
+        }
+    }
+
+    @Test
+    public void maxResolution_staysWithinBudget() {
+        Random random = new Random(3);
+        for (int n = 0; n < ITERATIONS; n++) {
+            List<CameraSize> sizes = SizeFixtures.randomSizes(random, 1 + random.nextInt(30));
+            int width = 100 + random.nextInt(3000);
+            int height = 100 + random.nextInt(3000);
+            long budget = 10000 + random.nextInt(4000000);
+            CameraSize actual = SizeStrategies.maxResolution(budget).select(null, new SizeIndex(sizes), width, height);
+            assertNotNull(actual);
+
+            int bestInGroup = -1;
+            for (CameraSize size : closestRatioGroup(sizes, width, height)) {
+                if (size.getArea() <= budget) {
+                    bestInGroup = Math.max(bestInGroup, size.getArea());
+                }
+            }
+            int bestOverall = -1;
+            int smallest = Integer.MAX_VALUE;
+            for (CameraSize size : sizes) {
+                if (size.getArea() <= budget) {
+                    bestOverall = Math.max(bestOverall, size.getArea());
+                }
+                smallest = Math.min(smallest, size.getArea());
+            }
+            if (bestInGroup >= 0) {
+                assertEquals(bestInGroup, actual.getArea());
+                assertEquals(ratioDiff(closestRatioGroup(sizes, width, height).get(0), width, height),
+                        ratioDiff(actual, width, height), 0);
+            } else if (bestOverall >= 0) {
+                assertEquals(bestOverall, actual.getArea());
+            } else {
+                assertEquals(smallest, actual.getArea());
+            }
+        }
+    }
+
+    @Test
+    public void fpsAware_limitsPixelRate() {
+        Random random = new Random(4);
+        List<int[]> fpsRanges = Arrays.asList(new int[]{15000, 24000});
+        for (int n = 0; n < ITERATIONS; n++) {
+            List<CameraSize> sizes = SizeFixtures.randomSizes(random, 1 + random.nextInt(30));
+            int width = 100 + random.nextInt(3000);
+            int height = 100 + random.nextInt(3000);
+            long pixelRate = 1000000 + random.nextInt(60000000);
+            CameraCapabilities camera = camera(0, sizes, fpsRanges);
+            CameraSize actual = SizeStrategies.fpsAware(30, pixelRate).select(camera, camera.getPreviewSizeIndex(), width, height);
+            assertNotNull(actual);
+            //摄像头最高只有24帧
+            long budget = pixelRate / 24;
+            boolean anyWithin = false;
+            for (CameraSize size : sizes) {
+                anyWithin |= size.getArea() <= budget;
+            }
+            if (anyWithin) {
+                assertTrue(actual + " exceeds " + budget, actual.getArea() <= budget);
+            }
+        }
+    }
+
+    @Test
+    public void emptySizes_returnNull() {
+        SizeIndex empty = new SizeIndex(Collections.<CameraSize>emptyList());
+        assertNull(SizeStrategies.closestToSurface().select(null, empty, 1920, 1080));
+        assertNull(SizeStrategies.maxResolution(1000000).select(null, empty, 1920, 1080));
+        assertNull(SizeStrategies.fpsAware(30, 100000000).select(null, empty, 1920, 1080));
+    }
+
+    @Test
+    public void selector_memoizesPerCameraAndSurface() {
+        final int[] calls = new int[1];
+        SizeSelector selector = new SizeSelector();
+        selector.setPreviewStrategy(new SizeStrategy() {
+            @Override
+            public CameraSize select(CameraCapabilities camera, SizeIndex sizes, int targetWidth, int targetHeight) {
+                calls[0]++;
+                return SizeStrategies.closestToSurface().select(camera, sizes, targetWidth, targetHeight);
+            }
+        });
+        List<CameraSize> sizes = Arrays.asList(new CameraSize(1920, 1080), new CameraSize(1280, 720), new CameraSize(640, 480));
+        CameraCapabilities back = camera(0, sizes, null);
+        CameraCapabilities front = camera(1, sizes, null);
+
+        CameraSize first = selector.selectPreviewSize(back, 1920, 1080);
+        assertEquals(new CameraSize(1920, 1080), first);
+        assertSame(first, selector.selectPreviewSize(back, 1920, 1080));
+        assertEquals(1, calls[0]);
+
+        selector.selectPreviewSize(front, 1920, 1080);
+        selector.selectPreviewSize(back, 1280, 720);
+        assertEquals(3, calls[0]);
+
+        selector.clear();
+        selector.selectPreviewSize(back, 1920, 1080);
+        assertEquals(4, calls[0]);
+    }
+}
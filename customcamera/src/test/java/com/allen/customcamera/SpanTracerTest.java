@@ -0,0 +1,216 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * span记录的环形缓冲区、导出格式，以及用模拟相机跑一次预览和连拍并导出trace
+ * 设置系统属性camera.trace为文件路径时，把模拟相机的trace另外保存一份，方便在chrome://tracing中查看
+ */
+public class SpanTracerTest {
+    private static final CameraSize PREVIEW_SIZE = new CameraSize(640, 480);
+    private static final CameraSize PICTURE_SIZE = new CameraSize(1280, 720);
+
+    @Test
+    public void disabled_recordsNothing() throws IOException {
+        SpanTracer tracer = new SpanTracer(16);
+        tracer.record("A", 0, 1000, SpanTracer.NO_ID);
+        assertEquals(0, tracer.getRecordedCount());
+        assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[]}", toJson(tracer));
+    }
+
+    @Test
+    public void ring_keepsLatestRecords() throws IOException {
+        SpanTracer tracer = new SpanTracer(5);
+        assertEquals(8, tracer.getCapacity());
+        tracer.setEnabled(true);
+        for (int i = 0; i < 20; i++) {
+            tracer.record("SPAN", i * 1000000L, i * 1000000L + 1500, i);
+        }
+        String json = toJson(tracer);
+        assertEquals(20, tracer.getRecordedCount());
+        assertEquals(8, count(json, "\"ph\":\"X\""));
+        assertFalse(json.contains("\"id\":11}"));
+        assertTrue(json.contains("\"ts\":12000.000,\"dur\":1.500,\"args\":{\"id\":12}"));
+        assertTrue(json.contains("\"ts\":19000.000,\"dur\":1.500,\"args\":{\"id\":19}"));
+        //当前线程的名称只输出一次
+        assertEquals(1, count(json, "\"name\":\"thread_name\""));
+        assertTrue(json.contains("\"args\":{\"name\":\"" + Thread.currentThread().getName() + "\"}"));
+
+        tracer.clear();
+        assertEquals(0, count(toJson(tracer), "\"ph\":\"X\""));
+    }
+
+    @Test
+    public void mark_writesInstantEvent() throws IOException {
+        SpanTracer tracer = new SpanTracer(4);
+        tracer.setEnabled(true);
+        tracer.mark("TAP", SpanTracer.NO_ID);
+        String json = toJson(tracer);
+        assertTrue(json.contains("\"name\":\"TAP\""));
+        assertTrue(json.contains("\"ph\":\"i\",\"s\":\"t\""));
+        assertFalse(json.contains("args\":{\"id\""));
+    }
+
+    @Test
+    public void toMicros_keepsThreeDecimals() {
+        assertEquals("0.000", SpanTracer.toMicros(0));
+        assertEquals("1.005", SpanTracer.toMicros(1005));
+        assertEquals("12.050", SpanTracer.toMicros(12050));
+        assertEquals("-3.100", SpanTracer.toMicros(-3100));
+    }
+
+    @Test
+    public void record_doesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+        SpanTracer tracer = new SpanTracer(1024);
+        tracer.setEnabled(true);
+        for (int i = 0; i < 100000; i++) {
+            tracer.recordSince("WARMUP", i, i);
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            tracer.recordSince("SPAN", i, i);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        //每个span哪怕只分配一个对象也会超过1.6MB
+        assertTrue("allocated " + allocated + " bytes", allocated < 100000);
+    }
+
+    @Test
+    public void fakeCamera_dumpsPreviewAndCaptureSpans() throws Exception {
+        final SpanTracer tracer = new SpanTracer(4096);
+        tracer.setEnabled(true);
+        final CameraMetrics metrics = new CameraMetrics();
+        metrics.setTracer(tracer);
+
+        ExecutorService cameraThread = Executors.newSingleThreadExecutor();
+        final FakeCameraBackend backend = new FakeCameraBackend(FakeCameraBackend.defaultCameras(), 60);
+        backend.open(0, cameraThread);
+        backend.configure(PREVIEW_SIZE, PICTURE_SIZE, 90);
+
+        //和CameraManager中的预览帧回调相同
+        final PreviewBufferPool pool = new PreviewBufferPool();
+        pool.configure(PREVIEW_SIZE.width, PREVIEW_SIZE.height);
+        final CountDownLatch frames = new CountDownLatch(10);
+        backend.setFrameCallback(new CameraBackend.FrameCallback() {
+            @Override
+            public void onPreviewFrame(byte[] data) {
+                long timestamp = System.nanoTime();
+                if (!pool.onFrameDelivered(data)) {
+                    return;
+                }
+                backend.addCallbackBuffer(data);
+                pool.onBufferQueued();
+                tracer.recordSince("PREVIEW_FRAME", timestamp, pool.getFrameCount());
+                frames.countDown();
+            }
+        });
+        for (int i = 0; i < pool.getBufferCount(); i++) {
+            backend.addCallbackBuffer(pool.getBuffer(i));
+            pool.onBufferQueued();
+        }
+        backend.startPreview();
+
+        final CapturePipeline pipeline = new CapturePipeline(2, 4);
+        pipeline.setTracer(tracer);
+        final CapturePipeline.Stage stage = new CapturePipeline.Stage() {
+            @Override
+            public File process(byte[] jpeg, int index) throws IOException {
+                long start = System.nanoTime();
+                jpeg = JpegTransformer.transform(jpeg, JpegTransformer.Transform.ROTATE_90);
+                metrics.recordSince(CameraMetrics.Timer.ROTATE, start, index);
+                return new File("shot" + index);
+            }
+        };
+        final CountDownLatch saved = new CountDownLatch(4);
+        final CapturePipeline.Listener listener = new CapturePipeline.Listener() {
+            @Override
+            public void onSaved(int index, File file, long latencyNanos) {
+                saved.countDown();
+            }
+
+            @Override
+            public void onFailed(int index, IOException e) {
+            }
+        };
+        for (int i = 0; i < 4; i++) {
+            final int index = i;
+            final long shutterNanos = System.nanoTime();
+            tracer.mark("TAP", index);
+            backend.takePicture(new CameraBackend.PictureCallback() {
+                @Override
+                public void onPictureTaken(byte[] data) {
+                    metrics.recordSince(CameraMetrics.Timer.SHUTTER, shutterNanos, index);
+                    try {
+                        pipeline.submit(data, index, shutterNanos, stage, listener);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue(frames.await(5, TimeUnit.SECONDS));
+        assertTrue(saved.await(5, TimeUnit.SECONDS));
+        //工作线程还在时导出，trace中能看到线程名称
+        String dump = System.getProperty("camera.trace");
+        File trace = dump != null ? new File(dump) : File.createTempFile("camera-trace", ".json");
+        String json;
+        try {
+            tracer.dump(trace);
+            json = new String(Files.readAllBytes(trace.toPath()), Charset.forName("UTF-8"));
+        } finally {
+            if (dump == null) {
+                trace.delete();
+            }
+        }
+        backend.stopPreview();
+        backend.close();
+        pipeline.shutdown();
+        cameraThread.shutdown();
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.endsWith("]}"));
+        assertTrue(count(json, "\"name\":\"PREVIEW_FRAME\"") >= 10);
+        for (String name : new String[]{"TAP", "SHUTTER", "QUEUE", "PROCESS", "ROTATE"}) {
+            assertTrue(name, count(json, "\"name\":\"" + name + "\"") == 4);
+        }
+        assertTrue(json.contains("\"args\":{\"name\":\"capture-worker-1\"}"));
+        //花括号和方括号成对出现
+        assertEquals(count(json, "{"), count(json, "}"));
+        assertEquals(count(json, "["), count(json, "]"));
+    }
+
+    private static String toJson(SpanTracer tracer) throws IOException {
+        StringWriter writer = new StringWriter();
+        tracer.writeJson(writer);
+        return writer.toString();
+    }
+
+    private static int count(String text, String pattern) {
+        Matcher matcher = Pattern.compile(Pattern.quote(pattern)).matcher(text);
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,104 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class YuvConverterTest {
+
+    private static byte[] solidFrame(int width, int height, int y, int u, int v) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int i = 0; i < width * height; i++) {
+            nv21[i] = (byte) y;
+        }
+        for (int i = width * height; i < nv21.length; i += 2) {
+            nv21[i] = (byte) v;
+            nv21[i + 1] = (byte) u;
+        }
+        return nv21;
+    }
+
+    @Test
+    public void nv21ToArgb_convertsPrimaryColors() throws Exception {
+        YuvConverter converter = new YuvConverter();
+        int[] out = new int[4 * 4];
+
+        converter.nv21ToArgb(solidFrame(4, 4, 235, 128, 128), 4, 4, out);
+        assertEquals(0xffffffff, out[0]);
+
+        converter.nv21ToArgb(solidFrame(4, 4, 16, 128, 128), 4, 4, out);
+        assertEquals(0xff000000, out[15]);
+
+        //BT.601 红色 (Y=81, U=90, V=240)
+        converter.nv21ToArgb(solidFrame(4, 4, 81, 90, 240), 4, 4, out);
+        int red = (out[5] >> 16) & 0xff;
+        int green = (out[5] >> 8) & 0xff;
+        int blue = out[5] & 0xff;
+        assertTrue(red > 250 && green < 5 && blue < 5);
+    }
+
+    @Test
+    public void nv21ToRgb565_matchesArgb() throws Exception {
+        YuvConverter converter = new YuvConverter();
+        byte[] nv21 = randomFrame(32, 16, 1);
+        int[] argb = new int[32 * 16];
+        short[] rgb565 = new short[32 * 16];
+        converter.nv21ToArgb(nv21, 32, 16, argb);
+        converter.nv21ToRgb565(nv21, 32, 16, rgb565);
+        for (int i = 0; i < argb.length; i++) {
+            int c = argb[i];
+            short expected = (short) ((((c >> 16) & 0xff) >> 3) << 11 | (((c >> 8) & 0xff) >> 2) << 5 | ((c & 0xff) >> 3));
+            assertEquals(expected, rgb565[i]);
+        }
+    }
+
+    @Test
+    public void multiThreaded_matchesSingleThreaded() throws Exception {
+        int width = 640;
+        int height = 482;
+        byte[] nv21 = randomFrame(width, height, 7);
+        int[] expected = new int[width * height];
+        new YuvConverter().nv21ToArgb(nv21, width, height, expected);
+
+        for (int threads = 2; threads <= 5; threads++) {
+            YuvConverter converter = new YuvConverter(threads);
+            int[] actual = new int[width * height];
+            converter.nv21ToArgb(nv21, width, height, actual);
+            converter.release();
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void directBuffer_matchesByteArray() throws Exception {
+        int width = 320;
+        int height = 240;
+        byte[] nv21 = randomFrame(width, height, 3);
+        int[] expected = new int[width * height];
+        new YuvConverter().nv21ToArgb(nv21, width, height, expected);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(nv21.length);
+        direct.put(nv21);
+        YuvConverter converter = new YuvConverter(3);
+        int[] actual = new int[width * height];
+        converter.nv21ToArgb(direct, width, height, actual);
+        converter.release();
+        assertArrayEquals(expected, actual);
+        //只使用绝对位置读取
+        assertEquals(nv21.length, direct.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void smallOutput_isRejected() throws Exception {
+        new YuvConverter().nv21ToArgb(new byte[6], 2, 2, new int[3]);
+    }
+
+    private static byte[] randomFrame(int width, int height, long seed) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(nv21);
+        return nv21;
+    }
+}
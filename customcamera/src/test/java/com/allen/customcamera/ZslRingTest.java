@@ -0,0 +1,146 @@
+package com.allen.customcamera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 零延迟拍照环形缓冲区
+ */
+public class ZslRingTest {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+
+    private static byte[] frame(int value) {
+        byte[] frame = new byte[PreviewBufferPool.getFrameSize(WIDTH, HEIGHT)];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) value;
+        }
+        return frame;
+    }
+
+    @Test
+    public void slotCount_limitedByBudget() {
+        int frameSize = PreviewBufferPool.getFrameSize(1920, 1080);
+        assertEquals(3, ZslRing.getSlotCount(1920, 1080, frameSize * 3 + 100, 8));
+        assertEquals(8, ZslRing.getSlotCount(1920, 1080, frameSize * 20L, 8));
+        assertEquals(0, ZslRing.getSlotCount(1920, 1080, frameSize - 1, 8));
+    }
+
+    @Test
+    public void acquireClosest_picksNearestTimestamp() {
+        ZslRing ring = new ZslRing(4, WIDTH, HEIGHT);
+        assertEquals(-1, ring.acquireClosest(100));
+        for (int i = 1; i <= 6; i++) {
+            ring.write(frame(i), i * 100);
+        }
+        //只保留最近的4帧：300、400、500、600
+        int slot = ring.acquireClosest(120);
+        assertEquals(300, ring.getTimestamp(slot));
+        assertEquals(3, ring.getBuffer(slot).get(0));
+        ring.release(slot);
+
+        slot = ring.acquireClosest(540);
+        assertEquals(500, ring.getTimestamp(slot));
+        assertEquals(5, ring.getBuffer(slot).get(ring.getBuffer(slot).capacity() - 1));
+        ring.release(slot);
+
+        assertEquals(2, ring.getTapCount());
+        assertEquals(180, ring.getMaxTapDeltaNanos());
+        assertEquals(110, ring.getAverageTapDeltaNanos());
+    }
+
+    @Test
+    public void pinnedSlot_isNotOverwritten() {
+        ZslRing ring = new ZslRing(2, WIDTH, HEIGHT);
+        ring.write(frame(1), 100);
+        ring.write(frame(2), 200);
+        int slot = ring.acquireClosest(100);
+        //被占用的槽位跳过，新帧一直写到另一个槽位
+        for (int i = 3; i < 10; i++) {
+            assertTrue(ring.write(frame(i), i * 100));
+        }
+        assertEquals(100, ring.getTimestamp(slot));
+        assertEquals(1, ring.getBuffer(slot).get(0));
+
+        //两个槽位都被占用时丢帧
+        int other = ring.acquireClosest(900);
+        assertFalse(ring.write(frame(10), 1000));
+        assertEquals(1, ring.getDroppedCount());
+        ring.release(other);
+        ring.release(slot);
+        assertTrue(ring.write(frame(11), 1100));
+    }
+
+    @Test
+    public void clear_keepsPinnedFrames() {
+        ZslRing ring = new ZslRing(3, WIDTH, HEIGHT);
+        ring.write(frame(1), 100);
+        ring.write(frame(2), 200);
+        int slot = ring.acquireClosest(200);
+        ring.clear();
+        assertEquals(200, ring.getTimestamp(slot));
+        ring.release(slot);
+        assertEquals(slot, ring.acquireClosest(0));
+    }
+
+    @Test
+    public void concurrentReaders_seeConsistentFrames() throws InterruptedException {
+        final ZslRing ring = new ZslRing(3, WIDTH, HEIGHT);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> error = new AtomicReference<>();
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (running.get()) {
+                        int slot = ring.acquireClosest(Long.MAX_VALUE / 2);
+                        if (slot < 0) {
+                            continue;
+                        }
+                        //每一帧的所有字节都等于时间戳的低8位，撕裂的帧会被发现
+                        ByteBuffer buffer = ring.getBuffer(slot);
+                        byte expected = (byte) ring.getTimestamp(slot);
+                        for (int i = 0; i < buffer.capacity(); i++) {
+                            if (buffer.get(i) != expected) {
+                                error.set("torn frame in slot " + slot);
+                            }
+                        }
+                        ring.release(slot);
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        for (int i = 1; i <= 20000; i++) {
+            ring.write(frame(i), i);
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(error.get());
+        assertEquals(20000, ring.getWrittenCount() + ring.getDroppedCount());
+    }
+
+    @Test
+    public void slots_areDirectAndReturnedToPool() {
+        DirectBufferPool pool = new DirectBufferPool(1024 * 1024);
+        ZslRing ring = new ZslRing(pool, 3, WIDTH, HEIGHT);
+        assertTrue(ring.getBuffer(0).isDirect());
+        assertEquals(3, pool.getOutstandingCount());
+        ring.write(frame(1), 100);
+        ring.recycle();
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(-1, ring.acquireClosest(100));
+        assertFalse(ring.write(frame(2), 200));
+        //新的环形缓冲区复用归还的槽位
+        new ZslRing(pool, 3, WIDTH, HEIGHT);
+        assertEquals(3, pool.getHitCount());
+    }
+}